@@ -0,0 +1,161 @@
+package ca.ubc.cpsc210.nextbus;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+
+/**
+ * Minimal harness for the JVM benchmarks in bench/.  An operation is run for a
+ * warm-up period, then timed over several fixed-length iterations.  Reports
+ * operations per second (median of iterations), input bytes processed per
+ * second and bytes allocated per operation.
+ *
+ * Allocation is read from com.sun.management.ThreadMXBean, so it is reported
+ * only on JVMs that support it (HotSpot does).  Warm-up and iteration times
+ * can be set with system properties bench.warmup and bench.iteration (ms) and
+ * the number of iterations with bench.iterations.
+ */
+public class Benchmark {
+	private static final long WARMUP_MS = Long.getLong("bench.warmup", 2000);
+	private static final long ITERATION_MS = Long.getLong("bench.iteration", 1000);
+	private static final int ITERATIONS = Integer.getInteger("bench.iterations", 5);
+
+	/**
+	 * Results of operations are folded into this so that they cannot be optimized away
+	 */
+	private static volatile int sink;
+
+	/**
+	 * Operation to be measured
+	 */
+	public static interface Operation {
+		/**
+		 * Run operation once
+		 * @return result of operation (may be null)
+		 * @throws Exception  if operation fails
+		 */
+		public Object run() throws Exception;
+	}
+
+	private Benchmark() {
+	}
+
+	/**
+	 * Measure an operation and print its results
+	 * @param name        name reported for operation
+	 * @param bytesPerOp  bytes of input processed by each run (0 if not meaningful)
+	 * @param op          the operation
+	 * @return results
+	 * @throws Exception  if operation fails
+	 */
+	public static Result measure(String name, long bytesPerOp, Operation op) throws Exception {
+		runFor(op, WARMUP_MS);
+
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		long tid = Thread.currentThread().getId();
+		double[] rates = new double[ITERATIONS];
+		long totalOps = 0;
+		long allocated = 0;
+
+		for (int i = 0; i < ITERATIONS; i++) {
+			long allocatedBefore = allocatedBytes(threads, tid);
+			long start = System.nanoTime();
+			long ops = runFor(op, ITERATION_MS);
+			long elapsed = System.nanoTime() - start;
+			allocated += allocatedBytes(threads, tid) - allocatedBefore;
+			totalOps += ops;
+			rates[i] = ops * 1e9 / elapsed;
+		}
+
+		Arrays.sort(rates);
+		double opsPerSecond = rates[ITERATIONS / 2];
+		Result result = new Result(name, opsPerSecond, opsPerSecond * bytesPerOp,
+				allocated < 0 ? -1 : allocated / totalOps);
+		System.out.println(result);
+		return result;
+	}
+
+	/**
+	 * Print the ratio of two results' throughput
+	 * @param result    result compared
+	 * @param baseline  result compared against
+	 */
+	public static void compare(Result result, Result baseline) {
+		System.out.println(String.format("%-40s %8.2fx ops/s of %s", result.getName(),
+				result.getOpsPerSecond() / baseline.getOpsPerSecond(), baseline.getName()));
+	}
+
+	/**
+	 * Print heading for results
+	 * @param title  title of benchmark
+	 */
+	public static void heading(String title) {
+		System.out.println();
+		System.out.println(title);
+		System.out.println(String.format("%-40s %14s %12s %14s", "operation", "ops/s", "MB/s", "alloc B/op"));
+	}
+
+	private static long runFor(Operation op, long millis) throws Exception {
+		long deadline = System.nanoTime() + millis * 1000000;
+		long ops = 0;
+		int hash = 0;
+
+		do {
+			Object result = op.run();
+			hash += (result == null) ? 0 : System.identityHashCode(result);
+			ops++;
+		} while (System.nanoTime() < deadline);
+
+		sink += hash;
+		return ops;
+	}
+
+	private static long allocatedBytes(ThreadMXBean threads, long tid) {
+		if (threads instanceof com.sun.management.ThreadMXBean)
+			return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(tid);
+		return -1;
+	}
+
+	/**
+	 * Results of measuring an operation
+	 */
+	public static class Result {
+		private String name;
+		private double opsPerSecond;
+		private double bytesPerSecond;
+		private long allocatedPerOp;
+
+		Result(String name, double opsPerSecond, double bytesPerSecond, long allocatedPerOp) {
+			this.name = name;
+			this.opsPerSecond = opsPerSecond;
+			this.bytesPerSecond = bytesPerSecond;
+			this.allocatedPerOp = allocatedPerOp;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public double getOpsPerSecond() {
+			return opsPerSecond;
+		}
+
+		public double getBytesPerSecond() {
+			return bytesPerSecond;
+		}
+
+		/**
+		 * Gets bytes allocated per operation
+		 * @return bytes allocated, or -1 if allocation cannot be measured
+		 */
+		public long getAllocatedPerOp() {
+			return allocatedPerOp;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%-40s %14.1f %12.2f %14d", name, opsPerSecond,
+					bytesPerSecond / (1024 * 1024), allocatedPerOp);
+		}
+	}
+}
@@ -0,0 +1,168 @@
+package ca.ubc.cpsc210.nextbus.gtfs;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Calendar;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import ca.ubc.cpsc210.nextbus.Benchmark;
+import ca.ubc.cpsc210.nextbus.Benchmark.Result;
+
+/**
+ * Imports a synthetic feed the size of Translink's (8000 stops, 1.8M stop
+ * times) and reports import time, heap used and store size, then the latency
+ * of the queries OfflineTranslinkService makes: a stop lookup and the next
+ * three hours of departures, three per route, from a stop.
+ *
+ * The importer is meant to fit in the heap of a small phone, so run with the
+ * heap capped, for example java -Xmx48m.  The feed is written to the temporary
+ * directory and deleted afterwards.  Run from the project root.
+ */
+public class GtfsBenchmark {
+	public static final int STOPS = 8000;
+	private static final int ROUTES = 200;
+	private static final int STOPS_PER_TRIP = 40;
+	private static final int STOP_TIMES = 1800000;
+	private static final int TRIPS = STOP_TIMES / STOPS_PER_TRIP;
+	public static final int FIRST_STOP_NUM = 50000;
+	private static final String[] SERVICES = { "WK", "SA", "SU" };
+	private static final TimeZone VANCOUVER = TimeZone.getTimeZone("America/Vancouver");
+	private static final long LOOKAHEAD = 3 * 60 * 60 * 1000;
+
+	public static void main(String[] args) throws Exception {
+		File feed = File.createTempFile("gtfs", ".zip");
+		File storeFile = File.createTempFile("schedule", ".gtf");
+
+		try {
+			long start = System.currentTimeMillis();
+			writeFeed(feed);
+			System.out.println(String.format("Feed: %d stops, %d trips, %d stop times, %.1f MB zipped (%d ms)",
+					STOPS, TRIPS, STOP_TIMES, feed.length() / (1024.0 * 1024), System.currentTimeMillis() - start));
+
+			Runtime runtime = Runtime.getRuntime();
+			System.gc();
+			long heapBefore = runtime.totalMemory() - runtime.freeMemory();
+			start = System.currentTimeMillis();
+			new GtfsImporter(feed).importTo(storeFile);
+			long importTime = System.currentTimeMillis() - start;
+			System.out.println(String.format("Import: %d ms, heap limit %.0f MB, store %.1f MB",
+					importTime, runtime.maxMemory() / (1024.0 * 1024), storeFile.length() / (1024.0 * 1024)));
+			System.gc();
+			System.out.println(String.format("Heap held after import: %.1f MB",
+					(runtime.totalMemory() - runtime.freeMemory() - heapBefore) / (1024.0 * 1024)));
+
+			measureQueries(GtfsStore.open(storeFile));
+		} finally {
+			feed.delete();
+			storeFile.delete();
+		}
+	}
+
+	private static void measureQueries(final GtfsStore store) throws Exception {
+		final int[] stopNums = new int[1024];
+		final long[] times = new long[stopNums.length];
+		Random random = new Random(42);
+		Calendar cal = Calendar.getInstance(VANCOUVER);
+		cal.clear();
+		cal.set(2017, Calendar.JULY, 10, 0, 0, 0);	// a Monday
+		long week = cal.getTimeInMillis();
+
+		for (int i = 0; i < stopNums.length; i++) {
+			stopNums[i] = FIRST_STOP_NUM + random.nextInt(STOPS);
+			times[i] = week + (long) random.nextInt(7 * 24 * 60) * 60 * 1000;
+		}
+
+		Benchmark.heading("GtfsStore queries on random stops and times");
+		report(Benchmark.measure("getBusStop", 0, new Benchmark.Operation() {
+			private int next;
+
+			@Override
+			public Object run() {
+				next = (next + 1) % stopNums.length;
+				return store.getBusStop(stopNums[next]);
+			}
+		}));
+		report(Benchmark.measure("getDepartures (3 h, 3 per route)", 0, new Benchmark.Operation() {
+			private int next;
+
+			@Override
+			public Object run() {
+				next = (next + 1) % stopNums.length;
+				return store.getDepartures(stopNums[next], times[next], times[next] + LOOKAHEAD, 3);
+			}
+		}));
+	}
+
+	private static void report(Result result) {
+		System.out.println(String.format("%-40s %11.2f us/query", result.getName(), 1e6 / result.getOpsPerSecond()));
+	}
+
+	/**
+	 * Write feed in which each route runs trips along its own run of stops, spread
+	 * over a service day from 05:00 to 25:30 and over three services.  Stops are
+	 * numbered from FIRST_STOP_NUM, and service runs through 2017.
+	 */
+	public static void writeFeed(File zip) throws IOException {
+		ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zip));
+		Writer writer = new OutputStreamWriter(out, "UTF-8");
+
+		try {
+			entry(out, writer, "routes.txt");
+			writer.write("route_id,route_short_name,route_long_name\n");
+			for (int r = 0; r < ROUTES; r++)
+				writer.write("R" + r + "," + (r + 1) + ",\"Route " + (r + 1) + ", via Main\"\n");
+
+			entry(out, writer, "calendar.txt");
+			writer.write("service_id,monday,tuesday,wednesday,thursday,friday,saturday,sunday,start_date,end_date\n");
+			writer.write("WK,1,1,1,1,1,0,0,20170101,20171231\n");
+			writer.write("SA,0,0,0,0,0,1,0,20170101,20171231\n");
+			writer.write("SU,0,0,0,0,0,0,1,20170101,20171231\n");
+
+			entry(out, writer, "calendar_dates.txt");
+			writer.write("service_id,date,exception_type\n");
+			writer.write("WK,20170703,2\nSU,20170703,1\nWK,20170807,2\nSU,20170807,1\n");
+
+			entry(out, writer, "trips.txt");
+			writer.write("route_id,service_id,trip_id,trip_headsign\n");
+			for (int t = 0; t < TRIPS; t++)
+				writer.write("R" + (t % ROUTES) + "," + SERVICES[t / ROUTES % SERVICES.length]
+						+ ",T" + t + ",To Terminus " + (t % ROUTES) + (t % 2 == 0 ? " North" : " South") + "\n");
+
+			entry(out, writer, "stops.txt");
+			writer.write("stop_id,stop_code,stop_name,stop_lat,stop_lon\n");
+			for (int s = 0; s < STOPS; s++)
+				writer.write("S" + s + "," + (FIRST_STOP_NUM + s) + ",\"Stop " + s + ", Bay " + (s % 9 + 1)
+						+ "\"," + (49.0 + s * 0.0001) + "," + (-123.3 + s * 0.0001) + "\n");
+
+			entry(out, writer, "stop_times.txt");
+			writer.write("trip_id,arrival_time,departure_time,stop_id,stop_sequence\n");
+			int tripsPerRoute = TRIPS / ROUTES;
+			for (int t = 0; t < TRIPS; t++) {
+				int route = t % ROUTES;
+				int first = (route * 97) % STOPS;
+				int departure = 5 * 3600 + (t / ROUTES) * (int) ((20.5 * 3600) / tripsPerRoute);
+				for (int k = 0; k < STOPS_PER_TRIP; k++) {
+					String time = time(departure + k * 90);
+					writer.write("T" + t + "," + time + "," + time + ",S" + ((first + k * 7) % STOPS) + "," + (k + 1) + "\n");
+				}
+			}
+		} finally {
+			writer.close();
+		}
+	}
+
+	private static void entry(ZipOutputStream out, Writer writer, String name) throws IOException {
+		writer.flush();
+		out.putNextEntry(new ZipEntry(name));
+	}
+
+	private static String time(int seconds) {
+		return String.format("%02d:%02d:%02d", seconds / 3600, seconds / 60 % 60, seconds % 60);
+	}
+}
@@ -0,0 +1,90 @@
+package ca.ubc.cpsc210.nextbus.model;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import org.xml.sax.ContentHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+
+import ca.ubc.cpsc210.nextbus.Benchmark;
+import ca.ubc.cpsc210.nextbus.Benchmark.Result;
+import ca.ubc.cpsc210.nextbus.Fixtures;
+import ca.ubc.cpsc210.nextbus.translink.BusStopParser;
+import ca.ubc.cpsc210.nextbus.translink.XMLReaderPool;
+
+/**
+ * Compares BusStop.getRouteNamed, which looks routes up in an index, with the
+ * linear scan of the stop's routes that it replaced, on a stop served by 60
+ * routes.  The parsers no longer call getRouteNamed (they match route names in
+ * their text buffer), so parser throughput is measured by ParserBenchmark.
+ * Run from the project root.
+ */
+public class RouteLookupBenchmark {
+	public static void main(String[] args) throws Exception {
+		BusStopParser stopParser = new BusStopParser();
+		parse(Fixtures.read("rtti/stop_60routes.xml"), stopParser);
+		final BusStop indexed = stopParser.getParsedStop();
+		final BusStop scanning = new ScanningBusStop(indexed);
+
+		final List<String> names = new ArrayList<String>();
+		for (BusRoute next : indexed.getRoutes())
+			names.add(new String(next.getName()));	// not the interned name, as when parsed
+		names.add("999");
+
+		Benchmark.heading("Route lookup on a stop served by " + indexed.getRoutes().size() + " routes");
+		Result index = Benchmark.measure("getRouteNamed (index), " + names.size() + " names", 0,
+				new Benchmark.Operation() {
+					@Override
+					public Object run() {
+						BusRoute found = null;
+						for (String next : names)
+							found = indexed.getRouteNamed(next);
+						return found;
+					}
+				});
+		Result scan = Benchmark.measure("getRouteNamed (scan), " + names.size() + " names", 0,
+				new Benchmark.Operation() {
+					@Override
+					public Object run() {
+						BusRoute found = null;
+						for (String next : names)
+							found = scanning.getRouteNamed(next);
+						return found;
+					}
+				});
+		Benchmark.compare(index, scan);
+	}
+
+	private static void parse(byte[] xml, ContentHandler handler) throws Exception {
+		XMLReaderPool pool = XMLReaderPool.getInstance();
+		XMLReader reader = pool.acquire();
+		reader.setContentHandler(handler);
+		reader.parse(new InputSource(new ByteArrayInputStream(xml)));
+		pool.release(reader);
+	}
+
+	/**
+	 * Stop that finds routes by name as BusStop did before it kept an index
+	 */
+	private static class ScanningBusStop extends BusStop {
+		private Set<BusRoute> routes;
+
+		ScanningBusStop(BusStop stop) {
+			super(stop.getStopNum(), stop.getLocationDesc(), stop.getLatLon().getLatitude(),
+					stop.getLatLon().getLongitude(), stop.getRoutes());
+			routes = getRoutes();
+		}
+
+		@Override
+		public BusRoute getRouteNamed(String routeName) {
+			for (BusRoute route : routes)
+				if (route.getName().equals(routeName))
+					return route;
+
+			return null;
+		}
+	}
+}
@@ -0,0 +1,59 @@
+package ca.ubc.cpsc210.nextbus.translink;
+
+import java.io.ByteArrayInputStream;
+
+import org.xml.sax.ContentHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+
+import ca.ubc.cpsc210.nextbus.Benchmark;
+import ca.ubc.cpsc210.nextbus.Benchmark.Result;
+import ca.ubc.cpsc210.nextbus.Fixtures;
+import ca.ubc.cpsc210.nextbus.model.BusRoute;
+
+/**
+ * Compares KMLParser, which decodes coordinates as SAX delivers them, with
+ * the earlier parser that split the collected coordinates text into Strings,
+ * on each KMZ fixture.  Run from the project root.
+ */
+public class KMLParserBenchmark {
+	private static final String[] FIXTURES = {
+		"kmz/route_small.kmz", "kmz/route_medium.kmz", "kmz/route_large.kmz"
+	};
+
+	public static void main(String[] args) throws Exception {
+		Benchmark.heading("KML parsing: streaming decoder vs. splitting");
+
+		for (String next : FIXTURES) {
+			final byte[] kml = Fixtures.readKML(next);
+
+			Result streaming = Benchmark.measure("KMLParser " + next, kml.length, new Benchmark.Operation() {
+				@Override
+				public Object run() throws Exception {
+					BusRoute route = new BusRoute("R");
+					parse(kml, new KMLParser(route));
+					return route;
+				}
+			});
+
+			Result splitting = Benchmark.measure("SplittingKMLParser " + next, kml.length, new Benchmark.Operation() {
+				@Override
+				public Object run() throws Exception {
+					BusRoute route = new BusRoute("R");
+					parse(kml, new SplittingKMLParser(route));
+					return route;
+				}
+			});
+
+			Benchmark.compare(streaming, splitting);
+		}
+	}
+
+	private static void parse(byte[] xml, ContentHandler handler) throws Exception {
+		XMLReaderPool pool = XMLReaderPool.getInstance();
+		XMLReader reader = pool.acquire();
+		reader.setContentHandler(handler);
+		reader.parse(new InputSource(new ByteArrayInputStream(xml)));
+		pool.release(reader);
+	}
+}
@@ -0,0 +1,118 @@
+package ca.ubc.cpsc210.nextbus.translink;
+
+import java.io.File;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Random;
+import java.util.TimeZone;
+
+import ca.ubc.cpsc210.exception.NoReplyException;
+import ca.ubc.cpsc210.exception.TranslinkException;
+import ca.ubc.cpsc210.nextbus.Benchmark;
+import ca.ubc.cpsc210.nextbus.Benchmark.Result;
+import ca.ubc.cpsc210.nextbus.gtfs.GtfsBenchmark;
+import ca.ubc.cpsc210.nextbus.model.BusRoute;
+import ca.ubc.cpsc210.nextbus.model.BusStop;
+import ca.ubc.cpsc210.nextbus.util.Clock;
+
+/**
+ * Latency of answering a request for wait times from the schedule when no
+ * reply is received from Translink: OfflineTranslinkService catches the
+ * NoReplyException, finds the next three hours of departures, three per route,
+ * and merges them into the stop.  This is what the user waits for when offline,
+ * so it should stay well under a millisecond.
+ *
+ * Uses the synthetic feed of GtfsBenchmark, at random stops and times in a week
+ * of its service.  The feed is written to the temporary directory and deleted
+ * afterwards.  Run from the project root.
+ */
+public class OfflineBenchmark {
+	private static final TimeZone VANCOUVER = TimeZone.getTimeZone("America/Vancouver");
+
+	public static void main(String[] args) throws Exception {
+		File feed = File.createTempFile("gtfs", ".zip");
+		File storeFile = File.createTempFile("schedule", ".gtf");
+		storeFile.delete();
+
+		try {
+			GtfsBenchmark.writeFeed(feed);
+
+			final BusStop[] stops = new BusStop[1024];
+			final long[] times = new long[stops.length];
+			Random random = new Random(42);
+			Calendar cal = Calendar.getInstance(VANCOUVER);
+			cal.clear();
+			cal.set(2017, Calendar.JULY, 10, 0, 0, 0);	// a Monday
+			long week = cal.getTimeInMillis();
+
+			for (int i = 0; i < stops.length; i++) {
+				stops[i] = new BusStop(GtfsBenchmark.FIRST_STOP_NUM + random.nextInt(GtfsBenchmark.STOPS),
+						"Stop", 49.0, -123.0, null);
+				times[i] = week + (long) random.nextInt(7 * 24 * 60) * 60 * 1000;
+			}
+
+			final int[] next = new int[1];
+			Clock clock = new Clock() {
+				@Override
+				public long now() {
+					return times[next[0]];
+				}
+			};
+			final OfflineTranslinkService service = new OfflineTranslinkService(new NoReply(), feed, storeFile, clock);
+			service.prepare();
+
+			Benchmark.heading("OfflineTranslinkService on random stops and times, no reply from Translink");
+			Result result = Benchmark.measure("addWaitTimeEstimatesToStop", 0, new Benchmark.Operation() {
+				@Override
+				public Object run() {
+					next[0] = (next[0] + 1) % stops.length;
+					BusStop stop = stops[next[0]];
+					try {
+						service.addWaitTimeEstimatesToStop(stop);
+					} catch (TranslinkException e) {
+						// nothing scheduled at stop soon: stop is left as it was
+					}
+					return stop.getWaitTimes();
+				}
+			});
+			System.out.println(String.format("%-40s %11.2f us/request", result.getName(),
+					1e6 / result.getOpsPerSecond()));
+		} finally {
+			feed.delete();
+			storeFile.delete();
+		}
+	}
+
+	/**
+	 * Stands in for Translink when there is no network: fails every request
+	 */
+	private static class NoReply implements ITranslinkService {
+		private final NoReplyException failure = new NoReplyException("No network", null);
+
+		@Override
+		public void addWaitTimeEstimatesToStop(BusStop stop) throws TranslinkException {
+			throw failure;
+		}
+
+		@Override
+		public Map<BusStop, TranslinkException> addWaitTimeEstimatesToStops(Collection<BusStop> stops) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void addBusLocationsForStop(BusStop stop) throws TranslinkException {
+			throw failure;
+		}
+
+		@Override
+		public BusStop getBusStop(String stopNum) throws TranslinkException {
+			throw failure;
+		}
+
+		@Override
+		public void parseKMZ(BusRoute route) throws TranslinkException {
+			throw failure;
+		}
+	}
+}
@@ -0,0 +1,101 @@
+package ca.ubc.cpsc210.nextbus.translink;
+
+import java.io.ByteArrayInputStream;
+
+import org.xml.sax.ContentHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+
+import ca.ubc.cpsc210.nextbus.Benchmark;
+import ca.ubc.cpsc210.nextbus.Fixtures;
+import ca.ubc.cpsc210.nextbus.model.BusRoute;
+import ca.ubc.cpsc210.nextbus.model.BusStop;
+
+/**
+ * Throughput of each of the four parsers over every fixture it reads: wait
+ * times, bus locations, stop descriptions and route maps.  Each operation is
+ * one parse of the whole fixture with a new parser, as when a response is
+ * received, so bytes per second is of the response (uncompressed KML for route
+ * maps).  Run from the project root.
+ */
+public class ParserBenchmark {
+	private static final String[] ESTIMATES = {
+		"rtti/estimates_1route.xml", "rtti/estimates_6routes.xml", "rtti/estimates_30routes.xml"
+	};
+	private static final String[] BUSES = {
+		"rtti/buses_3.xml", "rtti/buses_20.xml", "rtti/buses_150.xml"
+	};
+	private static final String[] STOPS = {
+		"rtti/stop_2routes.xml", "rtti/stop_60routes.xml"
+	};
+	private static final String[] ROUTES = {
+		"kmz/route_small.kmz", "kmz/route_medium.kmz", "kmz/route_large.kmz"
+	};
+
+	public static void main(String[] args) throws Exception {
+		// stop serving every route in the estimates fixtures
+		BusStopParser stopParser = new BusStopParser();
+		parse(Fixtures.read("rtti/stop_60routes.xml"), stopParser);
+		final BusStop stop = stopParser.getParsedStop();
+
+		Benchmark.heading("BusWaitTimeParser");
+		for (String next : ESTIMATES) {
+			final byte[] xml = Fixtures.read(next);
+			Benchmark.measure(next, xml.length, new Benchmark.Operation() {
+				@Override
+				public Object run() throws Exception {
+					BusWaitTimeParser parser = new BusWaitTimeParser(stop);
+					parse(xml, parser);
+					return parser.getWaitTimes();
+				}
+			});
+		}
+
+		Benchmark.heading("BusLocationParser");
+		for (String next : BUSES) {
+			final byte[] xml = Fixtures.read(next);
+			Benchmark.measure(next, xml.length, new Benchmark.Operation() {
+				@Override
+				public Object run() throws Exception {
+					BusLocationParser parser = new BusLocationParser(stop);
+					parse(xml, parser);
+					return parser.getBusLocations();
+				}
+			});
+		}
+
+		Benchmark.heading("BusStopParser");
+		for (String next : STOPS) {
+			final byte[] xml = Fixtures.read(next);
+			Benchmark.measure(next, xml.length, new Benchmark.Operation() {
+				@Override
+				public Object run() throws Exception {
+					BusStopParser parser = new BusStopParser();
+					parse(xml, parser);
+					return parser.getParsedStop();
+				}
+			});
+		}
+
+		Benchmark.heading("KMLParser");
+		for (String next : ROUTES) {
+			final byte[] kml = Fixtures.readKML(next);
+			Benchmark.measure(next, kml.length, new Benchmark.Operation() {
+				@Override
+				public Object run() throws Exception {
+					BusRoute route = new BusRoute("R");
+					parse(kml, new KMLParser(route));
+					return route;
+				}
+			});
+		}
+	}
+
+	private static void parse(byte[] xml, ContentHandler handler) throws Exception {
+		XMLReaderPool pool = XMLReaderPool.getInstance();
+		XMLReader reader = pool.acquire();
+		reader.setContentHandler(handler);
+		reader.parse(new InputSource(new ByteArrayInputStream(xml)));
+		pool.release(reader);
+	}
+}
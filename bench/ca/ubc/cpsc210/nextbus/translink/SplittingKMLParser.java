@@ -0,0 +1,120 @@
+package ca.ubc.cpsc210.nextbus.translink;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import ca.ubc.cpsc210.nextbus.model.BusRoute;
+import ca.ubc.cpsc210.nextbus.util.LatLon;
+import ca.ubc.cpsc210.nextbus.util.Segment;
+
+/**
+ * KMLParser as it was before coordinates were decoded as they stream in:
+ * the whole coordinates text is collected, split on spaces and then on
+ * commas, and each point built from a pair of Strings.  Kept as the
+ * baseline for KMLParserBenchmark.
+ */
+class SplittingKMLParser extends DefaultHandler {
+	private static final int UNKNOWN = 0;
+	private static final int NORTH = 1;
+	private static final int SOUTH = 2;
+	private static final int EAST = 3;
+	private static final int WEST = 4;
+	private static final int COORDINATES = 5;
+	private static final Map<String, Integer> TAGS = new HashMap<String, Integer>();
+	
+	static {
+		TAGS.put("north", NORTH);
+		TAGS.put("south", SOUTH);
+		TAGS.put("east", EAST);
+		TAGS.put("west", WEST);
+		TAGS.put("coordinates", COORDINATES);
+	}
+	
+	private ElementText text;
+	private BusRoute route;
+	private double north;
+	private double south;
+	private double east;
+	private double west;
+	private int boundsParsed;
+	
+	/**
+	 * Constructor
+	 * @param route  the route to which parsed route segments are to be added
+	 */
+	SplittingKMLParser(BusRoute route) {
+		this.route = route;
+		text = new ElementText();
+	}
+
+	@Override
+	public void endDocument() throws SAXException {
+		if (boundsParsed < 4)
+			throw new SAXException("Route bounds missing");
+		
+		route.setBounds(north, south, east, west);
+	}
+
+	@Override
+	public void startElement(String uri, String localName, String qName,
+			Attributes attributes) throws SAXException {
+		text.reset();
+	}
+
+	@Override
+	public void endElement(String uri, String localName, String qName)
+			throws SAXException {
+		Integer tag = TAGS.get(qName);
+		
+		switch (tag == null ? UNKNOWN : tag) {
+		case NORTH:
+			north = text.toDouble();
+			boundsParsed++;
+			break;
+		case SOUTH:
+			south = text.toDouble();
+			boundsParsed++;
+			break;
+		case EAST:
+			east = text.toDouble();
+			boundsParsed++;
+			break;
+		case WEST:
+			west = text.toDouble();
+			boundsParsed++;
+			break;
+		case COORDINATES:
+			route.addSegment(parseSegment(text.toString()));
+			break;
+		}
+	}
+
+	@Override
+	public void characters(char[] ch, int start, int length)
+			throws SAXException {
+		text.append(ch, start, length);
+	}
+
+	/**
+	 * Parses a single segment of the bus route
+	 * @param coordinates  the coordinates of points on this segment
+	 * @return the parsed segment
+	 */
+	private Segment parseSegment(String coordinates) {
+		Segment seg = new Segment();
+		String[] coords = coordinates.split(" ");
+
+		for (String c : coords) {
+			String[] llh = c.split(",");
+			LatLon pt = new LatLon(llh[1], llh[0]);
+			seg.addPoint(pt);
+		}
+
+		return seg;
+	}
+	
+}
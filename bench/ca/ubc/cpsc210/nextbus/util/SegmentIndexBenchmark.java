@@ -0,0 +1,80 @@
+package ca.ubc.cpsc210.nextbus.util;
+
+import java.util.List;
+import java.util.Random;
+
+import ca.ubc.cpsc210.nextbus.Benchmark;
+import ca.ubc.cpsc210.nextbus.Benchmark.Result;
+import ca.ubc.cpsc210.nextbus.Fixtures;
+import ca.ubc.cpsc210.nextbus.model.PositionEstimator;
+
+/**
+ * Measures building a SegmentIndex for the largest route fixture, then map
+ * matching with it (nearest point and the point some way further along, as
+ * PositionEstimator does) against a search of every edge.  Queries lie
+ * within 80 m of the route, as bus fixes do.  Run from the project root.
+ */
+public class SegmentIndexBenchmark {
+	private static final int QUERIES = 1024;
+	private static final double LOOK_AHEAD = 100;
+
+	public static void main(String[] args) throws Exception {
+		final List<Segment> segments = Fixtures.readRoute("kmz/route_large.kmz", "R4").getSegments();
+		int points = 0;
+		for (Segment next : segments)
+			points += next.size();
+
+		Benchmark.heading("SegmentIndex on kmz/route_large.kmz: " + segments.size() + " segments, "
+				+ points + " points");
+		Benchmark.measure("build", 0, new Benchmark.Operation() {
+			@Override
+			public Object run() {
+				return new SegmentIndex(segments);
+			}
+		});
+
+		final SegmentIndex index = new SegmentIndex(segments);
+		final BruteForceMatcher bruteForce = new BruteForceMatcher(segments);
+		final double[][] queries = queries(segments, new Random(18));
+
+		Result indexed = Benchmark.measure("nearest + pointAt (index)", 0, new Benchmark.Operation() {
+			private int next;
+
+			@Override
+			public Object run() {
+				double[] query = queries[next++ % QUERIES];
+				SegmentIndex.Match match = index.nearest(query[0], query[1], PositionEstimator.MAX_SNAP_DISTANCE);
+				return (match == null) ? null
+						: index.pointAt(match.getSegment(), match.getDistanceAlong() + LOOK_AHEAD);
+			}
+		});
+		Result scanned = Benchmark.measure("nearest (every edge)", 0, new Benchmark.Operation() {
+			private int next;
+
+			@Override
+			public Object run() {
+				double[] query = queries[next++ % QUERIES];
+				return bruteForce.nearestDistance(query[0], query[1], PositionEstimator.MAX_SNAP_DISTANCE);
+			}
+		});
+		Benchmark.compare(indexed, scanned);
+	}
+
+	/**
+	 * Produces locations within 80 m of random points of the route
+	 */
+	private static double[][] queries(List<Segment> segments, Random random) {
+		double[][] queries = new double[QUERIES][];
+
+		for (int q = 0; q < QUERIES; q++) {
+			Segment seg = segments.get(random.nextInt(segments.size()));
+			int i = random.nextInt(seg.size());
+			double metresPerDegreeLon = GeoMath.METRES_PER_DEGREE * Math.cos(Math.toRadians(seg.getLatitude(i)));
+			queries[q] = new double[] {
+					seg.getLatitude(i) + (random.nextDouble() * 2 - 1) * 80 / GeoMath.METRES_PER_DEGREE,
+					seg.getLongitude(i) + (random.nextDouble() * 2 - 1) * 80 / metresPerDegreeLon };
+		}
+
+		return queries;
+	}
+}
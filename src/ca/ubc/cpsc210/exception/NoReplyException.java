@@ -0,0 +1,22 @@
+package ca.ubc.cpsc210.exception;
+
+@SuppressWarnings("serial")
+/**
+ * Represents exception raised when no reply is received from Translink
+ * service: the device has no network connection, or the request could not be
+ * sent or its response read.  Unlike other TranslinkExceptions, it says nothing
+ * about the data requested, so another source (such as the published schedule)
+ * may be used in its place.
+ */
+public class NoReplyException extends TranslinkException {
+
+	/**
+	 * Constructor
+	 *
+	 * @param message   message describing the error
+	 * @param cause   the exception that caused this one (may be null)
+	 */
+	public NoReplyException(String message, Throwable cause) {
+		super(-1, message, cause);
+	}
+}
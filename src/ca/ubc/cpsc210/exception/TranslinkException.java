@@ -22,6 +22,18 @@ public class TranslinkException extends Exception {
 		super(message);
 		this.code = code;
 	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param code   the error code (-1 if exception is not related to a specific Translink error)
+	 * @param message   message describing the error
+	 * @param cause   the exception that caused this one
+	 */
+	public TranslinkException(int code, String message, Throwable cause) {
+		super(message, cause);
+		this.code = code;
+	}
 	
 	public int getCode() {
 		return code;
@@ -5,6 +5,9 @@ import java.util.*;
 import org.osmdroid.DefaultResourceProxyImpl;
 import org.osmdroid.ResourceProxy;
 import org.osmdroid.api.IMapController;
+import org.osmdroid.events.MapListener;
+import org.osmdroid.events.ScrollEvent;
+import org.osmdroid.events.ZoomEvent;
 import org.osmdroid.tileprovider.tilesource.TileSourceFactory;
 import org.osmdroid.util.GeoPoint;
 import org.osmdroid.views.MapView;
@@ -35,8 +38,17 @@ import ca.ubc.cpsc210.exception.TranslinkException;
 import ca.ubc.cpsc210.nextbus.model.BusLocation;
 import ca.ubc.cpsc210.nextbus.model.BusRoute;
 import ca.ubc.cpsc210.nextbus.model.BusStop;
+import ca.ubc.cpsc210.nextbus.model.BusStopListener;
+import ca.ubc.cpsc210.nextbus.model.BusWaitTime;
+import ca.ubc.cpsc210.nextbus.model.ChangeSet;
+import ca.ubc.cpsc210.nextbus.model.EtaEstimator;
+import ca.ubc.cpsc210.nextbus.model.PositionEstimator;
+import ca.ubc.cpsc210.nextbus.model.VehicleHistory;
+import ca.ubc.cpsc210.nextbus.model.VehicleTracker;
 import ca.ubc.cpsc210.nextbus.translink.ITranslinkService;
-import ca.ubc.cpsc210.nextbus.translink.TranslinkService;
+import ca.ubc.cpsc210.nextbus.translink.RefreshLoop;
+import ca.ubc.cpsc210.nextbus.translink.RefreshScheduler.Kind;
+import ca.ubc.cpsc210.nextbus.translink.TranslinkServiceFactory;
 import ca.ubc.cpsc210.nextbus.util.LatLon;
 import ca.ubc.cpsc210.nextbus.util.Segment;
 import ca.ubc.cpsc210.nextbus.util.TextOverlay;
@@ -62,6 +74,11 @@ public class MapDisplayFragment extends Fragment {
 	 * in dimensions of latitude * 1E6 (or lon * 1E6)
 	 */
 	private final static int BORDER = 500;
+	
+	/**
+	 * Interval (ms) at which buses are moved to their estimated positions between polls
+	 */
+	private final static long ESTIMATE_INTERVAL = 2000;
 
 	/**
 	 * Overlay for POI markers.
@@ -83,6 +100,13 @@ public class MapDisplayFragment extends Fragment {
 	 */
 	private List<PathOverlay> routeOverlays;
 	
+	/**
+	 * Route currently plotted (null if none) and zoom level for which its 
+	 * segments were chosen
+	 */
+	private BusRoute plottedRoute;
+	private int plottedZoomLevel;
+	
 	/**
 	 * View that shows the map
 	 */
@@ -97,6 +121,11 @@ public class MapDisplayFragment extends Fragment {
 	 * Wraps Translink web service
 	 */
 	private ITranslinkService tlService;
+	
+	/**
+	 * Polls bus locations at selected stop while fragment is resumed
+	 */
+	private RefreshLoop refreshLoop;
 
 	/**
 	 * Map controller for zooming in/out, centering
@@ -117,6 +146,32 @@ public class MapDisplayFragment extends Fragment {
 	 * Vehicle ID of the selected bus
 	 */
 	private int selectedBusID;
+	
+	/**
+	 * Markers of plotted buses keyed by vehicle ID, and plotted bus for each marker
+	 */
+	private Map<Integer, OverlayItem> busMarkers;
+	private Map<OverlayItem, BusLocation> busesByMarker;
+	
+	/**
+	 * Stop whose buses are plotted (null if buses must be plotted afresh)
+	 */
+	private BusStop plottedStop;
+	
+	/**
+	 * Applies changes to bus locations at selected stop to plotted buses
+	 */
+	private BusStopListener stopListener;
+	
+	/**
+	 * True if and only if stopListener is registered with selected stop
+	 */
+	private boolean listening;
+	
+	/**
+	 * Periodically moves buses to their estimated positions while fragment is resumed
+	 */
+	private Runnable estimateUpdater;
 
 	/**
 	 * Set up Translink service and location listener
@@ -128,8 +183,13 @@ public class MapDisplayFragment extends Fragment {
 
 		setHasOptionsMenu(true);
 
-		tlService = new TranslinkService(getActivity());
+		tlService = TranslinkServiceFactory.getInstance(getActivity());
+		refreshLoop = RefreshLoop.getInstance(getActivity());
 		routeOverlays = new ArrayList<PathOverlay>();
+		busMarkers = new HashMap<Integer, OverlayItem>();
+		busesByMarker = new HashMap<OverlayItem, BusLocation>();
+		stopListener = createStopListener();
+		estimateUpdater = createEstimateUpdater();
 
 		Log.d(LOG_TAG, "Stop number for mapping: " + (selectedStop == null ? "not set" : selectedStop.getStopNum()));
 	}
@@ -155,6 +215,8 @@ public class MapDisplayFragment extends Fragment {
 			mapController.setZoom(mapView.getMaxZoomLevel() - 4);
 			mapController.setCenter(NELSON_GRANVILLE);
 			
+			mapView.setMapListener(createZoomListener());
+			
 			busLocnOverlay = createBusLocnOverlay();
 			busStopLocationOverlay = createBusStopLocnOverlay();
 			legendOverlay = createTextOverlay();
@@ -207,14 +269,40 @@ public class MapDisplayFragment extends Fragment {
 	}
 
 	/**
-	 * Update map when app resumes.
+	 * Update map when app resumes.  Changes to buses were not followed while
+	 * paused, so buses are plotted afresh.  Bus locations are then polled
+	 * while the fragment is resumed.
 	 */
 	@Override
 	public void onResume() {
 		super.onResume();
 		Log.d(LOG_TAG, "onResume");
 
+		listening = true;
+		if (selectedStop != null) {
+			selectedStop.addListener(stopListener);
+			refreshLoop.watch(selectedStop, Kind.BUS_LOCATIONS, true);
+		}
+		plottedStop = null;
 		update(true);
+		mapView.postDelayed(estimateUpdater, ESTIMATE_INTERVAL);
+	}
+
+	/**
+	 * Stop following changes to buses while paused.
+	 */
+	@Override
+	public void onPause() {
+		Log.d(LOG_TAG, "onPause");
+
+		listening = false;
+		if (selectedStop != null) {
+			selectedStop.removeListener(stopListener);
+			refreshLoop.unwatch(selectedStop, Kind.BUS_LOCATIONS);
+		}
+		mapView.removeCallbacks(estimateUpdater);
+
+		super.onPause();
 	}
 
 	/**
@@ -222,7 +310,17 @@ public class MapDisplayFragment extends Fragment {
 	 * @param selectedStop  the selected stop
 	 */
 	public void setBusStop(BusStop selectedStop) {
+		if (listening && this.selectedStop != null) {
+			this.selectedStop.removeListener(stopListener);
+			refreshLoop.unwatch(this.selectedStop, Kind.BUS_LOCATIONS);
+		}
+		
 		this.selectedStop = selectedStop;
+		
+		if (listening && selectedStop != null) {
+			selectedStop.addListener(stopListener);
+			refreshLoop.watch(selectedStop, Kind.BUS_LOCATIONS, true);
+		}
 	}
 
 	/**
@@ -237,13 +335,127 @@ public class MapDisplayFragment extends Fragment {
 		this.zoomToFit = zoomToFit;
 
 		if(selectedStop != null) {
-			selectedBus = null;
 			new GetBusInfo().execute(selectedStop);
 		}
 
 		mapView.invalidate();
 	}
 
+	/**
+	 * Create listener that re-plots the displayed route when a zoom 
+	 * change calls for a different level of detail.
+	 */
+	private MapListener createZoomListener() {
+		return new MapListener() {
+			@Override
+			public boolean onZoom(ZoomEvent event) {
+				if (plottedRoute != null 
+						&& levelOfDetail(event.getZoomLevel()) != levelOfDetail(plottedZoomLevel))
+					plotBusRoute(plottedRoute);
+				return false;
+			}
+
+			@Override
+			public boolean onScroll(ScrollEvent event) {
+				return false;
+			}
+		};
+	}
+	
+	/**
+	 * Produces the zoom level whose level of detail is used to draw routes 
+	 * at the given zoom level
+	 * @param zoomLevel  the map zoom level
+	 * @return zoom level clamped to range for which levels of detail are built
+	 */
+	private static int levelOfDetail(int zoomLevel) {
+		return Math.max(BusRoute.MIN_DETAIL_ZOOM, Math.min(BusRoute.MAX_DETAIL_ZOOM + 1, zoomLevel));
+	}
+
+	/**
+	 * Create listener that applies changes to bus locations at the plotted stop
+	 * to bus markers on the UI thread, so only buses that changed are redrawn.
+	 */
+	private BusStopListener createStopListener() {
+		return new BusStopListener() {
+			@Override
+			public void waitTimesChanged(BusStop stop, ChangeSet<BusWaitTime> changes) {
+				// wait times are not shown on map
+			}
+
+			@Override
+			public void busLocationsChanged(final BusStop stop, final ChangeSet<BusLocation> changes) {
+				mapView.post(new Runnable() {
+					@Override
+					public void run() {
+						if (stop == plottedStop)
+							applyBusChanges(changes);
+					}
+				});
+			}
+		};
+	}
+
+	/**
+	 * Create task that moves buses to their estimated positions and then
+	 * schedules itself to run again
+	 */
+	private Runnable createEstimateUpdater() {
+		return new Runnable() {
+			@Override
+			public void run() {
+				moveBusesToEstimates();
+				mapView.postDelayed(this, ESTIMATE_INTERVAL);
+			}
+		};
+	}
+	
+	/**
+	 * Move each plotted bus whose route geometry is available to where it is 
+	 * estimated to be now, so that buses keep moving between polls.  Only the
+	 * markers' positions change: descriptions (and arrival estimates) are
+	 * updated when buses are polled.
+	 */
+	private void moveBusesToEstimates() {
+		if (plottedStop == null)
+			return;
+		
+		long now = System.currentTimeMillis();
+		VehicleTracker tracker = VehicleTracker.getInstance();
+		boolean moved = false;
+		
+		for (Map.Entry<OverlayItem, BusLocation> next : busesByMarker.entrySet()) {
+			BusLocation bus = next.getValue();
+			VehicleHistory history = tracker.getHistory(bus.getID());
+			if (history == null || !bus.getRoute().hasSegments())
+				continue;
+			
+			LatLon estimate = PositionEstimator.estimate(bus.getRoute(), history, now);
+			if (estimate != null)
+				moved |= moveMarker(next.getKey(), estimate);
+		}
+		
+		if (moved)
+			mapView.postInvalidate();
+	}
+	
+	/**
+	 * Move a marker without replacing it.  Each marker is created with a GeoPoint
+	 * of its own, which the overlay reads every time it is drawn.
+	 * @return true if marker moved, false if it was already at given position
+	 */
+	private static boolean moveMarker(OverlayItem marker, LatLon latlon) {
+		GeoPoint point = (GeoPoint) marker.getPoint();
+		int latE6 = (int) Math.round(latlon.getLatitude() * 1E6);
+		int lonE6 = (int) Math.round(latlon.getLongitude() * 1E6);
+		
+		if (point.getLatitudeE6() == latE6 && point.getLongitudeE6() == lonE6)
+			return false;
+		
+		point.setCoordsE6(latE6, lonE6);
+		return true;
+	}
+
 	/**
 	 * Create the overlay for bus markers.
 	 */
@@ -267,18 +479,20 @@ public class MapDisplayFragment extends Fragment {
 								getResources().getDrawable(R.drawable.bus));
 					}
 					mapView.getOverlays().removeAll(routeOverlays);
+					plottedRoute = null;
 					selectedBus = null;
 					selectedBusID = 0;
 				}
 				else {
+					BusLocation bus = busesByMarker.get(oi);
 					selectedBus = oi;
-					selectedBusID = selectedStop.getBusLocations().get(index).getID();
+					selectedBusID = bus.getID();
 					for (int i = 0; i < busLocnOverlay.size(); i++) {
 						busLocnOverlay.getItem(i).setMarker(
 								getResources().getDrawable(R.drawable.bus));
 					}
 					oi.setMarker(getResources().getDrawable(R.drawable.selected_bus));
-					retrieveBusRoute(selectedStop.getBusLocations().get(index));
+					retrieveBusRoute(bus);
 					
 					AlertDialog dlg = createSimpleDialog(oi.getTitle(), oi.getSnippet());
 					dlg.show();
@@ -378,22 +592,65 @@ public class MapDisplayFragment extends Fragment {
 	}
 
 	/**
-	 * Plot buses onto bus location overlay
+	 * Plot buses onto bus location overlay, replacing any buses already plotted
 	 * 
 	 * @param zoomToFit  determines if map should be zoomed to bounds of plotted buses
 	 */
 	private void plotBuses(boolean zoomToFit) {
-		
-		LatLon stopLatLon = selectedStop.getLatLon();
-		double stopLat = stopLatLon.getLatitude();
-		double stopLon = stopLatLon.getLongitude();
-
 		// clear existing buses from overlay
 		busLocnOverlay.removeAllItems();
+		busMarkers.clear();
+		busesByMarker.clear();
+		selectedBus = null;
 		
 		// remove route overlays as there is now no bus selected
 		OverlayManager om = mapView.getOverlayManager();
 		om.removeAll(routeOverlays);
+		plottedRoute = null;
+		
+		for (BusLocation next : selectedStop.getBusLocations()) {
+			plotBus(busLocnOverlay, next);
+		}
+		plottedStop = selectedStop;
+		
+		centreOnBuses(zoomToFit);
+	}
+	
+	/**
+	 * Apply changes to bus locations to plotted buses.  Markers of buses that
+	 * have not changed are left alone.
+	 * 
+	 * @param changes  the changes to apply
+	 */
+	private void applyBusChanges(ChangeSet<BusLocation> changes) {
+		for (BusLocation next : changes.getRemoved()) {
+			removeBus(next.getID());
+			if (next.getID() == selectedBusID) {
+				plotBusRoute(null);
+				selectedBusID = 0;
+			}
+		}
+		
+		for (BusLocation next : changes.getAdded())
+			plotBus(busLocnOverlay, next);
+		for (BusLocation next : changes.getMoved())
+			plotBus(busLocnOverlay, next);
+		for (BusLocation next : changes.getUpdated())
+			plotBus(busLocnOverlay, next);
+		
+		Log.d(LOG_TAG, "Applied bus changes - " + changes);
+		mapView.postInvalidate();
+	}
+	
+	/**
+	 * Centre map on buses and selected stop, or on stop alone if there are no buses
+	 * 
+	 * @param zoomToFit  determines if map should be zoomed to bounds of plotted buses
+	 */
+	private void centreOnBuses(boolean zoomToFit) {
+		LatLon stopLatLon = selectedStop.getLatLon();
+		double stopLat = stopLatLon.getLatitude();
+		double stopLon = stopLatLon.getLongitude();
 		
 		List<BusLocation> busLocations = selectedStop.getBusLocations();
 		
@@ -402,9 +659,6 @@ public class MapDisplayFragment extends Fragment {
 		
 		if (busLocations.size() > 0) {
 			for (BusLocation next : busLocations) {
-				//plot bus on map
-				plotBus(busLocnOverlay, next);
-				
 				// get lat/lon of current bus in question
 				double currentLat = next.getLatLon().getLatitude();
 				double currentLon = next.getLatLon().getLongitude();
@@ -437,17 +691,20 @@ public class MapDisplayFragment extends Fragment {
 	}
 
 	/**
-	 * Plot a bus on the specified overlay.
+	 * Plot a bus on the specified overlay, replacing its marker if it is already plotted.
 	 */
 	private void plotBus(ItemizedIconOverlay<OverlayItem> overlay,
 			BusLocation bl) {
+		removeBus(bl.getID());
+		
 		LatLon latlon = bl.getLatLon();
 		GeoPoint point = new GeoPoint(latlon.getLatitude(), latlon.getLongitude());
 		OverlayItem overlayItem = new OverlayItem(bl.getRoute().toString(),
-				bl.getDescription(), point);
+				bl.getDescription() + describeArrival(bl), point);
 		
 		if (bl.getID() == selectedBusID) {
 			overlayItem.setMarker(getResources().getDrawable(R.drawable.selected_bus));
+			selectedBus = overlayItem;
 		}
 		else {
 			overlayItem.setMarker(getResources().getDrawable(R.drawable.bus));
@@ -456,6 +713,42 @@ public class MapDisplayFragment extends Fragment {
 		
 		overlayItem.setMarkerHotspot(HotspotPlace.CENTER);
 		overlay.addItem(overlayItem);
+		busMarkers.put(bl.getID(), overlayItem);
+		busesByMarker.put(overlayItem, bl);
+	}
+	
+	/**
+	 * Produce line describing when bus is estimated to reach selected stop, measured
+	 * along its route, or empty string if no estimate can be made (for example,
+	 * when route geometry has not been retrieved).  For example:
+	 * "\nArrives in about 4 mins (estimated)"
+	 */
+	private String describeArrival(BusLocation bl) {
+		VehicleHistory history = VehicleTracker.getInstance().getHistory(bl.getID());
+		if (history == null || selectedStop == null)
+			return "";
+		
+		long now = System.currentTimeMillis();
+		EtaEstimator.Eta eta = EtaEstimator.estimate(bl.getRoute(), selectedStop, history, now);
+		if (eta == null)
+			return "";
+		
+		int mins = eta.getWaitMinutes(now);
+		return "\nArrives in " + (mins < 2 ? "about 1 min" : "about " + mins + " mins") + " (estimated)";
+	}
+	
+	/**
+	 * Remove marker of bus with given vehicle ID, if it is plotted
+	 */
+	private void removeBus(int id) {
+		OverlayItem marker = busMarkers.remove(id);
+		
+		if (marker != null) {
+			busLocnOverlay.removeItem(marker);
+			busesByMarker.remove(marker);
+			if (marker == selectedBus)
+				selectedBus = null;
+		}
 	}
 
 	
@@ -472,7 +765,8 @@ public class MapDisplayFragment extends Fragment {
 	}
 
 	/**
-	 * Plot bus route onto route overlays.  If rte is null,
+	 * Plot bus route onto route overlays, using the level of detail 
+	 * that matches the current zoom level.  If rte is null,
 	 * no route is plotted (any existing route is cleared).
 	 * 
 	 * @param rte  the bus route
@@ -480,13 +774,14 @@ public class MapDisplayFragment extends Fragment {
 	private void plotBusRoute(BusRoute rte) {
 		mapView.getOverlays().removeAll(routeOverlays);
 		routeOverlays.clear();
+		plottedRoute = rte;
+		plottedZoomLevel = mapView.getZoomLevel();
 		
 		if (rte != null) {
 			PathOverlay po = createRouteSegmentOverlay();
-			for (Segment seg : rte.getSegments()) {
-				for (LatLon latLon : seg.getPoints()) {
-					po.addPoint(new GeoPoint(
-							latLon.getLatitude(), latLon.getLongitude()));
+			for (Segment seg : rte.getSegments(plottedZoomLevel)) {
+				for (int i = 0; i < seg.size(); i++) {
+					po.addPoint(seg.getLatitudeE6(i), seg.getLongitudeE6(i));
 				}
 				routeOverlays.add(po);
 				po = createRouteSegmentOverlay();
@@ -548,13 +843,19 @@ public class MapDisplayFragment extends Fragment {
 			dialog.dismiss();
 
 			if (success) {
-				plotBuses(zoomToFit);
-				plotBusStop();
-				for (BusLocation bl : selectedStop.getBusLocations()) {
-					if (bl.getID() == selectedBusID) {
-						retrieveBusRoute(bl);
+				if (plottedStop != selectedStop) {
+					plotBuses(zoomToFit);
+					plotBusStop();
+					for (BusLocation bl : selectedStop.getBusLocations()) {
+						if (bl.getID() == selectedBusID) {
+							retrieveBusRoute(bl);
+						}
 					}
 				}
+				else {
+					// changes have already been applied by stop listener
+					centreOnBuses(zoomToFit);
+				}
 				mapView.postInvalidate();
 			} else {
 				String msg = "Unable to get information for stop #: " + selectedStop;
@@ -585,7 +886,11 @@ public class MapDisplayFragment extends Fragment {
 			route = routes[0];
 
 			try {
-				tlService.parseKMZ(route);
+				if (!route.hasSegments())
+					tlService.parseKMZ(route);
+				if (!route.hasLevelsOfDetail())
+					route.buildLevelsOfDetail();
+				route.getSegmentIndex();
 			} catch (TranslinkException e) {
 				e.printStackTrace();
 				success = false;
@@ -1,6 +1,7 @@
 package ca.ubc.cpsc210.nextbus;
 
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.Set;
 
 import android.annotation.TargetApi;
@@ -20,6 +21,7 @@ import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.AbsListView;
 import android.widget.AdapterView;
 import android.widget.ArrayAdapter;
 import android.widget.ListView;
@@ -29,7 +31,9 @@ import ca.ubc.cpsc210.nextbus.model.BusStop;
 import ca.ubc.cpsc210.nextbus.model.BusWaitTime;
 import ca.ubc.cpsc210.nextbus.model.FavouriteStops;
 import ca.ubc.cpsc210.nextbus.translink.ITranslinkService;
-import ca.ubc.cpsc210.nextbus.translink.TranslinkService;
+import ca.ubc.cpsc210.nextbus.translink.RefreshLoop;
+import ca.ubc.cpsc210.nextbus.translink.RefreshScheduler.Kind;
+import ca.ubc.cpsc210.nextbus.translink.TranslinkServiceFactory;
 
 public class StopListFragment extends ListFragment {
 
@@ -42,6 +46,12 @@ public class StopListFragment extends ListFragment {
 	private ITranslinkService tlService;
 	private Callbacks callbacks;
 	
+	/**
+	 * Polls wait times of favourite stops while fragment is resumed
+	 */
+	private RefreshLoop refreshLoop;
+	private RefreshLoop.Listener refreshListener;
+	
 	/**
 	 * Callbacks to be implemented by parent activity.
 	 */
@@ -61,7 +71,14 @@ public class StopListFragment extends ListFragment {
 		adapter = new StopListAdapter(selectedStops.getFavourites());
 		setListAdapter(adapter);
 		
-		tlService = new TranslinkService(getActivity());
+		tlService = TranslinkServiceFactory.getInstance(getActivity());
+		refreshLoop = RefreshLoop.getInstance(getActivity());
+		refreshListener = new RefreshLoop.Listener() {
+			@Override
+			public void refreshed(BusStop stop, Kind kind, TranslinkException e) {
+				adapter.notifyDataSetChanged();
+			}
+		};
 	}
 
 	@Override
@@ -78,6 +95,18 @@ public class StopListFragment extends ListFragment {
 		registerForContextMenu(listView);
 		listView.setChoiceMode(ListView.CHOICE_MODE_SINGLE);
 		listView.setSelector(R.drawable.list_selected_item);
+		listView.setOnScrollListener(new AbsListView.OnScrollListener() {
+			@Override
+			public void onScrollStateChanged(AbsListView view, int scrollState) {
+			}
+
+			@Override
+			public void onScroll(AbsListView view, int firstVisibleItem, 
+					int visibleItemCount, int totalItemCount) {
+				if (isResumed())
+					watchFavourites();
+			}
+		});
 	}
 	
 	@Override
@@ -92,9 +121,25 @@ public class StopListFragment extends ListFragment {
 		super.onDetach();
 	}
 
+	/**
+	 * Start polling wait times of favourite stops
+	 */
+	@Override
+	public void onResume() {
+		super.onResume();
+		refreshLoop.addListener(refreshListener);
+		watchFavourites();
+	}
+
+	/**
+	 * Stop polling wait times of favourite stops
+	 */
 	@Override
 	public void onPause() {
 		super.onPause();
+		refreshLoop.removeListener(refreshListener);
+		for (BusStop next : selectedStops.getFavourites())
+			refreshLoop.unwatch(next, Kind.WAIT_TIMES);
 		selectedStops.saveFavourites();
 	}
 	
@@ -157,6 +202,7 @@ public class StopListFragment extends ListFragment {
 		BusStop toRemove 
 				= (BusStop) getListView().getItemAtPosition(info.position);
 		selectedStops.removeStop(toRemove);
+		refreshLoop.unwatch(toRemove, Kind.WAIT_TIMES);
 		adapter.notifyDataSetChanged();
 		return true;
 	}
@@ -168,6 +214,8 @@ public class StopListFragment extends ListFragment {
 	public void addStop(BusStop toAdd) {
 		selectedStops.addStop(toAdd);
 		adapter.notifyDataSetChanged();
+		if (isResumed())
+			watchFavourites();
 	}
 
 	@Override
@@ -186,6 +234,21 @@ public class StopListFragment extends ListFragment {
 			new GetBusWaitTimes().execute(selectedStop);	
 	}
 	
+	/**
+	 * Poll wait times of all favourite stops, those in view of the list more often
+	 */
+	private void watchFavourites() {
+		ListView listView = getListView();
+		int first = listView.getFirstVisiblePosition();
+		int last = listView.getLastVisiblePosition();
+		int position = 0;
+		
+		for (BusStop next : selectedStops.getFavourites()) {
+			refreshLoop.watch(next, Kind.WAIT_TIMES, position >= first && position <= last);
+			position++;
+		}
+	}
+	
 	/**
 	 * Helper to create simple AlertDialog that displays a message
 	 * @param msg  the message to display
@@ -347,12 +410,27 @@ public class StopListFragment extends ListFragment {
 			BusStop info = getItem(position);
 			
 			TextView stopNum = (TextView) convertView.findViewById(R.id.list_stop_num);
-			stopNum.setText(Integer.valueOf(info.getStopNum()).toString());
+			stopNum.setText(Integer.valueOf(info.getStopNum()).toString() + nextBusToString(info));
 			
 			TextView stopLocn = (TextView) convertView.findViewById(R.id.list_stop_location);
 			stopLocn.setText(info.getLocationDesc());
 			
 			return convertView;
 		}
+		
+		/**
+		 * Produces description of next bus expected at stop, for example "  (099: 5 mins)",
+		 * or empty string if no wait times are known for stop.
+		 * @param stop  the bus stop
+		 * @return description of next bus at stop
+		 */
+		private String nextBusToString(BusStop stop) {
+			Iterator<BusWaitTime> waitTimes = stop.getWaitTimes().iterator();
+			
+			if (waitTimes.hasNext())
+				return "  (" + waitTimes.next().toString() + ")";
+			
+			return "";
+		}
 	}
 }
@@ -0,0 +1,149 @@
+package ca.ubc.cpsc210.nextbus.gtfs;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+
+/**
+ * Streaming reader for the comma-separated files of a GTFS feed.  The first
+ * record names the columns; each later record is read into an array of fields
+ * that is reused from record to record, so only the fields themselves are
+ * allocated.  Fields may be quoted (with "" standing for a quote inside a
+ * quoted field), but may not span lines.
+ */
+class CsvReader implements Closeable {
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final char BYTE_ORDER_MARK = '\uFEFF';
+
+	private BufferedReader reader;
+	private String[] header;
+	private String[] fields;
+	private int fieldCount;
+	private StringBuilder field;
+
+	/**
+	 * Constructor: reads the header record
+	 * @param in  stream of UTF-8 encoded comma-separated values
+	 * @throws IOException  when the stream cannot be read
+	 */
+	CsvReader(InputStream in) throws IOException {
+		reader = new BufferedReader(new InputStreamReader(in, "UTF-8"), BUFFER_SIZE);
+		fields = new String[16];
+		field = new StringBuilder();
+
+		if (!next())
+			throw new IOException("Missing header");
+
+		if (fieldCount > 0 && fields[0].length() > 0 && fields[0].charAt(0) == BYTE_ORDER_MARK)
+			fields[0] = fields[0].substring(1);
+
+		header = new String[fieldCount];
+		for (int i = 0; i < fieldCount; i++)
+			header[i] = fields[i].trim();
+	}
+
+	/**
+	 * Produces position of the named column
+	 * @param name  the column name
+	 * @return position of column, or -1 if there is no such column
+	 */
+	int column(String name) {
+		for (int i = 0; i < header.length; i++) {
+			if (header[i].equals(name))
+				return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Produces position of the named column
+	 * @param name  the column name
+	 * @return position of column
+	 * @throws IOException  when there is no such column
+	 */
+	int requiredColumn(String name) throws IOException {
+		int column = column(name);
+		if (column == -1)
+			throw new IOException("Missing column " + name);
+		return column;
+	}
+
+	/**
+	 * Read next record, skipping blank lines
+	 * @return true if a record was read, false at end of stream
+	 * @throws IOException  when the stream cannot be read
+	 */
+	boolean next() throws IOException {
+		String line;
+		do {
+			line = reader.readLine();
+			if (line == null)
+				return false;
+		} while (line.length() == 0);
+
+		split(line);
+		return true;
+	}
+
+	/**
+	 * Produces field of current record in given column
+	 * @param column  the column position (may be -1)
+	 * @return the field, or "" if record has no such field
+	 */
+	String get(int column) {
+		if (column < 0 || column >= fieldCount)
+			return "";
+		return fields[column];
+	}
+
+	@Override
+	public void close() throws IOException {
+		reader.close();
+	}
+
+	/**
+	 * Split line into fields
+	 */
+	private void split(String line) {
+		int length = line.length();
+		boolean quoted = false;
+		fieldCount = 0;
+		field.setLength(0);
+
+		for (int i = 0; i < length; i++) {
+			char c = line.charAt(i);
+
+			if (quoted) {
+				if (c != '"')
+					field.append(c);
+				else if (i + 1 < length && line.charAt(i + 1) == '"')
+					field.append(line.charAt(++i));
+				else
+					quoted = false;
+			}
+			else if (c == '"') {
+				quoted = true;
+			}
+			else if (c == ',') {
+				addField();
+			}
+			else if (c != '\r') {
+				field.append(c);
+			}
+		}
+
+		addField();
+	}
+
+	private void addField() {
+		if (fieldCount == fields.length) {
+			String[] grown = new String[fields.length * 2];
+			System.arraycopy(fields, 0, grown, 0, fields.length);
+			fields = grown;
+		}
+		fields[fieldCount++] = field.toString();
+		field.setLength(0);
+	}
+}
@@ -0,0 +1,653 @@
+package ca.ubc.cpsc210.nextbus.gtfs;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import android.util.Log;
+
+/**
+ * Imports a GTFS static feed (the zip file published by Translink) into a
+ * schedule store that can be read by GtfsStore.
+ *
+ * Stops, routes, trips and service calendars are small and are read into
+ * arrays indexed by integer IDs, with names and headsigns interned.  Stop times
+ * make up nearly all of a feed, so they are never held in memory: a first pass
+ * counts the departures from each stop, which fixes where each stop's
+ * departures go in the store, and a second pass writes each departure straight
+ * into its place in the memory-mapped store.  Memory used therefore grows with
+ * the number of stops and trips, not with the number of stop times.
+ *
+ * Only stops having a stop code (the five digit stop number shown at the stop)
+ * are imported.  Route names that are all digits are padded to three digits
+ * (for example, "99" becomes "099") to match route names used by the realtime
+ * service.
+ */
+public class GtfsImporter {
+	private static final String LOG_TAG = "GtfsImporter";
+	private static final String CHARSET = "UTF-8";
+	private static final int ROUTE_NAME_DIGITS = 3;
+	private static final String[] DAYS = { "monday", "tuesday", "wednesday",
+		"thursday", "friday", "saturday", "sunday" };
+
+	private File feed;
+
+	// strings
+	private Map<String, Integer> stringIndex;
+	private List<String> strings;
+
+	// routes
+	private Map<String, Integer> routeIndex;
+	private IntArray routeNames;
+
+	// services and exceptions
+	private Map<String, Integer> serviceIndex;
+	private IntArray serviceDays;
+	private IntArray serviceStart;
+	private IntArray serviceEnd;
+	private long[] exceptions;
+	private int exceptionCount;
+
+	// trips
+	private Map<String, Integer> tripIndex;
+	private IntArray tripRoutes;
+	private IntArray tripServices;
+	private IntArray tripHeadsigns;
+
+	// stops, in order of stop number
+	private Map<String, Integer> stopIndex;
+	private int[] stopCodes;
+	private int[] stopLats;
+	private int[] stopLons;
+	private int[] stopNames;
+	private int stopCount;
+
+	// stop times
+	private int[] departureCounts;
+	private BitSet[] stopRoutes;
+
+	/**
+	 * Constructor
+	 * @param feed  the GTFS feed (zip file)
+	 */
+	public GtfsImporter(File feed) {
+		this.feed = feed;
+	}
+
+	/**
+	 * Import feed into store, replacing store only once import is complete
+	 * @param store  file to which schedule store is written
+	 * @throws IOException  when feed cannot be read or is not a valid GTFS feed,
+	 * or store cannot be written
+	 */
+	public void importTo(File store) throws IOException {
+		long start = System.currentTimeMillis();
+		ZipFile zip = new ZipFile(feed);
+
+		try {
+			stringIndex = new HashMap<String, Integer>();
+			strings = new ArrayList<String>();
+			readRoutes(zip);
+			readServices(zip);
+			readTrips(zip);
+			readStops(zip);
+			countStopTimes(zip);
+			write(zip, store);
+		} finally {
+			zip.close();
+			release();
+		}
+
+		Log.i(LOG_TAG, "Imported " + feed.getName() + " in "
+				+ (System.currentTimeMillis() - start) + " ms");
+	}
+
+	private void readRoutes(ZipFile zip) throws IOException {
+		CsvReader csv = open(zip, "routes.txt", true);
+		routeIndex = new HashMap<String, Integer>();
+		routeNames = new IntArray();
+
+		try {
+			int id = csv.requiredColumn("route_id");
+			int shortName = csv.column("route_short_name");
+			int longName = csv.column("route_long_name");
+
+			while (csv.next()) {
+				String name = csv.get(shortName).trim();
+				if (name.length() == 0)
+					name = csv.get(longName).trim();
+
+				routeIndex.put(csv.get(id), routeNames.size());
+				routeNames.add(intern(toRouteName(name)));
+			}
+		} finally {
+			csv.close();
+		}
+	}
+
+	/**
+	 * Read services from calendar.txt and exceptions from calendar_dates.txt;
+	 * a feed may have either or both
+	 */
+	private void readServices(ZipFile zip) throws IOException {
+		serviceIndex = new HashMap<String, Integer>();
+		serviceDays = new IntArray();
+		serviceStart = new IntArray();
+		serviceEnd = new IntArray();
+		exceptions = new long[64];
+		exceptionCount = 0;
+
+		CsvReader csv = open(zip, "calendar.txt", false);
+		if (csv != null) {
+			try {
+				int id = csv.requiredColumn("service_id");
+				int startDate = csv.requiredColumn("start_date");
+				int endDate = csv.requiredColumn("end_date");
+				int[] days = new int[DAYS.length];
+				for (int i = 0; i < DAYS.length; i++)
+					days[i] = csv.requiredColumn(DAYS[i]);
+
+				while (csv.next()) {
+					int service = service(csv.get(id));
+					int mask = 0;
+					for (int i = 0; i < days.length; i++) {
+						if ("1".equals(csv.get(days[i]).trim()))
+							mask |= 1 << i;
+					}
+					serviceDays.set(service, mask);
+					serviceStart.set(service, parseInt(csv.get(startDate)));
+					serviceEnd.set(service, parseInt(csv.get(endDate)));
+				}
+			} finally {
+				csv.close();
+			}
+		}
+
+		csv = open(zip, "calendar_dates.txt", false);
+		if (csv != null) {
+			try {
+				int id = csv.requiredColumn("service_id");
+				int date = csv.requiredColumn("date");
+				int type = csv.requiredColumn("exception_type");
+
+				while (csv.next()) {
+					if (exceptionCount == exceptions.length)
+						exceptions = Arrays.copyOf(exceptions, exceptionCount * 2);
+					// sorting these keys orders exceptions by service, then by date
+					exceptions[exceptionCount++] = ((long) service(csv.get(id)) << 32)
+							| ((long) parseInt(csv.get(date)) << 2) | (parseInt(csv.get(type)) & 3);
+				}
+			} finally {
+				csv.close();
+			}
+		}
+
+		Arrays.sort(exceptions, 0, exceptionCount);
+	}
+
+	private void readTrips(ZipFile zip) throws IOException {
+		CsvReader csv = open(zip, "trips.txt", true);
+		tripIndex = new HashMap<String, Integer>();
+		tripRoutes = new IntArray();
+		tripServices = new IntArray();
+		tripHeadsigns = new IntArray();
+
+		try {
+			int id = csv.requiredColumn("trip_id");
+			int route = csv.requiredColumn("route_id");
+			int service = csv.requiredColumn("service_id");
+			int headsign = csv.column("trip_headsign");
+
+			while (csv.next()) {
+				Integer routeNum = routeIndex.get(csv.get(route));
+				if (routeNum == null)
+					continue;
+
+				tripIndex.put(csv.get(id), tripRoutes.size());
+				tripRoutes.add(routeNum);
+				tripServices.add(service(csv.get(service)));
+				tripHeadsigns.add(intern(csv.get(headsign).trim()));
+			}
+		} finally {
+			csv.close();
+		}
+	}
+
+	/**
+	 * Read stops having a stop number, and sort them by stop number
+	 */
+	private void readStops(ZipFile zip) throws IOException {
+		CsvReader csv = open(zip, "stops.txt", true);
+		List<String> ids = new ArrayList<String>();
+		IntArray codes = new IntArray();
+		IntArray lats = new IntArray();
+		IntArray lons = new IntArray();
+		IntArray names = new IntArray();
+
+		try {
+			int id = csv.requiredColumn("stop_id");
+			int code = csv.requiredColumn("stop_code");
+			int name = csv.requiredColumn("stop_name");
+			int lat = csv.requiredColumn("stop_lat");
+			int lon = csv.requiredColumn("stop_lon");
+
+			while (csv.next()) {
+				int stopNum = parseInt(csv.get(code));
+				if (stopNum <= 0)
+					continue;
+
+				try {
+					lats.add((int) Math.round(Double.parseDouble(csv.get(lat)) * 1E6));
+					lons.add((int) Math.round(Double.parseDouble(csv.get(lon)) * 1E6));
+				} catch (NumberFormatException e) {
+					throw new IOException("Invalid location for stop " + stopNum);
+				}
+				ids.add(csv.get(id));
+				codes.add(stopNum);
+				names.add(intern(csv.get(name).trim()));
+			}
+		} finally {
+			csv.close();
+		}
+
+		// sort by stop number; stop numbers fit in 32 bits, so number and
+		// position are packed into one long for sorting
+		long[] order = new long[codes.size()];
+		for (int i = 0; i < order.length; i++)
+			order[i] = ((long) codes.get(i) << 32) | i;
+		Arrays.sort(order);
+
+		stopIndex = new HashMap<String, Integer>();
+		stopCodes = new int[order.length];
+		stopLats = new int[order.length];
+		stopLons = new int[order.length];
+		stopNames = new int[order.length];
+		stopCount = 0;
+
+		for (long next : order) {
+			int i = (int) next;
+			if (stopCount > 0 && stopCodes[stopCount - 1] == codes.get(i)) {
+				// platforms sharing a stop number are merged into first one
+				stopIndex.put(ids.get(i), stopCount - 1);
+				continue;
+			}
+			stopIndex.put(ids.get(i), stopCount);
+			stopCodes[stopCount] = codes.get(i);
+			stopLats[stopCount] = lats.get(i);
+			stopLons[stopCount] = lons.get(i);
+			stopNames[stopCount] = names.get(i);
+			stopCount++;
+		}
+	}
+
+	/**
+	 * First pass over stop times: count departures from each stop and note
+	 * routes serving each stop
+	 */
+	private void countStopTimes(ZipFile zip) throws IOException {
+		departureCounts = new int[stopCount];
+		stopRoutes = new BitSet[stopCount];
+		CsvReader csv = open(zip, "stop_times.txt", true);
+
+		try {
+			int trip = csv.requiredColumn("trip_id");
+			int stop = csv.requiredColumn("stop_id");
+			int departure = csv.requiredColumn("departure_time");
+
+			while (csv.next()) {
+				Integer stopNum = stopIndex.get(csv.get(stop));
+				Integer tripNum = tripIndex.get(csv.get(trip));
+				if (stopNum == null || tripNum == null || parseTime(csv.get(departure)) < 0)
+					continue;
+
+				departureCounts[stopNum]++;
+				if (stopRoutes[stopNum] == null)
+					stopRoutes[stopNum] = new BitSet();
+				stopRoutes[stopNum].set(tripRoutes.get(tripNum));
+			}
+		} finally {
+			csv.close();
+		}
+	}
+
+	/**
+	 * Write store to temporary file, then rename it to replace store
+	 */
+	private void write(ZipFile zip, File store) throws IOException {
+		byte[][] stringBytes = new byte[strings.size()][];
+		int stringLength = 0;
+		for (int i = 0; i < stringBytes.length; i++) {
+			stringBytes[i] = strings.get(i).getBytes(CHARSET);
+			stringLength += stringBytes[i].length;
+		}
+
+		int stopRouteCount = 0;
+		int departureCount = 0;
+		for (int i = 0; i < stopCount; i++) {
+			stopRouteCount += stopRoutes[i] == null ? 0 : stopRoutes[i].cardinality();
+			departureCount += departureCounts[i];
+		}
+
+		StoreLayout layout = new StoreLayout(stopCount, stopRouteCount, routeNames.size(),
+				tripRoutes.size(), serviceDays.size(), exceptionCount, strings.size(),
+				stringLength, departureCount);
+
+		File tmp = new File(store.getPath() + ".tmp");
+		RandomAccessFile raf = new RandomAccessFile(tmp, "rw");
+
+		try {
+			raf.setLength(layout.size);
+			MappedByteBuffer buf = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, layout.size);
+			layout.write(buf);
+			int[] cursors = writeTables(buf, layout, stringBytes);
+			writeStopTimes(zip, buf, layout, cursors);
+			sortDepartures(buf, layout);
+			buf.force();
+		} catch (IOException e) {
+			raf.close();
+			tmp.delete();
+			throw e;
+		}
+
+		raf.close();
+		if (!tmp.renameTo(store)) {
+			tmp.delete();
+			throw new IOException("Unable to replace " + store);
+		}
+	}
+
+	/**
+	 * Write every section except departures
+	 * @return position at which first departure from each stop is to be written
+	 */
+	private int[] writeTables(MappedByteBuffer buf, StoreLayout layout, byte[][] stringBytes) {
+		int[] cursors = new int[stopCount];
+		int stopRoute = 0;
+		int departure = 0;
+
+		for (int i = 0; i < stopCount; i++) {
+			buf.position(layout.stops + i * StoreLayout.STOP_SIZE);
+			buf.putInt(stopCodes[i]);
+			buf.putInt(stopLats[i]);
+			buf.putInt(stopLons[i]);
+			buf.putInt(stopNames[i]);
+
+			buf.putInt(stopRoute);
+			int routeCount = 0;
+			BitSet routes = stopRoutes[i];
+			if (routes != null) {
+				for (int r = routes.nextSetBit(0); r >= 0; r = routes.nextSetBit(r + 1)) {
+					buf.putInt(layout.stopRoutes + (stopRoute + routeCount) * StoreLayout.STOP_ROUTE_SIZE, r);
+					routeCount++;
+				}
+			}
+			buf.putInt(routeCount);
+			stopRoute += routeCount;
+
+			buf.putInt(departure);
+			buf.putInt(departureCounts[i]);
+			cursors[i] = departure;
+			departure += departureCounts[i];
+		}
+
+		buf.position(layout.routes);
+		for (int i = 0; i < routeNames.size(); i++)
+			buf.putInt(routeNames.get(i));
+
+		buf.position(layout.trips);
+		for (int i = 0; i < tripRoutes.size(); i++) {
+			buf.putInt(tripRoutes.get(i));
+			buf.putInt(tripServices.get(i));
+			buf.putInt(tripHeadsigns.get(i));
+		}
+
+		int exception = 0;
+		for (int i = 0; i < serviceDays.size(); i++) {
+			int first = exception;
+			while (exception < exceptionCount && (int) (exceptions[exception] >>> 32) == i)
+				exception++;
+
+			buf.position(layout.services + i * StoreLayout.SERVICE_SIZE);
+			buf.putInt(serviceDays.get(i));
+			buf.putInt(serviceStart.get(i));
+			buf.putInt(serviceEnd.get(i));
+			buf.putInt(first);
+			buf.putInt(exception - first);
+		}
+
+		buf.position(layout.exceptions);
+		for (int i = 0; i < exceptionCount; i++) {
+			buf.putInt((int) (exceptions[i] & 0xFFFFFFFFL) >>> 2);
+			buf.putInt((int) exceptions[i] & 3);
+		}
+
+		int offset = 0;
+		buf.position(layout.stringOffsets);
+		for (byte[] next : stringBytes) {
+			buf.putInt(offset);
+			offset += next.length;
+		}
+		buf.putInt(offset);
+
+		buf.position(layout.strings);
+		for (byte[] next : stringBytes)
+			buf.put(next);
+
+		return cursors;
+	}
+
+	/**
+	 * Second pass over stop times: write each departure to next free position
+	 * among departures of its stop
+	 */
+	private void writeStopTimes(ZipFile zip, MappedByteBuffer buf, StoreLayout layout, int[] cursors)
+			throws IOException {
+		CsvReader csv = open(zip, "stop_times.txt", true);
+
+		try {
+			int trip = csv.requiredColumn("trip_id");
+			int stop = csv.requiredColumn("stop_id");
+			int departure = csv.requiredColumn("departure_time");
+
+			while (csv.next()) {
+				Integer stopNum = stopIndex.get(csv.get(stop));
+				Integer tripNum = tripIndex.get(csv.get(trip));
+				int time = parseTime(csv.get(departure));
+				if (stopNum == null || tripNum == null || time < 0)
+					continue;
+
+				int position = layout.departures + cursors[stopNum]++ * StoreLayout.DEPARTURE_SIZE;
+				buf.putInt(position, time);
+				buf.putInt(position + 4, tripNum);
+			}
+		} finally {
+			csv.close();
+		}
+	}
+
+	/**
+	 * Sort departures from each stop by time
+	 */
+	private void sortDepartures(MappedByteBuffer buf, StoreLayout layout) {
+		long[] sorted = new long[16];
+
+		for (int i = 0; i < stopCount; i++) {
+			int count = departureCounts[i];
+			int first = buf.getInt(layout.stops + i * StoreLayout.STOP_SIZE + 24);
+			int start = layout.departures + first * StoreLayout.DEPARTURE_SIZE;
+
+			if (count > sorted.length)
+				sorted = new long[Math.max(count, sorted.length * 2)];
+
+			// time and trip are both non-negative, so packed longs sort by time
+			for (int j = 0; j < count; j++) {
+				int position = start + j * StoreLayout.DEPARTURE_SIZE;
+				sorted[j] = ((long) buf.getInt(position) << 32) | buf.getInt(position + 4);
+			}
+			Arrays.sort(sorted, 0, count);
+			for (int j = 0; j < count; j++) {
+				int position = start + j * StoreLayout.DEPARTURE_SIZE;
+				buf.putInt(position, (int) (sorted[j] >>> 32));
+				buf.putInt(position + 4, (int) sorted[j]);
+			}
+		}
+	}
+
+	/**
+	 * Drop tables once import is done, so importer holds no memory afterwards
+	 */
+	private void release() {
+		stringIndex = null;
+		strings = null;
+		routeIndex = null;
+		routeNames = null;
+		serviceIndex = null;
+		serviceDays = serviceStart = serviceEnd = null;
+		exceptions = null;
+		tripIndex = null;
+		tripRoutes = tripServices = tripHeadsigns = null;
+		stopIndex = null;
+		stopCodes = stopLats = stopLons = stopNames = null;
+		departureCounts = null;
+		stopRoutes = null;
+	}
+
+	/**
+	 * Produces index of string, adding it to strings if not already present
+	 */
+	private int intern(String s) {
+		Integer index = stringIndex.get(s);
+		if (index == null) {
+			index = strings.size();
+			stringIndex.put(s, index);
+			strings.add(s);
+		}
+		return index;
+	}
+
+	/**
+	 * Produces index of service with given ID, adding a service that runs on
+	 * no days if not already present
+	 */
+	private int service(String id) {
+		Integer index = serviceIndex.get(id);
+		if (index == null) {
+			index = serviceDays.size();
+			serviceIndex.put(id, index);
+			serviceDays.add(0);
+			serviceStart.add(0);
+			serviceEnd.add(0);
+		}
+		return index;
+	}
+
+	/**
+	 * Open file in feed
+	 * @param required  true if feed is invalid without this file
+	 * @return reader for file, or null if optional file is not in feed
+	 */
+	private static CsvReader open(ZipFile zip, String name, boolean required) throws IOException {
+		ZipEntry entry = zip.getEntry(name);
+		if (entry == null) {
+			if (required)
+				throw new IOException("Feed has no " + name);
+			return null;
+		}
+		return new CsvReader(zip.getInputStream(entry));
+	}
+
+	/**
+	 * Produces route name used by realtime service for GTFS route short name
+	 */
+	private static String toRouteName(String name) {
+		for (int i = 0; i < name.length(); i++) {
+			if (!Character.isDigit(name.charAt(i)))
+				return name;
+		}
+
+		StringBuilder padded = new StringBuilder();
+		for (int i = name.length(); i < ROUTE_NAME_DIGITS; i++)
+			padded.append('0');
+		return padded.append(name).toString();
+	}
+
+	/**
+	 * Parse GTFS time of the form H:MM:SS (hours may exceed 23)
+	 * @return seconds after start of service day, or -1 if time is blank or invalid
+	 */
+	static int parseTime(String time) {
+		int seconds = 0;
+		int value = 0;
+		int fields = 0;
+		boolean digits = false;
+
+		for (int i = 0; i < time.length(); i++) {
+			char c = time.charAt(i);
+			if (c >= '0' && c <= '9') {
+				value = value * 10 + (c - '0');
+				digits = true;
+			}
+			else if (c == ':' && digits) {
+				seconds = seconds * 60 + value;
+				value = 0;
+				digits = false;
+				fields++;
+			}
+			else if (c != ' ') {
+				return -1;
+			}
+		}
+
+		if (fields != 2 || !digits)
+			return -1;
+		return seconds * 60 + value;
+	}
+
+	/**
+	 * Parse non-negative integer
+	 * @return the integer, or -1 if s is blank or not an integer
+	 */
+	private static int parseInt(String s) {
+		try {
+			return Integer.parseInt(s.trim());
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Growable array of ints, avoiding the boxing of a List<Integer>
+	 */
+	private static class IntArray {
+		private int[] values = new int[64];
+		private int size;
+
+		void add(int value) {
+			if (size == values.length)
+				values = Arrays.copyOf(values, size * 2);
+			values[size++] = value;
+		}
+
+		void set(int index, int value) {
+			values[index] = value;
+		}
+
+		int get(int index) {
+			return values[index];
+		}
+
+		int size() {
+			return size;
+		}
+	}
+}
@@ -0,0 +1,395 @@
+package ca.ubc.cpsc210.nextbus.gtfs;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+
+import ca.ubc.cpsc210.nextbus.model.BusRoute;
+import ca.ubc.cpsc210.nextbus.model.BusRouteRegistry;
+import ca.ubc.cpsc210.nextbus.model.BusStop;
+
+/**
+ * Stops and scheduled departures from a GTFS feed, read without any network
+ * access from a store written by GtfsImporter.
+ *
+ * The store is read through a memory mapping, so opening it costs almost no
+ * memory: a stop is found by binary search on stop number, and departures from
+ * a stop are found by binary search on time, reading only the records needed.
+ * Safe to use from any thread.
+ *
+ * Opening a store checks its header and every index held in its stop, route,
+ * trip, service and string tables, so a damaged store is refused with an
+ * IOException rather than failing on a later query.  Departure records are not
+ * checked, as that would read the whole mapping in; a store cut short is found
+ * by its size.
+ *
+ * Stops returned have no map URLs for their routes, as the feed does not link
+ * routes to Translink's KMZ files.
+ */
+public class GtfsStore {
+	private static final String CHARSET = "UTF-8";
+	private static final TimeZone TRANSLINK_TIME_ZONE = TimeZone.getTimeZone("America/Vancouver");
+	private static final long MS_PER_SECOND = 1000;
+	private static final long MS_PER_HOUR = 60 * 60 * MS_PER_SECOND;
+
+	/**
+	 * Latest time of day (s) a departure may be scheduled on its service day;
+	 * trips running past midnight have times after 24:00:00
+	 */
+	private static final int MAX_SERVICE_DAY = 48 * 60 * 60;
+
+	private static final byte UNKNOWN = 0;
+	private static final byte RUNNING = 1;
+	private static final byte NOT_RUNNING = 2;
+
+	private ByteBuffer buf;
+	private StoreLayout layout;
+	private String[] strings;
+
+	private GtfsStore(ByteBuffer buf, StoreLayout layout) {
+		this.buf = buf;
+		this.layout = layout;
+		strings = new String[layout.stringCount];
+	}
+
+	/**
+	 * Open store written by GtfsImporter
+	 * @param file  the store
+	 * @return the opened store
+	 * @throws IOException  when the file cannot be read, is not a schedule store
+	 * written by this version of GtfsImporter, or is damaged
+	 */
+	public static GtfsStore open(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			if (channel.size() > Integer.MAX_VALUE)
+				throw new IOException("Not a schedule store");
+			ByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			GtfsStore store = new GtfsStore(buf, StoreLayout.read(buf));
+			store.check();
+			return store;
+		} finally {
+			// mapping remains valid after file is closed
+			raf.close();
+		}
+	}
+
+	/**
+	 * Gets number of stops in store
+	 * @return number of stops
+	 */
+	public int getStopCount() {
+		return layout.stopCount;
+	}
+
+	/**
+	 * Determine if store has stop with given stop number
+	 * @param stopNum  the stop number
+	 * @return true if stop is in store, false otherwise
+	 */
+	public boolean hasStop(int stopNum) {
+		return findStop(stopNum) >= 0;
+	}
+
+	/**
+	 * Gets stop with given stop number, with the routes serving it.  Wait times
+	 * and bus locations are empty.
+	 * @param stopNum  the stop number
+	 * @return the stop, or null if there is no such stop in store
+	 */
+	public BusStop getBusStop(int stopNum) {
+		int stop = findStop(stopNum);
+		if (stop < 0)
+			return null;
+
+		int record = layout.stops + stop * StoreLayout.STOP_SIZE;
+		int firstRoute = buf.getInt(record + 16);
+		int routeCount = buf.getInt(record + 20);
+		Set<BusRoute> routes = new HashSet<BusRoute>();
+
+		for (int i = 0; i < routeCount; i++) {
+			int route = buf.getInt(layout.stopRoutes + (firstRoute + i) * StoreLayout.STOP_ROUTE_SIZE);
+			routes.add(getRoute(route));
+		}
+
+		return new BusStop(stopNum, getString(buf.getInt(record + 12)),
+				buf.getInt(record + 4) / 1E6, buf.getInt(record + 8) / 1E6, routes);
+	}
+
+	/**
+	 * Gets departures from stop scheduled within given interval, in order of time
+	 * @param stopNum  the stop number
+	 * @param from     start of interval in ms since the epoch
+	 * @param until    end of interval in ms since the epoch
+	 * @return scheduled departures (empty if there is no such stop in store)
+	 */
+	public List<ScheduledDeparture> getDepartures(int stopNum, long from, long until) {
+		return getDepartures(stopNum, from, until, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Gets earliest departures of each route from stop scheduled within given
+	 * interval, in order of time
+	 * @param stopNum      the stop number
+	 * @param from         start of interval in ms since the epoch
+	 * @param until        end of interval in ms since the epoch
+	 * @param maxPerRoute  largest number of departures of any one route
+	 * @return scheduled departures (empty if there is no such stop in store)
+	 */
+	public List<ScheduledDeparture> getDepartures(int stopNum, long from, long until, int maxPerRoute) {
+		List<ScheduledDeparture> departures = new ArrayList<ScheduledDeparture>();
+		int stop = findStop(stopNum);
+		if (stop < 0 || until < from)
+			return departures;
+
+		int record = layout.stops + stop * StoreLayout.STOP_SIZE;
+		int first = buf.getInt(record + 24);
+		int count = buf.getInt(record + 28);
+
+		// a trip on one service day may depart after midnight, so start with
+		// the service day that is still running at the start of the interval
+		Calendar day = Calendar.getInstance(TRANSLINK_TIME_ZONE);
+		day.setTimeInMillis(from - MAX_SERVICE_DAY * MS_PER_SECOND);
+		day.set(Calendar.HOUR_OF_DAY, 12);
+		day.set(Calendar.MINUTE, 0);
+		day.set(Calendar.SECOND, 0);
+		day.set(Calendar.MILLISECOND, 0);
+
+		// GTFS times are measured from noon less 12 hours, which is midnight
+		// except on days when clocks change
+		for (long start = day.getTimeInMillis() - 12 * MS_PER_HOUR; start <= until;
+				start = day.getTimeInMillis() - 12 * MS_PER_HOUR) {
+			long lo = Math.max(0, (from - start + MS_PER_SECOND - 1) / MS_PER_SECOND);
+			long hi = Math.min(MAX_SERVICE_DAY, (until - start) / MS_PER_SECOND);
+
+			if (lo <= hi)
+				addDepartures(departures, first, count, (int) lo, (int) hi, maxPerRoute, start, day);
+
+			day.add(Calendar.DAY_OF_MONTH, 1);
+		}
+
+		Collections.sort(departures);
+		return maxPerRoute == Integer.MAX_VALUE ? departures : limitPerRoute(departures, maxPerRoute);
+	}
+
+	/**
+	 * Add departures between given times on a service day
+	 * @param first  index of stop's first departure
+	 * @param count  number of stop's departures
+	 * @param lo     earliest time (s after start of service day)
+	 * @param hi     latest time (s after start of service day)
+	 * @param maxPerRoute  largest number of departures of any one route
+	 * @param start  start of service day in ms since the epoch
+	 * @param day    service day
+	 */
+	private void addDepartures(List<ScheduledDeparture> departures, int first, int count,
+			int lo, int hi, int maxPerRoute, long start, Calendar day) {
+		int date = day.get(Calendar.YEAR) * 10000 + (day.get(Calendar.MONTH) + 1) * 100
+				+ day.get(Calendar.DAY_OF_MONTH);
+		int dayOfWeek = (day.get(Calendar.DAY_OF_WEEK) + 5) % 7;	// Monday is 0
+		byte[] running = new byte[layout.serviceCount];
+		int[] added = new int[layout.routeCount];
+
+		int low = 0;
+		int high = count;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (buf.getInt(departure(first + mid)) < lo)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+
+		for (int i = low; i < count; i++) {
+			int position = departure(first + i);
+			int time = buf.getInt(position);
+			if (time > hi)
+				break;
+
+			int trip = layout.trips + buf.getInt(position + 4) * StoreLayout.TRIP_SIZE;
+			int service = buf.getInt(trip + 4);
+			if (running[service] == UNKNOWN)
+				running[service] = isRunning(service, date, dayOfWeek) ? RUNNING : NOT_RUNNING;
+
+			if (running[service] != RUNNING)
+				continue;
+
+			int route = buf.getInt(trip);
+			if (added[route] < maxPerRoute) {
+				added[route]++;
+				departures.add(new ScheduledDeparture(getRoute(route),
+						getString(buf.getInt(trip + 8)), start + time * MS_PER_SECOND));
+			}
+		}
+	}
+
+	/**
+	 * Produces departures in given list, dropping those of a route after the first
+	 * maxPerRoute
+	 */
+	private static List<ScheduledDeparture> limitPerRoute(List<ScheduledDeparture> departures,
+			int maxPerRoute) {
+		List<ScheduledDeparture> limited = new ArrayList<ScheduledDeparture>();
+		Map<BusRoute, Integer> counts = new HashMap<BusRoute, Integer>();
+
+		for (ScheduledDeparture next : departures) {
+			Integer count = counts.get(next.getRoute());
+			int added = (count == null) ? 0 : count;
+			if (added < maxPerRoute) {
+				counts.put(next.getRoute(), added + 1);
+				limited.add(next);
+			}
+		}
+
+		return limited;
+	}
+
+	/**
+	 * Determine if service runs on given date
+	 * @param date       date as yyyymmdd
+	 * @param dayOfWeek  day of week of date (Monday is 0)
+	 */
+	private boolean isRunning(int service, int date, int dayOfWeek) {
+		int record = layout.services + service * StoreLayout.SERVICE_SIZE;
+		int low = buf.getInt(record + 12);
+		int high = low + buf.getInt(record + 16) - 1;
+
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int exception = layout.exceptions + mid * StoreLayout.EXCEPTION_SIZE;
+			int exceptionDate = buf.getInt(exception);
+			if (exceptionDate < date)
+				low = mid + 1;
+			else if (exceptionDate > date)
+				high = mid - 1;
+			else
+				return buf.getInt(exception + 4) == StoreLayout.EXCEPTION_ADDED;
+		}
+
+		return (buf.getInt(record) & (1 << dayOfWeek)) != 0
+				&& buf.getInt(record + 4) <= date && date <= buf.getInt(record + 8);
+	}
+
+	/**
+	 * Check that every index in the tables refers to an entry that exists
+	 * @throws IOException  when an index is out of range
+	 */
+	private void check() throws IOException {
+		int previous = Integer.MIN_VALUE;
+		for (int i = 0; i < layout.stopCount; i++) {
+			int record = layout.stops + i * StoreLayout.STOP_SIZE;
+			int stopNum = buf.getInt(record);
+			if (stopNum <= previous)
+				throw corrupt("stops out of order");
+			previous = stopNum;
+			checkIndex(buf.getInt(record + 12), layout.stringCount, "stop name");
+			checkRange(buf.getInt(record + 16), buf.getInt(record + 20), layout.stopRouteCount, "stop routes");
+			checkRange(buf.getInt(record + 24), buf.getInt(record + 28), layout.departureCount, "departures");
+		}
+
+		for (int i = 0; i < layout.stopRouteCount; i++)
+			checkIndex(buf.getInt(layout.stopRoutes + i * StoreLayout.STOP_ROUTE_SIZE), layout.routeCount, "route");
+
+		for (int i = 0; i < layout.routeCount; i++)
+			checkIndex(buf.getInt(layout.routes + i * StoreLayout.ROUTE_SIZE), layout.stringCount, "route name");
+
+		for (int i = 0; i < layout.tripCount; i++) {
+			int record = layout.trips + i * StoreLayout.TRIP_SIZE;
+			checkIndex(buf.getInt(record), layout.routeCount, "trip route");
+			checkIndex(buf.getInt(record + 4), layout.serviceCount, "trip service");
+			checkIndex(buf.getInt(record + 8), layout.stringCount, "headsign");
+		}
+
+		for (int i = 0; i < layout.serviceCount; i++) {
+			int record = layout.services + i * StoreLayout.SERVICE_SIZE;
+			checkRange(buf.getInt(record + 12), buf.getInt(record + 16), layout.exceptionCount, "exceptions");
+		}
+
+		int offset = 0;
+		for (int i = 0; i <= layout.stringCount; i++) {
+			int next = buf.getInt(layout.stringOffsets + i * 4);
+			if (next < offset || next > layout.stringBytes)
+				throw corrupt("string offsets");
+			offset = next;
+		}
+	}
+
+	private static void checkIndex(int index, int count, String what) throws IOException {
+		if (index < 0 || index >= count)
+			throw corrupt(what);
+	}
+
+	private static void checkRange(int first, int count, int total, String what) throws IOException {
+		if (first < 0 || count < 0 || count > total - first)
+			throw corrupt(what);
+	}
+
+	private static IOException corrupt(String what) {
+		return new IOException("Schedule store is corrupt: " + what);
+	}
+
+	/**
+	 * Produces index of stop with given stop number, or -1 if there is none
+	 */
+	private int findStop(int stopNum) {
+		int low = 0;
+		int high = layout.stopCount - 1;
+
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int code = buf.getInt(layout.stops + mid * StoreLayout.STOP_SIZE);
+			if (code < stopNum)
+				low = mid + 1;
+			else if (code > stopNum)
+				high = mid - 1;
+			else
+				return mid;
+		}
+
+		return -1;
+	}
+
+	private int departure(int index) {
+		return layout.departures + index * StoreLayout.DEPARTURE_SIZE;
+	}
+
+	private BusRoute getRoute(int route) {
+		return BusRouteRegistry.getInstance().intern(
+				getString(buf.getInt(layout.routes + route * StoreLayout.ROUTE_SIZE)));
+	}
+
+	/**
+	 * Produces interned string with given index, decoding it on first use
+	 */
+	private String getString(int index) {
+		// a string decoded twice by racing threads is equal either way
+		String s = strings[index];
+		if (s == null) {
+			int start = buf.getInt(layout.stringOffsets + index * 4);
+			int end = buf.getInt(layout.stringOffsets + (index + 1) * 4);
+			byte[] bytes = new byte[end - start];
+			for (int i = 0; i < bytes.length; i++)
+				bytes[i] = buf.get(layout.strings + start + i);
+			try {
+				s = new String(bytes, CHARSET);
+			} catch (UnsupportedEncodingException e) {
+				s = "";
+			}
+			strings[index] = s;
+		}
+		return s;
+	}
+}
@@ -0,0 +1,73 @@
+package ca.ubc.cpsc210.nextbus.gtfs;
+
+import ca.ubc.cpsc210.nextbus.model.BusRoute;
+
+/**
+ * Departure of a bus from a stop according to the published schedule
+ */
+public class ScheduledDeparture implements Comparable<ScheduledDeparture> {
+	private BusRoute route;
+	private String destination;
+	private long time;
+
+	/**
+	 * Constructor
+	 * @param route        the route the bus is serving
+	 * @param destination  destination shown on the bus
+	 * @param time         scheduled time of departure in ms since the epoch
+	 */
+	public ScheduledDeparture(BusRoute route, String destination, long time) {
+		this.route = route;
+		this.destination = destination;
+		this.time = time;
+	}
+
+	/**
+	 * Gets route the bus is serving
+	 * @return bus route
+	 */
+	public BusRoute getRoute() {
+		return route;
+	}
+
+	/**
+	 * Gets destination shown on the bus
+	 * @return destination
+	 */
+	public String getDestination() {
+		return destination;
+	}
+
+	/**
+	 * Gets scheduled time of departure
+	 * @return time in ms since the epoch
+	 */
+	public long getTime() {
+		return time;
+	}
+
+	/**
+	 * Gets number of minutes from given time until departure, to the nearest
+	 * minute as realtime estimates are counted down
+	 * @param now  current time in ms since the epoch
+	 * @return minutes until departure (negative if departure has passed)
+	 */
+	public int getMinutesFrom(long now) {
+		return (int) Math.round((time - now) / (60 * 1000.0));
+	}
+
+	@Override
+	public String toString() {
+		return route + " to " + destination + " at " + time;
+	}
+
+	/**
+	 * Compare departures by time
+	 */
+	@Override
+	public int compareTo(ScheduledDeparture other) {
+		if (time != other.time)
+			return time < other.time ? -1 : 1;
+		return route.compareTo(other.route);
+	}
+}
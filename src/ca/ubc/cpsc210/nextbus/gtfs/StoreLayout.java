@@ -0,0 +1,147 @@
+package ca.ubc.cpsc210.nextbus.gtfs;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Layout of a schedule store file, shared by the importer that writes it and
+ * the store that reads it.
+ *
+ * The file starts with a header of counts, followed by fixed-size records in
+ * this order (all integers are 4-byte big-endian):
+ * <ul>
+ * <li>stops, sorted by stop number: number, latitude and longitude in
+ * microdegrees, name, first stop-route, stop-route count, first departure,
+ * departure count</li>
+ * <li>stop-routes: route index of each route serving a stop, grouped by stop</li>
+ * <li>routes: name</li>
+ * <li>trips: route index, service index, headsign</li>
+ * <li>services: days of week (bit 0 is Monday), start date, end date, first
+ * exception, exception count</li>
+ * <li>exceptions, grouped by service and sorted by date: date, type (1 if
+ * service is added, 2 if removed)</li>
+ * <li>string offsets: start of each string in string bytes, plus end of last</li>
+ * <li>string bytes: UTF-8 text of all interned strings, padded to 4 bytes</li>
+ * <li>departures, grouped by stop and sorted by time: seconds after start of
+ * service day, trip index</li>
+ * </ul>
+ * Names and headsigns are indices into the strings.  Dates are integers of the
+ * form yyyymmdd.
+ */
+class StoreLayout {
+	static final int MAGIC = 0x47544631;	// "GTF1"
+	static final int HEADER_SIZE = 40;
+
+	static final int STOP_SIZE = 32;
+	static final int STOP_ROUTE_SIZE = 4;
+	static final int ROUTE_SIZE = 4;
+	static final int TRIP_SIZE = 12;
+	static final int SERVICE_SIZE = 20;
+	static final int EXCEPTION_SIZE = 8;
+	static final int DEPARTURE_SIZE = 8;
+
+	static final int EXCEPTION_ADDED = 1;
+	static final int EXCEPTION_REMOVED = 2;
+
+	final int stopCount;
+	final int stopRouteCount;
+	final int routeCount;
+	final int tripCount;
+	final int serviceCount;
+	final int exceptionCount;
+	final int stringCount;
+	final int stringBytes;
+	final int departureCount;
+
+	final int stops;
+	final int stopRoutes;
+	final int routes;
+	final int trips;
+	final int services;
+	final int exceptions;
+	final int stringOffsets;
+	final int strings;
+	final int departures;
+	final long size;
+
+	/**
+	 * Constructor
+	 * @param counts  number of stops, stop-routes, routes, trips, services,
+	 * exceptions, strings, string bytes and departures, in header order
+	 */
+	StoreLayout(int... counts) {
+		stopCount = counts[0];
+		stopRouteCount = counts[1];
+		routeCount = counts[2];
+		tripCount = counts[3];
+		serviceCount = counts[4];
+		exceptionCount = counts[5];
+		stringCount = counts[6];
+		stringBytes = counts[7];
+		departureCount = counts[8];
+
+		// summed as longs, so that counts read from a damaged header give a size
+		// that does not match the file rather than offsets that wrap around
+		long offset = HEADER_SIZE;
+		stops = (int) offset;
+		offset += (long) stopCount * STOP_SIZE;
+		stopRoutes = (int) offset;
+		offset += (long) stopRouteCount * STOP_ROUTE_SIZE;
+		routes = (int) offset;
+		offset += (long) routeCount * ROUTE_SIZE;
+		trips = (int) offset;
+		offset += (long) tripCount * TRIP_SIZE;
+		services = (int) offset;
+		offset += (long) serviceCount * SERVICE_SIZE;
+		exceptions = (int) offset;
+		offset += (long) exceptionCount * EXCEPTION_SIZE;
+		stringOffsets = (int) offset;
+		offset += ((long) stringCount + 1) * 4;
+		strings = (int) offset;
+		offset += ((long) stringBytes + 3) & ~3L;
+		departures = (int) offset;
+		offset += (long) departureCount * DEPARTURE_SIZE;
+		size = offset;
+	}
+
+	/**
+	 * Read layout from header of store
+	 * @param buf  the mapped store
+	 * @return layout of store
+	 * @throws IOException  when the store is not a schedule store of this version,
+	 * or its size does not match its header
+	 */
+	static StoreLayout read(ByteBuffer buf) throws IOException {
+		if (buf.capacity() < HEADER_SIZE || buf.getInt(0) != MAGIC)
+			throw new IOException("Not a schedule store");
+
+		int[] counts = new int[(HEADER_SIZE - 4) / 4];
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] = buf.getInt(4 + 4 * i);
+			if (counts[i] < 0)
+				throw new IOException("Schedule store is corrupt");
+		}
+
+		StoreLayout layout = new StoreLayout(counts);
+		if (layout.size != buf.capacity())
+			throw new IOException("Schedule store is truncated");
+		return layout;
+	}
+
+	/**
+	 * Write header of store
+	 * @param buf  the mapped store
+	 */
+	void write(ByteBuffer buf) {
+		buf.putInt(0, MAGIC);
+		buf.putInt(4, stopCount);
+		buf.putInt(8, stopRouteCount);
+		buf.putInt(12, routeCount);
+		buf.putInt(16, tripCount);
+		buf.putInt(20, serviceCount);
+		buf.putInt(24, exceptionCount);
+		buf.putInt(28, stringCount);
+		buf.putInt(32, stringBytes);
+		buf.putInt(36, departureCount);
+	}
+}
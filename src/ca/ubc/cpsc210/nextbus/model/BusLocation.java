@@ -1,5 +1,7 @@
 package ca.ubc.cpsc210.nextbus.model;
 
+import java.util.TimeZone;
+
 import ca.ubc.cpsc210.nextbus.util.LatLon;
 
 /**
@@ -11,7 +13,21 @@ public class BusLocation {
 	private BusRoute route;
 	private String dest;
 	private String time;
+	private long recordedAt;
 	private LatLon latlon;
+	
+	/**
+	 * Time zone in which Translink records times
+	 */
+	private static final TimeZone TRANSLINK_TIME_ZONE = TimeZone.getTimeZone("America/Vancouver");
+	
+	/**
+	 * Largest time (ms) by which a recorded time may be ahead of the device clock 
+	 * before it is taken to be from the previous day
+	 */
+	private static final long CLOCK_SKEW = 60 * 60 * 1000;
+
+	private static final long MS_PER_DAY = 24 * 60 * 60 * 1000;
 
 	/**
 	 * Constructor
@@ -20,13 +36,14 @@ public class BusLocation {
 	 * @param lat    latitude of bus
 	 * @param lon    longitude of bus
 	 * @param dest   destination
-	 * @param time   time at which location was recorded
+	 * @param time   time at which location was recorded (for example, "10:23:42 pm")
 	 */
 	public BusLocation(int id, BusRoute route, double lat, double lon, String dest, String time) {
 		this.id = id;
 		this.route = route;
 		this.dest = dest;
 		this.time = time;
+		recordedAt = parseRecordedTime(time, System.currentTimeMillis());
 		latlon = new LatLon(lat, lon);
 	}
 	
@@ -69,6 +86,15 @@ public class BusLocation {
 	public String getTime() {
 	    return time;
 	}
+	
+	/**
+	 * Gets time bus location was recorded, as parsed when location was created
+	 * @return time location was recorded in ms since the epoch, or 0 if time 
+	 * could not be parsed
+	 */
+	public long getRecordedAt() {
+		return recordedAt;
+	}
 
 	/**
 	 * Produce a string describing destination and time
@@ -81,4 +107,89 @@ public class BusLocation {
 	public String getDescription() {
 		return "Destination: " + dest + "\nLocation at: " + time;
 	}
+	
+	/**
+	 * Convert time of day recorded by Translink to a point in time: the latest 
+	 * such time in Vancouver that is no more than CLOCK_SKEW ahead of now.  
+	 * Accepts 12-hour times with am/pm (for example, "10:23:42 pm") and 24-hour
+	 * times; seconds are optional.
+	 * @param time  time of day
+	 * @param now   current time in ms since the epoch
+	 * @return time in ms since the epoch, or 0 if time cannot be parsed
+	 */
+	static long parseRecordedTime(String time, long now) {
+		if (time == null)
+			return 0;
+		
+		int hour = 0;
+		int minute = 0;
+		int second = 0;
+		int field = 0;
+		boolean seenDigit = false;
+		int pos = 0;
+		int length = time.length();
+		
+		for (; pos < length && field < 3; pos++) {
+			char c = time.charAt(pos);
+			if (c >= '0' && c <= '9') {
+				int digit = c - '0';
+				if (field == 0)
+					hour = hour * 10 + digit;
+				else if (field == 1)
+					minute = minute * 10 + digit;
+				else
+					second = second * 10 + digit;
+				seenDigit = true;
+			}
+			else if (c == ':' && seenDigit) {
+				field++;
+				seenDigit = false;
+			}
+			else if (c == ' ')
+				break;
+			else
+				return 0;
+		}
+		
+		if (field < 1 || !seenDigit)
+			return 0;
+		
+		// am/pm suffix, compared in place so that no strings are built
+		while (pos < length && Character.isWhitespace(time.charAt(pos)))
+			pos++;
+		while (length > pos && Character.isWhitespace(time.charAt(length - 1)))
+			length--;
+		boolean am = (length - pos == 2) && time.regionMatches(true, pos, "am", 0, 2);
+		boolean pm = (length - pos == 2) && time.regionMatches(true, pos, "pm", 0, 2);
+		if (am || pm) {
+			if (hour < 1 || hour > 12)
+				return 0;
+			hour = (hour % 12) + (pm ? 12 : 0);
+		}
+		else if (length > pos || hour > 23)
+			return 0;
+		
+		if (minute > 59 || second > 59)
+			return 0;
+		
+		// work in Vancouver local time from today's midnight, then convert back
+		long offset = TRANSLINK_TIME_ZONE.getOffset(now);
+		long local = (now + offset) / MS_PER_DAY * MS_PER_DAY
+				+ ((hour * 60L + minute) * 60 + second) * 1000;
+		long recorded = local - TRANSLINK_TIME_ZONE.getOffset(local - offset);
+		
+		if (recorded > now + CLOCK_SKEW) {
+			local -= MS_PER_DAY;
+			recorded = local - TRANSLINK_TIME_ZONE.getOffset(local - offset);
+		}
+		else {
+			// fix recorded just after midnight by a clock ahead of ours
+			long tomorrow = local + MS_PER_DAY;
+			tomorrow -= TRANSLINK_TIME_ZONE.getOffset(tomorrow - offset);
+			if (tomorrow <= now + CLOCK_SKEW)
+				recorded = tomorrow;
+		}
+		
+		return recorded;
+	}
 }
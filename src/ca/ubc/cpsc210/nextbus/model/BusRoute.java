@@ -1,20 +1,35 @@
 package ca.ubc.cpsc210.nextbus.model;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import ca.ubc.cpsc210.nextbus.util.BoundingBox;
+import ca.ubc.cpsc210.nextbus.util.RouteSimplifier;
 import ca.ubc.cpsc210.nextbus.util.Segment;
+import ca.ubc.cpsc210.nextbus.util.SegmentIndex;
 
 /**
  * A bus route
+ *
+ * Routes are shared by all stops they serve (see BusRouteRegistry), so they may
+ * be read on the UI thread while their map is retrieved on another thread.  The
+ * list of segments is never modified once published: it is replaced as a whole.
  */
 public class BusRoute implements Comparable<BusRoute> {
+	/**
+	 * Range of map zoom levels for which simplified segments are built.
+	 * Segments are drawn in full at higher zoom levels.
+	 */
+	public static final int MIN_DETAIL_ZOOM = 8;
+	public static final int MAX_DETAIL_ZOOM = 16;
+	
 	private String name;
-	private BoundingBox bounds;		
-	private List<Segment> segments;  
-	private boolean hasSegments;		
-	private String mapURL;	        
+	private volatile BoundingBox bounds;		
+	private volatile List<Segment> segments;  
+	private volatile String mapURL;	        
+	private volatile List<List<Segment>> levelsOfDetail;
+	private volatile SegmentIndex segmentIndex;
 
 	/**
 	 * Constructor 
@@ -23,9 +38,8 @@ public class BusRoute implements Comparable<BusRoute> {
 	 */
 	public BusRoute(String name) {
 		this.name = name;
-		segments = new ArrayList<Segment>();
+		segments = Collections.emptyList();
 		bounds = new BoundingBox();	
-		hasSegments = false;
 		mapURL = null;
 	}
 	
@@ -91,9 +105,22 @@ public class BusRoute implements Comparable<BusRoute> {
 	 * 
 	 * @param seg  segment to add
 	 */
-	public void addSegment(Segment seg) {
-		segments.add(seg);
-		hasSegments = true;
+	public synchronized void addSegment(Segment seg) {
+		List<Segment> added = new ArrayList<Segment>(segments);
+		added.add(seg);
+		setSegments(added);
+	}
+	
+	/**
+	 * Replace all segments of this route at once, so that readers see either
+	 * the old segments or the new ones but never a mixture
+	 * 
+	 * @param segs  the new segments
+	 */
+	public synchronized void setSegments(List<Segment> segs) {
+		levelsOfDetail = null;
+		segmentIndex = null;
+		segments = Collections.unmodifiableList(new ArrayList<Segment>(segs));
 	}
 	
 	/**
@@ -102,17 +129,100 @@ public class BusRoute implements Comparable<BusRoute> {
 	 * @return true if route has segments, false otherwise
 	 */
 	public boolean hasSegments() {
-		return hasSegments;
+		return !segments.isEmpty();
 	}
 
     /**
      * Get list of segments associated with this route
      * 
-     * @return  list of segments for this route
+     * @return  list of segments for this route (unmodifiable)
      */
     public List<Segment> getSegments() {
         return segments;
     }
+    
+    /**
+     * Build simplified copies of this route's segments for each zoom level from 
+     * MIN_DETAIL_ZOOM to MAX_DETAIL_ZOOM, so that no more points are drawn than 
+     * can be seen.  May take a while for long routes: call off the UI thread.
+     */
+    public void buildLevelsOfDetail() {
+    	List<Segment> full = segments;
+    	List<List<Segment>> levels = new ArrayList<List<Segment>>();
+    	
+    	for (int zoom = MIN_DETAIL_ZOOM; zoom <= MAX_DETAIL_ZOOM; zoom++) {
+    		double tolerance = RouteSimplifier.toleranceForZoom(zoom);
+    		List<Segment> level = new ArrayList<Segment>();
+    		for (Segment seg : full) {
+    			level.add(RouteSimplifier.simplify(seg, tolerance));
+    		}
+    		levels.add(level);
+    	}
+    	
+    	synchronized (this) {
+    		// don't publish levels built from segments that have since been replaced
+    		if (full == segments)
+    			levelsOfDetail = levels;
+    	}
+    }
+    
+    /**
+     * Get segments to draw at given map zoom level.  Produces full segments if
+     * zoom level is above MAX_DETAIL_ZOOM or levels of detail have not been built.
+     * 
+     * @param zoomLevel  the map zoom level
+     * @return list of segments for this route, simplified for zoom level
+     */
+    public List<Segment> getSegments(int zoomLevel) {
+    	List<List<Segment>> levels = levelsOfDetail;
+    	
+    	if (levels == null || zoomLevel > MAX_DETAIL_ZOOM)
+    		return segments;
+    	
+    	return levels.get(Math.max(zoomLevel, MIN_DETAIL_ZOOM) - MIN_DETAIL_ZOOM);
+    }
+    
+    /**
+     * Get spatial index over this route's segments, building it if necessary.
+     * Building may take a while for long routes: call off the UI thread first.
+     * 
+     * @return index of this route's segments
+     */
+    public SegmentIndex getSegmentIndex() {
+    	SegmentIndex index = segmentIndex;
+    	if (index != null)
+    		return index;
+    	
+    	List<Segment> full = segments;
+    	index = new SegmentIndex(full);
+    	
+    	synchronized (this) {
+    		// don't publish index built from segments that have since been replaced
+    		if (full == segments)
+    			segmentIndex = index;
+    	}
+    	
+    	return index;
+    }
+    
+    /**
+     * Get spatial index over this route's segments if it has already been built.
+     * For callers on the UI thread, which must not build it.
+     * 
+     * @return index of this route's segments, or null if it has not been built
+     */
+    public SegmentIndex getBuiltSegmentIndex() {
+    	return segmentIndex;
+    }
+    
+    /**
+     * Determines if levels of detail have been built for this route
+     * 
+     * @return true if levels of detail are available, false otherwise
+     */
+    public boolean hasLevelsOfDetail() {
+    	return levelsOfDetail != null;
+    }
 
 
     /**
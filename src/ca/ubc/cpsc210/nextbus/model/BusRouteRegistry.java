@@ -0,0 +1,70 @@
+package ca.ubc.cpsc210.nextbus.model;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Holds one BusRoute per route name for the whole app, so that a route served
+ * by several stops has its map URL, bounds and segments retrieved and stored
+ * only once.  Safe to use from any thread.
+ *
+ * Design Pattern: Singleton
+ */
+public class BusRouteRegistry {
+	private static BusRouteRegistry instance;
+
+	private ConcurrentHashMap<String, BusRoute> routes;
+
+	/**
+	 * Constructor
+	 */
+	private BusRouteRegistry() {
+		routes = new ConcurrentHashMap<String, BusRoute>();
+	}
+
+	/**
+	 * Gets single instance of this class
+	 * @return instance (the only one) of BusRouteRegistry
+	 */
+	public static synchronized BusRouteRegistry getInstance() {
+		if (instance == null) {
+			instance = new BusRouteRegistry();
+		}
+
+		return instance;
+	}
+
+	/**
+	 * Gets the route having given name, creating it if no such route exists yet
+	 * @param name  name of route
+	 * @return the one route having that name
+	 */
+	public BusRoute intern(String name) {
+		BusRoute route = routes.get(name);
+
+		if (route == null) {
+			BusRoute created = new BusRoute(name);
+			route = routes.putIfAbsent(name, created);
+			if (route == null)
+				route = created;
+		}
+
+		return route;
+	}
+
+	/**
+	 * Gets the route having given name, if it exists
+	 * @param name  name of route
+	 * @return the route having that name, or null if no such route has been interned
+	 */
+	public BusRoute lookup(String name) {
+		return routes.get(name);
+	}
+
+	/**
+	 * Number of routes held
+	 * @return number of routes
+	 */
+	public int size() {
+		return routes.size();
+	}
+}
@@ -1,10 +1,16 @@
 package ca.ubc.cpsc210.nextbus.model;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -16,6 +22,9 @@ import ca.ubc.cpsc210.nextbus.util.LatLon;
  * Bus stop information including stop number, description, location (lat/lon),
  * bus routes serving this stop, estimated wait times for buses serving this stop
  * and bus locations for buses serving this stop.
+ *
+ * New wait times and bus locations can be merged into those already held, in
+ * which case listeners are told only what has changed.
  */
 public class BusStop {
 
@@ -23,8 +32,11 @@ public class BusStop {
 	private String locationDescription;
 	private LatLon latlon;
 	private Set<BusRoute> routes;
-	private Set<BusWaitTime> waitTimes;
-	private List<BusLocation> busLocations;
+	private Map<String, BusRoute> routesByName;
+	private volatile Set<BusWaitTime> waitTimes;
+	private volatile List<BusLocation> busLocations;
+	// copy-on-write, so each notification iterates a snapshot of the listeners
+	private List<BusStopListener> listeners = new CopyOnWriteArrayList<BusStopListener>();
  
 	/**
 	 * Constructor 
@@ -38,7 +50,7 @@ public class BusStop {
 		stopNum = json.getInt("StopNo");
 		locationDescription = json.getString("Name");
 		latlon = getLatLonFromJSON(json);
-		routes = getRoutesFromJSON(json);
+		setRoutes(getRoutesFromJSON(json));
 		waitTimes = new TreeSet<BusWaitTime>();
 		busLocations = new ArrayList<BusLocation>();
 	}
@@ -50,13 +62,13 @@ public class BusStop {
 	 * @param location  description of bus stop location
 	 * @param lat       latitude of stop
 	 * @param lon       longitude of stop
-	 * @param routes    set of routes that service this stop
+	 * @param routes    set of routes that service this stop (null if none)
 	 */
 	public BusStop(int stopNum, String location, double lat, double lon, Set<BusRoute> routes) {
 		this.stopNum = stopNum;
 		this.locationDescription = location;
 		latlon = new LatLon(lat, lon);
-		this.routes = routes;
+		setRoutes(routes);
 		waitTimes = new TreeSet<BusWaitTime>();
 		busLocations = new ArrayList<BusLocation>();
 	}
@@ -91,62 +103,211 @@ public class BusStop {
 	 * 
 	 * @see ca.ubc.cpsc210.nextbus.model.BusWaitTime#compareTo(BusWaitTime)
 	 * 
-	 * @return  set of wait times for buses at this stop
+	 * @return  set of wait times for buses at this stop (unmodifiable)
 	 */
 	public Set<BusWaitTime> getWaitTimes() {
-        return waitTimes;
+        return Collections.unmodifiableSet(waitTimes);
     }
 	
+	/**
+	 * Gets set of routes that serve this stop
+	 * @return  routes serving this stop (unmodifiable)
+	 */
+	public Set<BusRoute> getRoutes() {
+		return routes;
+	}
+	
 	/**
 	 * Return bus route with specified name or null if no such route serves this stop.
+	 * Routes are looked up by name in constant time, as parsers look up a route for
+	 * every estimate and bus location.
 	 * @param routeName  route name
 	 * @return bus route with given name or null if no such route serves this stop.
 	 */
 	public BusRoute getRouteNamed(String routeName) {
-		for(BusRoute route : routes)
-			if(route.getName().equals(routeName))
-				return route;
+		return routesByName.get(routeName);
+	}
+	
+	/**
+	 * Set routes serving this stop and index them by name
+	 * @param routes  routes that service this stop (null if none)
+	 */
+	private void setRoutes(Set<BusRoute> routes) {
+		Set<BusRoute> copy = new HashSet<BusRoute>();
+		routesByName = new HashMap<String, BusRoute>();
+		
+		if (routes != null) {
+			for (BusRoute next : routes) {
+				copy.add(next);
+				routesByName.put(next.getName(), next);
+			}
+		}
 		
-		return null;
+		this.routes = Collections.unmodifiableSet(copy);
 	}
 
 	/**
-	 * Add an estimated wait time for a bus at this stop
-	 * @param bwt estimated wait time
+	 * Gets a list of bus locations serving this stop
+	 * 
+	 * @return list of bus locations for this stop (unmodifiable)
 	 */
-	public void addWaitTime(BusWaitTime bwt) {
-		waitTimes.add(bwt);
+	public List<BusLocation> getBusLocations() {
+	    return Collections.unmodifiableList(busLocations);
 	}
 	
 	/**
-	 * Clear wait times for buses at this stop
+	 * Register listener to be told of changes merged into this stop
+	 * @param listener  the listener
 	 */
-	public void clearWaitTimes() {
-		waitTimes.clear();
+	public void addListener(BusStopListener listener) {
+		listeners.add(listener);
 	}
 	
 	/**
-	 * Add the location of a bus that is serving this stop
-	 * @param bl  bus location
+	 * Stop telling listener of changes to this stop
+	 * @param listener  the listener
 	 */
-	public void addBusLocation(BusLocation bl) {
-		busLocations.add(bl);
+	public void removeListener(BusStopListener listener) {
+		listeners.remove(listener);
 	}
 	
 	/**
-	 * Clear bus locations for buses serving this stop
+	 * Replace wait times at this stop with latest estimates, keeping existing 
+	 * wait time objects that have not changed, and tell listeners what changed.
+	 * 
+	 * Translink estimates carry no trip identifier, so an estimate is matched 
+	 * to the previous one for the same route and position in order of wait time 
+	 * (the first 099 with the first 099, and so on).  The wait time set is 
+	 * replaced rather than modified, so readers on other threads are not disturbed.
+	 * Listeners are told after the merge is complete and the stop is unlocked, so
+	 * they may read the stop or merge into it without risk of deadlock.
+	 * 
+	 * @param latest  latest wait time estimates
+	 * @return changes made
 	 */
-	public void clearBusLocations() {
-		busLocations.clear();
+	public ChangeSet<BusWaitTime> mergeWaitTimes(Collection<BusWaitTime> latest) {
+		ChangeSet<BusWaitTime> changes = new ChangeSet<BusWaitTime>();
+		
+		synchronized (this) {
+			Map<String, BusWaitTime> previous = keyByRouteOrdinal(waitTimes);
+			Set<BusWaitTime> merged = new TreeSet<BusWaitTime>();
+			
+			for (Map.Entry<String, BusWaitTime> next : keyByRouteOrdinal(new TreeSet<BusWaitTime>(latest)).entrySet()) {
+				BusWaitTime wait = next.getValue();
+				BusWaitTime old = previous.remove(next.getKey());
+				
+				if (old == null)
+					changes.addAdded(wait);
+				else if (!old.equals(wait))
+					changes.addUpdated(wait);
+				else
+					wait = old;
+				merged.add(wait);
+			}
+			
+			for (BusWaitTime gone : previous.values())
+				changes.addRemoved(gone);
+			
+			waitTimes = merged;
+		}
+		
+		if (!changes.isEmpty()) {
+			for (BusStopListener next : listeners)
+				next.waitTimesChanged(this, changes);
+		}
+		
+		return changes;
 	}
 	
 	/**
-	 * Gets a list of bus locations serving this stop
+	 * Replace bus locations for this stop with latest locations, keeping existing
+	 * location objects that have not changed, and tell listeners what changed.
+	 * Buses are matched by vehicle ID.  The location list is replaced rather 
+	 * than modified, so readers on other threads are not disturbed.  New positions
+	 * are added to the history of each vehicle kept by the VehicleTracker.  As for
+	 * wait times, the tracker and listeners are told once the stop is unlocked.
 	 * 
-	 * @return list of bus locations for this stop
+	 * @param latest  latest bus locations
+	 * @return changes made
 	 */
-	public List<BusLocation> getBusLocations() {
-	    return busLocations;
+	public ChangeSet<BusLocation> mergeBusLocations(Collection<BusLocation> latest) {
+		ChangeSet<BusLocation> changes = new ChangeSet<BusLocation>();
+		List<BusLocation> recorded = new ArrayList<BusLocation>();
+		
+		synchronized (this) {
+			Map<Integer, BusLocation> previous = new HashMap<Integer, BusLocation>();
+			List<BusLocation> merged = new ArrayList<BusLocation>(latest.size());
+			
+			for (BusLocation next : busLocations)
+				previous.put(next.getID(), next);
+			
+			for (BusLocation next : latest) {
+				BusLocation old = previous.remove(next.getID());
+				
+				if (old == null)
+					changes.addAdded(next);
+				else if (!old.getLatLon().equals(next.getLatLon()))
+					changes.addMoved(next);
+				else if (!sameDetails(old, next))
+					changes.addUpdated(next);
+				else
+					next = old;
+				
+				if (next != old)
+					recorded.add(next);
+				merged.add(next);
+			}
+			
+			for (BusLocation gone : previous.values())
+				changes.addRemoved(gone);
+			
+			busLocations = merged;
+		}
+		
+		VehicleTracker tracker = VehicleTracker.getInstance();
+		for (BusLocation next : recorded)
+			tracker.record(next);
+		
+		if (!changes.isEmpty()) {
+			for (BusStopListener next : listeners)
+				next.busLocationsChanged(this, changes);
+		}
+		
+		return changes;
+	}
+	
+	/**
+	 * Key wait times by route name and position among wait times for the same route,
+	 * for example "099/0", "099/1", "014/0"
+	 * @param waits  wait times in order of increasing wait time
+	 * @return wait times keyed by route and position
+	 */
+	private static Map<String, BusWaitTime> keyByRouteOrdinal(Collection<BusWaitTime> waits) {
+		Map<String, BusWaitTime> keyed = new LinkedHashMap<String, BusWaitTime>();
+		Map<String, Integer> counts = new HashMap<String, Integer>();
+		
+		for (BusWaitTime next : waits) {
+			String name = next.getRoute().getName();
+			Integer count = counts.get(name);
+			int ordinal = (count == null) ? 0 : count;
+			counts.put(name, ordinal + 1);
+			keyed.put(name + "/" + ordinal, next);
+		}
+		
+		return keyed;
+	}
+	
+	/**
+	 * Determine if two locations of the same bus have the same route, destination and time
+	 */
+	private static boolean sameDetails(BusLocation bl1, BusLocation bl2) {
+		return same(bl1.getRoute(), bl2.getRoute()) 
+				&& same(bl1.getDestination(), bl2.getDestination())
+				&& same(bl1.getTime(), bl2.getTime());
+	}
+	
+	private static boolean same(Object o1, Object o2) {
+		return (o1 == null) ? o2 == null : o1.equals(o2);
 	}
 	
     /**
@@ -230,6 +391,7 @@ public class BusStop {
 
 	/**
 	 * Parse set of bus routes from JSONObject containing route names.  
+	 * Routes are shared with other stops through the route registry.
 	 * @param json  route names as JSONObject
 	 * @return  set of bus routes having names parsed from json
 	 * @throws JSONException
@@ -237,10 +399,11 @@ public class BusStop {
 	private Set<BusRoute> getRoutesFromJSON(JSONObject json) throws JSONException {
 		Set<BusRoute> routes = new HashSet<BusRoute>();
 		JSONArray routeNames = json.getJSONArray("Routes");
+		BusRouteRegistry registry = BusRouteRegistry.getInstance();
 		
 		for(int index = 0; index < routeNames.length(); index++) {
 			String routeName = routeNames.getString(index);
-			BusRoute route = new BusRoute(routeName);
+			BusRoute route = registry.intern(routeName);
 			routes.add(route);
 		}
 		
@@ -0,0 +1,25 @@
+package ca.ubc.cpsc210.nextbus.model;
+
+/**
+ * Receives changes to the realtime data of a bus stop.
+ *
+ * Changes are delivered on the thread that merged them into the stop (usually
+ * a background thread), so listeners that update the UI must post to the UI
+ * thread.
+ */
+public interface BusStopListener {
+
+	/**
+	 * Called when wait times at stop have changed
+	 * @param stop     the stop
+	 * @param changes  wait times added, updated and removed
+	 */
+	void waitTimesChanged(BusStop stop, ChangeSet<BusWaitTime> changes);
+
+	/**
+	 * Called when locations of buses serving stop have changed
+	 * @param stop     the stop
+	 * @param changes  buses added, moved, updated and removed
+	 */
+	void busLocationsChanged(BusStop stop, ChangeSet<BusLocation> changes);
+}
@@ -2,12 +2,15 @@ package ca.ubc.cpsc210.nextbus.model;
 
 
 /**
- * Wait time estimate at a particular stop for a particular bus serving a route
+ * Wait time estimate at a particular stop for a particular bus serving a route.
+ * An estimate is either realtime (from Translink's tracking of the bus) or
+ * scheduled (from the published timetable, used when Translink cannot be reached).
  */
 public class BusWaitTime implements Comparable<BusWaitTime> {
 	private BusRoute route;
 	private int waitTime;
 	private boolean isCancelled;
+	private boolean isScheduled;
 
 	/**
 	 * Constructor 
@@ -17,8 +20,21 @@ public class BusWaitTime implements Comparable<BusWaitTime> {
 	 * @param cancelledStatus  true if bus is cancelled, false otherwise
 	 */
 	public BusWaitTime(BusRoute route, int estimate, boolean cancelledStatus) {
+		this(route, estimate, cancelledStatus, false);
+	}
+
+	/**
+	 * Constructor 
+	 * 
+	 * @param route     the route that bus is servicing
+	 * @param estimate  estimated wait time in minutes
+	 * @param cancelledStatus  true if bus is cancelled, false otherwise
+	 * @param scheduled  true if estimate is from timetable, false if realtime
+	 */
+	public BusWaitTime(BusRoute route, int estimate, boolean cancelledStatus, boolean scheduled) {
 		this.route = route;
 		this.isCancelled = cancelledStatus;
+		this.isScheduled = scheduled;
 		waitTime = estimate;
 	}
 
@@ -47,6 +63,15 @@ public class BusWaitTime implements Comparable<BusWaitTime> {
 		return isCancelled;
 	}
 
+	/**
+	 * Determine if estimate is from timetable rather than realtime
+	 * 
+	 * @return  true if scheduled, false if realtime
+	 */
+	public boolean isScheduled() {
+		return isScheduled;
+	}
+
 	/**
 	 * Get string representation of wait time in format:
 	 * 
@@ -54,7 +79,8 @@ public class BusWaitTime implements Comparable<BusWaitTime> {
 	 * or
 	 * <route name>: <wait time> mins - cancelled
 	 * 
-	 * where <wait time> is printed as "NOW" if wait time is under 2 minutes
+	 * where <wait time> is printed as "NOW" if wait time is under 2 minutes,
+	 * followed by " (scheduled)" if estimate is from timetable
 	 * 
 	 * For example:
 	 * 099: NOW
@@ -64,19 +90,25 @@ public class BusWaitTime implements Comparable<BusWaitTime> {
 	 */
 	@Override
 	public String toString() {
-		return route.getName() + ": " + (waitTime < 2 ? "NOW" : waitTime + " mins") + (isCancelled ? " - cancelled" : "");
+		return route.getName() + ": " + (waitTime < 2 ? "NOW" : waitTime + " mins") + (isCancelled ? " - cancelled" : "")
+				+ (isScheduled ? " (scheduled)" : "");
 	}
 	
 	/**
 	 * Compare this wait time to another.  Buses with the same wait times and cancelled status 
 	 * are ordered by route.  If wait times are the same but cancelled status is different,
 	 * cancelled services are ordered before those that are not cancelled.  Otherwise,  
-	 * ordered by increasing wait time.
+	 * ordered by increasing wait time.  Realtime estimates are ordered before
+	 * scheduled estimates that are otherwise the same.
 	 */
     @Override
     public int compareTo(BusWaitTime other) {
-        if(waitTime == other.waitTime && isCancelled == other.isCancelled)
-            return this.route.compareTo(other.route);
+        if(waitTime == other.waitTime && isCancelled == other.isCancelled) {
+            int byRoute = this.route.compareTo(other.route);
+            if (byRoute != 0 || isScheduled == other.isScheduled)
+                return byRoute;
+            return isScheduled ? 1 : -1;
+        }
         else if (waitTime == other.waitTime)
         	return (isCancelled ? -1 : 1);
         else
@@ -91,6 +123,7 @@ public class BusWaitTime implements Comparable<BusWaitTime> {
         final int prime = 31;
         int result = 1;
         result = prime * result + (isCancelled ? 1231 : 1237);
+        result = prime * result + (isScheduled ? 1231 : 1237);
         result = prime * result + ((route == null) ? 0 : route.hashCode());
         result = prime * result + waitTime;
         return result;
@@ -110,6 +143,8 @@ public class BusWaitTime implements Comparable<BusWaitTime> {
         BusWaitTime other = (BusWaitTime) obj;
         if (isCancelled != other.isCancelled)
             return false;
+        if (isScheduled != other.isScheduled)
+            return false;
         if (route == null) {
             if (other.route != null)
                 return false;
@@ -0,0 +1,110 @@
+package ca.ubc.cpsc210.nextbus.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Differences between two successive sets of realtime data (wait times or bus
+ * locations) for a stop, so that only what has changed needs to be redrawn.
+ *
+ * @param <T>  type of data that has changed
+ */
+public class ChangeSet<T> {
+	private List<T> added;
+	private List<T> moved;
+	private List<T> updated;
+	private List<T> removed;
+
+	/**
+	 * Constructor - creates empty change set
+	 */
+	public ChangeSet() {
+		added = new ArrayList<T>();
+		moved = new ArrayList<T>();
+		updated = new ArrayList<T>();
+		removed = new ArrayList<T>();
+	}
+
+	/**
+	 * Record an entry that was not present before
+	 * @param item  the new entry
+	 */
+	public void addAdded(T item) {
+		added.add(item);
+	}
+
+	/**
+	 * Record an entry whose position has changed
+	 * @param item  the entry at its new position
+	 */
+	public void addMoved(T item) {
+		moved.add(item);
+	}
+
+	/**
+	 * Record an entry whose position is unchanged but whose other details have changed
+	 * @param item  the entry with its new details
+	 */
+	public void addUpdated(T item) {
+		updated.add(item);
+	}
+
+	/**
+	 * Record an entry that is no longer present
+	 * @param item  the entry as it was before removal
+	 */
+	public void addRemoved(T item) {
+		removed.add(item);
+	}
+
+	/**
+	 * Gets entries that were not present before
+	 * @return added entries (unmodifiable)
+	 */
+	public List<T> getAdded() {
+		return Collections.unmodifiableList(added);
+	}
+
+	/**
+	 * Gets entries whose position has changed (always empty for wait times)
+	 * @return moved entries (unmodifiable)
+	 */
+	public List<T> getMoved() {
+		return Collections.unmodifiableList(moved);
+	}
+
+	/**
+	 * Gets entries whose details other than position have changed
+	 * @return updated entries (unmodifiable)
+	 */
+	public List<T> getUpdated() {
+		return Collections.unmodifiableList(updated);
+	}
+
+	/**
+	 * Gets entries that are no longer present
+	 * @return removed entries (unmodifiable)
+	 */
+	public List<T> getRemoved() {
+		return Collections.unmodifiableList(removed);
+	}
+
+	/**
+	 * Determine if anything has changed
+	 * @return true if there are no changes, false otherwise
+	 */
+	public boolean isEmpty() {
+		return added.isEmpty() && moved.isEmpty() && updated.isEmpty() && removed.isEmpty();
+	}
+
+	/**
+	 * Produces number of changes of each kind, for example:
+	 * "added: 1, moved: 3, updated: 0, removed: 1"
+	 */
+	@Override
+	public String toString() {
+		return "added: " + added.size() + ", moved: " + moved.size()
+				+ ", updated: " + updated.size() + ", removed: " + removed.size();
+	}
+}
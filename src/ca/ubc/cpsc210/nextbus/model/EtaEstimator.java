@@ -0,0 +1,138 @@
+package ca.ubc.cpsc210.nextbus.model;
+
+import ca.ubc.cpsc210.nextbus.util.LatLon;
+import ca.ubc.cpsc210.nextbus.util.SegmentIndex;
+
+/**
+ * Estimates when a bus will reach a stop from the distance left to travel
+ * along its route, so that a countdown can be shown between polls and
+ * compared with Translink's own estimates.
+ *
+ * The stop and the bus's latest fix are each matched to the route's segments
+ * (see SegmentIndex), and the distance between them is the difference of their
+ * precomputed distances along the segment: constant time per segment, with no
+ * walk along the route.  Every segment passing both the stop and the bus is
+ * tried, in the bus's direction of travel, and the shortest distance ahead is
+ * used.  On a segment that forms a loop, a bus that has passed the stop is
+ * taken to reach it on its next time round.
+ *
+ * Estimates are made on the UI thread, so only a route index that has already
+ * been built (off the UI thread, when the route is retrieved) is used.
+ */
+public class EtaEstimator {
+	/**
+	 * Largest distance (m) of a stop from a route segment for the segment to serve the stop
+	 */
+	public static final double MAX_STOP_DISTANCE = 60;
+
+	/**
+	 * Average speed (m/s) of a bus including stops, used when the bus's speed is unknown
+	 */
+	private static final double DEFAULT_SPEED = 5.5;
+
+	/**
+	 * Range of observed speeds (m/s) used; a bus waiting at a light is not stopped
+	 * for good, and faster speeds come from GPS noise
+	 */
+	private static final double MIN_SPEED = 2;
+	private static final double MAX_SPEED = 20;
+
+	private EtaEstimator() {
+	}
+
+	/**
+	 * Estimate when a vehicle will arrive at a stop
+	 * @param route    route the vehicle is serving
+	 * @param stop     the stop
+	 * @param history  recent fixes of the vehicle
+	 * @param now      current time in ms since the epoch
+	 * @return estimated arrival, or null if vehicle cannot be placed on route ahead
+	 * of stop (route index not built, no fixes, bus or stop off route, or direction unknown)
+	 */
+	public static Eta estimate(BusRoute route, BusStop stop, VehicleHistory history, long now) {
+		SegmentIndex index = (route == null) ? null : route.getBuiltSegmentIndex();
+		if (index == null)
+			return null;
+
+		LatLon stopLatLon = stop.getLatLon();
+
+		synchronized (history) {
+			int last = history.size() - 1;
+			if (last < 0)
+				return null;
+
+			double lat = history.getLatitude(last);
+			double lon = history.getLongitude(last);
+			double remaining = Double.MAX_VALUE;
+
+			for (int seg = 0; seg < index.getSegmentCount(); seg++) {
+				SegmentIndex.Match atStop = index.nearest(stopLatLon.getLatitude(), stopLatLon.getLongitude(),
+						MAX_STOP_DISTANCE, seg);
+				if (atStop == null)
+					continue;
+				SegmentIndex.Match atBus = index.nearest(lat, lon, PositionEstimator.MAX_SNAP_DISTANCE, seg);
+				if (atBus == null)
+					continue;
+				int direction = PositionEstimator.directionOfTravel(index, atBus, history);
+				if (direction == 0)
+					continue;
+
+				double ahead = direction * (atStop.getDistanceAlong() - atBus.getDistanceAlong());
+				if (ahead < 0 && index.isLoop(seg))
+					ahead += index.getLength(seg);
+				if (ahead >= 0)
+					remaining = Math.min(remaining, ahead);
+			}
+
+			if (remaining == Double.MAX_VALUE)
+				return null;
+
+			double speed = history.getSpeed();
+			speed = Double.isNaN(speed) ? DEFAULT_SPEED : Math.max(MIN_SPEED, Math.min(MAX_SPEED, speed));
+
+			// bus has been travelling since its latest fix
+			double elapsed = (now - history.getTime(last)) / 1000.0;
+			double seconds = Math.max(0, remaining / speed - elapsed);
+			return new Eta(remaining, now + (long) (seconds * 1000));
+		}
+	}
+
+	/**
+	 * Estimated arrival of a bus at a stop
+	 */
+	public static class Eta {
+		private double distance;
+		private long arrivalTime;
+
+		Eta(double distance, long arrivalTime) {
+			this.distance = distance;
+			this.arrivalTime = arrivalTime;
+		}
+
+		/**
+		 * Gets distance bus had to travel along route from its latest fix to stop
+		 * @return distance in metres
+		 */
+		public double getDistance() {
+			return distance;
+		}
+
+		/**
+		 * Gets estimated time of arrival
+		 * @return time in ms since the epoch
+		 */
+		public long getArrivalTime() {
+			return arrivalTime;
+		}
+
+		/**
+		 * Gets estimated wait, rounded to the nearest minute, as shown for
+		 * Translink's estimates
+		 * @param now  current time in ms since the epoch
+		 * @return wait time in minutes (0 if bus is due)
+		 */
+		public int getWaitMinutes(long now) {
+			return (int) Math.max(0, Math.round((arrivalTime - now) / 60000.0));
+		}
+	}
+}
@@ -0,0 +1,142 @@
+package ca.ubc.cpsc210.nextbus.model;
+
+import ca.ubc.cpsc210.nextbus.util.GeoMath;
+import ca.ubc.cpsc210.nextbus.util.LatLon;
+import ca.ubc.cpsc210.nextbus.util.Segment;
+import ca.ubc.cpsc210.nextbus.util.SegmentIndex;
+
+/**
+ * Estimates where a bus is now, between polls, by moving it forward along its
+ * route from its latest fix at its observed speed (dead reckoning).
+ *
+ * The latest fix is matched to the nearest point on the route's segments (using
+ * the route's SegmentIndex) and the direction of travel is taken from earlier
+ * fixes (or, failing that, from the vehicle's heading).  The bus is moved along
+ * the segment it was matched to and stops at the end of that segment, unless the
+ * segment forms a loop, in which case it carries on round.  When the bus is too far from its
+ * route, or its speed or direction is unknown, the latest fix is used as is.  So is
+ * it when the route's index has not yet been built: estimates are made on the UI
+ * thread, which must not build it.
+ */
+public class PositionEstimator {
+	/**
+	 * Longest time (ms) for which a bus is moved forward from its latest fix;
+	 * after this the fix is too old for its speed to be trusted
+	 */
+	public static final long MAX_EXTRAPOLATION = 2 * 60 * 1000;
+
+	/**
+	 * Largest distance (m) of a fix from the route for it to be taken as on the route
+	 */
+	public static final double MAX_SNAP_DISTANCE = 50;
+
+	/**
+	 * Smallest distance (m) between fixes from which direction of travel is judged
+	 */
+	private static final double MIN_MOVE = 10;
+
+	private PositionEstimator() {
+	}
+
+	/**
+	 * Estimate position of a vehicle at given time
+	 * @param route    route the vehicle is serving
+	 * @param history  recent fixes of the vehicle
+	 * @param now      time at which position is estimated, in ms since the epoch
+	 * @return estimated position, or null if vehicle has no fixes
+	 */
+	public static LatLon estimate(BusRoute route, VehicleHistory history, long now) {
+		synchronized (history) {
+			int last = history.size() - 1;
+			if (last < 0)
+				return null;
+
+			double lat = history.getLatitude(last);
+			double lon = history.getLongitude(last);
+			LatLon fix = new LatLon(lat, lon);
+			double speed = history.getSpeed();
+			long elapsed = Math.min(now - history.getTime(last), MAX_EXTRAPOLATION);
+
+			SegmentIndex index = (route == null) ? null : route.getBuiltSegmentIndex();
+			if (index == null || Double.isNaN(speed) || elapsed <= 0)
+				return fix;
+
+			SegmentIndex.Match match = index.nearest(lat, lon, MAX_SNAP_DISTANCE);
+			if (match == null)
+				return fix;
+
+			int direction = directionOfTravel(index, match, history);
+			if (direction == 0)
+				return fix;
+
+			int seg = match.getSegment();
+			double along = match.getDistanceAlong() + direction * speed * elapsed / 1000.0;
+			double length = index.getLength(seg);
+			if (index.isLoop(seg) && length > 0) {
+				along %= length;
+				if (along < 0)
+					along += length;
+			}
+			return index.pointAt(seg, along);
+		}
+	}
+
+	/**
+	 * Determine direction of travel along matched segment: compares position of
+	 * latest fix along segment with that of the most recent earlier fix far enough
+	 * away, or failing that, compares vehicle's heading with direction of segment.
+	 * On a segment that forms a loop, the fixes are taken to be the shorter way
+	 * apart round the loop, so that a bus that has just passed the end of the loop
+	 * (and so is near its start) is still seen to be moving forward.
+	 * @return 1 if travelling towards end of segment, -1 if towards start, 0 if unknown
+	 */
+	static int directionOfTravel(SegmentIndex index, SegmentIndex.Match match,
+			VehicleHistory history) {
+		int last = history.size() - 1;
+		double lat = history.getLatitude(last);
+		double lon = history.getLongitude(last);
+
+		for (int i = last - 1; i >= 0; i--) {
+			double prevLat = history.getLatitude(i);
+			double prevLon = history.getLongitude(i);
+			if (GeoMath.distance(prevLat, prevLon, lat, lon) >= MIN_MOVE) {
+				SegmentIndex.Match prev = index.nearest(prevLat, prevLon, MAX_SNAP_DISTANCE, match.getSegment());
+				if (prev == null)
+					break;
+				double diff = match.getDistanceAlong() - prev.getDistanceAlong();
+				if (index.isLoop(match.getSegment()))
+					diff = aroundLoop(diff, index.getLength(match.getSegment()));
+				return diff > 0 ? 1 : (diff < 0 ? -1 : 0);
+			}
+		}
+
+		double heading = history.getHeading();
+		if (Double.isNaN(heading))
+			return 0;
+
+		Segment seg = index.getSegment(match.getSegment());
+		int edge = match.getEdge();
+		double edgeBearing = GeoMath.bearing(seg.getLatitude(edge), seg.getLongitude(edge),
+				seg.getLatitude(edge + 1), seg.getLongitude(edge + 1));
+		double diff = Math.abs(heading - edgeBearing) % 360;
+		return (diff < 90 || diff > 270) ? 1 : -1;
+	}
+
+	/**
+	 * Wrap the difference of two distances along a loop into (-length / 2, length / 2]
+	 * @param diff    difference of distances along loop (m)
+	 * @param length  length of loop (m)
+	 * @return the shorter way round the loop from one distance to the other
+	 */
+	static double aroundLoop(double diff, double length) {
+		if (length <= 0)
+			return diff;
+
+		double wrapped = diff % length;
+		if (wrapped > length / 2)
+			wrapped -= length;
+		else if (wrapped <= -length / 2)
+			wrapped += length;
+		return wrapped;
+	}
+}
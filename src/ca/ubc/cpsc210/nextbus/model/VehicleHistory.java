@@ -0,0 +1,164 @@
+package ca.ubc.cpsc210.nextbus.model;
+
+import ca.ubc.cpsc210.nextbus.util.GeoMath;
+
+/**
+ * Recent position fixes of one vehicle, with speed and heading derived from them.
+ *
+ * Fixes are held in a ring buffer of primitive arrays, so memory used per 
+ * vehicle is fixed: once the buffer is full, each new fix replaces the oldest.
+ * Speed and heading are updated as each fix is added rather than recomputed
+ * from the whole history.
+ */
+public class VehicleHistory {
+	/**
+	 * Number of fixes kept for each vehicle
+	 */
+	public static final int CAPACITY = 16;
+
+	/**
+	 * Weight given to the latest speed measurement when smoothing speed
+	 */
+	private static final double SPEED_SMOOTHING = 0.5;
+
+	/**
+	 * Distance (m) a vehicle must move between fixes for its heading to be updated;
+	 * shorter moves are dominated by GPS noise
+	 */
+	private static final double MIN_HEADING_DISTANCE = 10;
+
+	private int id;
+	private long[] times;
+	private int[] latsE6;
+	private int[] lonsE6;
+	private int head;	// index of oldest fix
+	private int size;
+	private double speed;
+	private double heading;
+
+	/**
+	 * Constructor
+	 * @param id  vehicle ID
+	 */
+	public VehicleHistory(int id) {
+		this.id = id;
+		times = new long[CAPACITY];
+		latsE6 = new int[CAPACITY];
+		lonsE6 = new int[CAPACITY];
+		head = 0;
+		size = 0;
+		speed = Double.NaN;
+		heading = Double.NaN;
+	}
+
+	/**
+	 * Gets the vehicle ID
+	 * @return vehicle ID
+	 */
+	public int getID() {
+		return id;
+	}
+
+	/**
+	 * Add a fix, unless it is no newer than the latest fix (the same fix is
+	 * reported once for every stop the vehicle serves)
+	 * @param time  time fix was recorded, in ms since the epoch
+	 * @param lat   latitude of vehicle
+	 * @param lon   longitude of vehicle
+	 * @return true if fix was added, false if it was ignored
+	 */
+	public synchronized boolean add(long time, double lat, double lon) {
+		if (size > 0 && time <= getTime(size - 1))
+			return false;
+
+		if (size > 0)
+			updateMotion(time, lat, lon);
+
+		int slot = (head + size) % CAPACITY;
+		if (size == CAPACITY)
+			head = (head + 1) % CAPACITY;
+		else
+			size++;
+
+		times[slot] = time;
+		latsE6[slot] = (int) Math.round(lat * 1E6);
+		lonsE6[slot] = (int) Math.round(lon * 1E6);
+		return true;
+	}
+
+	/**
+	 * Number of fixes held
+	 * @return number of fixes (at most CAPACITY)
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * Gets time of a fix
+	 * @param index  index of fix (0 is oldest, size() - 1 is latest)
+	 * @return time fix was recorded, in ms since the epoch
+	 */
+	public synchronized long getTime(int index) {
+		return times[slot(index)];
+	}
+
+	/**
+	 * Gets latitude of a fix
+	 * @param index  index of fix (0 is oldest, size() - 1 is latest)
+	 * @return latitude in degrees
+	 */
+	public synchronized double getLatitude(int index) {
+		return latsE6[slot(index)] / 1E6;
+	}
+
+	/**
+	 * Gets longitude of a fix
+	 * @param index  index of fix (0 is oldest, size() - 1 is latest)
+	 * @return longitude in degrees
+	 */
+	public synchronized double getLongitude(int index) {
+		return lonsE6[slot(index)] / 1E6;
+	}
+
+	/**
+	 * Gets smoothed speed of vehicle
+	 * @return speed in metres per second, or NaN if fewer than two fixes have been added
+	 */
+	public synchronized double getSpeed() {
+		return speed;
+	}
+
+	/**
+	 * Gets direction in which vehicle last moved
+	 * @return heading in degrees clockwise from north, or NaN if vehicle has not yet 
+	 * been seen to move
+	 */
+	public synchronized double getHeading() {
+		return heading;
+	}
+
+	/**
+	 * Update speed and heading from latest fix to a new fix
+	 */
+	private void updateMotion(long time, double lat, double lon) {
+		double lastLat = getLatitude(size - 1);
+		double lastLon = getLongitude(size - 1);
+		double distance = GeoMath.distance(lastLat, lastLon, lat, lon);
+		double measured = distance / ((time - getTime(size - 1)) / 1000.0);
+
+		if (Double.isNaN(speed))
+			speed = measured;
+		else
+			speed += SPEED_SMOOTHING * (measured - speed);
+
+		if (distance >= MIN_HEADING_DISTANCE)
+			heading = GeoMath.bearing(lastLat, lastLon, lat, lon);
+	}
+
+	private int slot(int index) {
+		if (index < 0 || index >= size)
+			throw new IndexOutOfBoundsException("Fix " + index + " of " + size);
+		return (head + index) % CAPACITY;
+	}
+}
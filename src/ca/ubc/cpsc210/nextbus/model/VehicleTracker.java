@@ -0,0 +1,111 @@
+package ca.ubc.cpsc210.nextbus.model;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the recent position history of every vehicle seen by the app, keyed
+ * by vehicle ID.  Fed with bus locations as they are merged into stops, so
+ * movement data is gathered without any extra requests.  Vehicles not heard
+ * from for a while are forgotten.  Safe to use from any thread.
+ *
+ * Design Pattern: Singleton
+ */
+public class VehicleTracker {
+	/**
+	 * Time (ms) after its latest fix at which a vehicle is forgotten
+	 */
+	private static final long EXPIRY = 30 * 60 * 1000;
+
+	private static VehicleTracker instance;
+
+	private ConcurrentHashMap<Integer, VehicleHistory> histories;
+	private volatile long lastPruned;
+
+	/**
+	 * Constructor
+	 */
+	private VehicleTracker() {
+		histories = new ConcurrentHashMap<Integer, VehicleHistory>();
+		lastPruned = System.currentTimeMillis();
+	}
+
+	/**
+	 * Gets single instance of this class
+	 * @return instance (the only one) of VehicleTracker
+	 */
+	public static synchronized VehicleTracker getInstance() {
+		if (instance == null) {
+			instance = new VehicleTracker();
+		}
+
+		return instance;
+	}
+
+	/**
+	 * Add a bus location to its vehicle's history.  Locations without a 
+	 * recorded time are ignored.
+	 * @param bl  the bus location
+	 */
+	public void record(BusLocation bl) {
+		if (bl.getRecordedAt() == 0)
+			return;
+
+		for (;;) {
+			VehicleHistory history = histories.get(bl.getID());
+			if (history == null) {
+				VehicleHistory created = new VehicleHistory(bl.getID());
+				history = histories.putIfAbsent(bl.getID(), created);
+				if (history == null)
+					history = created;
+			}
+
+			// prune() removes a history only while holding its lock, so once the
+			// history is seen to be still tracked, the fix cannot be lost
+			synchronized (history) {
+				if (histories.get(bl.getID()) == history) {
+					history.add(bl.getRecordedAt(), bl.getLatLon().getLatitude(),
+							bl.getLatLon().getLongitude());
+					break;
+				}
+			}
+		}
+
+		prune();
+	}
+
+	/**
+	 * Gets history of a vehicle
+	 * @param id  vehicle ID
+	 * @return history of vehicle, or null if vehicle has not been seen recently
+	 */
+	public VehicleHistory getHistory(int id) {
+		return histories.get(id);
+	}
+
+	/**
+	 * Number of vehicles tracked
+	 * @return number of vehicles
+	 */
+	public int size() {
+		return histories.size();
+	}
+
+	/**
+	 * Forget vehicles whose latest fix has expired; runs at most once per expiry period
+	 */
+	private void prune() {
+		long now = System.currentTimeMillis();
+		if (now - lastPruned < EXPIRY)
+			return;
+		lastPruned = now;
+
+		for (Map.Entry<Integer, VehicleHistory> next : histories.entrySet()) {
+			VehicleHistory history = next.getValue();
+			synchronized (history) {
+				if (history.size() == 0 || now - history.getTime(history.size() - 1) > EXPIRY)
+					histories.remove(next.getKey(), history);
+			}
+		}
+	}
+}
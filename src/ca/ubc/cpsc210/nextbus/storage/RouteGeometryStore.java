@@ -0,0 +1,318 @@
+package ca.ubc.cpsc210.nextbus.storage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import android.util.Log;
+import ca.ubc.cpsc210.nextbus.model.BusRoute;
+import ca.ubc.cpsc210.nextbus.util.BoundingBox;
+import ca.ubc.cpsc210.nextbus.util.Segment;
+
+/**
+ * Stores route geometry (bounds and segments) on disk so that routes do not
+ * have to be downloaded and parsed again each time the app runs.
+ *
+ * Each route is kept in its own file, keyed by route name and map URL.  Points
+ * are stored in microdegrees as differences from the previous point, encoded as
+ * zig-zag variable-length integers, so most points take 2-4 bytes.  Files are
+ * read through a memory mapping.  When the total size of stored routes exceeds
+ * the size limit, least recently used routes are deleted.
+ *
+ * Every length and count read from a file is checked against the bytes that
+ * remain before anything is allocated for it.  A file that fails a check is
+ * deleted, so that the route is downloaded and stored again.
+ */
+public class RouteGeometryStore {
+	private static final String LOG_TAG = "RouteGeometryStore";
+	private static final int MAGIC = 0x52475331;	// "RGS1"
+	private static final String SUFFIX = ".rgs";
+	private static final String CHARSET = "UTF-8";
+	private static final int MAX_VARINT_BYTES = 5;
+
+	private File directory;
+	private long maxBytes;
+
+	/**
+	 * Constructor
+	 * @param directory  directory in which route files are kept (created if necessary)
+	 * @param maxBytes   limit on total size of route files
+	 */
+	public RouteGeometryStore(File directory, long maxBytes) {
+		this.directory = directory;
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Add stored geometry to route, if any is stored for its name and map URL
+	 * @param route  the route to which bounds and segments are added
+	 * @return true if geometry was found and added to route, false otherwise
+	 */
+	public synchronized boolean load(BusRoute route) {
+		File file = fileFor(route);
+		if (file == null || !file.exists())
+			return false;
+
+		try {
+			MappedByteBuffer buf = map(file);
+
+			if (buf.getInt() != MAGIC)
+				throw new CorruptFileException("bad magic number");
+			if (!route.getMapURL().equals(readString(buf)))
+				return false;	// another URL having the same hash
+
+			double north = buf.getDouble();
+			double south = buf.getDouble();
+			double east = buf.getDouble();
+			double west = buf.getDouble();
+			// each segment takes at least a byte, and each point at least two
+			int segmentCount = readCount(buf, 1);
+			Segment[] segments = new Segment[segmentCount];
+
+			for (int i = 0; i < segmentCount; i++) {
+				int pointCount = readCount(buf, 2);
+				Segment seg = new Segment(pointCount);
+				int latE6 = 0;
+				int lonE6 = 0;
+				for (int j = 0; j < pointCount; j++) {
+					latE6 += zigZagDecode(readVarint(buf));
+					lonE6 += zigZagDecode(readVarint(buf));
+					seg.addPointE6(latE6, lonE6);
+				}
+				segments[i] = seg;
+			}
+
+			if (buf.hasRemaining())
+				throw new CorruptFileException(buf.remaining() + " bytes after last segment");
+
+			route.setBounds(north, south, east, west);
+			route.setSegments(Arrays.asList(segments));
+
+			file.setLastModified(System.currentTimeMillis());
+			return true;
+		} catch (CorruptFileException e) {
+			discard(file, route, e.getMessage());
+		} catch (IOException e) {
+			Log.w(LOG_TAG, "Unable to read stored route " + route.getName());
+		} catch (BufferUnderflowException e) {
+			discard(file, route, "truncated");
+		}
+
+		return false;
+	}
+
+	/**
+	 * Delete file of a route that cannot be read back
+	 */
+	private void discard(File file, BusRoute route, String reason) {
+		Log.w(LOG_TAG, "Stored route " + route.getName() + " is corrupt: " + reason);
+		file.delete();
+	}
+
+	/**
+	 * Store geometry of route, replacing any geometry stored for its name and map URL,
+	 * then evict least recently used routes if size limit is exceeded
+	 * @param route  the route whose bounds and segments are stored
+	 */
+	public synchronized void save(BusRoute route) {
+		File file = fileFor(route);
+		if (file == null || !route.hasSegments())
+			return;
+
+		directory.mkdirs();
+		File tmp = new File(directory, file.getName() + ".tmp");
+		OutputStream out = null;
+
+		try {
+			out = new FileOutputStream(tmp);
+			out.write(encode(route));
+			out.close();
+			out = null;
+
+			if (!tmp.renameTo(file))
+				throw new IOException("Rename failed");
+		} catch (IOException e) {
+			Log.w(LOG_TAG, "Unable to store route " + route.getName());
+			tmp.delete();
+		} finally {
+			if (out != null) {
+				try {
+					out.close();
+				} catch (IOException e) {
+					// ignore: nothing more can be done
+				}
+			}
+		}
+
+		evict();
+	}
+
+	/**
+	 * Delete least recently used route files until total size is within limit
+	 */
+	private void evict() {
+		File[] files = directory.listFiles();
+		if (files == null)
+			return;
+
+		long total = 0;
+		for (File next : files)
+			total += next.length();
+
+		if (total <= maxBytes)
+			return;
+
+		Arrays.sort(files, new Comparator<File>() {
+			@Override
+			public int compare(File f1, File f2) {
+				long diff = f1.lastModified() - f2.lastModified();
+				return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+			}
+		});
+
+		for (int i = 0; i < files.length && total > maxBytes; i++) {
+			long size = files[i].length();
+			if (files[i].delete())
+				total -= size;
+		}
+	}
+
+	/**
+	 * Produces file in which route is stored, or null if route has no map URL
+	 */
+	private File fileFor(BusRoute route) {
+		if (route.getMapURL() == null)
+			return null;
+
+		String name = route.getName().replaceAll("[^A-Za-z0-9]", "_");
+		return new File(directory, name + "_" + Integer.toHexString(route.getMapURL().hashCode()) + SUFFIX);
+	}
+
+	/**
+	 * Encode route to bytes in stored format
+	 */
+	private byte[] encode(BusRoute route) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		BoundingBox bounds = route.getBounds();
+
+		writeInt(out, MAGIC);
+		byte[] url = route.getMapURL().getBytes(CHARSET);
+		writeVarint(out, url.length);
+		out.write(url);
+		writeLong(out, Double.doubleToLongBits(bounds.getNorth()));
+		writeLong(out, Double.doubleToLongBits(bounds.getSouth()));
+		writeLong(out, Double.doubleToLongBits(bounds.getEast()));
+		writeLong(out, Double.doubleToLongBits(bounds.getWest()));
+		writeVarint(out, route.getSegments().size());
+
+		for (Segment seg : route.getSegments()) {
+			writeVarint(out, seg.size());
+			int latE6 = 0;
+			int lonE6 = 0;
+			for (int i = 0; i < seg.size(); i++) {
+				writeVarint(out, zigZagEncode(seg.getLatitudeE6(i) - latE6));
+				writeVarint(out, zigZagEncode(seg.getLongitudeE6(i) - lonE6));
+				latE6 = seg.getLatitudeE6(i);
+				lonE6 = seg.getLongitudeE6(i);
+			}
+		}
+
+		return out.toByteArray();
+	}
+
+	private static MappedByteBuffer map(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} finally {
+			// mapping remains valid after file is closed
+			raf.close();
+		}
+	}
+
+	private static String readString(MappedByteBuffer buf)
+			throws CorruptFileException, UnsupportedEncodingException {
+		byte[] bytes = new byte[readCount(buf, 1)];
+		buf.get(bytes);
+		return new String(bytes, CHARSET);
+	}
+
+	/**
+	 * Read number of items that follow, checking that the rest of the buffer can hold them
+	 * @param buf           the buffer
+	 * @param minItemBytes  fewest bytes in which an item can be stored
+	 * @return the number of items
+	 * @throws CorruptFileException  if count is negative or there are too few bytes left
+	 */
+	private static int readCount(MappedByteBuffer buf, int minItemBytes) throws CorruptFileException {
+		int count = readVarint(buf);
+		if (count < 0 || count > buf.remaining() / minItemBytes)
+			throw new CorruptFileException("count " + count + " with " + buf.remaining() + " bytes left");
+		return count;
+	}
+
+	private static int readVarint(MappedByteBuffer buf) throws CorruptFileException {
+		int value = 0;
+		int shift = 0;
+		byte b;
+
+		do {
+			if (shift == MAX_VARINT_BYTES * 7)
+				throw new CorruptFileException("varint too long");
+			b = buf.get();
+			value |= (b & 0x7F) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+
+		return value;
+	}
+
+	private static void writeVarint(OutputStream out, int value) throws IOException {
+		while ((value & ~0x7F) != 0) {
+			out.write((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.write(value);
+	}
+
+	private static void writeInt(OutputStream out, int value) throws IOException {
+		out.write(value >>> 24);
+		out.write(value >>> 16);
+		out.write(value >>> 8);
+		out.write(value);
+	}
+
+	private static void writeLong(OutputStream out, long value) throws IOException {
+		writeInt(out, (int) (value >>> 32));
+		writeInt(out, (int) value);
+	}
+
+	private static int zigZagEncode(int value) {
+		return (value << 1) ^ (value >> 31);
+	}
+
+	private static int zigZagDecode(int value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	/**
+	 * Thrown when a stored route does not have the stored format
+	 */
+	private static class CorruptFileException extends IOException {
+		private static final long serialVersionUID = 1L;
+
+		CorruptFileException(String message) {
+			super(message);
+		}
+	}
+}
@@ -1,19 +1,132 @@
 package ca.ubc.cpsc210.nextbus.translink;
 
+import java.util.HashMap;
+import java.util.Map;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
 import org.xml.sax.helpers.DefaultHandler;
 
+import ca.ubc.cpsc210.nextbus.model.BusRoute;
+import ca.ubc.cpsc210.nextbus.model.BusStop;
+
 /**
  * Abstract class that forms the basis of XML parsers for data received
  * from Translink service.
+ * 
+ * Text of each element is accumulated in a single reusable buffer, and
+ * element names are mapped to integer tags through a table built once per
+ * parser class so that handlers can switch on them.
  */
 public abstract class AbstractTranslinkParser extends DefaultHandler {
 
+	/**
+	 * Tags for elements of Translink error responses.  Subclasses number their
+	 * own tags from FIRST_TAG.
+	 */
+	protected static final int UNKNOWN = 0;
+	protected static final int CODE = 1;
+	protected static final int MESSAGE = 2;
+	protected static final int ERROR = 3;
+	protected static final int FIRST_TAG = 10;
+
 	protected int code;
 	protected String message;
 	protected boolean isError;
+	protected ElementText text;
+	private BusStop routesOf;
+	private BusRoute[] routes;
+	private BusRoute lastRoute;
 
 	public AbstractTranslinkParser() {
 		super();
+		text = new ElementText();
+	}
+
+	/**
+	 * Produces a table mapping element names to tags, holding the
+	 * elements of Translink error responses
+	 * @return  table to which subclass adds its own elements
+	 */
+	protected static Map<String, Integer> newTagTable() {
+		Map<String, Integer> tags = new HashMap<String, Integer>();
+		tags.put("Code", CODE);
+		tags.put("Message", MESSAGE);
+		tags.put("Error", ERROR);
+		return tags;
+	}
+
+	/**
+	 * Look up tag of element
+	 * @param tags   table of tags
+	 * @param qName  name of element
+	 * @return tag of element, or UNKNOWN if element is not in table
+	 */
+	protected static int tagOf(Map<String, Integer> tags, String qName) {
+		Integer tag = tags.get(qName);
+		return (tag == null) ? UNKNOWN : tag;
+	}
+	
+	@Override
+	public void startElement(String uri, String localName, String qName,
+			Attributes attributes) throws SAXException {
+		text.reset();
+	}
+	
+	@Override
+	public void characters(char[] ch, int start, int length)
+			throws SAXException {
+		text.append(ch, start, length);
+	}
+
+	/**
+	 * Look up route named by the text of the current element among the routes
+	 * serving a stop.  Those are the routes interned in BusRouteRegistry, so the
+	 * name is matched in the text buffer and no string is built for it: names
+	 * whose hash codes differ from that of the text are skipped without being
+	 * compared.  The stop's routes are copied to an array once per parser.
+	 * @param stop  the stop
+	 * @return the route named, or null if no such route serves the stop
+	 */
+	protected BusRoute routeNamed(BusStop stop) {
+		if (stop != routesOf) {
+			routes = stop.getRoutes().toArray(new BusRoute[0]);
+			routesOf = stop;
+			lastRoute = null;
+		}
+
+		int hash = text.contentHashCode();
+
+		// consecutive elements usually name the same route
+		if (lastRoute != null && matches(lastRoute, hash))
+			return lastRoute;
+
+		for (BusRoute next : routes) {
+			if (matches(next, hash)) {
+				lastRoute = next;
+				return next;
+			}
+		}
+
+		return null;
+	}
+
+	private boolean matches(BusRoute route, int hash) {
+		String name = route.getName();
+		return name.hashCode() == hash && text.contentEquals(name);
+	}
+
+	/**
+	 * Handle end of an element of a Translink error response
+	 * @param tag  tag of element that ended
+	 */
+	protected void endErrorElement(int tag) {
+		if (tag == CODE)
+			code = text.toInt();
+		else if (tag == MESSAGE)
+			message = text.toString();
+		else if (tag == ERROR)
+			isError = true;
 	}
 
 	/**
@@ -42,4 +155,4 @@ public abstract class AbstractTranslinkParser extends DefaultHandler {
 		return message;
 	}
 
-}
\ No newline at end of file
+}
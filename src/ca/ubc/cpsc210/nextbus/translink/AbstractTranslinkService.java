@@ -1,9 +1,14 @@
 package ca.ubc.cpsc210.nextbus.translink;
 
-import javax.xml.parsers.SAXParser;
-import javax.xml.parsers.SAXParserFactory;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
 
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.xml.sax.ContentHandler;
 import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
 import org.xml.sax.XMLReader;
 
 import ca.ubc.cpsc210.exception.TranslinkException;
@@ -13,11 +18,20 @@ public abstract class AbstractTranslinkService implements ITranslinkService {
 
 	public AbstractTranslinkService() {
 		super();
+		XMLReaderPool.getInstance().warm(1);
+	}
+
+	/* (non-Javadoc)
+	 * @see ca.ubc.cpsc210.nextbus.translink.ITranslinkService#addWaitTimeEstimatesToStops(java.util.Collection)
+	 */
+	@Override
+	public Map<BusStop, TranslinkException> addWaitTimeEstimatesToStops(Collection<BusStop> stops) {
+		return BatchRefresher.addWaitTimeEstimates(this, stops);
 	}
 
 	/**
-	 * Parses estimated wait times from response received from Translink service and adds them to 
-	 * associated bus stop.
+	 * Parses estimated wait times from response received from Translink service and merges them 
+	 * into associated bus stop.  The stop is left as it was if the response cannot be parsed.
 	 * @param is  input source built with response from Translink service
 	 * @param stop   bus stop associated with bus locations
 	 * @throws TranslinkException 
@@ -27,28 +41,24 @@ public abstract class AbstractTranslinkService implements ITranslinkService {
 		
 		BusWaitTimeParser waitTimeParser;
 		try {
-			SAXParserFactory spf = SAXParserFactory.newInstance();
-			SAXParser parser = spf.newSAXParser();
-
-			XMLReader reader = parser.getXMLReader();
-
 			waitTimeParser = new BusWaitTimeParser(stop);
-			reader.setContentHandler(waitTimeParser);
-			reader.parse(is);
+			parse(Endpoint.ESTIMATES, is, waitTimeParser);
 		} catch (Exception e) {
 			// Convert other exception types to TranslinkException so clients do not
             // have to worry about the different possibilities.
-            throw new TranslinkException(-1, e.getMessage());
+            throw new TranslinkException(-1, e.getMessage(), e);
 		}
 		
 		if(waitTimeParser.receivedError()) {
 			throw new TranslinkException(waitTimeParser.getErrorCode(), waitTimeParser.getMessage());
 		}
+		
+		stop.mergeWaitTimes(waitTimeParser.getWaitTimes());
 	}
 
 	/**
-	 * Parses bus locations from response received from Translink service and adds them to 
-	 * associated bus stop.
+	 * Parses bus locations from response received from Translink service and merges them 
+	 * into associated bus stop.  The stop is left as it was if the response cannot be parsed.
 	 * @param is  input source built with response from Translink service
 	 * @param stop   bus stop associated with bus locations 
 	 * @throws TranslinkException 
@@ -56,25 +66,21 @@ public abstract class AbstractTranslinkService implements ITranslinkService {
 	protected void parseBusLocationsFromXML(InputSource is, BusStop stop) 
 			throws TranslinkException {
 
-		AbstractTranslinkParser locationParser;
+		BusLocationParser locationParser;
 		try {
-			SAXParserFactory spf = SAXParserFactory.newInstance();
-			SAXParser parser = spf.newSAXParser();
-
-			XMLReader reader = parser.getXMLReader();
-
 			locationParser = new BusLocationParser(stop);
-			reader.setContentHandler(locationParser);
-			reader.parse(is);
+			parse(Endpoint.BUSES, is, locationParser);
 		} catch (Exception e) {
 			// Convert other exception types to TranslinkException so clients do not
             // have to worry about the different possibilities.
-            throw new TranslinkException(-1, e.getMessage());
+            throw new TranslinkException(-1, e.getMessage(), e);
 		}
 		
 		if(locationParser.receivedError()) {
 			throw new TranslinkException(locationParser.getErrorCode(), locationParser.getMessage());
 		}
+		
+		stop.mergeBusLocations(locationParser.getBusLocations());
 	}
 	
 	/**
@@ -86,18 +92,12 @@ public abstract class AbstractTranslinkService implements ITranslinkService {
 	protected BusStop parseBusStopFromXML(InputSource is) throws TranslinkException { 
 		BusStopParser stopParser;
 		try {
-			SAXParserFactory spf = SAXParserFactory.newInstance();
-			SAXParser parser = spf.newSAXParser();
-
-			XMLReader reader = parser.getXMLReader();
-
 			stopParser = new BusStopParser();
-			reader.setContentHandler(stopParser);
-			reader.parse(is);
+			parse(Endpoint.STOPS, is, stopParser);
 		} catch (Exception e) {
 			// Convert other exception types to TranslinkException so clients do not
             // have to worry about the different possibilities.
-            throw new TranslinkException(-1, e.getMessage());
+            throw new TranslinkException(-1, e.getMessage(), e);
 		}
 		
 		if(stopParser.receivedError()) {
@@ -106,4 +106,36 @@ public abstract class AbstractTranslinkService implements ITranslinkService {
 		
 		return stopParser.getParsedStop();
 	}
-}
\ No newline at end of file
+	
+	/**
+	 * Parse input with given handler using a reader taken from the shared pool.
+	 * Reader is returned to pool only if parse completes normally.  Time taken
+	 * to parse is recorded in TranslinkMetrics whether or not parse completes;
+	 * a parse that fails is also counted as a TranslinkMetrics.PARSE_ERROR.
+	 * @param endpoint  endpoint from which input was received
+	 * @param is   input source to parse
+	 * @param handler  content handler that receives parse events
+	 * @throws SAXException  if input cannot be parsed
+	 * @throws IOException  if input cannot be read
+	 * @throws ParserConfigurationException  if a reader cannot be built
+	 */
+	protected void parse(Endpoint endpoint, InputSource is, ContentHandler handler) 
+			throws SAXException, IOException, ParserConfigurationException {
+		XMLReaderPool pool = XMLReaderPool.getInstance();
+		XMLReader reader = pool.acquire();
+		long start = System.nanoTime();
+		boolean parsed = false;
+		
+		try {
+			reader.setContentHandler(handler);
+			reader.parse(is);
+			parsed = true;
+			pool.release(reader);
+		} finally {
+			TranslinkMetrics metrics = TranslinkMetrics.getInstance();
+			metrics.record(endpoint, TranslinkMetrics.Phase.PARSE, System.nanoTime() - start);
+			if (!parsed)
+				metrics.recordError(endpoint, TranslinkMetrics.PARSE_ERROR);
+		}
+	}
+}
@@ -0,0 +1,102 @@
+package ca.ubc.cpsc210.nextbus.translink;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import ca.ubc.cpsc210.exception.TranslinkException;
+import ca.ubc.cpsc210.nextbus.model.BusStop;
+
+/**
+ * Refreshes wait time estimates for many stops at once on a small, bounded
+ * pool of worker threads shared by all services.
+ */
+class BatchRefresher {
+	/**
+	 * Maximum number of requests to Translink in flight at once
+	 */
+	private static final int MAX_CONCURRENT = 4;
+
+	private static ExecutorService executor = Executors.newFixedThreadPool(
+			MAX_CONCURRENT, new ThreadFactory() {
+				private int count = 0;
+
+				@Override
+				public synchronized Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "BatchRefresher-" + (++count));
+					t.setDaemon(true);
+					return t;
+				}
+			});
+
+	private BatchRefresher() {
+	}
+
+	/**
+	 * Add current wait time estimates to each of the given stops using the given
+	 * service.  Estimates for all stops are fetched concurrently.
+	 *
+	 * @param service  the service used to fetch estimates for a single stop
+	 * @param stops    the stops to refresh
+	 * @return map from each stop (in iteration order of stops) to the exception
+	 * raised while fetching its estimates, or to null if estimates were added
+	 */
+	static Map<BusStop, TranslinkException> addWaitTimeEstimates(
+			final ITranslinkService service, Collection<BusStop> stops) {
+		List<Future<Void>> futures = new ArrayList<Future<Void>>();
+		// requests made by workers have the priority of the caller
+		final RateLimiter.Priority priority = RateLimiter.getPriority();
+
+		for (final BusStop next : stops) {
+			futures.add(executor.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws TranslinkException {
+					RateLimiter.Priority previous = RateLimiter.setPriority(priority);
+					try {
+						service.addWaitTimeEstimatesToStop(next);
+					} finally {
+						RateLimiter.setPriority(previous);
+					}
+					return null;
+				}
+			}));
+		}
+
+		Map<BusStop, TranslinkException> results = new LinkedHashMap<BusStop, TranslinkException>();
+		int index = 0;
+
+		for (BusStop next : stops) {
+			results.put(next, await(futures.get(index++)));
+		}
+
+		return results;
+	}
+
+	/**
+	 * Wait for a single refresh to complete
+	 * @param future  the pending refresh
+	 * @return exception raised by refresh, or null if it completed normally
+	 */
+	private static TranslinkException await(Future<Void> future) {
+		try {
+			future.get();
+			return null;
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof TranslinkException)
+				return (TranslinkException) e.getCause();
+			return new TranslinkException(-1, "Failed to get data from Translink service", e.getCause());
+		} catch (InterruptedException e) {
+			future.cancel(true);
+			Thread.currentThread().interrupt();
+			return new TranslinkException(-1, "Request interrupted");
+		}
+	}
+}
@@ -1,5 +1,9 @@
 package ca.ubc.cpsc210.nextbus.translink;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
 import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
 
@@ -8,8 +12,29 @@ import ca.ubc.cpsc210.nextbus.model.BusRoute;
 import ca.ubc.cpsc210.nextbus.model.BusStop;
 
 public class BusLocationParser extends AbstractTranslinkParser {
-	private StringBuilder sb;
+	private static final int BUS = FIRST_TAG;
+	private static final int ROUTE_NO = FIRST_TAG + 1;
+	private static final int HREF = FIRST_TAG + 2;
+	private static final int LATITUDE = FIRST_TAG + 3;
+	private static final int LONGITUDE = FIRST_TAG + 4;
+	private static final int DESTINATION = FIRST_TAG + 5;
+	private static final int RECORDED_TIME = FIRST_TAG + 6;
+	private static final int VEHICLE_NO = FIRST_TAG + 7;
+	private static final Map<String, Integer> TAGS = newTagTable();
+	
+	static {
+		TAGS.put("Bus", BUS);
+		TAGS.put("RouteNo", ROUTE_NO);
+		TAGS.put("Href", HREF);
+		TAGS.put("Latitude", LATITUDE);
+		TAGS.put("Longitude", LONGITUDE);
+		TAGS.put("Destination", DESTINATION);
+		TAGS.put("RecordedTime", RECORDED_TIME);
+		TAGS.put("VehicleNo", VEHICLE_NO);
+	}
+	
 	private BusStop busStop;
+	private List<BusLocation> busLocations;
 	private BusRoute route;
 	private String mapURL;
 	private double lat;
@@ -24,10 +49,19 @@ public class BusLocationParser extends AbstractTranslinkParser {
 	/**
 	 * Constructor
 	 * 
-	 * @param busStop  the bus stop to which bus location information will be added
+	 * @param busStop  the bus stop whose routes bus locations are for
 	 */
 	public BusLocationParser(BusStop busStop) {
 		this.busStop = busStop;
+		busLocations = new ArrayList<BusLocation>();
+	}
+	
+	/**
+	 * Gets bus locations parsed, to be merged into the stop once parsing succeeds
+	 * @return bus locations parsed
+	 */
+	public List<BusLocation> getBusLocations() {
+		return busLocations;
 	}
 	
 	@Override
@@ -35,9 +69,7 @@ public class BusLocationParser extends AbstractTranslinkParser {
 			Attributes attributes) throws SAXException {
 		super.startElement(uri, localName, qName, attributes);
 		
-		sb = new StringBuilder();
-		
-		if(qName.equals("Bus")) {
+		if (tagOf(TAGS, qName) == BUS) {
 			route = null;
 			mapURL = null;
 			destination = null;
@@ -48,66 +80,49 @@ public class BusLocationParser extends AbstractTranslinkParser {
 		}
 	}
 	
-	@Override
-	public void endDocument() throws SAXException {
-		super.endDocument();
-	}
-	
-	
 	@Override
 	public void endElement(String uri, String localName, String qName)
 			throws SAXException {
 		super.endElement(uri, localName, qName);
 		
-		String data = sb.toString().trim();
+		int tag = tagOf(TAGS, qName);
 		
-		if(qName.equals("RouteNo")) {
-			String routeName = data;
-			route = busStop.getRouteNamed(routeName);	
-		}
-		else if(qName.equals("Href")) {
-			mapURL = data;
-		}
-		else if(qName.equals("Latitude")) {
-			lat = Double.parseDouble(data);
+		switch (tag) {
+		case ROUTE_NO:
+			route = routeNamed(busStop);
+			break;
+		case HREF:
+			mapURL = text.toString();
+			break;
+		case LATITUDE:
+			lat = text.toDouble();
 			hasLat = true;
-		}
-		else if(qName.equals("Longitude")) {
-			lon = Double.parseDouble(data);
+			break;
+		case LONGITUDE:
+			lon = text.toDouble();
 			hasLon = true;
-		}
-		else if(qName.equals("Destination")) {
-			destination = data;
-		}
-		else if(qName.equals("RecordedTime")) {
-			recordedTime = data;
-		}
-		else if(qName.equals("VehicleNo")) {
-			id = Integer.parseInt(data);
-		}
-		else if(qName.equals("Bus")) {
+			break;
+		case DESTINATION:
+			destination = text.toString();
+			break;
+		case RECORDED_TIME:
+			recordedTime = text.toString();
+			break;
+		case VEHICLE_NO:
+			id = text.toInt();
+			break;
+		case BUS:
 			// add bus location if route is not null and has a recorded latitude and longitude
 			if (route != null) {
 				route.setMapURL(mapURL);
 				if (hasLat && hasLon) {
 					bl = new BusLocation(id, route, lat, lon, destination, recordedTime);
-					busStop.addBusLocation(bl);
+					busLocations.add(bl);
 				}
 			}
+			break;
+		default:
+			endErrorElement(tag);
 		}
-		else if(qName.equals("Code")) 
-			code = Integer.parseInt(data);
-		else if(qName.equals("Message"))
-			message = data;
-		else if(qName.equals("Error"))
-			isError = true;
-	}
-	
-	@Override
-	public void characters(char[] ch, int start, int length)
-			throws SAXException {
-		super.characters(ch, start, length);
-		
-		sb.append(new String(ch, start, length));
 	}
 }
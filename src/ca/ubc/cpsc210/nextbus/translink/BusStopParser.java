@@ -1,18 +1,33 @@
 package ca.ubc.cpsc210.nextbus.translink;
 
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 import java.util.StringTokenizer;
 
-import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
 
 import ca.ubc.cpsc210.exception.TranslinkException;
 import ca.ubc.cpsc210.nextbus.model.BusRoute;
+import ca.ubc.cpsc210.nextbus.model.BusRouteRegistry;
 import ca.ubc.cpsc210.nextbus.model.BusStop;
 
 public class BusStopParser extends AbstractTranslinkParser {
-	private StringBuilder sb;
+	private static final int STOP_NO = FIRST_TAG;
+	private static final int NAME = FIRST_TAG + 1;
+	private static final int LATITUDE = FIRST_TAG + 2;
+	private static final int LONGITUDE = FIRST_TAG + 3;
+	private static final int ROUTES = FIRST_TAG + 4;
+	private static final Map<String, Integer> TAGS = newTagTable();
+	
+	static {
+		TAGS.put("StopNo", STOP_NO);
+		TAGS.put("Name", NAME);
+		TAGS.put("Latitude", LATITUDE);
+		TAGS.put("Longitude", LONGITUDE);
+		TAGS.put("Routes", ROUTES);
+	}
+	
 	private BusStop busStop;
 	private int stopNum;
 	private String name;
@@ -46,14 +61,6 @@ public class BusStopParser extends AbstractTranslinkParser {
 		return busStop;
 	}
 	
-	@Override
-	public void startElement(String uri, String localName, String qName,
-			Attributes attributes) throws SAXException {
-		super.startElement(uri, localName, qName, attributes);
-		
-		sb = new StringBuilder();	
-	}
-	
 	@Override
 	public void endDocument() throws SAXException {
 		super.endDocument();
@@ -68,50 +75,45 @@ public class BusStopParser extends AbstractTranslinkParser {
 			throws SAXException {
 		super.endElement(uri, localName, qName);
 		
-		String data = sb.toString().trim();
+		int tag = tagOf(TAGS, qName);
 		
-		if(qName.equals("StopNo"))
-			stopNum = Integer.parseInt(data);
-		else if(qName.equals("Name"))
-			name = data;
-		else if(qName.equals("Latitude")) {
-			lat = Double.parseDouble(data);
+		switch (tag) {
+		case STOP_NO:
+			stopNum = text.toInt();
+			break;
+		case NAME:
+			name = text.toString();
+			break;
+		case LATITUDE:
+			lat = text.toDouble();
 			hasLat = true;
-		}
-		else if(qName.equals("Longitude")) {
-			lon = Double.parseDouble(data);
+			break;
+		case LONGITUDE:
+			lon = text.toDouble();
 			hasLon = true;
+			break;
+		case ROUTES:
+			routes = buildRoutesFromString(text.toString());
+			break;
+		default:
+			endErrorElement(tag);
 		}
-		else if(qName.equals("Routes"))
-			routes = buildRoutesFromString(data);
-		else if(qName.equals("Code")) 
-			code = Integer.parseInt(data);
-		else if(qName.equals("Message"))
-			message = data;
-		else if(qName.equals("Error"))
-			isError = true;
-	}
-	
-	@Override
-	public void characters(char[] ch, int start, int length)
-			throws SAXException {
-		super.characters(ch, start, length);
-		
-		sb.append(new String(ch, start, length));
 	}
 	
 	/**
 	 * Parses set of bus routes from comma-delimited string of route names.
+	 * Routes are shared with other stops through the route registry.
 	 * @param routesAsString  string of route names, separated by a comma
 	 * @return set of bus routes
 	 */
 	private Set<BusRoute> buildRoutesFromString(String routesAsString) {
 	    Set<BusRoute> routes = new HashSet<BusRoute>();
 	    StringTokenizer tokenizer = new StringTokenizer(routesAsString, ",");
+	    BusRouteRegistry registry = BusRouteRegistry.getInstance();
 	    
 	    while(tokenizer.hasMoreTokens()) {
 	        String next = tokenizer.nextToken();
-	        BusRoute route = new BusRoute(next.trim());
+	        BusRoute route = registry.intern(next.trim());
 	        routes.add(route);
 	    }
 	    
@@ -1,5 +1,9 @@
 package ca.ubc.cpsc210.nextbus.translink;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
 import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
 
@@ -8,8 +12,25 @@ import ca.ubc.cpsc210.nextbus.model.BusStop;
 import ca.ubc.cpsc210.nextbus.model.BusWaitTime;
 
 public class BusWaitTimeParser extends AbstractTranslinkParser {
-	private StringBuilder sb;
+	private static final int NEXT_BUS = FIRST_TAG;
+	private static final int SCHEDULE = FIRST_TAG + 1;
+	private static final int ROUTE_NO = FIRST_TAG + 2;
+	private static final int EXPECTED_COUNTDOWN = FIRST_TAG + 3;
+	private static final int CANCELLED_TRIP = FIRST_TAG + 4;
+	private static final int CANCELLED_STOP = FIRST_TAG + 5;
+	private static final Map<String, Integer> TAGS = newTagTable();
+	
+	static {
+		TAGS.put("NextBus", NEXT_BUS);
+		TAGS.put("Schedule", SCHEDULE);
+		TAGS.put("RouteNo", ROUTE_NO);
+		TAGS.put("ExpectedCountdown", EXPECTED_COUNTDOWN);
+		TAGS.put("CancelledTrip", CANCELLED_TRIP);
+		TAGS.put("CancelledStop", CANCELLED_STOP);
+	}
+	
 	private BusStop busStop;
+	private List<BusWaitTime> waitTimes;
 	private BusRoute route;
 	private int expectedCountdown;
 	private boolean cancelledTrip;
@@ -19,80 +40,72 @@ public class BusWaitTimeParser extends AbstractTranslinkParser {
 	/**
 	 * Constructor
 	 * 
-	 * @param busStop  the bus stop to which wait time estimates must be added
+	 * @param busStop  the bus stop whose routes wait time estimates are for
 	 */
 	public BusWaitTimeParser(BusStop busStop) {
 		this.busStop = busStop;
+		waitTimes = new ArrayList<BusWaitTime>();
 		isError = false;
 	}
 	
+	/**
+	 * Gets wait times parsed, to be merged into the stop once parsing succeeds
+	 * @return wait times parsed
+	 */
+	public List<BusWaitTime> getWaitTimes() {
+		return waitTimes;
+	}
+	
 	@Override
 	public void startElement(String uri, String localName, String qName,
 			Attributes attributes) throws SAXException {
 		super.startElement(uri, localName, qName, attributes);
 		
-		sb = new StringBuilder();
-		
-		if(qName.equals("NextBus")) {
-			route = null;	
-		}
-		else if(qName.equals("Schedule")) {
+		switch (tagOf(TAGS, qName)) {
+		case NEXT_BUS:
+			route = null;
+			break;
+		case SCHEDULE:
 			expectedCountdown = 0;
 			hasCountdown = false;
 			cancelledTrip = false;
 			cancelledStop = false;
+			break;
 		}
 	}
 	
-	@Override
-	public void endDocument() throws SAXException {
-		super.endDocument();
-	}
-	
-	
 	@Override
 	public void endElement(String uri, String localName, String qName)
 			throws SAXException {
 		super.endElement(uri, localName, qName);
 		
-		String data = sb.toString().trim();
+		int tag = tagOf(TAGS, qName);
 		
-		if(qName.equals("RouteNo")) {
-			String routeName = data;
-			route = busStop.getRouteNamed(routeName);	
-		}
-		else if(qName.equals("ExpectedCountdown")) {
-			expectedCountdown = Integer.parseInt(data);
+		switch (tag) {
+		case ROUTE_NO:
+			route = routeNamed(busStop);
+			break;
+		case EXPECTED_COUNTDOWN:
+			expectedCountdown = text.toInt();
 			hasCountdown = true;
-		}
-		else if(qName.equals("CancelledTrip")) {
-			cancelledTrip = Boolean.parseBoolean(data);
-		}
-		else if(qName.equals("CancelledStop")) {
-			cancelledStop = Boolean.parseBoolean(data);
-		}
-		else if(qName.equals("Schedule")) {
+			break;
+		case CANCELLED_TRIP:
+			cancelledTrip = text.toBoolean();
+			break;
+		case CANCELLED_STOP:
+			cancelledStop = text.toBoolean();
+			break;
+		case SCHEDULE:
 			boolean isCancelled = cancelledTrip || cancelledStop;
 			
 			// add to wait times only if we parsed a route and an expected countdown - don't care about cancelled status (default false)
 			if (hasCountdown && route != null) {
 				BusWaitTime bwt = new BusWaitTime(route, expectedCountdown, isCancelled);
-				busStop.addWaitTime(bwt);
+				waitTimes.add(bwt);
 			}
+			break;
+		default:
+			endErrorElement(tag);
 		}
-		else if(qName.equals("Code")) 
-			code = Integer.parseInt(data);
-		else if(qName.equals("Message"))
-			message = data;
-		else if(qName.equals("Error"))
-			isError = true;
-	}
-	
-	@Override
-	public void characters(char[] ch, int start, int length)
-			throws SAXException {
-		super.characters(ch, start, length);
-		
-		sb.append(new String(ch, start, length));
 	}
 }
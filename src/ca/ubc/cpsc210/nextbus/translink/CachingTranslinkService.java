@@ -0,0 +1,322 @@
+package ca.ubc.cpsc210.nextbus.translink;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.util.Log;
+import ca.ubc.cpsc210.exception.TranslinkException;
+import ca.ubc.cpsc210.nextbus.model.BusLocation;
+import ca.ubc.cpsc210.nextbus.model.BusStop;
+import ca.ubc.cpsc210.nextbus.model.BusWaitTime;
+import ca.ubc.cpsc210.nextbus.util.Clock;
+
+/**
+ * Translink service that keeps the most recent wait times and bus locations
+ * received for each stop in memory.
+ *
+ * Entries younger than the freshness TTL are served without a request.  Stale
+ * entries (older than the TTL but younger than the maximum staleness) are served
+ * at once while a fresh copy is requested in the background.  Anything else
+ * is a miss and is requested before returning.
+ *
+ * Wait times served from an entry are counted down by the entry's age, and
+ * those whose bus has already left are dropped, so a stale entry does not show
+ * a bus as due in 2 minutes when it was due 2 minutes ago.
+ *
+ * Data is merged into the stop, so the stop's listeners are told of changes,
+ * including those found by background revalidation.
+ */
+public class CachingTranslinkService extends ForwardingTranslinkService {
+	private static final String LOG_TAG = "CachingTranslinkService";
+	private static final long MS_PER_MINUTE = 60 * 1000;
+
+	private Clock clock;
+	private long ttl;
+	private long maxStale;
+	private RealtimeCache<BusWaitTime> waitTimes;
+	private RealtimeCache<BusLocation> busLocations;
+	private ExecutorService revalidator;
+	private AtomicInteger hits;
+	private AtomicInteger staleHits;
+	private AtomicInteger misses;
+
+	/**
+	 * Constructor
+	 * @param delegate  the service used to request data not in cache
+	 * @param ttl       time in ms for which an entry is fresh
+	 * @param maxStale  time in ms after which an entry is too old to be served
+	 */
+	public CachingTranslinkService(ITranslinkService delegate, long ttl, long maxStale) {
+		this(delegate, ttl, maxStale, Clock.SYSTEM);
+	}
+
+	/**
+	 * Constructor
+	 * @param delegate  the service used to request data not in cache
+	 * @param ttl       time in ms for which an entry is fresh
+	 * @param maxStale  time in ms after which an entry is too old to be served
+	 * @param clock     clock by which entries are aged
+	 */
+	CachingTranslinkService(ITranslinkService delegate, long ttl, long maxStale, Clock clock) {
+		super(delegate);
+		this.clock = clock;
+		this.ttl = ttl;
+		this.maxStale = maxStale;
+		hits = new AtomicInteger();
+		staleHits = new AtomicInteger();
+		misses = new AtomicInteger();
+		revalidator = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, LOG_TAG);
+				t.setDaemon(true);
+				return t;
+			}
+		});
+
+		waitTimes = new RealtimeCache<BusWaitTime>() {
+			@Override
+			protected void fetch(BusStop stop) throws TranslinkException {
+				delegate.addWaitTimeEstimatesToStop(stop);
+			}
+
+			@Override
+			protected Collection<BusWaitTime> itemsOf(BusStop stop) {
+				return stop.getWaitTimes();
+			}
+
+			@Override
+			protected void apply(BusStop stop, List<BusWaitTime> items) {
+				stop.mergeWaitTimes(items);
+			}
+
+			@Override
+			protected List<BusWaitTime> aged(List<BusWaitTime> items, long age) {
+				return countDown(items, age);
+			}
+		};
+
+		busLocations = new RealtimeCache<BusLocation>() {
+			@Override
+			protected void fetch(BusStop stop) throws TranslinkException {
+				delegate.addBusLocationsForStop(stop);
+			}
+
+			@Override
+			protected Collection<BusLocation> itemsOf(BusStop stop) {
+				return stop.getBusLocations();
+			}
+
+			@Override
+			protected void apply(BusStop stop, List<BusLocation> items) {
+				stop.mergeBusLocations(items);
+			}
+		};
+	}
+
+	@Override
+	public void addWaitTimeEstimatesToStop(BusStop stop) throws TranslinkException {
+		waitTimes.get(stop);
+	}
+
+	@Override
+	public void addBusLocationsForStop(BusStop stop) throws TranslinkException {
+		busLocations.get(stop);
+	}
+
+	/**
+	 * Number of requests served from a fresh entry
+	 * @return hit count
+	 */
+	public int getHitCount() {
+		return hits.get();
+	}
+
+	/**
+	 * Number of requests served from a stale entry
+	 * @return stale hit count
+	 */
+	public int getStaleCount() {
+		return staleHits.get();
+	}
+
+	/**
+	 * Number of requests that had to wait for data from Translink
+	 * @return miss count
+	 */
+	public int getMissCount() {
+		return misses.get();
+	}
+
+	/**
+	 * Fraction of requests served from a fresh entry
+	 * @return hit rate between 0 and 1 (0 if there have been no requests)
+	 */
+	public double getHitRate() {
+		return rate(hits.get());
+	}
+
+	/**
+	 * Fraction of requests served from a stale entry
+	 * @return stale rate between 0 and 1 (0 if there have been no requests)
+	 */
+	public double getStaleRate() {
+		return rate(staleHits.get());
+	}
+
+	/**
+	 * Fraction of requests that had to wait for data from Translink
+	 * @return miss rate between 0 and 1 (0 if there have been no requests)
+	 */
+	public double getMissRate() {
+		return rate(misses.get());
+	}
+
+	/**
+	 * Remove all entries from cache
+	 */
+	public void clear() {
+		waitTimes.entries.clear();
+		busLocations.entries.clear();
+	}
+
+	/**
+	 * Count wait times down by the time since they were received
+	 * @param waits  wait times as received
+	 * @param age    time (ms) since they were received
+	 * @return wait times less the whole minutes elapsed (to the nearest minute),
+	 * without those whose bus has already left
+	 */
+	static List<BusWaitTime> countDown(List<BusWaitTime> waits, long age) {
+		int elapsed = (int) ((age + MS_PER_MINUTE / 2) / MS_PER_MINUTE);
+		if (elapsed <= 0)
+			return waits;
+
+		List<BusWaitTime> counted = new ArrayList<BusWaitTime>(waits.size());
+		for (BusWaitTime next : waits) {
+			int estimate = next.getEstimate() - elapsed;
+			if (estimate >= 0)
+				counted.add(new BusWaitTime(next.getRoute(), estimate, next.isCancelled(), next.isScheduled()));
+		}
+		return counted;
+	}
+
+	private double rate(int count) {
+		int total = hits.get() + staleHits.get() + misses.get();
+		return total == 0 ? 0.0 : (double) count / total;
+	}
+
+	/**
+	 * Snapshot of realtime data received for a stop
+	 */
+	private static class Entry<T> {
+		private final List<T> items;
+		private final long fetchedAt;
+
+		Entry(List<T> items, long fetchedAt) {
+			this.items = items;
+			this.fetchedAt = fetchedAt;
+		}
+	}
+
+	/**
+	 * Cache of one kind of realtime data, keyed by stop number
+	 */
+	private abstract class RealtimeCache<T> {
+		private ConcurrentHashMap<Integer, Entry<T>> entries = new ConcurrentHashMap<Integer, Entry<T>>();
+		private Set<Integer> revalidating = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+
+		/**
+		 * Request data for stop from delegate service
+		 */
+		protected abstract void fetch(BusStop stop) throws TranslinkException;
+
+		/**
+		 * Produce data of this kind held by stop
+		 */
+		protected abstract Collection<T> itemsOf(BusStop stop);
+
+		/**
+		 * Merge given items into data of this kind held by stop
+		 */
+		protected abstract void apply(BusStop stop, List<T> items);
+
+		/**
+		 * Produce items of an entry as they stand after given time
+		 * @param items  items as received
+		 * @param age    time (ms) since items were received
+		 * @return the items (unchanged unless data of this kind dates)
+		 */
+		protected List<T> aged(List<T> items, long age) {
+			return items;
+		}
+
+		/**
+		 * Add data to stop from cache, requesting it if necessary
+		 */
+		void get(BusStop stop) throws TranslinkException {
+			Integer key = stop.getStopNum();
+			Entry<T> entry = entries.get(key);
+			long age = (entry == null) ? Long.MAX_VALUE : clock.now() - entry.fetchedAt;
+
+			if (age <= ttl) {
+				hits.incrementAndGet();
+				apply(stop, aged(entry.items, age));
+			}
+			else if (age <= maxStale) {
+				staleHits.incrementAndGet();
+				apply(stop, aged(entry.items, age));
+				revalidate(stop);
+			}
+			else {
+				misses.incrementAndGet();
+				apply(stop, load(stop));
+			}
+		}
+
+		/**
+		 * Request data for stop and store it in cache
+		 * @return the items received
+		 */
+		private List<T> load(BusStop stop) throws TranslinkException {
+			BusStop scratch = emptyCopyOf(stop);
+			fetch(scratch);
+			List<T> items = Collections.unmodifiableList(new ArrayList<T>(itemsOf(scratch)));
+			entries.put(stop.getStopNum(), new Entry<T>(items, clock.now()));
+			return items;
+		}
+
+		/**
+		 * Request data for stop in background, unless a request is already pending,
+		 * and merge it into stop so that the stop's listeners see what changed
+		 */
+		private void revalidate(final BusStop stop) {
+			final Integer key = stop.getStopNum();
+			if (!revalidating.add(key))
+				return;
+
+			revalidator.execute(new Runnable() {
+				@Override
+				public void run() {
+					RateLimiter.Priority previous = RateLimiter.setPriority(RateLimiter.Priority.BACKGROUND);
+					try {
+						apply(stop, load(stop));
+					} catch (TranslinkException e) {
+						Log.w(LOG_TAG, "Revalidation failed for stop " + key + ": " + e.getMessage());
+					} finally {
+						revalidating.remove(key);
+						RateLimiter.setPriority(previous);
+					}
+				}
+			});
+		}
+	}
+}
@@ -0,0 +1,136 @@
+package ca.ubc.cpsc210.nextbus.translink;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Circuit breaker for a single endpoint.
+ *
+ * While closed, requests are allowed and consecutive failures are counted.  When
+ * the count reaches the failure threshold the breaker opens and requests fail fast.
+ * Once the open period has passed the breaker is half-open: a single probe request
+ * is allowed, which closes the breaker if it succeeds or re-opens it if it fails.
+ */
+public class CircuitBreaker {
+	/**
+	 * States of a circuit breaker
+	 */
+	public enum State {
+		CLOSED, OPEN, HALF_OPEN
+	}
+
+	private int failureThreshold;
+	private long openPeriod;
+	private State state;
+	private int consecutiveFailures;
+	private long openedAt;
+	private boolean probeInFlight;
+	private int tripCount;
+	private int rejectedCount;
+
+	/**
+	 * Constructor
+	 * @param failureThreshold  number of consecutive failures that opens breaker
+	 * @param openPeriod        time in ms breaker stays open before a probe is allowed
+	 */
+	public CircuitBreaker(int failureThreshold, long openPeriod) {
+		this.failureThreshold = failureThreshold;
+		this.openPeriod = openPeriod;
+		state = State.CLOSED;
+	}
+
+	/**
+	 * Determine if a request may be made now.  Caller must report the outcome of
+	 * every allowed request with recordSuccess() or recordFailure(), or with
+	 * releaseRequest() if it is not made.
+	 * @return true if request may be made, false if it must fail fast
+	 */
+	public synchronized boolean allowRequest() {
+		if (state == State.OPEN && System.currentTimeMillis() - openedAt >= openPeriod) {
+			state = State.HALF_OPEN;
+			probeInFlight = false;
+		}
+
+		if (state == State.CLOSED)
+			return true;
+
+		if (state == State.HALF_OPEN && !probeInFlight) {
+			probeInFlight = true;
+			return true;
+		}
+
+		rejectedCount++;
+		return false;
+	}
+
+	/**
+	 * Record that an allowed request was not made after all, so that if it was
+	 * the probe of a half-open breaker, the next request may be the probe instead
+	 */
+	public synchronized void releaseRequest() {
+		if (state == State.HALF_OPEN)
+			probeInFlight = false;
+	}
+
+	/**
+	 * Record that an allowed request succeeded
+	 */
+	public synchronized void recordSuccess() {
+		consecutiveFailures = 0;
+		probeInFlight = false;
+		state = State.CLOSED;
+	}
+
+	/**
+	 * Record that an allowed request failed
+	 */
+	public synchronized void recordFailure() {
+		consecutiveFailures++;
+		probeInFlight = false;
+
+		if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+			if (state != State.OPEN)
+				tripCount++;
+			state = State.OPEN;
+			openedAt = System.currentTimeMillis();
+		}
+	}
+
+	/**
+	 * Gets current state of breaker
+	 * @return state of breaker
+	 */
+	public synchronized State getState() {
+		return state;
+	}
+
+	/**
+	 * Number of times breaker has opened
+	 * @return trip count
+	 */
+	public synchronized int getTripCount() {
+		return tripCount;
+	}
+
+	/**
+	 * Number of requests that failed fast because breaker was open
+	 * @return rejected request count
+	 */
+	public synchronized int getRejectedCount() {
+		return rejectedCount;
+	}
+
+	/**
+	 * Produces snapshot of breaker, for example:
+	 * {"state": "OPEN", "trips": 3, "rejected": 17}
+	 * @return JSON object holding state and counts
+	 * @throws JSONException  if snapshot cannot be built
+	 */
+	public synchronized JSONObject toJSON() throws JSONException {
+		JSONObject json = new JSONObject();
+		json.put("state", getState().name());
+		json.put("trips", tripCount);
+		json.put("rejected", rejectedCount);
+		return json;
+	}
+}
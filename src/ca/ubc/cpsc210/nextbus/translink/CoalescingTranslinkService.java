@@ -0,0 +1,193 @@
+package ca.ubc.cpsc210.nextbus.translink;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ca.ubc.cpsc210.exception.TranslinkException;
+import ca.ubc.cpsc210.nextbus.model.BusLocation;
+import ca.ubc.cpsc210.nextbus.model.BusRoute;
+import ca.ubc.cpsc210.nextbus.model.BusStop;
+import ca.ubc.cpsc210.nextbus.model.BusWaitTime;
+import ca.ubc.cpsc210.nextbus.util.BoundingBox;
+
+/**
+ * Translink service that lets concurrent callers asking for the same data
+ * (same endpoint and stop, or same route map) share a single request.  The
+ * first caller makes the request; callers that arrive while it is in flight
+ * wait for it and receive the same parsed result.
+ *
+ * A request runs at the priority of the caller that makes it (see
+ * RateLimiter), so an interactive caller is not made to wait on a background
+ * request: it makes its own request, which callers arriving later share.
+ *
+ * Wait times and bus locations are merged into each caller's own stop.  A stop
+ * from getBusStop, however, is one instance shared by all callers that were
+ * coalesced (see getBusStop).
+ */
+public class CoalescingTranslinkService extends ForwardingTranslinkService {
+	private ConcurrentHashMap<String, Request<?>> inFlight;
+	private AtomicInteger saved;
+
+	/**
+	 * Constructor
+	 * @param delegate  the service that makes requests
+	 */
+	public CoalescingTranslinkService(ITranslinkService delegate) {
+		super(delegate);
+		inFlight = new ConcurrentHashMap<String, Request<?>>();
+		saved = new AtomicInteger();
+	}
+
+	@Override
+	public void addWaitTimeEstimatesToStop(final BusStop stop) throws TranslinkException {
+		List<BusWaitTime> waitTimes = coalesce("estimates/" + stop.getStopNum(),
+				new Callable<List<BusWaitTime>>() {
+					@Override
+					public List<BusWaitTime> call() throws TranslinkException {
+						BusStop scratch = emptyCopyOf(stop);
+						delegate.addWaitTimeEstimatesToStop(scratch);
+						return new ArrayList<BusWaitTime>(scratch.getWaitTimes());
+					}
+				});
+
+		stop.mergeWaitTimes(waitTimes);
+	}
+
+	@Override
+	public void addBusLocationsForStop(final BusStop stop) throws TranslinkException {
+		List<BusLocation> locations = coalesce("buses/" + stop.getStopNum(),
+				new Callable<List<BusLocation>>() {
+					@Override
+					public List<BusLocation> call() throws TranslinkException {
+						BusStop scratch = emptyCopyOf(stop);
+						delegate.addBusLocationsForStop(scratch);
+						return new ArrayList<BusLocation>(scratch.getBusLocations());
+					}
+				});
+
+		stop.mergeBusLocations(locations);
+	}
+
+	/**
+	 * Callers coalesced onto one request receive the same BusStop instance.  It
+	 * is fully parsed before any caller receives it.  Data later merged into it
+	 * by one caller is seen by the others, but BusStop replaces its wait times
+	 * and bus locations on each merge rather than modifying them.  So a caller
+	 * iterating what it got from getWaitTimes() or getBusLocations() sees a
+	 * consistent snapshot, and can call the getter again to see the merge.
+	 */
+	@Override
+	public BusStop getBusStop(final String stopNum) throws TranslinkException {
+		return coalesce("stops/" + stopNum, new Callable<BusStop>() {
+			@Override
+			public BusStop call() throws TranslinkException {
+				return delegate.getBusStop(stopNum);
+			}
+		});
+	}
+
+	/**
+	 * Routes are shared (see BusRouteRegistry) and publish their segments
+	 * atomically, so the first caller parses straight into its route.  A caller
+	 * holding a different route object with the same name and map URL gets a
+	 * copy of the parsed geometry.
+	 */
+	@Override
+	public void parseKMZ(final BusRoute route) throws TranslinkException {
+		BusRoute parsed = coalesce("kmz/" + route.getName() + "/" + route.getMapURL(),
+				new Callable<BusRoute>() {
+					@Override
+					public BusRoute call() throws TranslinkException {
+						delegate.parseKMZ(route);
+						return route;
+					}
+				});
+
+		if (parsed != route) {
+			BoundingBox bounds = parsed.getBounds();
+			route.setBounds(bounds.getNorth(), bounds.getSouth(), bounds.getEast(), bounds.getWest());
+			route.setSegments(parsed.getSegments());
+		}
+	}
+
+	/**
+	 * Number of requests that were not made because an identical request
+	 * was already in flight
+	 * @return count of requests saved
+	 */
+	public int getSavedRequestCount() {
+		return saved.get();
+	}
+
+	/**
+	 * Run request, or wait for identical request already in flight unless it
+	 * was made at a lower priority than the current thread's
+	 * @param key      identifies the endpoint and resource requested
+	 * @param request  makes the request and parses the result
+	 * @return the parsed result
+	 * @throws TranslinkException  when request fails (all waiting callers receive the same exception)
+	 */
+	@SuppressWarnings("unchecked")
+	private <T> T coalesce(String key, Callable<T> request) throws TranslinkException {
+		Request<T> task = new Request<T>(request, RateLimiter.getPriority());
+		Request<T> existing;
+
+		while (true) {
+			existing = (Request<T>) inFlight.putIfAbsent(key, task);
+			if (existing == null || !task.outranks(existing))
+				break;
+			// make own request, which callers arriving later share instead
+			if (inFlight.replace(key, existing, task)) {
+				existing = null;
+				break;
+			}
+		}
+
+		if (existing == null) {
+			try {
+				task.run();
+			} finally {
+				inFlight.remove(key, task);
+			}
+		}
+		else {
+			saved.incrementAndGet();
+			task = existing;
+		}
+
+		try {
+			return task.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof TranslinkException)
+				throw (TranslinkException) e.getCause();
+			throw new TranslinkException(-1, "Failed to get data from Translink service", e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new TranslinkException(-1, "Request interrupted");
+		}
+	}
+
+	/**
+	 * Request in flight, with the priority at which it is made
+	 */
+	private static class Request<T> extends FutureTask<T> {
+		private RateLimiter.Priority priority;
+
+		Request(Callable<T> callable, RateLimiter.Priority priority) {
+			super(callable);
+			this.priority = priority;
+		}
+
+		/**
+		 * Determine whether this request has higher priority than another
+		 */
+		boolean outranks(Request<?> other) {
+			return priority.compareTo(other.priority) < 0;
+		}
+	}
+}
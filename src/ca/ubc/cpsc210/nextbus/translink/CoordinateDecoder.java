@@ -0,0 +1,209 @@
+package ca.ubc.cpsc210.nextbus.translink;
+
+/**
+ * Streaming decoder for the text of a KML coordinates element, for example
+ * "-123.1,49.2,0 -123.2,49.3,0".  Tuples are separated by whitespace and hold
+ * longitude, latitude and (optional) altitude separated by commas.
+ *
+ * Characters are scanned as the SAX parser delivers them, and each coordinate is
+ * written straight into growable arrays of latitudes and longitudes, so the text
+ * of the element is never held in memory.  Altitudes are ignored.
+ */
+class CoordinateDecoder {
+	private static final int INITIAL_CAPACITY = 256;
+
+	/**
+	 * Largest number of significant digits accumulated into a long mantissa;
+	 * further digits are dropped
+	 */
+	private static final int MAX_DIGITS = 18;
+
+	private static final int LONGITUDE = 0;
+	private static final int LATITUDE = 1;
+
+	private double[] lats;
+	private double[] lons;
+	private int count;
+
+	// state of tuple being decoded
+	private int field;
+	private double lon;
+	private double lat;
+
+	// state of number being decoded
+	private boolean inNumber;
+	private boolean seenDigit;
+	private boolean negative;
+	private long mantissa;
+	private int digits;
+	private int scale;
+	private boolean seenPoint;
+	private boolean inExponent;
+	private boolean exponentNegative;
+	private int exponent;
+
+	/**
+	 * Constructor
+	 */
+	CoordinateDecoder() {
+		lats = new double[INITIAL_CAPACITY];
+		lons = new double[INITIAL_CAPACITY];
+		reset();
+	}
+
+	/**
+	 * Discard decoded points and prepare to decode a new coordinates element.
+	 * Arrays are kept for reuse.
+	 */
+	void reset() {
+		count = 0;
+		field = LONGITUDE;
+		resetNumber();
+	}
+
+	/**
+	 * Decode characters delivered by SAX parser
+	 * @param ch     the characters
+	 * @param start  start position in ch
+	 * @param length number of characters to decode
+	 */
+	void decode(char[] ch, int start, int length) {
+		int end = start + length;
+
+		for (int i = start; i < end; i++) {
+			char c = ch[i];
+
+			if (c >= '0' && c <= '9') {
+				inNumber = true;
+				if (inExponent) {
+					exponent = exponent * 10 + (c - '0');
+				}
+				else {
+					seenDigit = true;
+					if (digits < MAX_DIGITS) {
+						mantissa = mantissa * 10 + (c - '0');
+						if (mantissa != 0)
+							digits++;
+						if (seenPoint)
+							scale++;
+					}
+					else if (!seenPoint) {
+						scale--;	// dropped digit is in integer part
+					}
+				}
+			}
+			else if (c == '-' || c == '+') {
+				inNumber = true;
+				if (inExponent)
+					exponentNegative = (c == '-');
+				else
+					negative = (c == '-');
+			}
+			else if (c == '.') {
+				inNumber = true;
+				seenPoint = true;
+			}
+			else if (c == 'e' || c == 'E') {
+				inExponent = true;
+			}
+			else if (c == ',') {
+				endNumber();
+				field++;
+			}
+			else if (Character.isWhitespace(c)) {
+				endTuple();
+			}
+		}
+	}
+
+	/**
+	 * Finish decoding at end of coordinates element
+	 */
+	void finish() {
+		endTuple();
+	}
+
+	/**
+	 * Number of points decoded
+	 * @return number of points
+	 */
+	int size() {
+		return count;
+	}
+
+	/**
+	 * Latitudes of decoded points; only the first size() entries are valid
+	 * @return array of latitudes
+	 */
+	double[] latitudes() {
+		return lats;
+	}
+
+	/**
+	 * Longitudes of decoded points; only the first size() entries are valid
+	 * @return array of longitudes
+	 */
+	double[] longitudes() {
+		return lons;
+	}
+
+	/**
+	 * Store number just decoded in current field of tuple
+	 */
+	private void endNumber() {
+		if (seenDigit) {
+			int netScale = scale - (exponentNegative ? -exponent : exponent);
+			double value;
+			if (netScale >= 0)
+				value = ElementText.toDouble(negative, mantissa, netScale);
+			else
+				value = (negative ? -mantissa : mantissa) * Math.pow(10, -netScale);
+
+			if (field == LONGITUDE)
+				lon = value;
+			else if (field == LATITUDE)
+				lat = value;
+		}
+
+		resetNumber();
+	}
+
+	/**
+	 * Add tuple just decoded to points, if it has a latitude and longitude
+	 */
+	private void endTuple() {
+		boolean pending = inNumber;
+		endNumber();
+
+		if (field > LATITUDE || (field == LATITUDE && pending)) {
+			if (count == lats.length) {
+				lats = grow(lats);
+				lons = grow(lons);
+			}
+			lats[count] = lat;
+			lons[count] = lon;
+			count++;
+		}
+
+		field = LONGITUDE;
+	}
+
+	private void resetNumber() {
+		inNumber = false;
+		seenDigit = false;
+		negative = false;
+		mantissa = 0;
+		digits = 0;
+		scale = 0;
+		seenPoint = false;
+		inExponent = false;
+		exponentNegative = false;
+		exponent = 0;
+	}
+
+	private static double[] grow(double[] values) {
+		double[] grown = new double[values.length * 2];
+		System.arraycopy(values, 0, grown, 0, values.length);
+		return grown;
+	}
+}
@@ -0,0 +1,237 @@
+package ca.ubc.cpsc210.nextbus.translink;
+
+/**
+ * Growable character buffer that accumulates the text of the current XML
+ * element.  One buffer is reused for every element of a document, and numbers
+ * are parsed straight from the buffer without building intermediate strings.
+ */
+class ElementText {
+	private static final int INITIAL_CAPACITY = 64;
+
+	/**
+	 * Powers of ten that are exactly representable as doubles
+	 */
+	private static final double[] POWERS_OF_TEN = {
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+		1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+	};
+
+	/**
+	 * Largest number of significant digits accumulated into a long mantissa:
+	 * any 15-digit mantissa is below 2^53 and so is exactly a double
+	 */
+	private static final int MAX_DIGITS = 15;
+
+	private char[] buffer;
+	private int length;
+
+	/**
+	 * Constructor
+	 */
+	ElementText() {
+		buffer = new char[INITIAL_CAPACITY];
+		length = 0;
+	}
+
+	/**
+	 * Discard accumulated text
+	 */
+	void reset() {
+		length = 0;
+	}
+
+	/**
+	 * Append characters delivered by SAX parser
+	 * @param ch      the characters
+	 * @param start   start position in ch
+	 * @param count   number of characters to append
+	 */
+	void append(char[] ch, int start, int count) {
+		if (length + count > buffer.length) {
+			char[] grown = new char[Math.max(buffer.length * 2, length + count)];
+			System.arraycopy(buffer, 0, grown, 0, length);
+			buffer = grown;
+		}
+
+		System.arraycopy(ch, start, buffer, length, count);
+		length += count;
+	}
+
+	/**
+	 * Produces accumulated text with leading and trailing whitespace removed
+	 * @return trimmed text
+	 */
+	@Override
+	public String toString() {
+		int start = firstNonBlank();
+		int end = lastNonBlank(start);
+		return new String(buffer, start, end - start);
+	}
+
+	/**
+	 * Determine if accumulated text (trimmed) is the given string
+	 * @param s  the string
+	 * @return true if text has exactly the characters of s, false otherwise
+	 */
+	boolean contentEquals(String s) {
+		int start = firstNonBlank();
+		int end = lastNonBlank(start);
+
+		if (end - start != s.length())
+			return false;
+
+		for (int i = 0; i < s.length(); i++) {
+			if (buffer[start + i] != s.charAt(i))
+				return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Produces hash code of accumulated text (trimmed), equal to the hash code of
+	 * the String having the same characters
+	 * @return hash code
+	 */
+	int contentHashCode() {
+		int start = firstNonBlank();
+		int end = lastNonBlank(start);
+		int hash = 0;
+
+		for (int i = start; i < end; i++)
+			hash = 31 * hash + buffer[i];
+
+		return hash;
+	}
+
+	/**
+	 * Parse accumulated text as a decimal integer
+	 * @return the integer value
+	 * @throws NumberFormatException  if text is not a decimal integer
+	 */
+	int toInt() {
+		int pos = firstNonBlank();
+		int end = lastNonBlank(pos);
+		boolean negative = false;
+
+		if (pos < end && (buffer[pos] == '-' || buffer[pos] == '+'))
+			negative = buffer[pos++] == '-';
+		if (pos == end)
+			throw new NumberFormatException(toString());
+
+		long value = 0;
+		for (; pos < end; pos++) {
+			int digit = buffer[pos] - '0';
+			if (digit < 0 || digit > 9)
+				throw new NumberFormatException(toString());
+			value = value * 10 + digit;
+			if (value > (long) Integer.MAX_VALUE + 1)
+				throw new NumberFormatException(toString());
+		}
+
+		value = negative ? -value : value;
+		if (value > Integer.MAX_VALUE)
+			throw new NumberFormatException(toString());
+		return (int) value;
+	}
+
+	/**
+	 * Parse accumulated text as a decimal number, for example "-123.1234567".
+	 * Numbers with an exponent or more than MAX_DIGITS significant digits are
+	 * handed to Double.parseDouble.
+	 * @return the double value
+	 * @throws NumberFormatException  if text is not a decimal number
+	 */
+	double toDouble() {
+		int pos = firstNonBlank();
+		int end = lastNonBlank(pos);
+		boolean negative = false;
+
+		if (pos < end && (buffer[pos] == '-' || buffer[pos] == '+'))
+			negative = buffer[pos++] == '-';
+
+		long mantissa = 0;
+		int digits = 0;
+		int scale = 0;
+		boolean seenPoint = false;
+		boolean seenDigit = false;
+
+		for (; pos < end; pos++) {
+			char c = buffer[pos];
+			if (c >= '0' && c <= '9') {
+				if (digits == MAX_DIGITS)
+					return Double.parseDouble(toString());
+				mantissa = mantissa * 10 + (c - '0');
+				seenDigit = true;
+				if (mantissa != 0)
+					digits++;
+				if (seenPoint)
+					scale++;
+			}
+			else if (c == '.' && !seenPoint)
+				seenPoint = true;
+			else
+				return Double.parseDouble(toString());
+		}
+
+		if (!seenDigit)
+			throw new NumberFormatException(toString());
+
+		return toDouble(negative, mantissa, scale);
+	}
+
+	/**
+	 * Determine if accumulated text (trimmed) is "true", ignoring case
+	 * @return true if text is "true", false otherwise
+	 */
+	boolean toBoolean() {
+		int start = firstNonBlank();
+		int end = lastNonBlank(start);
+		final String TRUE = "true";
+
+		if (end - start != TRUE.length())
+			return false;
+
+		for (int i = 0; i < TRUE.length(); i++) {
+			if (Character.toLowerCase(buffer[start + i]) != TRUE.charAt(i))
+				return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Convert sign, decimal mantissa and number of digits after the decimal point
+	 * to a double.  Correctly rounded when the mantissa is below 2^53 and scale is
+	 * at most 22, as it is for every number toDouble() converts itself; otherwise
+	 * within one unit in the last place.
+	 * @param negative  true if number is negative
+	 * @param mantissa  the digits of the number, as an integer
+	 * @param scale     number of digits after the decimal point
+	 * @return the number
+	 */
+	static double toDouble(boolean negative, long mantissa, int scale) {
+		double value;
+
+		if (scale < POWERS_OF_TEN.length)
+			value = mantissa / POWERS_OF_TEN[scale];
+		else
+			value = mantissa / Math.pow(10, scale);
+
+		return negative ? -value : value;
+	}
+
+	private int firstNonBlank() {
+		int pos = 0;
+		while (pos < length && Character.isWhitespace(buffer[pos]))
+			pos++;
+		return pos;
+	}
+
+	private int lastNonBlank(int start) {
+		int end = length;
+		while (end > start && Character.isWhitespace(buffer[end - 1]))
+			end--;
+		return end;
+	}
+}
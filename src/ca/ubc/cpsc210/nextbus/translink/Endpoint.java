@@ -0,0 +1,26 @@
+package ca.ubc.cpsc210.nextbus.translink;
+
+/**
+ * Endpoints of the Translink service that the app requests data from
+ */
+public enum Endpoint {
+	/**
+	 * Wait time estimates for a stop
+	 */
+	ESTIMATES,
+
+	/**
+	 * Locations of buses serving a stop
+	 */
+	BUSES,
+
+	/**
+	 * Bus stop information
+	 */
+	STOPS,
+
+	/**
+	 * KMZ route maps
+	 */
+	KMZ
+}
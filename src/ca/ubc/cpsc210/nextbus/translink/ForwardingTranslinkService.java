@@ -0,0 +1,68 @@
+package ca.ubc.cpsc210.nextbus.translink;
+
+import java.util.Collection;
+import java.util.Map;
+
+import ca.ubc.cpsc210.exception.TranslinkException;
+import ca.ubc.cpsc210.nextbus.model.BusRoute;
+import ca.ubc.cpsc210.nextbus.model.BusStop;
+
+/**
+ * Translink service that forwards all requests to another service.  Subclasses
+ * override the requests they want to decorate.
+ *
+ * Design Pattern: Decorator
+ */
+public abstract class ForwardingTranslinkService implements ITranslinkService {
+	protected ITranslinkService delegate;
+
+	/**
+	 * Constructor
+	 * @param delegate  the service to which requests are forwarded
+	 */
+	public ForwardingTranslinkService(ITranslinkService delegate) {
+		this.delegate = delegate;
+	}
+
+	@Override
+	public void addWaitTimeEstimatesToStop(BusStop stop) throws TranslinkException {
+		delegate.addWaitTimeEstimatesToStop(stop);
+	}
+
+	/**
+	 * Refreshes each stop through addWaitTimeEstimatesToStop on this service
+	 * so that decorations apply to every stop in the batch.
+	 */
+	@Override
+	public Map<BusStop, TranslinkException> addWaitTimeEstimatesToStops(Collection<BusStop> stops) {
+		return BatchRefresher.addWaitTimeEstimates(this, stops);
+	}
+
+	@Override
+	public void addBusLocationsForStop(BusStop stop) throws TranslinkException {
+		delegate.addBusLocationsForStop(stop);
+	}
+
+	@Override
+	public BusStop getBusStop(String stopNum) throws TranslinkException {
+		return delegate.getBusStop(stopNum);
+	}
+
+	@Override
+	public void parseKMZ(BusRoute route) throws TranslinkException {
+		delegate.parseKMZ(route);
+	}
+
+	/**
+	 * Produces a copy of a stop with the same number, location and routes but with
+	 * no wait times or bus locations.  Lets a request be made without touching the
+	 * collections of a stop that may be in use elsewhere.
+	 * @param stop  the stop to copy
+	 * @return copy of stop having no wait times or bus locations
+	 */
+	protected static BusStop emptyCopyOf(BusStop stop) {
+		return new BusStop(stop.getStopNum(), stop.getLocationDesc(),
+				stop.getLatLon().getLatitude(), stop.getLatLon().getLongitude(),
+				stop.getRoutes());
+	}
+}
@@ -0,0 +1,393 @@
+package ca.ubc.cpsc210.nextbus.translink;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.util.Log;
+import ca.ubc.cpsc210.exception.TranslinkException;
+
+/**
+ * Disk cache of responses from endpoints whose data rarely changes (for
+ * example, stop descriptions and route maps).
+ *
+ * Each endpoint has a maximum age.  A stored response younger than its maximum
+ * age is served without a request.  An older one is revalidated with a
+ * conditional request (If-None-Match / If-Modified-Since) and, if the server
+ * replies 304 Not Modified, served again without downloading the body.  If
+ * revalidation fails (including with a 5xx reply), the stored response is served
+ * anyway as slow-changing data is better than none.  Endpoints with no maximum
+ * age are never cached.
+ *
+ * The time each response was stored is kept in its file; the file's modification
+ * time records when it was last used.  When the total size of stored responses
+ * exceeds the size limit, least recently used responses are deleted.
+ */
+public class HttpCache {
+	private static final String LOG_TAG = "HttpCache";
+	private static final int MAGIC = 0x48544332;	// "HTC2"
+	private static final int HTTP_OK = 200;
+	private static final int HTTP_NOT_MODIFIED = 304;
+	private static final int HTTP_SERVER_ERROR = 500;
+
+	/**
+	 * Position in file of time at which response was stored or last revalidated
+	 */
+	private static final int STORED_AT_OFFSET = 4;
+
+	private File directory;
+	private long maxBytes;
+	private ResilientTransport transport;
+	private Map<Endpoint, Long> maxAges;
+	private AtomicInteger hits;
+	private AtomicInteger revalidations;
+	private AtomicInteger misses;
+	private AtomicInteger staleServed;
+
+	/**
+	 * Constructor
+	 * @param directory  directory in which responses are stored (created if necessary)
+	 * @param maxBytes   limit on total size of stored responses
+	 * @param transport  transport through which requests are made
+	 */
+	public HttpCache(File directory, long maxBytes, ResilientTransport transport) {
+		this.directory = directory;
+		this.maxBytes = maxBytes;
+		this.transport = transport;
+		maxAges = new EnumMap<Endpoint, Long>(Endpoint.class);
+		hits = new AtomicInteger();
+		revalidations = new AtomicInteger();
+		misses = new AtomicInteger();
+		staleServed = new AtomicInteger();
+	}
+
+	/**
+	 * Set time for which responses from an endpoint are served without revalidation
+	 * @param endpoint  the endpoint
+	 * @param maxAge    maximum age (ms) of responses, or negative to stop caching endpoint
+	 */
+	public synchronized void setMaxAge(Endpoint endpoint, long maxAge) {
+		if (maxAge < 0)
+			maxAges.remove(endpoint);
+		else
+			maxAges.put(endpoint, maxAge);
+	}
+
+	/**
+	 * Issue a GET request to an endpoint, using stored response where possible
+	 * @param endpoint  the endpoint requested
+	 * @param url       the URL to get
+	 * @return the response received or stored
+	 * @throws TranslinkException  when request fails and no response is stored
+	 */
+	public HttpTransport.Response get(Endpoint endpoint, String url) throws TranslinkException {
+		Long maxAge = maxAgeOf(endpoint);
+		if (maxAge == null)
+			return transport.get(endpoint, url);
+
+		File file = fileFor(url);
+		Entry entry = read(file, url);
+		if (isFresh(file, entry, maxAge))
+			return entry.response;
+
+		HttpTransport.Response response;
+		try {
+			response = transport.get(endpoint, url, conditionalHeaders(entry));
+		} catch (TranslinkException e) {
+			if (entry == null)
+				throw e;
+			return serveStale(endpoint, file, entry, e.getMessage());
+		}
+
+		if (entry != null && response.getStatus() >= HTTP_SERVER_ERROR)
+			return serveStale(endpoint, file, entry, "HTTP " + response.getStatus());
+
+		if (entry != null && response.getStatus() == HTTP_NOT_MODIFIED) {
+			revalidations.incrementAndGet();
+			writeStoredAt(file, System.currentTimeMillis());
+			file.setLastModified(System.currentTimeMillis());
+			return entry.response;
+		}
+
+		misses.incrementAndGet();
+		if (response.getStatus() == HTTP_OK)
+			write(file, url, response);
+
+		return response;
+	}
+
+	/**
+	 * Gets stored response to a GET request if it can be served without a
+	 * request, so that callers can answer from the cache before checking
+	 * that the network is available
+	 * @param endpoint  the endpoint requested
+	 * @param url       the URL to get
+	 * @return the stored response, or null if none is stored or it is older than
+	 * the endpoint's maximum age
+	 */
+	public HttpTransport.Response getFresh(Endpoint endpoint, String url) {
+		Long maxAge = maxAgeOf(endpoint);
+		if (maxAge == null)
+			return null;
+
+		File file = fileFor(url);
+		Entry entry = read(file, url);
+		return isFresh(file, entry, maxAge) ? entry.response : null;
+	}
+
+	private synchronized Long maxAgeOf(Endpoint endpoint) {
+		return maxAges.get(endpoint);
+	}
+
+	/**
+	 * Determine if stored response can be served without a request, counting
+	 * a hit and marking file as used if so
+	 */
+	private boolean isFresh(File file, Entry entry, long maxAge) {
+		if (entry == null || System.currentTimeMillis() - entry.storedAt > maxAge)
+			return false;
+
+		hits.incrementAndGet();
+		file.setLastModified(System.currentTimeMillis());
+		return true;
+	}
+
+	/**
+	 * Number of responses served from disk without a request
+	 * @return hit count
+	 */
+	public int getHitCount() {
+		return hits.get();
+	}
+
+	/**
+	 * Number of responses served from disk after a 304 Not Modified reply
+	 * @return revalidation count
+	 */
+	public int getRevalidatedCount() {
+		return revalidations.get();
+	}
+
+	/**
+	 * Number of responses downloaded in full
+	 * @return miss count
+	 */
+	public int getMissCount() {
+		return misses.get();
+	}
+
+	/**
+	 * Number of stored responses served because revalidation failed
+	 * @return stale count
+	 */
+	public int getStaleCount() {
+		return staleServed.get();
+	}
+
+	/**
+	 * Serve stored response when it could not be revalidated
+	 */
+	private HttpTransport.Response serveStale(Endpoint endpoint, File file, Entry entry, String reason) {
+		Log.w(LOG_TAG, "Serving stale " + endpoint + " response: " + reason);
+		staleServed.incrementAndGet();
+		file.setLastModified(System.currentTimeMillis());
+		return entry.response;
+	}
+
+	/**
+	 * Produces headers that make request conditional on stored response having changed
+	 */
+	private static Map<String, String> conditionalHeaders(Entry entry) {
+		if (entry == null)
+			return null;
+
+		Map<String, String> headers = new HashMap<String, String>();
+		if (entry.response.getETag() != null)
+			headers.put("If-None-Match", entry.response.getETag());
+		if (entry.response.getLastModified() != null)
+			headers.put("If-Modified-Since", entry.response.getLastModified());
+		return headers;
+	}
+
+	/**
+	 * Produces file in which response to URL is stored
+	 */
+	private File fileFor(String url) {
+		return new File(directory, hash(url));
+	}
+
+	/**
+	 * Read stored response
+	 * @return stored response, or null if none is stored for url
+	 */
+	private Entry read(File file, String url) {
+		if (!file.exists())
+			return null;
+
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			if (in.readInt() != MAGIC)
+				return null;
+			long storedAt = in.readLong();
+			if (!url.equals(in.readUTF()))
+				return null;
+
+			String eTag = in.readUTF();
+			String lastModified = in.readUTF();
+			byte[] body = new byte[in.readInt()];
+			in.readFully(body);
+
+			return new Entry(storedAt, new HttpTransport.Response(HTTP_OK, body,
+					eTag.length() > 0 ? eTag : null,
+					lastModified.length() > 0 ? lastModified : null));
+		} catch (IOException e) {
+			Log.w(LOG_TAG, "Discarding unreadable response for " + url);
+			file.delete();
+			return null;
+		} finally {
+			close(in);
+		}
+	}
+
+	/**
+	 * Store response, replacing any response stored for url, then evict least
+	 * recently used responses if size limit is exceeded
+	 */
+	private void write(File file, String url, HttpTransport.Response response) {
+		directory.mkdirs();
+		File tmp = new File(directory, file.getName() + "." + Thread.currentThread().getId());
+		DataOutputStream out = null;
+
+		try {
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+			out.writeInt(MAGIC);
+			out.writeLong(System.currentTimeMillis());
+			out.writeUTF(url);
+			out.writeUTF(response.getETag() != null ? response.getETag() : "");
+			out.writeUTF(response.getLastModified() != null ? response.getLastModified() : "");
+			out.writeInt(response.getBody().length);
+			out.write(response.getBody());
+			out.close();
+			out = null;
+
+			if (!tmp.renameTo(file))
+				throw new IOException("Rename failed");
+		} catch (IOException e) {
+			Log.w(LOG_TAG, "Unable to store response for " + url);
+			tmp.delete();
+		} finally {
+			close(out);
+		}
+
+		evict();
+	}
+
+	/**
+	 * Record time at which stored response was revalidated, unless its file has
+	 * been evicted meanwhile: mode "rw" would create a file holding only the time.
+	 * Holds the lock that evict() holds, so that the file cannot go between the
+	 * check and the write.
+	 */
+	private synchronized void writeStoredAt(File file, long storedAt) {
+		if (!file.exists())
+			return;
+
+		RandomAccessFile raf = null;
+		try {
+			raf = new RandomAccessFile(file, "rw");
+			raf.seek(STORED_AT_OFFSET);
+			raf.writeLong(storedAt);
+		} catch (IOException e) {
+			Log.w(LOG_TAG, "Unable to update stored response " + file.getName());
+		} finally {
+			close(raf);
+		}
+	}
+
+	/**
+	 * Delete least recently used responses until total size is within limit
+	 */
+	private synchronized void evict() {
+		File[] files = directory.listFiles();
+		if (files == null)
+			return;
+
+		long total = 0;
+		for (File next : files)
+			total += next.length();
+		if (total <= maxBytes)
+			return;
+
+		Arrays.sort(files, new Comparator<File>() {
+			@Override
+			public int compare(File f1, File f2) {
+				long diff = f1.lastModified() - f2.lastModified();
+				return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+			}
+		});
+
+		for (int i = 0; i < files.length && total > maxBytes; i++) {
+			long size = files[i].length();
+			if (files[i].delete())
+				total -= size;
+		}
+	}
+
+	private static void close(Closeable stream) {
+		if (stream != null) {
+			try {
+				stream.close();
+			} catch (IOException e) {
+				// ignore: nothing more can be done
+			}
+		}
+	}
+
+	/**
+	 * Produces hex SHA-1 digest of url, used as file name
+	 */
+	private static String hash(String url) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-1").digest(url.getBytes("UTF-8"));
+			StringBuilder name = new StringBuilder();
+			for (byte b : digest) {
+				name.append(Character.forDigit((b >> 4) & 0xF, 16));
+				name.append(Character.forDigit(b & 0xF, 16));
+			}
+			return name.toString();
+		} catch (NoSuchAlgorithmException e) {
+			return Integer.toHexString(url.hashCode());
+		} catch (IOException e) {
+			return Integer.toHexString(url.hashCode());
+		}
+	}
+
+	/**
+	 * A stored response and the time (ms) at which it was stored or last revalidated
+	 */
+	private static class Entry {
+		private long storedAt;
+		private HttpTransport.Response response;
+
+		Entry(long storedAt, HttpTransport.Response response) {
+			this.storedAt = storedAt;
+			this.response = response;
+		}
+	}
+}
@@ -0,0 +1,225 @@
+package ca.ubc.cpsc210.nextbus.translink;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * HTTP transport shared by all Translink services.
+ *
+ * Connection state is local to each request, so the transport can be used
+ * from many threads at once.  Response bodies are always read to the end and
+ * the stream closed (never disconnected) so that the underlying socket is
+ * returned to the platform's keep-alive pool and reused by the next request
+ * to the same host.  Compressed responses are requested and unwrapped
+ * transparently.  Requests made for an endpoint are timed phase by phase
+ * in TranslinkMetrics.
+ *
+ * Design Pattern: Singleton
+ */
+public class HttpTransport {
+	/**
+	 * Set timeouts on connection and data acquisition
+	 */
+	private static final int CONNECT_TIMEOUT = 5000;
+	private static final int READ_TIMEOUT = 5000;
+
+	/**
+	 * Maximum number of idle connections kept alive per host
+	 */
+	private static final String MAX_CONNECTIONS = "5";
+
+	private static final int BUFFER_SIZE = 4096;
+
+	private static HttpTransport instance;
+
+	/**
+	 * Constructor
+	 */
+	private HttpTransport() {
+		System.setProperty("http.keepAlive", "true");
+		System.setProperty("http.maxConnections", MAX_CONNECTIONS);
+	}
+
+	/**
+	 * Gets single instance of this class
+	 * @return instance (the only one) of HttpTransport
+	 */
+	public static synchronized HttpTransport getInstance() {
+		if (instance == null) {
+			instance = new HttpTransport();
+		}
+
+		return instance;
+	}
+
+	/**
+	 * Issue a GET request and read the complete response.  The body of error
+	 * responses is returned too, as Translink describes errors in the body.
+	 *
+	 * @param url  the URL to get
+	 * @return the response received
+	 * @throws IOException  when connection fails or response cannot be read
+	 */
+	public Response get(String url) throws IOException {
+		return get(url, null);
+	}
+
+	/**
+	 * Issue a GET request with extra request headers (for example, conditional
+	 * request headers) and read the complete response.
+	 *
+	 * @param url      the URL to get
+	 * @param headers  request headers to send, keyed by name (may be null)
+	 * @return the response received
+	 * @throws IOException  when connection fails or response cannot be read
+	 */
+	public Response get(String url, Map<String, String> headers) throws IOException {
+		return get(null, url, headers);
+	}
+
+	/**
+	 * Issue a GET request to an endpoint and read the complete response, recording
+	 * time taken to connect, to receive the first byte and to transfer the body,
+	 * and size of body, in TranslinkMetrics.
+	 *
+	 * @param endpoint  the endpoint requested (null if request is not to be measured)
+	 * @param url       the URL to get
+	 * @param headers   request headers to send, keyed by name (may be null)
+	 * @return the response received
+	 * @throws IOException  when connection fails or response cannot be read
+	 */
+	public Response get(Endpoint endpoint, String url, Map<String, String> headers) throws IOException {
+		HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+
+		try {
+			conn.setConnectTimeout(CONNECT_TIMEOUT);
+			conn.setReadTimeout(READ_TIMEOUT);
+			conn.setRequestProperty("Accept-Encoding", "gzip");
+			if (headers != null) {
+				for (Map.Entry<String, String> next : headers.entrySet())
+					conn.setRequestProperty(next.getKey(), next.getValue());
+			}
+			long start = System.nanoTime();
+			conn.connect();
+			long connected = System.nanoTime();
+
+			int status = conn.getResponseCode();
+			long firstByte = System.nanoTime();
+			InputStream in = (status >= HttpURLConnection.HTTP_BAD_REQUEST)
+					? conn.getErrorStream() : conn.getInputStream();
+			if (in != null && "gzip".equalsIgnoreCase(conn.getContentEncoding()))
+				in = new GZIPInputStream(in);
+
+			byte[] body = readFully(in);
+			if (endpoint != null) {
+				TranslinkMetrics metrics = TranslinkMetrics.getInstance();
+				metrics.record(endpoint, TranslinkMetrics.Phase.CONNECT, connected - start);
+				metrics.record(endpoint, TranslinkMetrics.Phase.FIRST_BYTE, firstByte - connected);
+				metrics.record(endpoint, TranslinkMetrics.Phase.TRANSFER, System.nanoTime() - firstByte);
+				metrics.recordBytes(endpoint, body.length);
+			}
+
+			return new Response(status, body,
+					conn.getHeaderField("ETag"), conn.getHeaderField("Last-Modified"));
+		} catch (IOException e) {
+			// socket is in an unknown state so don't let it be reused
+			conn.disconnect();
+			throw e;
+		}
+	}
+
+	/**
+	 * Read stream to the end and close it
+	 * @param in  the stream to read (may be null if response has no body)
+	 * @return bytes read from stream
+	 * @throws IOException  when stream cannot be read
+	 */
+	private byte[] readFully(InputStream in) throws IOException {
+		if (in == null)
+			return new byte[0];
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream(BUFFER_SIZE);
+		byte[] buffer = new byte[BUFFER_SIZE];
+
+		try {
+			int count;
+			while ((count = in.read(buffer)) != -1) {
+				out.write(buffer, 0, count);
+			}
+		} finally {
+			in.close();
+		}
+
+		return out.toByteArray();
+	}
+
+	/**
+	 * A complete HTTP response
+	 */
+	public static class Response {
+		private int status;
+		private byte[] body;
+		private String eTag;
+		private String lastModified;
+
+		/**
+		 * Constructor
+		 * @param status  the HTTP status code
+		 * @param body    the response body
+		 */
+		public Response(int status, byte[] body) {
+			this(status, body, null, null);
+		}
+
+		/**
+		 * Constructor
+		 * @param status        the HTTP status code
+		 * @param body          the response body
+		 * @param eTag          value of ETag header (null if absent)
+		 * @param lastModified  value of Last-Modified header (null if absent)
+		 */
+		public Response(int status, byte[] body, String eTag, String lastModified) {
+			this.status = status;
+			this.body = body;
+			this.eTag = eTag;
+			this.lastModified = lastModified;
+		}
+
+		/**
+		 * Gets HTTP status code
+		 * @return status code
+		 */
+		public int getStatus() {
+			return status;
+		}
+
+		/**
+		 * Gets response body
+		 * @return bytes of response body (empty if there is no body)
+		 */
+		public byte[] getBody() {
+			return body;
+		}
+
+		/**
+		 * Gets entity tag used to revalidate response
+		 * @return value of ETag header, or null if absent
+		 */
+		public String getETag() {
+			return eTag;
+		}
+
+		/**
+		 * Gets modification time used to revalidate response
+		 * @return value of Last-Modified header, or null if absent
+		 */
+		public String getLastModified() {
+			return lastModified;
+		}
+	}
+}
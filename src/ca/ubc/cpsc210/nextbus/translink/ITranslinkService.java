@@ -1,5 +1,8 @@
 package ca.ubc.cpsc210.nextbus.translink;
 
+import java.util.Collection;
+import java.util.Map;
+
 import ca.ubc.cpsc210.exception.TranslinkException;
 import ca.ubc.cpsc210.nextbus.model.BusRoute;
 import ca.ubc.cpsc210.nextbus.model.BusStop;
@@ -15,6 +18,17 @@ public interface ITranslinkService {
     public abstract void addWaitTimeEstimatesToStop(BusStop stop)
             throws TranslinkException;
 
+    /**
+     * Add current wait time estimates to each of the given bus stops
+     * (replaces current wait time estimates).  Estimates for all stops are 
+     * fetched concurrently.
+     * @param stops  the bus stops to which wait time estimates must be added
+     * @return map from each stop to the exception raised obtaining or parsing its
+     * estimates, or to null if estimates were added successfully
+     */
+    public abstract Map<BusStop, TranslinkException> addWaitTimeEstimatesToStops(
+            Collection<BusStop> stops);
+
     /**
      * Add bus location information for buses currently serving a particular stop
      * (replaces current list of bus locations for stop).
@@ -1,24 +1,49 @@
 // DELETE: SUMMER PART 1
 package ca.ubc.cpsc210.nextbus.translink;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
 import org.xml.sax.helpers.DefaultHandler;
 
 import ca.ubc.cpsc210.nextbus.model.BusRoute;
-import ca.ubc.cpsc210.nextbus.util.LatLon;
 import ca.ubc.cpsc210.nextbus.util.Segment;
 
 /**
- * Parser for KML files that contain bus route data.
+ * Parser for KML files that contain bus route data.  Bounds and segments are
+ * added to the route only when the whole document has been parsed.
  */
 public class KMLParser extends DefaultHandler {
-	private StringBuilder sb;
+	private static final int UNKNOWN = 0;
+	private static final int NORTH = 1;
+	private static final int SOUTH = 2;
+	private static final int EAST = 3;
+	private static final int WEST = 4;
+	private static final int COORDINATES = 5;
+	private static final Map<String, Integer> TAGS = new HashMap<String, Integer>();
+	
+	static {
+		TAGS.put("north", NORTH);
+		TAGS.put("south", SOUTH);
+		TAGS.put("east", EAST);
+		TAGS.put("west", WEST);
+		TAGS.put("coordinates", COORDINATES);
+	}
+	
+	private ElementText text;
+	private CoordinateDecoder decoder;
+	private boolean inCoordinates;
 	private BusRoute route;
-	private String north;
-	private String south;
-	private String east;
-	private String west;
+	private List<Segment> segments;
+	private double north;
+	private double south;
+	private double east;
+	private double west;
+	private int boundsParsed;
 	
 	/**
 	 * Constructor
@@ -26,56 +51,91 @@ public class KMLParser extends DefaultHandler {
 	 */
 	public KMLParser(BusRoute route) {
 		this.route = route;
+		text = new ElementText();
+		decoder = new CoordinateDecoder();
+		inCoordinates = false;
+		segments = new ArrayList<Segment>();
 	}
 
 	@Override
 	public void endDocument() throws SAXException {
-		route.setBounds(Double.parseDouble(north), 
-					Double.parseDouble(south), 
-					Double.parseDouble(east), 
-					Double.parseDouble(west));
+		if (boundsParsed < 4)
+			throw new SAXException("Route bounds missing");
+		
+		route.setBounds(north, south, east, west);
+		route.setSegments(segments);
 	}
 
 	@Override
 	public void startElement(String uri, String localName, String qName,
 			Attributes attributes) throws SAXException {
-		sb = new StringBuilder();
+		text.reset();
+		
+		if (tagOf(qName) == COORDINATES) {
+			decoder.reset();
+			inCoordinates = true;
+		}
 	}
 
 	@Override
 	public void endElement(String uri, String localName, String qName)
 			throws SAXException {
-		if (qName.equals("north"))
-			north = sb.toString().trim();
-		else if (qName.equals("south"))
-			south = sb.toString().trim();
-		else if (qName.equals("east"))
-			east = sb.toString().trim();
-		else if (qName.equals("west"))
-			west = sb.toString().trim();
-		else if (qName.equals("coordinates"))
-			route.addSegment(parseSegment(sb.toString().trim()));
+		switch (tagOf(qName)) {
+		case NORTH:
+			north = text.toDouble();
+			boundsParsed++;
+			break;
+		case SOUTH:
+			south = text.toDouble();
+			boundsParsed++;
+			break;
+		case EAST:
+			east = text.toDouble();
+			boundsParsed++;
+			break;
+		case WEST:
+			west = text.toDouble();
+			boundsParsed++;
+			break;
+		case COORDINATES:
+			decoder.finish();
+			segments.add(buildSegment());
+			inCoordinates = false;
+			break;
+		}
 	}
 
 	@Override
 	public void characters(char[] ch, int start, int length)
 			throws SAXException {
-		sb.append(new String(ch, start, length));
+		if (inCoordinates)
+			decoder.decode(ch, start, length);
+		else
+			text.append(ch, start, length);
+	}
+
+	/**
+	 * Look up tag of element
+	 * @param qName  name of element
+	 * @return tag of element, or UNKNOWN if element is not of interest
+	 */
+	private static int tagOf(String qName) {
+		Integer tag = TAGS.get(qName);
+		return (tag == null) ? UNKNOWN : tag;
 	}
 
 	/**
-	 * Parses a single segment of the bus route
-	 * @param coordinates  the coordinates of points on this segment
-	 * @return the parsed segment
+	 * Builds a single segment of the bus route from points decoded
+	 * from coordinates element
+	 * @return the segment
 	 */
-	private Segment parseSegment(String coordinates) {
-		Segment seg = new Segment();
-		String[] coords = coordinates.split(" ");
+	private Segment buildSegment() {
+		Segment seg = new Segment(decoder.size());
+		double[] lats = decoder.latitudes();
+		double[] lons = decoder.longitudes();
 
-		for (String c : coords) {
-			String[] llh = c.split(",");
-			LatLon pt = new LatLon(llh[1], llh[0]);
-			seg.addPoint(pt);
+		for (int i = 0; i < decoder.size(); i++) {
+			seg.addPoint(lats[i], lons[i]);
 		}
 
 		return seg;
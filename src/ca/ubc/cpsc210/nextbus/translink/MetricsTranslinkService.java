@@ -0,0 +1,76 @@
+package ca.ubc.cpsc210.nextbus.translink;
+
+import ca.ubc.cpsc210.exception.TranslinkException;
+import ca.ubc.cpsc210.nextbus.model.BusRoute;
+import ca.ubc.cpsc210.nextbus.model.BusStop;
+
+/**
+ * Translink service that records the time taken by each request, and the
+ * error code of each request that fails, in TranslinkMetrics.  Network and
+ * parse phases are recorded by the transport and parsers; this records the
+ * request as a whole.
+ */
+public class MetricsTranslinkService extends ForwardingTranslinkService {
+	private TranslinkMetrics metrics;
+
+	/**
+	 * Constructor
+	 * @param delegate  the service that makes requests
+	 */
+	public MetricsTranslinkService(ITranslinkService delegate) {
+		super(delegate);
+		metrics = TranslinkMetrics.getInstance();
+	}
+
+	@Override
+	public void addWaitTimeEstimatesToStop(BusStop stop) throws TranslinkException {
+		long start = System.nanoTime();
+		try {
+			delegate.addWaitTimeEstimatesToStop(stop);
+		} catch (TranslinkException e) {
+			metrics.recordError(Endpoint.ESTIMATES, e.getCode());
+			throw e;
+		} finally {
+			metrics.record(Endpoint.ESTIMATES, TranslinkMetrics.Phase.CALL, System.nanoTime() - start);
+		}
+	}
+
+	@Override
+	public void addBusLocationsForStop(BusStop stop) throws TranslinkException {
+		long start = System.nanoTime();
+		try {
+			delegate.addBusLocationsForStop(stop);
+		} catch (TranslinkException e) {
+			metrics.recordError(Endpoint.BUSES, e.getCode());
+			throw e;
+		} finally {
+			metrics.record(Endpoint.BUSES, TranslinkMetrics.Phase.CALL, System.nanoTime() - start);
+		}
+	}
+
+	@Override
+	public BusStop getBusStop(String stopNum) throws TranslinkException {
+		long start = System.nanoTime();
+		try {
+			return delegate.getBusStop(stopNum);
+		} catch (TranslinkException e) {
+			metrics.recordError(Endpoint.STOPS, e.getCode());
+			throw e;
+		} finally {
+			metrics.record(Endpoint.STOPS, TranslinkMetrics.Phase.CALL, System.nanoTime() - start);
+		}
+	}
+
+	@Override
+	public void parseKMZ(BusRoute route) throws TranslinkException {
+		long start = System.nanoTime();
+		try {
+			delegate.parseKMZ(route);
+		} catch (TranslinkException e) {
+			metrics.recordError(Endpoint.KMZ, e.getCode());
+			throw e;
+		} finally {
+			metrics.record(Endpoint.KMZ, TranslinkMetrics.Phase.CALL, System.nanoTime() - start);
+		}
+	}
+}
@@ -0,0 +1,191 @@
+package ca.ubc.cpsc210.nextbus.translink;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import android.util.Log;
+import ca.ubc.cpsc210.exception.NoReplyException;
+import ca.ubc.cpsc210.exception.TranslinkException;
+import ca.ubc.cpsc210.nextbus.gtfs.GtfsImporter;
+import ca.ubc.cpsc210.nextbus.gtfs.GtfsStore;
+import ca.ubc.cpsc210.nextbus.gtfs.ScheduledDeparture;
+import ca.ubc.cpsc210.nextbus.model.BusRoute;
+import ca.ubc.cpsc210.nextbus.model.BusStop;
+import ca.ubc.cpsc210.nextbus.model.BusWaitTime;
+import ca.ubc.cpsc210.nextbus.util.Clock;
+
+/**
+ * Translink service that answers from the published schedule (a GTFS feed
+ * imported into a GtfsStore) when no reply is received from Translink, so
+ * that stops can be looked up, and wait times shown, with no network
+ * connection.  Wait times from the schedule are marked as scheduled.  Only a
+ * NoReplyException is answered from the schedule: errors returned by
+ * Translink, responses that cannot be parsed and requests refused by the
+ * transport are passed on to the caller.
+ *
+ * The feed is imported when it is newer than the store, or when the store
+ * cannot be opened.  Until prepare() has finished, requests are simply forwarded.
+ * Nothing in the app downloads the feed yet: unless a feed has been put in place
+ * by other means, there is no schedule and every request is forwarded.
+ *
+ * Design Pattern: Decorator
+ */
+public class OfflineTranslinkService extends ForwardingTranslinkService {
+	private static final String LOG_TAG = "OfflineTranslinkService";
+
+	/**
+	 * Largest number of scheduled departures shown for each route, as for realtime estimates
+	 */
+	private static final int DEPARTURES_PER_ROUTE = 3;
+
+	/**
+	 * Time (ms) ahead for which scheduled departures are shown
+	 */
+	private static final long SCHEDULE_LOOKAHEAD = 3 * 60 * 60 * 1000;
+
+	private File feed;
+	private File storeFile;
+	private Clock clock;
+	private volatile GtfsStore schedule;
+
+	/**
+	 * Constructor
+	 * @param delegate   the service to which requests are forwarded
+	 * @param feed       GTFS feed (zip file), which need not exist
+	 * @param storeFile  file in which imported schedule is kept
+	 */
+	public OfflineTranslinkService(ITranslinkService delegate, File feed, File storeFile) {
+		this(delegate, feed, storeFile, Clock.SYSTEM);
+	}
+
+	/**
+	 * Constructor
+	 * @param delegate   the service to which requests are forwarded
+	 * @param feed       GTFS feed (zip file), which need not exist
+	 * @param storeFile  file in which imported schedule is kept
+	 * @param clock      clock by which next scheduled departures are found
+	 */
+	OfflineTranslinkService(ITranslinkService delegate, File feed, File storeFile, Clock clock) {
+		super(delegate);
+		this.feed = feed;
+		this.storeFile = storeFile;
+		this.clock = clock;
+	}
+
+	/**
+	 * Import feed if it is newer than stored schedule, then open schedule.
+	 * Importing a full feed takes some time, so call from a background thread.
+	 */
+	public synchronized void prepare() {
+		try {
+			if (feed.exists() && (!storeFile.exists() || storeFile.lastModified() < feed.lastModified()))
+				importFeed();
+			if (!storeFile.exists())
+				return;
+
+			try {
+				schedule = GtfsStore.open(storeFile);
+			} catch (IOException e) {
+				// written by an older version of the app, or damaged
+				Log.w(LOG_TAG, "Discarding schedule: " + e.getMessage());
+				storeFile.delete();
+				if (feed.exists()) {
+					importFeed();
+					schedule = GtfsStore.open(storeFile);
+				}
+			}
+		} catch (IOException e) {
+			Log.w(LOG_TAG, "Schedule not available: " + e.getMessage());
+		}
+	}
+
+	private void importFeed() throws IOException {
+		storeFile.getParentFile().mkdirs();
+		new GtfsImporter(feed).importTo(storeFile);
+	}
+
+	/**
+	 * Gets schedule used when Translink cannot be reached
+	 * @return schedule, or null if none has been prepared
+	 */
+	public GtfsStore getSchedule() {
+		return schedule;
+	}
+
+	/**
+	 * Adds wait times from Translink or, if no reply is received from Translink,
+	 * from schedule.  Any other failure is passed on to the caller.
+	 */
+	@Override
+	public void addWaitTimeEstimatesToStop(BusStop stop) throws TranslinkException {
+		try {
+			delegate.addWaitTimeEstimatesToStop(stop);
+		} catch (NoReplyException e) {
+			List<BusWaitTime> scheduled = scheduledWaitTimes(stop);
+			if (scheduled == null)
+				throw e;
+			stop.mergeWaitTimes(scheduled);
+		}
+	}
+
+	/**
+	 * Gets stop from Translink or, if no reply is received from Translink, from
+	 * schedule.  Any other failure is passed on to the caller.
+	 */
+	@Override
+	public BusStop getBusStop(String stopNum) throws TranslinkException {
+		try {
+			return delegate.getBusStop(stopNum);
+		} catch (NoReplyException e) {
+			BusStop stop = fromSchedule(stopNum);
+			if (stop == null)
+				throw e;
+			return stop;
+		}
+	}
+
+	/**
+	 * Produce wait times for next scheduled departures from stop
+	 * @return wait times, or null if there is no schedule or no departures are
+	 * scheduled soon
+	 */
+	private List<BusWaitTime> scheduledWaitTimes(BusStop stop) {
+		GtfsStore current = schedule;
+		if (current == null)
+			return null;
+
+		long now = clock.now();
+		List<ScheduledDeparture> departures = current.getDepartures(stop.getStopNum(),
+				now, now + SCHEDULE_LOOKAHEAD, DEPARTURES_PER_ROUTE);
+		if (departures.isEmpty())
+			return null;
+
+		List<BusWaitTime> waitTimes = new ArrayList<BusWaitTime>();
+		for (ScheduledDeparture next : departures) {
+			// routes are interned, but prefer stop's own in case it was built elsewhere
+			BusRoute route = stop.getRouteNamed(next.getRoute().getName());
+			waitTimes.add(new BusWaitTime(route != null ? route : next.getRoute(),
+					next.getMinutesFrom(now), false, true));
+		}
+		return waitTimes;
+	}
+
+	/**
+	 * Look up stop in schedule
+	 * @return stop, or null if there is no schedule, stop number is not valid or
+	 * schedule has no such stop
+	 */
+	private BusStop fromSchedule(String stopNum) {
+		GtfsStore current = schedule;
+		if (current == null)
+			return null;
+
+		try {
+			return current.getBusStop(Integer.parseInt(stopNum.trim()));
+		} catch (NumberFormatException nfe) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,277 @@
+package ca.ubc.cpsc210.nextbus.translink;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.util.Log;
+import ca.ubc.cpsc210.exception.TranslinkException;
+import ca.ubc.cpsc210.nextbus.util.Clock;
+
+/**
+ * Token bucket that limits the rate of requests made to Translink with the
+ * shared API key.
+ *
+ * Each request takes a token; tokens are added at a steady rate up to the size
+ * of the bucket.  Requests have a priority, taken from the thread that makes
+ * them.  Background requests may not take the last few tokens, which are kept
+ * for interactive requests, and wait while any interactive request is waiting.
+ * A request that cannot get a token within its priority's maximum wait is
+ * denied with a TranslinkException rather than left to stall.  Delays and
+ * denials are counted so that they can be reported.
+ */
+public class RateLimiter {
+	private static final String LOG_TAG = "RateLimiter";
+
+	/**
+	 * Priority of a request
+	 */
+	public enum Priority {
+		/**
+		 * Request the user is waiting for
+		 */
+		INTERACTIVE,
+
+		/**
+		 * Request made ahead of need, such as a poll or prefetch
+		 */
+		BACKGROUND
+	}
+
+	/**
+	 * Delay (ms) beyond which a delayed request is logged
+	 */
+	private static final long LOG_DELAY = 1000;
+
+	private static final ThreadLocal<Priority> PRIORITY = new ThreadLocal<Priority>() {
+		@Override
+		protected Priority initialValue() {
+			return Priority.INTERACTIVE;
+		}
+	};
+
+	private Clock clock;
+	private int capacity;
+	private double tokensPerMs;
+	private int reserve;
+	private Map<Priority, Long> maxWaits;
+	private double tokens;
+	private long refilledAt;
+	private int interactiveWaiting;
+
+	private Map<Endpoint, Integer> granted;
+	private Map<Priority, Integer> delayed;
+	private Map<Priority, Integer> denied;
+	private Map<Priority, Long> totalDelay;
+
+	/**
+	 * Constructor
+	 * @param clock              source of current time
+	 * @param capacity           size of bucket: largest burst of requests
+	 * @param requestsPerMinute  rate at which tokens are added
+	 * @param reserve            tokens that only interactive requests may take
+	 * @param interactiveWait    longest time (ms) an interactive request waits for a token
+	 * @param backgroundWait     longest time (ms) a background request waits for a token
+	 */
+	public RateLimiter(Clock clock, int capacity, int requestsPerMinute, int reserve,
+			long interactiveWait, long backgroundWait) {
+		this.clock = clock;
+		this.capacity = capacity;
+		this.tokensPerMs = requestsPerMinute / (60.0 * 1000);
+		this.reserve = reserve;
+		maxWaits = new EnumMap<Priority, Long>(Priority.class);
+		maxWaits.put(Priority.INTERACTIVE, interactiveWait);
+		maxWaits.put(Priority.BACKGROUND, backgroundWait);
+		tokens = capacity;
+		refilledAt = clock.now();
+
+		granted = new EnumMap<Endpoint, Integer>(Endpoint.class);
+		for (Endpoint next : Endpoint.values())
+			granted.put(next, 0);
+		delayed = new EnumMap<Priority, Integer>(Priority.class);
+		denied = new EnumMap<Priority, Integer>(Priority.class);
+		totalDelay = new EnumMap<Priority, Long>(Priority.class);
+		for (Priority next : Priority.values()) {
+			delayed.put(next, 0);
+			denied.put(next, 0);
+			totalDelay.put(next, 0L);
+		}
+	}
+
+	/**
+	 * Set priority of requests made by current thread
+	 * @param priority  the priority
+	 * @return priority previously set for current thread
+	 */
+	public static Priority setPriority(Priority priority) {
+		Priority previous = PRIORITY.get();
+		PRIORITY.set(priority);
+		return previous;
+	}
+
+	/**
+	 * Gets priority of requests made by current thread (INTERACTIVE unless set)
+	 * @return the priority
+	 */
+	public static Priority getPriority() {
+		return PRIORITY.get();
+	}
+
+	/**
+	 * Take a token for a request to an endpoint at current thread's priority,
+	 * waiting for one if necessary
+	 * @param endpoint  the endpoint requested
+	 * @throws TranslinkException  when no token is available within the maximum wait
+	 */
+	public synchronized void acquire(Endpoint endpoint) throws TranslinkException {
+		Priority priority = PRIORITY.get();
+		boolean interactive = (priority == Priority.INTERACTIVE);
+		long start = clock.now();
+		long deadline = start + maxWaits.get(priority);
+
+		if (interactive)
+			interactiveWaiting++;
+
+		try {
+			while (true) {
+				refill();
+				int floor = interactive ? 0 : reserve;
+				if (tokens >= 1 + floor && (interactive || interactiveWaiting == 0)) {
+					tokens--;
+					granted.put(endpoint, granted.get(endpoint) + 1);
+					recordDelay(endpoint, priority, clock.now() - start);
+					return;
+				}
+
+				long now = clock.now();
+				if (now >= deadline) {
+					denied.put(priority, denied.get(priority) + 1);
+					Log.w(LOG_TAG, priority + " request to " + endpoint + " denied after "
+							+ (now - start) + " ms");
+					throw new TranslinkException(-1, "Too many requests to Translink: try again shortly");
+				}
+
+				// held back only by an interactive request: wait until it is done
+				long untilToken = tokens >= 1 + floor ? deadline - now
+						: (long) Math.ceil((1 + floor - tokens) / tokensPerMs);
+				try {
+					await(Math.max(1, Math.min(deadline - now, untilToken)));
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new TranslinkException(-1, "Request to Translink interrupted");
+				}
+			}
+		} finally {
+			if (interactive) {
+				interactiveWaiting--;
+				// background requests held back by this one may now proceed
+				notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Number of tokens currently available
+	 * @return available tokens (may be fractional)
+	 */
+	public synchronized double getAvailableTokens() {
+		refill();
+		return tokens;
+	}
+
+	/**
+	 * Number of requests to an endpoint that were given a token
+	 * @param endpoint  the endpoint
+	 * @return granted count
+	 */
+	public synchronized int getGrantedCount(Endpoint endpoint) {
+		return granted.get(endpoint);
+	}
+
+	/**
+	 * Number of requests at a priority that had to wait for a token
+	 * @param priority  the priority
+	 * @return delayed count
+	 */
+	public synchronized int getDelayedCount(Priority priority) {
+		return delayed.get(priority);
+	}
+
+	/**
+	 * Total time (ms) that requests at a priority waited for tokens
+	 * @param priority  the priority
+	 * @return total delay
+	 */
+	public synchronized long getTotalDelay(Priority priority) {
+		return totalDelay.get(priority);
+	}
+
+	/**
+	 * Number of requests at a priority that were denied a token
+	 * @param priority  the priority
+	 * @return denied count
+	 */
+	public synchronized int getDeniedCount(Priority priority) {
+		return denied.get(priority);
+	}
+
+	/**
+	 * Produces snapshot of counters, for example:
+	 * {"availableTokens": 7.5, "granted": {"ESTIMATES": 40, ...},
+	 *  "INTERACTIVE": {"delayed": 2, "delayMs": 1500, "denied": 0}, "BACKGROUND": {...}}
+	 * @return JSON object holding counters
+	 * @throws JSONException  if snapshot cannot be built
+	 */
+	public synchronized JSONObject toJSON() throws JSONException {
+		JSONObject json = new JSONObject();
+		json.put("availableTokens", getAvailableTokens());
+
+		JSONObject grantedJSON = new JSONObject();
+		for (Endpoint next : Endpoint.values())
+			grantedJSON.put(next.name(), getGrantedCount(next));
+		json.put("granted", grantedJSON);
+
+		for (Priority next : Priority.values()) {
+			JSONObject priority = new JSONObject();
+			priority.put("delayed", getDelayedCount(next));
+			priority.put("delayMs", getTotalDelay(next));
+			priority.put("denied", getDeniedCount(next));
+			json.put(next.name(), priority);
+		}
+
+		return json;
+	}
+
+	/**
+	 * Wait on this limiter's monitor until notified or given time has passed.
+	 * Called with monitor held; overridden by tests that move a virtual clock.
+	 * @param ms  longest time to wait
+	 * @throws InterruptedException  if thread is interrupted while waiting
+	 */
+	void await(long ms) throws InterruptedException {
+		wait(ms);
+	}
+
+	private void recordDelay(Endpoint endpoint, Priority priority, long delay) {
+		if (delay <= 0)
+			return;
+
+		delayed.put(priority, delayed.get(priority) + 1);
+		totalDelay.put(priority, totalDelay.get(priority) + delay);
+		if (delay >= LOG_DELAY)
+			Log.w(LOG_TAG, priority + " request to " + endpoint + " delayed " + delay + " ms");
+	}
+
+	/**
+	 * Add tokens for time passed since last refill
+	 */
+	private void refill() {
+		long now = clock.now();
+		if (now > refilledAt) {
+			tokens = Math.min(capacity, tokens + (now - refilledAt) * tokensPerMs);
+			refilledAt = now;
+		}
+	}
+}
@@ -0,0 +1,224 @@
+package ca.ubc.cpsc210.nextbus.translink;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import ca.ubc.cpsc210.exception.TranslinkException;
+import ca.ubc.cpsc210.nextbus.model.BusStop;
+import ca.ubc.cpsc210.nextbus.model.BusWaitTime;
+import ca.ubc.cpsc210.nextbus.translink.RefreshScheduler.Kind;
+import ca.ubc.cpsc210.nextbus.translink.RefreshScheduler.Poll;
+import ca.ubc.cpsc210.nextbus.util.Clock;
+
+/**
+ * Polls watched stops for wait times and bus locations at the times chosen by
+ * a RefreshScheduler, so that all screens share one schedule and one request
+ * budget.
+ *
+ * Runs on the main thread's Handler: when a poll is due, the request is made on
+ * a background thread and, once complete, listeners are told on the main
+ * thread.  New data is merged into the stop, so stop listeners are also told
+ * what changed.  Watch and unwatch stops from the main thread.
+ *
+ * Design Pattern: Singleton
+ */
+public class RefreshLoop {
+	private static final String LOG_TAG = "RefreshLoop";
+
+	/**
+	 * Largest number of polls made in a minute across the whole app
+	 */
+	private static final int REQUESTS_PER_MINUTE = 30;
+
+	/**
+	 * Maximum number of polls in flight at once
+	 */
+	private static final int MAX_CONCURRENT = 2;
+
+	private static RefreshLoop instance;
+
+	private ITranslinkService service;
+	private RefreshScheduler scheduler;
+	private Clock clock;
+	private Handler handler;
+	private ExecutorService executor;
+	private List<Listener> listeners;
+	private Runnable tick;
+
+	/**
+	 * Told when a poll completes
+	 */
+	public static interface Listener {
+		/**
+		 * Called on main thread when a poll of stop completes
+		 * @param stop  the stop polled
+		 * @param kind  data polled
+		 * @param e     exception raised by poll, or null if poll succeeded
+		 */
+		public void refreshed(BusStop stop, Kind kind, TranslinkException e);
+	}
+
+	/**
+	 * Constructor
+	 * @param service    service through which stops are polled
+	 * @param scheduler  scheduler that decides when stops are polled
+	 * @param clock      clock read by scheduler
+	 * @param handler    handler on whose thread polls are scheduled and listeners told
+	 */
+	RefreshLoop(ITranslinkService service, RefreshScheduler scheduler, Clock clock, Handler handler) {
+		this.service = service;
+		this.scheduler = scheduler;
+		this.clock = clock;
+		this.handler = handler;
+		listeners = new CopyOnWriteArrayList<Listener>();
+		executor = Executors.newFixedThreadPool(MAX_CONCURRENT, new ThreadFactory() {
+			private int count = 0;
+
+			@Override
+			public synchronized Thread newThread(Runnable r) {
+				Thread t = new Thread(r, LOG_TAG + "-" + (++count));
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		tick = new Runnable() {
+			@Override
+			public void run() {
+				for (Poll next : RefreshLoop.this.scheduler.takeDue())
+					start(next);
+				reschedule();
+			}
+		};
+	}
+
+	/**
+	 * Gets single instance of shared refresh loop
+	 * @param c  context (only the application context is retained)
+	 * @return shared refresh loop
+	 */
+	public static synchronized RefreshLoop getInstance(Context c) {
+		if (instance == null) {
+			instance = new RefreshLoop(TranslinkServiceFactory.getInstance(c),
+					new RefreshScheduler(Clock.SYSTEM, REQUESTS_PER_MINUTE), Clock.SYSTEM,
+					new Handler(Looper.getMainLooper()));
+		}
+
+		return instance;
+	}
+
+	/**
+	 * Gets scheduler that decides when stops are polled
+	 * @return the scheduler
+	 */
+	public RefreshScheduler getScheduler() {
+		return scheduler;
+	}
+
+	/**
+	 * Start polling stop, or change whether a watched stop is on screen
+	 * @param stop     the stop
+	 * @param kind     data to poll
+	 * @param visible  true if stop is on screen
+	 */
+	public void watch(BusStop stop, Kind kind, boolean visible) {
+		scheduler.watch(stop, kind, visible);
+		reschedule();
+	}
+
+	/**
+	 * Stop polling stop
+	 * @param stop  the stop
+	 * @param kind  data no longer polled
+	 */
+	public void unwatch(BusStop stop, Kind kind) {
+		scheduler.unwatch(stop, kind);
+		reschedule();
+	}
+
+	/**
+	 * Add listener told when polls complete
+	 * @param l  the listener
+	 */
+	public void addListener(Listener l) {
+		listeners.add(l);
+	}
+
+	/**
+	 * Remove listener added with addListener
+	 * @param l  the listener
+	 */
+	public void removeListener(Listener l) {
+		listeners.remove(l);
+	}
+
+	/**
+	 * Make poll on a background thread, then complete it on handler's thread
+	 */
+	private void start(final Poll poll) {
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				TranslinkException error = null;
+				RateLimiter.Priority previous = RateLimiter.setPriority(RateLimiter.Priority.BACKGROUND);
+				try {
+					if (poll.getKind() == Kind.WAIT_TIMES)
+						service.addWaitTimeEstimatesToStop(poll.getStop());
+					else
+						service.addBusLocationsForStop(poll.getStop());
+				} catch (TranslinkException e) {
+					Log.w(LOG_TAG, "Unable to poll stop " + poll.getStop().getStopNum() + ": " + e.getMessage());
+					error = e;
+				} finally {
+					RateLimiter.setPriority(previous);
+				}
+
+				final TranslinkException result = error;
+				// Translink did not reply if wait times came from the schedule: back off all the same
+				final boolean answered = error == null
+						&& !(poll.getKind() == Kind.WAIT_TIMES && fromSchedule(poll.getStop()));
+				handler.post(new Runnable() {
+					@Override
+					public void run() {
+						scheduler.completed(poll, answered);
+						for (Listener next : listeners)
+							next.refreshed(poll.getStop(), poll.getKind(), result);
+						reschedule();
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * Determine whether stop's wait times were taken from the schedule
+	 * @return true if stop has wait times and all are scheduled
+	 */
+	static boolean fromSchedule(BusStop stop) {
+		Collection<BusWaitTime> waitTimes = stop.getWaitTimes();
+		if (waitTimes.isEmpty())
+			return false;
+		for (BusWaitTime next : waitTimes) {
+			if (!next.isScheduled())
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Run tick when next poll can be made
+	 */
+	private void reschedule() {
+		handler.removeCallbacks(tick);
+		long wakeup = scheduler.nextWakeup();
+		if (wakeup != Long.MAX_VALUE)
+			handler.postDelayed(tick, Math.max(0, wakeup - clock.now()));
+	}
+}
@@ -0,0 +1,302 @@
+package ca.ubc.cpsc210.nextbus.translink;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import ca.ubc.cpsc210.nextbus.model.BusStop;
+import ca.ubc.cpsc210.nextbus.model.BusWaitTime;
+import ca.ubc.cpsc210.nextbus.util.Clock;
+
+/**
+ * Decides when the wait times and bus locations of each watched stop are next
+ * polled.
+ *
+ * A stop is polled often when its next bus is close and rarely when its next
+ * bus is far away, and less often still when it is not on screen.  Failed polls
+ * back off.  All polls draw on a shared budget of requests per minute: when the
+ * budget is spent, due polls wait, with stops on screen served first.
+ *
+ * Times are read from a clock, so that decisions can be checked against a
+ * virtual clock.  This class only decides; RefreshLoop makes the requests.
+ */
+public class RefreshScheduler {
+	/**
+	 * Data polled for a stop
+	 */
+	public enum Kind { WAIT_TIMES, BUS_LOCATIONS }
+
+	/**
+	 * Interval (ms) between polls of a stop whose next bus is NEAR_MINUTES away or less;
+	 * realtime data is cached for this long, so polling faster gains nothing
+	 */
+	static final long MIN_INTERVAL = 15 * 1000;
+
+	/**
+	 * Interval (ms) between polls of a stop whose next bus is FAR_MINUTES away or more
+	 */
+	static final long MAX_INTERVAL = 5 * 60 * 1000;
+
+	/**
+	 * Interval (ms) between polls of a stop with no buses expected
+	 */
+	static final long UNKNOWN_INTERVAL = 60 * 1000;
+
+	/**
+	 * Factor by which polls of a stop that is not on screen are slowed
+	 */
+	static final int OFFSCREEN_FACTOR = 4;
+
+	/**
+	 * Longest interval (ms) between polls, however slowed or backed off
+	 */
+	static final long MAX_DELAY = 15 * 60 * 1000;
+
+	static final int NEAR_MINUTES = 3;
+	static final int FAR_MINUTES = 40;
+
+	private static final long MS_PER_MINUTE = 60 * 1000;
+
+	private Clock clock;
+	private Map<String, Poll> polls;
+	private int budget;
+	private double tokens;
+	private long refilledAt;
+
+	/**
+	 * Constructor
+	 * @param clock              source of current time
+	 * @param requestsPerMinute  largest number of polls made in a minute
+	 */
+	public RefreshScheduler(Clock clock, int requestsPerMinute) {
+		this.clock = clock;
+		polls = new LinkedHashMap<String, Poll>();
+		budget = requestsPerMinute;
+		tokens = requestsPerMinute;
+		refilledAt = clock.now();
+	}
+
+	/**
+	 * Set largest number of polls made in a minute
+	 * @param requestsPerMinute  the budget
+	 */
+	public synchronized void setBudget(int requestsPerMinute) {
+		refill();
+		budget = requestsPerMinute;
+		tokens = Math.min(tokens, budget);
+	}
+
+	/**
+	 * Start polling stop (at once), or change whether a watched stop is on screen.
+	 * A stop unwatched while it was being polled is not polled again at once:
+	 * its poll in flight carries on, and its next poll is scheduled as usual.
+	 * @param stop     the stop
+	 * @param kind     data to poll
+	 * @param visible  true if stop is on screen
+	 */
+	public synchronized void watch(BusStop stop, Kind kind, boolean visible) {
+		String key = keyOf(stop, kind);
+		Poll poll = polls.get(key);
+
+		if (poll == null) {
+			polls.put(key, new Poll(stop, kind, visible, clock.now()));
+			return;
+		}
+		
+		poll.watched = true;
+		if (poll.visible != visible) {
+			poll.visible = visible;
+			if (!poll.inFlight && poll.polledAt != 0)
+				poll.due = poll.polledAt + intervalFor(stop, visible, poll.failures);
+		}
+	}
+
+	/**
+	 * Stop polling stop.  A poll in flight is kept until it completes, so that
+	 * watching the stop again meanwhile does not start a second poll.
+	 * @param stop  the stop
+	 * @param kind  data no longer polled
+	 */
+	public synchronized void unwatch(BusStop stop, Kind kind) {
+		String key = keyOf(stop, kind);
+		Poll poll = polls.get(key);
+
+		if (poll != null && poll.inFlight)
+			poll.watched = false;
+		else
+			polls.remove(key);
+	}
+
+	/**
+	 * Take polls that are due now, as far as budget allows, stops on screen first.
+	 * Polls taken are not due again until completed.
+	 * @return polls to make now
+	 */
+	public synchronized List<Poll> takeDue() {
+		long now = clock.now();
+		List<Poll> due = new ArrayList<Poll>();
+
+		for (Poll next : polls.values()) {
+			if (!next.inFlight && next.due <= now)
+				due.add(next);
+		}
+
+		Collections.sort(due, new Comparator<Poll>() {
+			@Override
+			public int compare(Poll p1, Poll p2) {
+				if (p1.visible != p2.visible)
+					return p1.visible ? -1 : 1;
+				return p1.due < p2.due ? -1 : (p1.due > p2.due ? 1 : 0);
+			}
+		});
+
+		refill();
+		int allowed = Math.min(due.size(), (int) tokens);
+		tokens -= allowed;
+		due = new ArrayList<Poll>(due.subList(0, allowed));
+
+		for (Poll next : due)
+			next.inFlight = true;
+
+		return due;
+	}
+
+	/**
+	 * Record that a poll has completed, and schedule next poll of same stop
+	 * unless it is no longer watched
+	 * @param poll     the poll
+	 * @param success  true if poll succeeded, false otherwise
+	 */
+	public synchronized void completed(Poll poll, boolean success) {
+		long now = clock.now();
+		poll.inFlight = false;
+		if (!poll.watched) {
+			String key = keyOf(poll.stop, poll.kind);
+			if (polls.get(key) == poll)
+				polls.remove(key);
+			return;
+		}
+		
+		poll.polledAt = now;
+		poll.failures = success ? 0 : poll.failures + 1;
+		poll.due = now + intervalFor(poll.stop, poll.visible, poll.failures);
+	}
+
+	/**
+	 * Gets time at which next poll can be made: the earliest time any poll is
+	 * due, or later if budget must first be refilled
+	 * @return time in ms since the epoch, or Long.MAX_VALUE if no poll is waiting
+	 */
+	public synchronized long nextWakeup() {
+		long earliest = Long.MAX_VALUE;
+		for (Poll next : polls.values()) {
+			if (!next.inFlight)
+				earliest = Math.min(earliest, next.due);
+		}
+
+		refill();
+		if (earliest == Long.MAX_VALUE || tokens >= 1 || budget <= 0)
+			return earliest;
+
+		long refill = clock.now() + (long) Math.ceil((1 - tokens) * MS_PER_MINUTE / budget);
+		return Math.max(earliest, refill);
+	}
+
+	/**
+	 * Produces time (ms) from one poll of stop to the next
+	 * @param stop      the stop, whose current wait times are used
+	 * @param visible   true if stop is on screen
+	 * @param failures  number of polls that have failed in a row
+	 * @return interval between polls
+	 */
+	static long intervalFor(BusStop stop, boolean visible, int failures) {
+		int soonest = Integer.MAX_VALUE;
+		for (BusWaitTime next : stop.getWaitTimes()) {
+			if (!next.isCancelled())
+				soonest = Math.min(soonest, next.getEstimate());
+		}
+
+		long interval;
+		if (soonest == Integer.MAX_VALUE)
+			interval = UNKNOWN_INTERVAL;
+		else if (soonest <= NEAR_MINUTES)
+			interval = MIN_INTERVAL;
+		else if (soonest >= FAR_MINUTES)
+			interval = MAX_INTERVAL;
+		else
+			interval = MIN_INTERVAL + (MAX_INTERVAL - MIN_INTERVAL)
+					* (soonest - NEAR_MINUTES) / (FAR_MINUTES - NEAR_MINUTES);
+
+		if (!visible)
+			interval *= OFFSCREEN_FACTOR;
+
+		for (int i = 0; i < failures && interval < MAX_DELAY; i++)
+			interval *= 2;
+
+		return Math.min(interval, MAX_DELAY);
+	}
+
+	/**
+	 * Add tokens to budget for time passed since last refill
+	 */
+	private void refill() {
+		long now = clock.now();
+		if (now > refilledAt) {
+			tokens = Math.min(budget, tokens + (double) budget * (now - refilledAt) / MS_PER_MINUTE);
+			refilledAt = now;
+		}
+	}
+
+	private static String keyOf(BusStop stop, Kind kind) {
+		return kind + "/" + stop.getStopNum();
+	}
+
+	/**
+	 * Polling of one kind of data for a stop
+	 */
+	public static class Poll {
+		private BusStop stop;
+		private Kind kind;
+		private boolean visible;
+		private boolean watched;
+		private boolean inFlight;
+		private int failures;
+		private long polledAt;
+		private long due;
+
+		Poll(BusStop stop, Kind kind, boolean visible, long due) {
+			this.stop = stop;
+			this.kind = kind;
+			this.visible = visible;
+			this.due = due;
+			watched = true;
+		}
+
+		/**
+		 * Gets stop polled
+		 * @return the stop
+		 */
+		public BusStop getStop() {
+			return stop;
+		}
+
+		/**
+		 * Gets data polled
+		 * @return kind of data
+		 */
+		public Kind getKind() {
+			return kind;
+		}
+
+		/**
+		 * Gets time at which poll is next due
+		 * @return time in ms since the epoch
+		 */
+		public long getDue() {
+			return due;
+		}
+	}
+}
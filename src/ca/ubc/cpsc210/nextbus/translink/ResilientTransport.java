@@ -0,0 +1,273 @@
+package ca.ubc.cpsc210.nextbus.translink;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.util.Log;
+import ca.ubc.cpsc210.exception.NoReplyException;
+import ca.ubc.cpsc210.exception.TranslinkException;
+import ca.ubc.cpsc210.nextbus.util.Clock;
+
+/**
+ * Makes requests to Translink endpoints through the shared HTTP transport,
+ * retrying transient failures with capped exponential backoff and failing
+ * fast while an endpoint's circuit breaker is open.
+ *
+ * Transient failures are I/O errors (including timeouts) and 5xx responses.
+ * Other responses, including Translink's own error responses, are returned
+ * to the caller without retry.  A request counts once towards its endpoint's
+ * breaker however many attempts it makes, so that one request cannot open the
+ * breaker for every other caller.  Retries stop as soon as the breaker is open.
+ *
+ * Every attempt, including retries, takes a token from a rate limiter shared by
+ * all endpoints, so that the app stays within the quota of its API key.  The
+ * breaker is asked first, so that requests it rejects take no token.  Requests
+ * rejected by a breaker and requests denied by the rate limiter are counted
+ * separately.
+ *
+ * Design Pattern: Singleton
+ */
+public class ResilientTransport {
+	private static final String LOG_TAG = "ResilientTransport";
+
+	/**
+	 * Maximum number of attempts made for a single request
+	 */
+	private static final int MAX_ATTEMPTS = 3;
+
+	/**
+	 * Delay (ms) before first retry; doubled for each later retry up to MAX_BACKOFF
+	 */
+	private static final long BASE_BACKOFF = 200;
+	private static final long MAX_BACKOFF = 1600;
+
+	/**
+	 * Consecutive failed requests (not attempts) that open an endpoint's breaker,
+	 * and time (ms) before an open breaker allows a probe request
+	 */
+	private static final int FAILURE_THRESHOLD = 3;
+	private static final long OPEN_PERIOD = 30 * 1000;
+
+	private static final int HTTP_SERVER_ERROR = 500;
+
+	/**
+	 * Largest burst of requests, steady rate of requests, and tokens kept for
+	 * interactive requests
+	 */
+	private static final int RATE_BURST = 10;
+	private static final int REQUESTS_PER_MINUTE = 60;
+	private static final int INTERACTIVE_RESERVE = 2;
+
+	/**
+	 * Longest time (ms) interactive and background requests wait for the rate limiter
+	 */
+	private static final long INTERACTIVE_WAIT = 3 * 1000;
+	private static final long BACKGROUND_WAIT = 10 * 1000;
+
+	private static ResilientTransport instance;
+
+	private HttpTransport transport;
+	private Map<Endpoint, CircuitBreaker> breakers;
+	private Map<Endpoint, AtomicInteger> retries;
+	private Map<Endpoint, AtomicInteger> denied;
+	private RateLimiter limiter;
+	private Random random;
+
+	/**
+	 * Constructor
+	 */
+	private ResilientTransport() {
+		this(HttpTransport.getInstance(), new RateLimiter(Clock.SYSTEM, RATE_BURST, REQUESTS_PER_MINUTE,
+				INTERACTIVE_RESERVE, INTERACTIVE_WAIT, BACKGROUND_WAIT));
+	}
+
+	/**
+	 * Constructor for a transport with its own breakers and rate limiter
+	 * @param transport  transport through which requests are made
+	 * @param limiter    rate limiter from which requests take tokens
+	 */
+	ResilientTransport(HttpTransport transport, RateLimiter limiter) {
+		this.transport = transport;
+		this.limiter = limiter;
+		breakers = new EnumMap<Endpoint, CircuitBreaker>(Endpoint.class);
+		retries = new EnumMap<Endpoint, AtomicInteger>(Endpoint.class);
+		denied = new EnumMap<Endpoint, AtomicInteger>(Endpoint.class);
+		random = new Random();
+
+		for (Endpoint next : Endpoint.values()) {
+			breakers.put(next, new CircuitBreaker(FAILURE_THRESHOLD, OPEN_PERIOD));
+			retries.put(next, new AtomicInteger());
+			denied.put(next, new AtomicInteger());
+		}
+	}
+
+	/**
+	 * Gets single instance of this class
+	 * @return instance (the only one) of ResilientTransport
+	 */
+	public static synchronized ResilientTransport getInstance() {
+		if (instance == null) {
+			instance = new ResilientTransport();
+		}
+
+		return instance;
+	}
+
+	/**
+	 * Issue a GET request to an endpoint
+	 * @param endpoint  the endpoint requested
+	 * @param url       the URL to get
+	 * @return the response received
+	 * @throws TranslinkException  when endpoint's breaker is open, rate limit is
+	 * reached, or request still fails after all retries
+	 */
+	public HttpTransport.Response get(Endpoint endpoint, String url) throws TranslinkException {
+		return get(endpoint, url, null);
+	}
+
+	/**
+	 * Issue a GET request to an endpoint with extra request headers
+	 * @param endpoint  the endpoint requested
+	 * @param url       the URL to get
+	 * @param headers   request headers to send, keyed by name (may be null)
+	 * @return the response received
+	 * @throws TranslinkException  when endpoint's breaker is open, rate limit is
+	 * reached, or request still fails after all retries (a NoReplyException, with the
+	 * last failure as cause, if no response was received)
+	 */
+	public HttpTransport.Response get(Endpoint endpoint, String url, Map<String, String> headers)
+			throws TranslinkException {
+		CircuitBreaker breaker = breakers.get(endpoint);
+		IOException failure = null;
+		HttpTransport.Response response = null;
+
+		if (!breaker.allowRequest())
+			throw new TranslinkException(-1, "Translink service unavailable: try again shortly");
+
+		try {
+			limiter.acquire(endpoint);
+		} catch (TranslinkException e) {
+			// request is not made: let another request take the probe claimed above
+			breaker.releaseRequest();
+			denied.get(endpoint).incrementAndGet();
+			throw e;
+		}
+
+		for (int attempt = 1; ; attempt++) {
+			try {
+				response = transport.get(endpoint, url, headers);
+				failure = null;
+			} catch (IOException e) {
+				response = null;
+				failure = e;
+			}
+
+			if (response != null && response.getStatus() < HTTP_SERVER_ERROR) {
+				breaker.recordSuccess();
+				return response;
+			}
+
+			Log.w(LOG_TAG, endpoint + " attempt " + attempt + " failed: "
+					+ (failure != null ? failure.toString() : "HTTP " + response.getStatus()));
+
+			// another request may have opened the breaker meanwhile: don't wait to retry
+			if (attempt == MAX_ATTEMPTS || breaker.getState() == CircuitBreaker.State.OPEN)
+				break;
+
+			retries.get(endpoint).incrementAndGet();
+			if (!backOff(attempt))
+				break;
+
+			try {
+				limiter.acquire(endpoint);
+			} catch (TranslinkException e) {
+				denied.get(endpoint).incrementAndGet();
+				break;
+			}
+		}
+
+		breaker.recordFailure();
+
+		if (response != null)
+			return response;    // server error: let caller try to parse error from body
+		if (failure instanceof SocketTimeoutException)
+			throw new NoReplyException("Unable to connect to Translink at this time", failure);
+		throw new NoReplyException("Failed to get data from Translink service", failure);
+	}
+
+	/**
+	 * Gets current state of an endpoint's circuit breaker
+	 * @param endpoint  the endpoint
+	 * @return state of breaker
+	 */
+	public CircuitBreaker.State getBreakerState(Endpoint endpoint) {
+		return breakers.get(endpoint).getState();
+	}
+
+	/**
+	 * Gets circuit breaker for an endpoint
+	 * @param endpoint  the endpoint
+	 * @return endpoint's breaker
+	 */
+	public CircuitBreaker getBreaker(Endpoint endpoint) {
+		return breakers.get(endpoint);
+	}
+
+	/**
+	 * Gets rate limiter shared by requests to all endpoints
+	 * @return the rate limiter
+	 */
+	public RateLimiter getRateLimiter() {
+		return limiter;
+	}
+
+	/**
+	 * Number of retries made for requests to an endpoint
+	 * @param endpoint  the endpoint
+	 * @return retry count
+	 */
+	public int getRetryCount(Endpoint endpoint) {
+		return retries.get(endpoint).get();
+	}
+
+	/**
+	 * Number of requests to an endpoint rejected because its breaker was open
+	 * @param endpoint  the endpoint
+	 * @return rejected count
+	 */
+	public int getRejectedCount(Endpoint endpoint) {
+		return breakers.get(endpoint).getRejectedCount();
+	}
+
+	/**
+	 * Number of requests to an endpoint denied by the rate limiter
+	 * @param endpoint  the endpoint
+	 * @return denied count
+	 */
+	public int getDeniedCount(Endpoint endpoint) {
+		return denied.get(endpoint).get();
+	}
+
+	/**
+	 * Sleep before a retry.  Delay doubles with each retry up to MAX_BACKOFF,
+	 * with random jitter of up to half the delay so that callers don't retry in step.
+	 * @param retry  number of this retry (1 for first retry)
+	 * @return true if slept for full delay, false if interrupted
+	 */
+	private boolean backOff(int retry) {
+		long delay = Math.min(MAX_BACKOFF, BASE_BACKOFF << (retry - 1));
+		delay = delay / 2 + (long) (random.nextDouble() * delay / 2);
+
+		try {
+			Thread.sleep(delay);
+			return true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+}
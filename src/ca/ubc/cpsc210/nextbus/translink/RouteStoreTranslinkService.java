@@ -0,0 +1,35 @@
+package ca.ubc.cpsc210.nextbus.translink;
+
+import ca.ubc.cpsc210.exception.TranslinkException;
+import ca.ubc.cpsc210.nextbus.model.BusRoute;
+import ca.ubc.cpsc210.nextbus.storage.RouteGeometryStore;
+
+/**
+ * Translink service that reads route geometry from a store on the device when
+ * it is available, and saves geometry to the store after it is downloaded, so
+ * that a route's KMZ file is retrieved only once.
+ *
+ * Design Pattern: Decorator
+ */
+public class RouteStoreTranslinkService extends ForwardingTranslinkService {
+	private RouteGeometryStore store;
+
+	/**
+	 * Constructor
+	 * @param delegate  the service from which routes not in store are retrieved
+	 * @param store     the store of route geometry
+	 */
+	public RouteStoreTranslinkService(ITranslinkService delegate, RouteGeometryStore store) {
+		super(delegate);
+		this.store = store;
+	}
+
+	@Override
+	public void parseKMZ(BusRoute route) throws TranslinkException {
+		if (store.load(route))
+			return;
+
+		delegate.parseKMZ(route);
+		store.save(route);
+	}
+}
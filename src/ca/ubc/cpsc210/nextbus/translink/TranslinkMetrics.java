@@ -0,0 +1,303 @@
+package ca.ubc.cpsc210.nextbus.translink;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import ca.ubc.cpsc210.nextbus.util.Histogram;
+
+/**
+ * Latency, byte and error metrics for requests to each Translink endpoint.
+ *
+ * Each request is timed in phases (connecting, waiting for the first byte of
+ * the response, transferring the body, and parsing it), and each service call
+ * is timed as a whole, so that a slow refresh can be traced to its cause.
+ * Snapshots also report the state of the transport's circuit breakers and the
+ * rate limiter's granted, delayed and denied counts.  Latencies are kept in
+ * microseconds in log-linear histograms.  Everything is counted in structures
+ * allocated up front, so recording never allocates and can be done from any
+ * thread.
+ *
+ * Design Pattern: Singleton
+ */
+public class TranslinkMetrics {
+	/**
+	 * Phases of a request that are timed
+	 */
+	public enum Phase {
+		/**
+		 * Opening the connection (including DNS lookup), if not reused
+		 */
+		CONNECT,
+
+		/**
+		 * Sending request and waiting for status line of response
+		 */
+		FIRST_BYTE,
+
+		/**
+		 * Reading (and uncompressing) response body
+		 */
+		TRANSFER,
+
+		/**
+		 * Parsing response body
+		 */
+		PARSE,
+
+		/**
+		 * Whole request to Translink service, including retries and time waiting
+		 * on the rate limit
+		 */
+		CALL
+	}
+
+	/**
+	 * Code under which responses that could not be parsed are counted.  The
+	 * failed call is counted under the code of the exception it raised too.
+	 */
+	public static final int PARSE_ERROR = -2;
+
+	/**
+	 * Number of distinct error codes counted per endpoint; further codes are
+	 * counted together as "other"
+	 */
+	static final int ERROR_CODE_SLOTS = 32;
+
+	private static final long NS_PER_US = 1000;
+
+	private static TranslinkMetrics instance;
+
+	private Map<Endpoint, Histogram[]> histograms;
+	private Map<Endpoint, AtomicLong> bytes;
+	private Map<Endpoint, ErrorCounts> errors;
+
+	/**
+	 * Constructor for metrics apart from the shared instance
+	 */
+	TranslinkMetrics() {
+		histograms = new EnumMap<Endpoint, Histogram[]>(Endpoint.class);
+		bytes = new EnumMap<Endpoint, AtomicLong>(Endpoint.class);
+		errors = new EnumMap<Endpoint, ErrorCounts>(Endpoint.class);
+
+		for (Endpoint next : Endpoint.values()) {
+			Histogram[] phases = new Histogram[Phase.values().length];
+			for (int i = 0; i < phases.length; i++)
+				phases[i] = new Histogram();
+			histograms.put(next, phases);
+			bytes.put(next, new AtomicLong());
+			errors.put(next, new ErrorCounts());
+		}
+	}
+
+	/**
+	 * Gets single instance of this class
+	 * @return instance (the only one) of TranslinkMetrics
+	 */
+	public static synchronized TranslinkMetrics getInstance() {
+		if (instance == null) {
+			instance = new TranslinkMetrics();
+		}
+
+		return instance;
+	}
+
+	/**
+	 * Record time taken by a phase of a request
+	 * @param endpoint  the endpoint requested
+	 * @param phase     the phase
+	 * @param nanos     time taken in ns (as measured with System.nanoTime)
+	 */
+	public void record(Endpoint endpoint, Phase phase, long nanos) {
+		histograms.get(endpoint)[phase.ordinal()].record(nanos / NS_PER_US);
+	}
+
+	/**
+	 * Record size of a response body
+	 * @param endpoint  the endpoint requested
+	 * @param count     number of bytes received
+	 */
+	public void recordBytes(Endpoint endpoint, long count) {
+		bytes.get(endpoint).addAndGet(count);
+	}
+
+	/**
+	 * Record failure of a service call, or of a parse
+	 * @param endpoint  the endpoint requested
+	 * @param code      error code of exception raised (see TranslinkException.getCode()),
+	 * or PARSE_ERROR
+	 */
+	public void recordError(Endpoint endpoint, int code) {
+		errors.get(endpoint).increment(code);
+	}
+
+	/**
+	 * Gets histogram of times (us) taken by a phase of requests to an endpoint
+	 * @param endpoint  the endpoint
+	 * @param phase     the phase
+	 * @return the histogram
+	 */
+	public Histogram getHistogram(Endpoint endpoint, Phase phase) {
+		return histograms.get(endpoint)[phase.ordinal()];
+	}
+
+	/**
+	 * Gets number of bytes received from an endpoint
+	 * @param endpoint  the endpoint
+	 * @return byte count
+	 */
+	public long getBytes(Endpoint endpoint) {
+		return bytes.get(endpoint).get();
+	}
+
+	/**
+	 * Gets number of calls to an endpoint that failed with an error code
+	 * @param endpoint  the endpoint
+	 * @param code      the error code
+	 * @return error count
+	 */
+	public int getErrorCount(Endpoint endpoint, int code) {
+		return errors.get(endpoint).get(code);
+	}
+
+	/**
+	 * Discard all recorded metrics
+	 */
+	public void reset() {
+		for (Endpoint next : Endpoint.values()) {
+			for (Histogram h : histograms.get(next))
+				h.reset();
+			bytes.get(next).set(0);
+			errors.get(next).reset();
+		}
+	}
+
+	/**
+	 * Produces snapshot of metrics, with the state of the shared transport's
+	 * circuit breakers and rate limiter (see toJSON(ResilientTransport))
+	 * @return JSON object holding metrics of each endpoint and of rate limiter
+	 * @throws JSONException  if snapshot cannot be built
+	 */
+	public JSONObject toJSON() throws JSONException {
+		return toJSON(ResilientTransport.getInstance());
+	}
+
+	/**
+	 * Produces snapshot of metrics, for example:
+	 * {"ESTIMATES": {"bytes": 5120, "errors": {"-1": 2, "3005": 1},
+	 *   "breaker": {"state": "CLOSED", "trips": 1, "rejected": 4}, "retries": 3, "denied": 0,
+	 *   "CONNECT": {"count": 12, "mean": 48.5, "p50": 41, ...}, ...}, ...,
+	 *  "rateLimiter": {"availableTokens": 7.5, "granted": {...}, "INTERACTIVE": {...}, ...}}
+	 * Times are in microseconds, except delays waiting on the rate limiter (ms).
+	 * @param transport  transport whose breakers and rate limiter are reported
+	 * @return JSON object holding metrics of each endpoint and of rate limiter
+	 * @throws JSONException  if snapshot cannot be built
+	 */
+	JSONObject toJSON(ResilientTransport transport) throws JSONException {
+		JSONObject json = new JSONObject();
+
+		for (Endpoint next : Endpoint.values()) {
+			JSONObject endpoint = new JSONObject();
+			endpoint.put("bytes", getBytes(next));
+			endpoint.put("errors", errors.get(next).toJSON());
+			endpoint.put("breaker", transport.getBreaker(next).toJSON());
+			endpoint.put("retries", transport.getRetryCount(next));
+			endpoint.put("denied", transport.getDeniedCount(next));
+			for (Phase phase : Phase.values())
+				endpoint.put(phase.name(), getHistogram(next, phase).toJSON());
+			json.put(next.name(), endpoint);
+		}
+		json.put("rateLimiter", transport.getRateLimiter().toJSON());
+
+		return json;
+	}
+
+	/**
+	 * Counts of error codes in a fixed-size open-addressed table, so that
+	 * counting a code never allocates
+	 */
+	static class ErrorCounts {
+		/**
+		 * Slot holds no code
+		 */
+		private static final long EMPTY = 0;
+
+		/**
+		 * Added to code to form key, so that no code has key EMPTY
+		 */
+		private static final long KEY_OFFSET = 1L << 32;
+
+		private AtomicLongArray keys;
+		private AtomicIntegerArray counts;
+		private AtomicInteger other;
+
+		ErrorCounts() {
+			keys = new AtomicLongArray(ERROR_CODE_SLOTS);
+			counts = new AtomicIntegerArray(ERROR_CODE_SLOTS);
+			other = new AtomicInteger();
+		}
+
+		void increment(int code) {
+			long key = code + KEY_OFFSET;
+			int start = slotOf(code);
+
+			for (int i = 0; i < ERROR_CODE_SLOTS; i++) {
+				int slot = (start + i) % ERROR_CODE_SLOTS;
+				long current = keys.get(slot);
+				if (current == key || (current == EMPTY && keys.compareAndSet(slot, EMPTY, key))
+						|| keys.get(slot) == key) {
+					counts.incrementAndGet(slot);
+					return;
+				}
+			}
+
+			other.incrementAndGet();
+		}
+
+		int get(int code) {
+			long key = code + KEY_OFFSET;
+			int start = slotOf(code);
+
+			for (int i = 0; i < ERROR_CODE_SLOTS; i++) {
+				int slot = (start + i) % ERROR_CODE_SLOTS;
+				long current = keys.get(slot);
+				if (current == key)
+					return counts.get(slot);
+				if (current == EMPTY)
+					return 0;
+			}
+
+			return 0;
+		}
+
+		void reset() {
+			for (int i = 0; i < ERROR_CODE_SLOTS; i++) {
+				keys.set(i, EMPTY);
+				counts.set(i, 0);
+			}
+			other.set(0);
+		}
+
+		JSONObject toJSON() throws JSONException {
+			JSONObject json = new JSONObject();
+			for (int i = 0; i < ERROR_CODE_SLOTS; i++) {
+				long key = keys.get(i);
+				if (key != EMPTY)
+					json.put(Long.toString(key - KEY_OFFSET), counts.get(i));
+			}
+			if (other.get() > 0)
+				json.put("other", other.get());
+			return json;
+		}
+
+		private static int slotOf(int code) {
+			return ((code * 0x9E3779B9) >>> 16) % ERROR_CODE_SLOTS;
+		}
+	}
+}
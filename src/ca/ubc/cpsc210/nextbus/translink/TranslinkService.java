@@ -1,24 +1,19 @@
 package ca.ubc.cpsc210.nextbus.translink;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.InputStream;
 import java.net.HttpURLConnection;
-import java.net.SocketTimeoutException;
-import java.net.URL;
-import java.net.URLConnection;
-
-import javax.xml.parsers.SAXParser;
-import javax.xml.parsers.SAXParserFactory;
 
 import org.apache.commons.compress.archivers.zip.ZipArchiveInputStream;
 import org.xml.sax.InputSource;
-import org.xml.sax.XMLReader;
 
-import android.app.Activity;
 import android.content.Context;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 import android.util.Log;
 import ca.ubc.cpsc210.exception.ConnectionException;
+import ca.ubc.cpsc210.exception.NoReplyException;
 import ca.ubc.cpsc210.exception.TranslinkException;
 import ca.ubc.cpsc210.nextbus.model.BusRoute;
 import ca.ubc.cpsc210.nextbus.model.BusStop;
@@ -27,12 +22,6 @@ import ca.ubc.cpsc210.nextbus.model.BusStop;
  * Wrapper around a service which gets real time bus information from Translink.
  */
 public class TranslinkService extends AbstractTranslinkService {
-	/**
-	 * Set timeouts on connection and data acquisition from Translink
-	 */
-	private static int CONNECT_TIMEOUT = 5000;
-	private static int READ_TIMEOUT = 5000;
-	
 	/**
 	 * Translink API key - must be included with any request for data from Translink service
 	 */
@@ -44,18 +33,66 @@ public class TranslinkService extends AbstractTranslinkService {
 	private final static String LOG_TAG = "TranslinkService";
 
 	/**
-	 * Associated Android activity
+	 * Location of Translink's real-time transit information service
+	 */
+	public final static String BASE_URL = "http://api.translink.ca/RTTIAPI/V1/";
+
+	/**
+	 * Time (ms) for which stop descriptions and route maps are used without revalidation
+	 */
+	private final static long STOPS_MAX_AGE = 24 * 60 * 60 * 1000L;
+	private final static long KMZ_MAX_AGE = 7 * 24 * 60 * 60 * 1000L;
+
+	/**
+	 * Limit (bytes) on space used to store responses on the device
 	 */
-	private Activity activity;
+	private final static long HTTP_CACHE_SIZE = 8 * 1024 * 1024;
+
+	/**
+	 * Associated Android context
+	 */
+	private Context context;
 	
 	/**
-	 * HTTP connection client
+	 * Location of service to which requests are sent
+	 */
+	private String baseURL;
+
+	/**
+	 * Shared transport with retries and circuit breakers
+	 */
+	private ResilientTransport transport;
+
+	/**
+	 * Disk cache of slow-changing responses
+	 */
+	private HttpCache httpCache;
+
+	public TranslinkService(Context context) {
+		this(context, BASE_URL);
+	}
+
+	/**
+	 * Constructor
+	 * @param context  associated Android context
+	 * @param baseURL  location of service to which requests are sent, ending with "/"
+	 * (for example, a local server that stands in for Translink)
 	 */
-	private HttpURLConnection client;
+	public TranslinkService(Context context, String baseURL) {
+		this.context = context;
+		this.baseURL = baseURL;
+		transport = ResilientTransport.getInstance();
+		httpCache = new HttpCache(new File(context.getCacheDir(), "http"), HTTP_CACHE_SIZE, transport);
+		httpCache.setMaxAge(Endpoint.STOPS, STOPS_MAX_AGE);
+		httpCache.setMaxAge(Endpoint.KMZ, KMZ_MAX_AGE);
+	}
 
-	public TranslinkService(Activity activity) {
-		this.activity = activity;
-		client = null;
+	/**
+	 * Gets disk cache of slow-changing responses, so that its policies can be changed
+	 * @return the cache
+	 */
+	public HttpCache getHttpCache() {
+		return httpCache;
 	}
 	
 	/* (non-Javadoc)
@@ -63,23 +100,13 @@ public class TranslinkService extends AbstractTranslinkService {
      */
 	@Override
     public void addWaitTimeEstimatesToStop(BusStop stop) throws TranslinkException {
-		stop.getWaitTimes().clear();
-		StringBuilder uriBuilder = new StringBuilder(
-				"//api.translink.ca/RTTIAPI/V1/");
+		StringBuilder uriBuilder = new StringBuilder(baseURL);
 		uriBuilder.append("stops/" + stop.getStopNum() + "/estimates?");
 		uriBuilder.append("apikey=" + APIKEY);
 		uriBuilder.append("&count=3&timeframe=60");
 
-		try {
-			InputSource is = makeXMLQuery(uriBuilder);
-			
-			parseWaitTimesFromXML(is, stop);
-		} finally {
-			if(client != null) {
-				client.disconnect();
-				client = null;
-			}
-		}
+		InputSource is = makeXMLQuery(Endpoint.ESTIMATES, uriBuilder);
+		parseWaitTimesFromXML(is, stop);
 	}
 
 	/* (non-Javadoc)
@@ -88,23 +115,13 @@ public class TranslinkService extends AbstractTranslinkService {
 	@Override
     public void addBusLocationsForStop(BusStop stop)
 			throws TranslinkException {
-		stop.getBusLocations().clear();
-		StringBuilder uriBuilder = new StringBuilder(
-				"//api.translink.ca/RTTIAPI/V1/");
+		StringBuilder uriBuilder = new StringBuilder(baseURL);
 		uriBuilder.append("buses?");
 		uriBuilder.append("apikey=" + APIKEY);
 		uriBuilder.append("&stopNo=" + stop.getStopNum());
 
-		try {
-			InputSource is = makeXMLQuery(uriBuilder);
-			
-			parseBusLocationsFromXML(is, stop);
-		} finally {
-			if(client != null) {
-				client.disconnect();
-				client = null;
-			}
-		}
+		InputSource is = makeXMLQuery(Endpoint.BUSES, uriBuilder);
+		parseBusLocationsFromXML(is, stop);
 	}
 	
 
@@ -113,59 +130,39 @@ public class TranslinkService extends AbstractTranslinkService {
      */
 	@Override
     public BusStop getBusStop(String stopNum) throws TranslinkException {
-		StringBuilder uriBuilder = new StringBuilder(
-				"//api.translink.ca/RTTIAPI/V1/");
+		StringBuilder uriBuilder = new StringBuilder(baseURL);
 		uriBuilder.append("stops/" + stopNum + "?");
 		uriBuilder.append("apikey=" + APIKEY);
 
-		try {
-			InputSource is = makeXMLQuery(uriBuilder);
-			
-			return parseBusStopFromXML(is);
-		} finally {
-			if(client != null) {
-				client.disconnect();
-				client = null;
-			}
-		}
+		InputSource is = makeXMLQuery(Endpoint.STOPS, uriBuilder);
+		return parseBusStopFromXML(is);
 	}
 	
 	/**
 	 * Execute a given XML query 
 	 * 
-	 * @param urlBuilder The query with everything but http:
+	 * @param endpoint  The endpoint queried
+	 * @param urlBuilder The query
 	 * @return The input source built from client response 
 	 * @throws TranslinkException  
 	 * 				when an error occurs trying to connect or get data
 	 * 				from Translink service
 	 */
-	private InputSource makeXMLQuery(StringBuilder urlBuilder) throws TranslinkException {
+	private InputSource makeXMLQuery(Endpoint endpoint, StringBuilder urlBuilder) throws TranslinkException {
+		
+		String url = urlBuilder.toString();
 		
 		try {
-			checkConnection();
-			
-			URL url = new URL("http:" + urlBuilder.toString());
-			client = (HttpURLConnection) url.openConnection();
-			client.setConnectTimeout(CONNECT_TIMEOUT);
-			client.setReadTimeout(READ_TIMEOUT);
-			client.connect();
-			
-			InputSource is;
-			InputStream err = client.getErrorStream();
-			if( err != null )
-				is = new InputSource(err);
-			else {
-				InputStream in = client.getInputStream();
-				is = new InputSource(in);
+			// a stored response needs no network
+			HttpTransport.Response response = httpCache.getFresh(endpoint, url);
+			if (response == null) {
+				checkConnection();
+				response = httpCache.get(endpoint, url);
 			}
 			
-			return is;
-		} catch (SocketTimeoutException e) {
-			throw new TranslinkException(-1, "Unable to connect to Translink at this time");
+			return new InputSource(new ByteArrayInputStream(response.getBody()));
 		} catch (ConnectionException e) {
-			throw new TranslinkException(-1, "Data not available: check network connection");
-		} catch (Exception e) {
-			throw new TranslinkException(-1, "Failed to get data from Translink service");
+			throw new NoReplyException("Data not available: check network connection", e);
 		}
 	}
 	
@@ -176,34 +173,31 @@ public class TranslinkService extends AbstractTranslinkService {
 	 * @Param route  bus route to which parsed route data is to be added
 	 * 
 	 * @throws TranslinkException when an exception occurs obtaining or parsing data from Translink service
+	 * (exceptions raised by the transport, such as when the circuit breaker is open or the rate limit
+	 * is reached, are passed on unchanged)
 	 */
 	public void parseKMZ(BusRoute route) throws TranslinkException {
+		HttpTransport.Response response = httpCache.get(Endpoint.KMZ, route.getMapURL());
+		if (response.getStatus() >= HttpURLConnection.HTTP_BAD_REQUEST)
+			throw new TranslinkException(response.getStatus(),
+					"Unable to retrieve bus route: HTTP status " + response.getStatus());
 
 		try {
-			URL kmzURL = new URL(route.getMapURL());
-
-			URLConnection conn = kmzURL.openConnection();
-			InputStream is = conn.getInputStream();
+			InputStream is = new ByteArrayInputStream(response.getBody());
 			ZipArchiveInputStream zis = new ZipArchiveInputStream(is);
 			zis.getNextZipEntry();  // assuming only one entry in zip file
 			
 			InputSource src = new InputSource(zis);
 
-			SAXParserFactory spf = SAXParserFactory.newInstance();
-			SAXParser parser = spf.newSAXParser();
-
-			XMLReader reader = parser.getXMLReader();
-
 			KMLParser kmlParser = new KMLParser(route);
-			reader.setContentHandler(kmlParser);
-			reader.parse(src);
+			parse(Endpoint.KMZ, src, kmlParser);
 		} catch (Exception e) {
 			// Log it
-			Log.e(LOG_TAG, e.getMessage());
+			Log.e(LOG_TAG, "Unable to parse route " + route.getName() + ": " + e.getMessage());
 			
-			// Convert other exception types to TranslinkException so clients do not
+			// Convert I/O and parse exceptions to TranslinkException so clients do not
 			// have to worry about the different possibilities.
-			throw new TranslinkException(-1, "Unable to retrieve bus route");
+			throw new TranslinkException(-1, "Unable to retrieve bus route", e);
 		}
 	}
 	
@@ -212,7 +206,7 @@ public class TranslinkService extends AbstractTranslinkService {
 	 * @throws ConnectionException when data services are not available
 	 */
 	private void checkConnection() throws ConnectionException {
-		ConnectivityManager cm = (ConnectivityManager) activity
+		ConnectivityManager cm = (ConnectivityManager) context
 				.getSystemService(Context.CONNECTIVITY_SERVICE);
 		NetworkInfo netInfo = cm.getActiveNetworkInfo();
 		if (netInfo == null || !netInfo.isConnected()) {
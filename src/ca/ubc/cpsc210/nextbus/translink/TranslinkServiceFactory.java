@@ -0,0 +1,74 @@
+package ca.ubc.cpsc210.nextbus.translink;
+
+import java.io.File;
+
+import android.content.Context;
+import ca.ubc.cpsc210.nextbus.storage.RouteGeometryStore;
+
+/**
+ * Builds the Translink service shared by all parts of the app, so that
+ * caches are shared between screens.
+ *
+ * Design Pattern: Singleton
+ */
+public class TranslinkServiceFactory {
+	/**
+	 * Time (ms) for which realtime data for a stop is served without a new request
+	 */
+	private static final long REALTIME_TTL = 15 * 1000;
+
+	/**
+	 * Time (ms) after which realtime data is too old to be shown while it is refreshed
+	 */
+	private static final long REALTIME_MAX_STALE = 5 * 60 * 1000;
+
+	/**
+	 * Limit (bytes) on space used to store route geometry on the device
+	 */
+	private static final long ROUTE_STORE_SIZE = 4 * 1024 * 1024;
+
+	/**
+	 * GTFS feed from which the schedule is imported, relative to the app's files directory
+	 */
+	private static final String SCHEDULE_FEED = "gtfs/google_transit.zip";
+
+	/**
+	 * Imported schedule, relative to the app's files directory
+	 */
+	private static final String SCHEDULE_STORE = "gtfs/schedule.gtf";
+
+	private static ITranslinkService instance;
+
+	private TranslinkServiceFactory() {
+	}
+
+	/**
+	 * Gets single instance of shared Translink service
+	 * @param c  context (only the application context is retained)
+	 * @return shared Translink service
+	 */
+	public static synchronized ITranslinkService getInstance(Context c) {
+		if (instance == null) {
+			Context app = c.getApplicationContext();
+			ITranslinkService service = new MetricsTranslinkService(new TranslinkService(app));
+			service = new CoalescingTranslinkService(service);
+			service = new RouteStoreTranslinkService(service,
+					new RouteGeometryStore(new File(app.getCacheDir(), "routes"), ROUTE_STORE_SIZE));
+			service = new CachingTranslinkService(service, REALTIME_TTL, REALTIME_MAX_STALE);
+
+			final OfflineTranslinkService offline = new OfflineTranslinkService(service,
+					new File(app.getFilesDir(), SCHEDULE_FEED), new File(app.getFilesDir(), SCHEDULE_STORE));
+			Thread prepare = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					offline.prepare();
+				}
+			}, "PrepareSchedule");
+			prepare.setDaemon(true);
+			prepare.start();
+			instance = offline;
+		}
+
+		return instance;
+	}
+}
@@ -0,0 +1,148 @@
+package ca.ubc.cpsc210.nextbus.translink;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Bounded pool of SAX XML readers shared by all Translink services.
+ *
+ * Looking up a SAXParserFactory and building a new parser costs more than
+ * parsing the short responses we receive from Translink, so readers are built
+ * once and handed out again after each parse.  Readers are reset (handlers
+ * cleared) when they are returned to the pool.
+ *
+ * Design Pattern: Singleton
+ */
+public class XMLReaderPool {
+	/**
+	 * Maximum number of idle readers kept in pool
+	 */
+	private static final int MAX_IDLE = 4;
+
+	/**
+	 * Handler installed on idle readers so that they do not hold on to
+	 * parsers (and the bus stops referenced by them) between requests
+	 */
+	private static final DefaultHandler NO_OP_HANDLER = new DefaultHandler();
+
+	private static XMLReaderPool instance;
+
+	private SAXParserFactory factory;
+	private ConcurrentLinkedQueue<XMLReader> idle;
+	private AtomicInteger idleCount;
+	private AtomicInteger reused;
+	private AtomicInteger created;
+
+	/**
+	 * Constructor
+	 */
+	private XMLReaderPool() {
+		factory = SAXParserFactory.newInstance();
+		idle = new ConcurrentLinkedQueue<XMLReader>();
+		idleCount = new AtomicInteger();
+		reused = new AtomicInteger();
+		created = new AtomicInteger();
+	}
+
+	/**
+	 * Gets single instance of this class
+	 * @return instance (the only one) of XMLReaderPool
+	 */
+	public static synchronized XMLReaderPool getInstance() {
+		if (instance == null) {
+			instance = new XMLReaderPool();
+		}
+
+		return instance;
+	}
+
+	/**
+	 * Fill pool with idle readers so that first requests do not pay the
+	 * cost of building a parser.
+	 * @param count  number of readers that should be idle in pool (at most MAX_IDLE)
+	 */
+	public void warm(int count) {
+		try {
+			while (idleCount.get() < Math.min(count, MAX_IDLE)) {
+				release(create());
+			}
+		} catch (SAXException e) {
+			// ignore: readers will be built on demand
+		} catch (ParserConfigurationException e) {
+			// ignore: readers will be built on demand
+		}
+	}
+
+	/**
+	 * Take a reader from pool, building a new one if none are idle.  Reader must be
+	 * returned with release() once the caller is done with it.
+	 * @return an XML reader with no content handler set
+	 * @throws SAXException if a new reader cannot be built
+	 * @throws ParserConfigurationException if a new reader cannot be built
+	 */
+	public XMLReader acquire() throws SAXException, ParserConfigurationException {
+		XMLReader reader = idle.poll();
+
+		if (reader != null) {
+			idleCount.decrementAndGet();
+			reused.incrementAndGet();
+			return reader;
+		}
+
+		return create();
+	}
+
+	/**
+	 * Return a reader to the pool.  Reader is discarded if pool is full.
+	 * Readers that failed part-way through a parse should not be released
+	 * as their state is unknown.
+	 * @param reader  the reader to return
+	 */
+	public void release(XMLReader reader) {
+		reader.setContentHandler(NO_OP_HANDLER);
+		reader.setErrorHandler(null);
+
+		if (idleCount.incrementAndGet() <= MAX_IDLE)
+			idle.offer(reader);
+		else
+			idleCount.decrementAndGet();
+	}
+
+	/**
+	 * Number of times a reader was taken from pool rather than built
+	 * @return reuse count
+	 */
+	public int getReusedCount() {
+		return reused.get();
+	}
+
+	/**
+	 * Number of readers built since pool was created
+	 * @return creation count
+	 */
+	public int getCreatedCount() {
+		return created.get();
+	}
+
+	/**
+	 * Build a new reader.  SAXParserFactory is not guaranteed to be
+	 * thread-safe, so access to it is serialized.
+	 */
+	private XMLReader create() throws SAXException, ParserConfigurationException {
+		XMLReader reader;
+
+		synchronized (factory) {
+			reader = factory.newSAXParser().getXMLReader();
+		}
+
+		created.incrementAndGet();
+		return reader;
+	}
+}
@@ -0,0 +1,24 @@
+package ca.ubc.cpsc210.nextbus.util;
+
+/**
+ * Source of the current time.  Code that makes decisions based on time takes
+ * a clock rather than reading the system clock, so that it can be run against
+ * a virtual clock.
+ */
+public interface Clock {
+	/**
+	 * Clock that reads the system clock
+	 */
+	public static final Clock SYSTEM = new Clock() {
+		@Override
+		public long now() {
+			return System.currentTimeMillis();
+		}
+	};
+
+	/**
+	 * Gets current time
+	 * @return current time in ms since the epoch
+	 */
+	public long now();
+}
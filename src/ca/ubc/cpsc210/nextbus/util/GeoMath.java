@@ -0,0 +1,56 @@
+package ca.ubc.cpsc210.nextbus.util;
+
+/**
+ * Distance and direction between points on the earth's surface
+ */
+public class GeoMath {
+	/**
+	 * Mean radius of the earth in metres
+	 */
+	public static final double EARTH_RADIUS = 6371008.8;
+
+	/**
+	 * Length in metres of one degree of latitude (or of longitude at the equator)
+	 */
+	public static final double METRES_PER_DEGREE = EARTH_RADIUS * Math.PI / 180;
+
+	private GeoMath() {
+	}
+
+	/**
+	 * Produces great-circle distance between two points (haversine formula)
+	 * @param lat1  latitude of first point in degrees
+	 * @param lon1  longitude of first point in degrees
+	 * @param lat2  latitude of second point in degrees
+	 * @param lon2  longitude of second point in degrees
+	 * @return distance in metres
+	 */
+	public static double distance(double lat1, double lon1, double lat2, double lon2) {
+		double phi1 = Math.toRadians(lat1);
+		double phi2 = Math.toRadians(lat2);
+		double sinDPhi = Math.sin((phi2 - phi1) / 2);
+		double sinDLambda = Math.sin(Math.toRadians(lon2 - lon1) / 2);
+		double a = sinDPhi * sinDPhi + Math.cos(phi1) * Math.cos(phi2) * sinDLambda * sinDLambda;
+
+		return 2 * EARTH_RADIUS * Math.asin(Math.min(1, Math.sqrt(a)));
+	}
+
+	/**
+	 * Produces initial bearing on great circle from first point to second
+	 * @param lat1  latitude of first point in degrees
+	 * @param lon1  longitude of first point in degrees
+	 * @param lat2  latitude of second point in degrees
+	 * @param lon2  longitude of second point in degrees
+	 * @return bearing in degrees clockwise from north, in range [0, 360)
+	 */
+	public static double bearing(double lat1, double lon1, double lat2, double lon2) {
+		double phi1 = Math.toRadians(lat1);
+		double phi2 = Math.toRadians(lat2);
+		double dLambda = Math.toRadians(lon2 - lon1);
+		double y = Math.sin(dLambda) * Math.cos(phi2);
+		double x = Math.cos(phi1) * Math.sin(phi2) - Math.sin(phi1) * Math.cos(phi2) * Math.cos(dLambda);
+		double degrees = Math.toDegrees(Math.atan2(y, x));
+
+		return (degrees + 360) % 360;
+	}
+}
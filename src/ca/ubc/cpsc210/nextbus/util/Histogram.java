@@ -0,0 +1,163 @@
+package ca.ubc.cpsc210.nextbus.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Histogram of non-negative values (for example, latencies in microseconds)
+ * with log-linear buckets, in the style of HdrHistogram.
+ *
+ * Values below 2 * SUB_BUCKETS each have their own bucket.  Above that, each
+ * power of two is split into SUB_BUCKETS equal buckets, so any recorded value
+ * is known to within about 3% whatever its size.  Buckets are counted in a
+ * fixed array of atomic counters: recording never allocates or locks, and can
+ * be done from any thread.
+ */
+public class Histogram {
+	/**
+	 * Number of buckets per power of two (a power of two itself)
+	 */
+	private static final int SUB_BUCKET_BITS = 5;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	/**
+	 * Largest value recorded exactly; larger values are recorded as this value
+	 */
+	public static final long MAX_VALUE = (1L << 40) - 1;
+
+	private static final int BUCKET_COUNT = indexOf(MAX_VALUE) + 1;
+
+	private AtomicLongArray counts;
+	private AtomicLong count;
+	private AtomicLong sum;
+	private AtomicLong max;
+
+	/**
+	 * Constructor
+	 */
+	public Histogram() {
+		counts = new AtomicLongArray(BUCKET_COUNT);
+		count = new AtomicLong();
+		sum = new AtomicLong();
+		max = new AtomicLong();
+	}
+
+	/**
+	 * Record a value
+	 * @param value  the value (negative values are recorded as 0)
+	 */
+	public void record(long value) {
+		value = Math.max(0, Math.min(MAX_VALUE, value));
+		counts.incrementAndGet(indexOf(value));
+		count.incrementAndGet();
+		sum.addAndGet(value);
+
+		long current = max.get();
+		while (value > current && !max.compareAndSet(current, value))
+			current = max.get();
+	}
+
+	/**
+	 * Number of values recorded
+	 * @return count
+	 */
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * Sum of values recorded
+	 * @return sum
+	 */
+	public long getSum() {
+		return sum.get();
+	}
+
+	/**
+	 * Largest value recorded
+	 * @return largest value, or 0 if none recorded
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * Mean of values recorded
+	 * @return mean, or 0 if none recorded
+	 */
+	public double getMean() {
+		long n = count.get();
+		return n == 0 ? 0 : (double) sum.get() / n;
+	}
+
+	/**
+	 * Value at given percentile: the largest value in the bucket holding it
+	 * @param percentile  the percentile (0 to 100)
+	 * @return value at percentile, or 0 if none recorded
+	 */
+	public long getValueAtPercentile(double percentile) {
+		long total = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++)
+			total += counts.get(i);
+		if (total == 0)
+			return 0;
+
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+		long seen = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			seen += counts.get(i);
+			if (seen >= rank)
+				return Math.min(highestValueIn(i), max.get());
+		}
+		return max.get();
+	}
+
+	/**
+	 * Discard all recorded values
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKET_COUNT; i++)
+			counts.set(i, 0);
+		count.set(0);
+		sum.set(0);
+		max.set(0);
+	}
+
+	/**
+	 * Produces summary of recorded values: count, mean, max and percentiles
+	 * @return JSON object summarizing histogram
+	 * @throws JSONException  if summary cannot be built
+	 */
+	public JSONObject toJSON() throws JSONException {
+		JSONObject json = new JSONObject();
+		json.put("count", getCount());
+		json.put("mean", getMean());
+		json.put("p50", getValueAtPercentile(50));
+		json.put("p90", getValueAtPercentile(90));
+		json.put("p99", getValueAtPercentile(99));
+		json.put("p999", getValueAtPercentile(99.9));
+		json.put("max", getMax());
+		return json;
+	}
+
+	/**
+	 * Produces index of bucket holding value
+	 */
+	private static int indexOf(long value) {
+		int msb = 63 - Long.numberOfLeadingZeros(value);
+		int shift = Math.max(0, msb - SUB_BUCKET_BITS);
+		return (shift << SUB_BUCKET_BITS) + (int) (value >>> shift);
+	}
+
+	/**
+	 * Produces largest value held by bucket with given index
+	 */
+	private static long highestValueIn(int index) {
+		int shift = Math.max(0, (index >> SUB_BUCKET_BITS) - 1);
+		long sub = index - ((long) shift << SUB_BUCKET_BITS);
+		return ((sub + 1) << shift) - 1;
+	}
+}
@@ -0,0 +1,112 @@
+package ca.ubc.cpsc210.nextbus.util;
+
+/**
+ * Simplifies route segments with the Douglas-Peucker algorithm so that routes
+ * can be drawn with fewer points when the map is zoomed out.
+ */
+public class RouteSimplifier {
+	/**
+	 * Number of pixels along each side of a map tile
+	 */
+	private static final int TILE_SIZE = 256;
+
+	private RouteSimplifier() {
+	}
+
+	/**
+	 * Produces the width of one screen pixel at the given map zoom level
+	 * (one pixel is the largest error that cannot be seen when drawn)
+	 * @param zoomLevel  the map zoom level (0 shows whole world in one tile)
+	 * @return width of a pixel in microdegrees of longitude
+	 */
+	public static double toleranceForZoom(int zoomLevel) {
+		return 360E6 / ((double) TILE_SIZE * (1L << zoomLevel));
+	}
+
+	/**
+	 * Produces simplified copy of a segment.  Every point of the original segment
+	 * lies within tolerance of the simplified segment, and the first and last
+	 * points are always kept.
+	 * @param seg        the segment to simplify
+	 * @param toleranceE6  largest allowed distance from original points, in microdegrees
+	 * of longitude (as returned by toleranceForZoom)
+	 * @return simplified segment
+	 */
+	public static Segment simplify(Segment seg, double toleranceE6) {
+		int n = seg.size();
+		if (n <= 2)
+			return copy(seg, null, n);
+
+		// scale longitudes so that distances are roughly uniform at this latitude;
+		// on the map, a pixel spans the same scaled distance in both directions
+		double lonScale = Math.cos(Math.toRadians(seg.getLatitude(0)));
+		double tolSquared = (toleranceE6 * lonScale) * (toleranceE6 * lonScale);
+		boolean[] keep = new boolean[n];
+		int[] stack = new int[2 * n];
+		int top = 0;
+		int kept = 2;
+
+		keep[0] = keep[n - 1] = true;
+		stack[top++] = 0;
+		stack[top++] = n - 1;
+
+		while (top > 0) {
+			int last = stack[--top];
+			int first = stack[--top];
+			double maxDist = -1;
+			int farthest = -1;
+
+			for (int i = first + 1; i < last; i++) {
+				double d = distanceSquared(seg, i, first, last, lonScale);
+				if (d > maxDist) {
+					maxDist = d;
+					farthest = i;
+				}
+			}
+
+			if (farthest != -1 && maxDist > tolSquared) {
+				keep[farthest] = true;
+				kept++;
+				stack[top++] = first;
+				stack[top++] = farthest;
+				stack[top++] = farthest;
+				stack[top++] = last;
+			}
+		}
+
+		return copy(seg, keep, kept);
+	}
+
+	/**
+	 * Squared distance from point p to the line segment from point a to point b
+	 */
+	private static double distanceSquared(Segment seg, int p, int a, int b, double lonScale) {
+		double ax = seg.getLongitudeE6(a) * lonScale;
+		double ay = seg.getLatitudeE6(a);
+		double dx = seg.getLongitudeE6(b) * lonScale - ax;
+		double dy = seg.getLatitudeE6(b) - ay;
+		double px = seg.getLongitudeE6(p) * lonScale - ax;
+		double py = seg.getLatitudeE6(p) - ay;
+		double lengthSquared = dx * dx + dy * dy;
+		double t = (lengthSquared == 0) ? 0 : (px * dx + py * dy) / lengthSquared;
+
+		t = Math.max(0, Math.min(1, t));
+		double ex = px - t * dx;
+		double ey = py - t * dy;
+		return ex * ex + ey * ey;
+	}
+
+	/**
+	 * Copy points of segment that are marked to be kept (all points if keep is null)
+	 */
+	private static Segment copy(Segment seg, boolean[] keep, int count) {
+		Segment result = new Segment(count);
+
+		for (int i = 0; i < seg.size(); i++) {
+			if (keep == null || keep[i])
+				result.addPointE6(seg.getLatitudeE6(i), seg.getLongitudeE6(i));
+		}
+
+		return result;
+	}
+}
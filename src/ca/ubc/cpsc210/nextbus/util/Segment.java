@@ -1,26 +1,153 @@
 package ca.ubc.cpsc210.nextbus.util;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import ca.ubc.cpsc210.nextbus.model.BusRoute;
 
 /**
  * A segment that forms part of a bus route
+ * 
+ * Points are packed into arrays of latitudes and longitudes in
+ * microdegrees (degrees * 1E6) rather than held as LatLon objects; 
+ * use size() and the indexed accessors to visit points without allocating.
  * @see BusRoute
  */
 public class Segment {
-	private List<LatLon> points;
+	private static final int DEFAULT_CAPACITY = 16;
+	private int[] latsE6;
+	private int[] lonsE6;
+	private int size;
 
 	public Segment() {
-		points = new ArrayList<LatLon>();
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Constructor
+	 * @param capacity  number of points segment can hold before its arrays must grow
+	 */
+	public Segment(int capacity) {
+		latsE6 = new int[Math.max(1, capacity)];
+		lonsE6 = new int[Math.max(1, capacity)];
+		size = 0;
 	}
 
 	public void addPoint(LatLon pt) {
-		points.add(pt);
+		addPoint(pt.getLatitude(), pt.getLongitude());
+	}
+
+	/**
+	 * Add point to end of segment
+	 * @param lat  latitude of point
+	 * @param lon  longitude of point
+	 */
+	public void addPoint(double lat, double lon) {
+		addPointE6((int) Math.round(lat * 1E6), (int) Math.round(lon * 1E6));
+	}
+
+	/**
+	 * Add point to end of segment
+	 * @param latE6  latitude of point in microdegrees
+	 * @param lonE6  longitude of point in microdegrees
+	 */
+	public void addPointE6(int latE6, int lonE6) {
+		if (size == latsE6.length) {
+			latsE6 = copyOf(latsE6, size * 2);
+			lonsE6 = copyOf(lonsE6, size * 2);
+		}
+		
+		latsE6[size] = latE6;
+		lonsE6[size] = lonE6;
+		size++;
+	}
+
+	/**
+	 * Release unused capacity once all points have been added
+	 */
+	public void trimToSize() {
+		if (size < latsE6.length) {
+			latsE6 = copyOf(latsE6, size);
+			lonsE6 = copyOf(lonsE6, size);
+		}
+	}
+
+	/**
+	 * Number of points on segment
+	 * @return number of points
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Latitude of point in microdegrees
+	 * @param index  index of point (0 <= index < size())
+	 * @return latitude * 1E6
+	 * @throws IndexOutOfBoundsException  if index is not that of a point added
+	 */
+	public int getLatitudeE6(int index) {
+		checkIndex(index);
+		return latsE6[index];
+	}
+
+	/**
+	 * Longitude of point in microdegrees
+	 * @param index  index of point (0 <= index < size())
+	 * @return longitude * 1E6
+	 * @throws IndexOutOfBoundsException  if index is not that of a point added
+	 */
+	public int getLongitudeE6(int index) {
+		checkIndex(index);
+		return lonsE6[index];
 	}
 
+	/**
+	 * Latitude of point in degrees
+	 * @param index  index of point (0 <= index < size())
+	 * @return latitude
+	 * @throws IndexOutOfBoundsException  if index is not that of a point added
+	 */
+	public double getLatitude(int index) {
+		checkIndex(index);
+		return latsE6[index] / 1E6;
+	}
+
+	/**
+	 * Longitude of point in degrees
+	 * @param index  index of point (0 <= index < size())
+	 * @return longitude
+	 * @throws IndexOutOfBoundsException  if index is not that of a point added
+	 */
+	public double getLongitude(int index) {
+		checkIndex(index);
+		return lonsE6[index] / 1E6;
+	}
+
+	/**
+	 * Produces points of segment as LatLon objects, allocating one per point
+	 * @return unmodifiable list of points, in order
+	 * @deprecated points are no longer held as objects; visit them with size()
+	 * and the indexed accessors instead
+	 */
+	@Deprecated
 	public List<LatLon> getPoints() {
-	    return points;
+		List<LatLon> points = new ArrayList<LatLon>(size);
+		for (int i = 0; i < size; i++)
+			points.add(new LatLon(getLatitude(i), getLongitude(i)));
+		return Collections.unmodifiableList(points);
+	}
+
+	// arrays have spare capacity beyond size, so index must be checked against size
+	private void checkIndex(int index) {
+		if (index < 0 || index >= size)
+			throw new IndexOutOfBoundsException("Point " + index + " of " + size);
+	}
+
+	private static int[] copyOf(int[] values, int length) {
+		int[] copy = new int[length];
+		System.arraycopy(values, 0, copy, 0, Math.min(values.length, length));
+		return copy;
 	}
 }
@@ -0,0 +1,403 @@
+package ca.ubc.cpsc210.nextbus.util;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Spatial index over the segments of a bus route, answering "which point of
+ * the route is nearest to this location?" and "where is the point this far
+ * along a segment?" without visiting every point of the route.
+ *
+ * Points are projected onto a flat plane in metres (accurate to well under a
+ * metre across a city).  The plane is divided into a uniform grid of square
+ * cells, and each edge (the line between two consecutive points of a segment)
+ * is listed in every cell its bounding box overlaps.  A nearest-point query
+ * searches rings of cells outward from the query's cell, so only edges near
+ * the query are examined.  Distance along each segment is precomputed at every
+ * point, so a position along a segment is found by binary search.
+ *
+ * Immutable once built, so it can be shared between threads.
+ */
+public class SegmentIndex {
+	/**
+	 * Preferred width of a grid cell in metres
+	 */
+	private static final double CELL_SIZE = 100;
+
+	/**
+	 * Largest number of cells in grid; cells are made wider for very large routes
+	 */
+	private static final int MAX_CELLS = 1 << 16;
+
+	/**
+	 * Largest distance (m) between first and last points of a segment that forms a loop
+	 */
+	private static final double LOOP_GAP = 50;
+
+	private List<Segment> segments;
+
+	// projection from lat/lon to plane
+	private double originLat;
+	private double originLon;
+	private double kx;
+	private double ky;
+
+	// projected points of all segments, one after another
+	private double[] xs;
+	private double[] ys;
+	private double[] along;			// distance of each point from start of its segment
+	private int[] segmentStart;		// index of first point of each segment (plus one past last point)
+
+	// grid of edges, each edge identified by index of its first point
+	private double cellSize;
+	private int columns;
+	private int rows;
+	private int[] cellStart;		// cell c holds cellEdges[cellStart[c]] .. cellEdges[cellStart[c + 1] - 1]
+	private int[] cellEdges;
+
+	/**
+	 * Constructor - builds index
+	 * @param segments  the segments of a route
+	 */
+	public SegmentIndex(List<Segment> segments) {
+		this.segments = segments;
+		project();
+		buildGrid();
+	}
+
+	/**
+	 * Number of segments indexed
+	 * @return number of segments
+	 */
+	public int getSegmentCount() {
+		return segments.size();
+	}
+
+	/**
+	 * Gets a segment
+	 * @param segment  index of segment
+	 * @return the segment
+	 */
+	public Segment getSegment(int segment) {
+		return segments.get(segment);
+	}
+
+	/**
+	 * Length of a segment
+	 * @param segment  index of segment
+	 * @return length in metres
+	 */
+	public double getLength(int segment) {
+		int last = segmentStart[segment + 1] - 1;
+		return last < segmentStart[segment] ? 0 : along[last];
+	}
+
+	/**
+	 * Determine if a segment forms a loop (ends where it starts), so that travel
+	 * continues from its end back to its start
+	 * @param segment  index of segment
+	 * @return true if segment is a loop, false otherwise
+	 */
+	public boolean isLoop(int segment) {
+		int first = segmentStart[segment];
+		int last = segmentStart[segment + 1] - 1;
+		return last > first
+				&& Math.hypot(xs[last] - xs[first], ys[last] - ys[first]) <= LOOP_GAP;
+	}
+
+	/**
+	 * Find the point of any segment that is nearest to a location
+	 * @param lat          latitude of location
+	 * @param lon          longitude of location
+	 * @param maxDistance  largest distance (m) of interest
+	 * @return nearest point, or null if no segment passes within maxDistance
+	 */
+	public Match nearest(double lat, double lon, double maxDistance) {
+		return nearest(lat, lon, maxDistance, -1);
+	}
+
+	/**
+	 * Find the point of a segment that is nearest to a location
+	 * @param lat          latitude of location
+	 * @param lon          longitude of location
+	 * @param maxDistance  largest distance (m) of interest
+	 * @param segment      index of segment to search, or -1 to search all segments
+	 * @return nearest point, or null if no segment passes within maxDistance
+	 */
+	public Match nearest(double lat, double lon, double maxDistance, int segment) {
+		if (cellEdges.length == 0)
+			return null;
+
+		double px = x(lon);
+		double py = y(lat);
+		int col = clamp((int) Math.floor(px / cellSize), columns);
+		int row = clamp((int) Math.floor(py / cellSize), rows);
+		int maxRing = Math.max(columns, rows);
+
+		int bestEdge = -1;
+		double bestT = 0;
+		double bestSquared = maxDistance * maxDistance;
+
+		for (int ring = 0; ring <= maxRing; ring++) {
+			// every edge not yet examined is at least this far away
+			double reach = Math.max(0, (ring - 1) * cellSize + distanceToCellEdge(px, py, col, row));
+			if (reach * reach > bestSquared)
+				break;
+
+			for (int r = row - ring; r <= row + ring; r++) {
+				if (r < 0 || r >= rows)
+					continue;
+				boolean edgeRow = (r == row - ring || r == row + ring);
+				int step = edgeRow ? 1 : 2 * ring;
+
+				for (int c = col - ring; c <= col + ring; c += Math.max(1, step)) {
+					if (c < 0 || c >= columns)
+						continue;
+					int cell = r * columns + c;
+
+					for (int k = cellStart[cell]; k < cellStart[cell + 1]; k++) {
+						int e = cellEdges[k];
+						if (segment >= 0 && (e < segmentStart[segment] || e >= segmentStart[segment + 1]))
+							continue;
+
+						double ax = xs[e];
+						double ay = ys[e];
+						double dx = xs[e + 1] - ax;
+						double dy = ys[e + 1] - ay;
+						double lengthSquared = dx * dx + dy * dy;
+						double t = (lengthSquared == 0) ? 0 : ((px - ax) * dx + (py - ay) * dy) / lengthSquared;
+						t = Math.max(0, Math.min(1, t));
+						double ex = ax + t * dx - px;
+						double ey = ay + t * dy - py;
+						double distSquared = ex * ex + ey * ey;
+
+						if (distSquared < bestSquared || (bestEdge == -1 && distSquared == bestSquared)) {
+							bestSquared = distSquared;
+							bestEdge = e;
+							bestT = t;
+						}
+					}
+				}
+			}
+		}
+
+		if (bestEdge == -1)
+			return null;
+
+		int seg = segmentOf(bestEdge);
+		double distanceAlong = along[bestEdge] + bestT * (along[bestEdge + 1] - along[bestEdge]);
+		return new Match(seg, bestEdge - segmentStart[seg], bestT, Math.sqrt(bestSquared), distanceAlong);
+	}
+
+	/**
+	 * Find point at given distance along a segment
+	 * @param segment        index of segment
+	 * @param distanceAlong  distance (m) from start of segment; clamped to length of segment
+	 * @return the point
+	 */
+	public LatLon pointAt(int segment, double distanceAlong) {
+		int first = segmentStart[segment];
+		int last = segmentStart[segment + 1] - 1;
+		Segment seg = segments.get(segment);
+
+		if (last <= first || distanceAlong <= 0)
+			return new LatLon(seg.getLatitude(0), seg.getLongitude(0));
+		if (distanceAlong >= along[last])
+			return new LatLon(seg.getLatitude(last - first), seg.getLongitude(last - first));
+
+		// last point whose distance along is no more than distanceAlong
+		int pos = Arrays.binarySearch(along, first, last + 1, distanceAlong);
+		int p = (pos >= 0) ? pos : -pos - 2;
+		while (p < last - 1 && along[p + 1] == distanceAlong)
+			p++;
+
+		double length = along[p + 1] - along[p];
+		double t = (length == 0) ? 0 : (distanceAlong - along[p]) / length;
+		int i = p - first;
+		double lat = seg.getLatitude(i) + t * (seg.getLatitude(i + 1) - seg.getLatitude(i));
+		double lon = seg.getLongitude(i) + t * (seg.getLongitude(i + 1) - seg.getLongitude(i));
+		return new LatLon(lat, lon);
+	}
+
+	/**
+	 * Project all points onto plane and measure distance along each segment
+	 */
+	private void project() {
+		int count = 0;
+		double minLat = Double.MAX_VALUE, maxLat = -Double.MAX_VALUE;
+		double minLon = Double.MAX_VALUE, maxLon = -Double.MAX_VALUE;
+
+		segmentStart = new int[segments.size() + 1];
+		for (int k = 0; k < segments.size(); k++) {
+			Segment seg = segments.get(k);
+			segmentStart[k] = count;
+			count += seg.size();
+			for (int i = 0; i < seg.size(); i++) {
+				minLat = Math.min(minLat, seg.getLatitude(i));
+				maxLat = Math.max(maxLat, seg.getLatitude(i));
+				minLon = Math.min(minLon, seg.getLongitude(i));
+				maxLon = Math.max(maxLon, seg.getLongitude(i));
+			}
+		}
+		segmentStart[segments.size()] = count;
+
+		originLat = (count == 0) ? 0 : minLat;
+		originLon = (count == 0) ? 0 : minLon;
+		ky = GeoMath.METRES_PER_DEGREE;
+		kx = ky * Math.cos(Math.toRadians(count == 0 ? 0 : (minLat + maxLat) / 2));
+
+		xs = new double[count];
+		ys = new double[count];
+		along = new double[count];
+		for (int k = 0; k < segments.size(); k++) {
+			Segment seg = segments.get(k);
+			int base = segmentStart[k];
+			for (int i = 0; i < seg.size(); i++) {
+				int p = base + i;
+				xs[p] = x(seg.getLongitude(i));
+				ys[p] = y(seg.getLatitude(i));
+				if (i > 0)
+					along[p] = along[p - 1] + Math.hypot(xs[p] - xs[p - 1], ys[p] - ys[p - 1]);
+			}
+		}
+	}
+
+	/**
+	 * List each edge in the grid cells its bounding box overlaps
+	 */
+	private void buildGrid() {
+		double width = 0, height = 0;
+		for (int p = 0; p < xs.length; p++) {
+			width = Math.max(width, xs[p]);
+			height = Math.max(height, ys[p]);
+		}
+
+		cellSize = CELL_SIZE;
+		while (((long) (width / cellSize) + 1) * ((long) (height / cellSize) + 1) > MAX_CELLS)
+			cellSize *= 2;
+		columns = (int) (width / cellSize) + 1;
+		rows = (int) (height / cellSize) + 1;
+
+		// first pass counts edges in each cell, second pass fills them in
+		cellStart = new int[columns * rows + 1];
+		for (int pass = 0; pass < 2; pass++) {
+			int[] fill = (pass == 0) ? null : Arrays.copyOf(cellStart, cellStart.length - 1);
+
+			for (int k = 0; k < segments.size(); k++) {
+				for (int e = segmentStart[k]; e < segmentStart[k + 1] - 1; e++) {
+					int c0 = clamp((int) (Math.min(xs[e], xs[e + 1]) / cellSize), columns);
+					int c1 = clamp((int) (Math.max(xs[e], xs[e + 1]) / cellSize), columns);
+					int r0 = clamp((int) (Math.min(ys[e], ys[e + 1]) / cellSize), rows);
+					int r1 = clamp((int) (Math.max(ys[e], ys[e + 1]) / cellSize), rows);
+
+					for (int r = r0; r <= r1; r++) {
+						for (int c = c0; c <= c1; c++) {
+							int cell = r * columns + c;
+							if (pass == 0)
+								cellStart[cell + 1]++;
+							else
+								cellEdges[fill[cell]++] = e;
+						}
+					}
+				}
+			}
+
+			if (pass == 0) {
+				for (int cell = 0; cell < columns * rows; cell++)
+					cellStart[cell + 1] += cellStart[cell];
+				cellEdges = new int[cellStart[columns * rows]];
+			}
+		}
+	}
+
+	/**
+	 * Distance from point to nearest side of its own cell (0 if point lies outside grid)
+	 */
+	private double distanceToCellEdge(double px, double py, int col, int row) {
+		double left = px - col * cellSize;
+		double bottom = py - row * cellSize;
+		double d = Math.min(Math.min(left, cellSize - left), Math.min(bottom, cellSize - bottom));
+		return Math.max(0, d);
+	}
+
+	private int segmentOf(int point) {
+		int pos = Arrays.binarySearch(segmentStart, point);
+		if (pos < 0)
+			return -pos - 2;
+		// skip empty segments that start at the same point
+		while (pos + 1 < segmentStart.length - 1 && segmentStart[pos + 1] == point)
+			pos++;
+		return pos;
+	}
+
+	private double x(double lon) {
+		return (lon - originLon) * kx;
+	}
+
+	private double y(double lat) {
+		return (lat - originLat) * ky;
+	}
+
+	private static int clamp(int value, int size) {
+		return Math.max(0, Math.min(size - 1, value));
+	}
+
+	/**
+	 * Point of a route nearest to a location
+	 */
+	public static class Match {
+		private int segment;
+		private int edge;
+		private double fraction;
+		private double distance;
+		private double distanceAlong;
+
+		Match(int segment, int edge, double fraction, double distance, double distanceAlong) {
+			this.segment = segment;
+			this.edge = edge;
+			this.fraction = fraction;
+			this.distance = distance;
+			this.distanceAlong = distanceAlong;
+		}
+
+		/**
+		 * Gets index of segment on which point lies
+		 * @return segment index
+		 */
+		public int getSegment() {
+			return segment;
+		}
+
+		/**
+		 * Gets index (within segment) of first point of edge on which point lies
+		 * @return edge index
+		 */
+		public int getEdge() {
+			return edge;
+		}
+
+		/**
+		 * Gets how far along its edge the point lies
+		 * @return fraction between 0 (first point of edge) and 1 (second point)
+		 */
+		public double getFraction() {
+			return fraction;
+		}
+
+		/**
+		 * Gets distance from location to point
+		 * @return distance in metres
+		 */
+		public double getDistance() {
+			return distance;
+		}
+
+		/**
+		 * Gets distance of point from start of its segment, measured along the segment
+		 * @return distance along segment in metres
+		 */
+		public double getDistanceAlong() {
+			return distanceAlong;
+		}
+	}
+}
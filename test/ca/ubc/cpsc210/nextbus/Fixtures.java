@@ -0,0 +1,142 @@
+package ca.ubc.cpsc210.nextbus;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipInputStream;
+
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+
+import ca.ubc.cpsc210.nextbus.model.BusRoute;
+import ca.ubc.cpsc210.nextbus.translink.KMLParser;
+import ca.ubc.cpsc210.nextbus.translink.XMLReaderPool;
+
+/**
+ * Reads files from the fixtures directory at the root of the project.  Tests
+ * and benchmarks are run with the project root as working directory.
+ */
+public class Fixtures {
+	private static final File ROOT = new File("fixtures");
+	private static final int BUFFER_SIZE = 4096;
+
+	private Fixtures() {
+	}
+
+	/**
+	 * Gets a fixture file
+	 * @param path  path of file relative to fixtures directory
+	 * @return the file
+	 */
+	public static File file(String path) {
+		return new File(ROOT, path);
+	}
+
+	/**
+	 * Read a fixture file
+	 * @param path  path of file relative to fixtures directory
+	 * @return contents of file
+	 * @throws IOException  if file cannot be read
+	 */
+	public static byte[] read(String path) throws IOException {
+		return readFully(new FileInputStream(file(path)));
+	}
+
+	/**
+	 * Read the KML document held in a KMZ fixture file (its first entry)
+	 * @param path  path of KMZ file relative to fixtures directory
+	 * @return the uncompressed KML document
+	 * @throws IOException  if file cannot be read
+	 */
+	public static byte[] readKML(String path) throws IOException {
+		ZipInputStream zis = new ZipInputStream(new FileInputStream(file(path)));
+		if (zis.getNextEntry() == null) {
+			zis.close();
+			throw new IOException("No entry in " + path);
+		}
+		return readFully(zis);
+	}
+
+	/**
+	 * Read a route from a KMZ fixture file
+	 * @param path  path of KMZ file relative to fixtures directory
+	 * @param name  name of route
+	 * @return route with the segments held in file
+	 * @throws Exception  if file cannot be read or parsed
+	 */
+	public static BusRoute readRoute(String path, String name) throws Exception {
+		BusRoute route = new BusRoute(name);
+		XMLReaderPool pool = XMLReaderPool.getInstance();
+		XMLReader reader = pool.acquire();
+		reader.setContentHandler(new KMLParser(route));
+		reader.parse(new InputSource(new ByteArrayInputStream(readKML(path))));
+		pool.release(reader);
+		return route;
+	}
+
+	/**
+	 * Read the fixes of a vehicle from a trace fixture file: one fix per line,
+	 * as seconds since first fix, latitude and longitude separated by commas.
+	 * Lines starting with # are comments.
+	 * @param path  path of trace file relative to fixtures directory
+	 * @return fixes in order, each as {seconds, latitude, longitude}
+	 * @throws IOException  if file cannot be read
+	 */
+	public static List<double[]> readTrace(String path) throws IOException {
+		List<double[]> fixes = new ArrayList<double[]>();
+		BufferedReader in = new BufferedReader(new FileReader(file(path)));
+
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				if (line.length() == 0 || line.startsWith("#"))
+					continue;
+				String[] fields = line.split(",");
+				fixes.add(new double[] { Double.parseDouble(fields[0]),
+						Double.parseDouble(fields[1]), Double.parseDouble(fields[2]) });
+			}
+		} finally {
+			in.close();
+		}
+
+		return fixes;
+	}
+
+	/**
+	 * Count occurrences of an element in an XML document
+	 * @param xml   the document (UTF-8)
+	 * @param name  name of element
+	 * @return number of start tags of element
+	 */
+	public static int countElements(byte[] xml, String name) {
+		String doc = new String(xml, Charset.forName("UTF-8"));
+		String tag = "<" + name + ">";
+		int count = 0;
+		for (int pos = doc.indexOf(tag); pos != -1; pos = doc.indexOf(tag, pos + tag.length()))
+			count++;
+		return count;
+	}
+
+	private static byte[] readFully(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(BUFFER_SIZE);
+		byte[] buffer = new byte[BUFFER_SIZE];
+
+		try {
+			int count;
+			while ((count = in.read(buffer)) != -1)
+				out.write(buffer, 0, count);
+		} finally {
+			in.close();
+		}
+
+		return out.toByteArray();
+	}
+}
@@ -0,0 +1,51 @@
+package ca.ubc.cpsc210.nextbus.gtfs;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Builds a GTFS feed (zip file) from the lines of its files
+ */
+public class FeedBuilder {
+	private Map<String, StringBuilder> files = new LinkedHashMap<String, StringBuilder>();
+
+	/**
+	 * Add lines to a file of the feed, creating the file if necessary
+	 * @param name   name of file, for example "stops.txt"
+	 * @param lines  lines to add, the first of a new file being its header
+	 * @return this builder
+	 */
+	public FeedBuilder add(String name, String... lines) {
+		StringBuilder file = files.get(name);
+		if (file == null) {
+			file = new StringBuilder();
+			files.put(name, file);
+		}
+		for (String next : lines)
+			file.append(next).append("\r\n");
+		return this;
+	}
+
+	/**
+	 * Write feed
+	 * @param zip  file to which feed is written
+	 * @throws IOException  when file cannot be written
+	 */
+	public void write(File zip) throws IOException {
+		ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zip));
+		try {
+			for (Map.Entry<String, StringBuilder> next : files.entrySet()) {
+				out.putNextEntry(new ZipEntry(next.getKey()));
+				out.write(next.getValue().toString().getBytes("UTF-8"));
+				out.closeEntry();
+			}
+		} finally {
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,274 @@
+package ca.ubc.cpsc210.nextbus.gtfs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TimeZone;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ca.ubc.cpsc210.nextbus.model.BusRoute;
+import ca.ubc.cpsc210.nextbus.model.BusStop;
+
+/**
+ * Imports a small synthetic feed with GtfsImporter and queries it through
+ * GtfsStore.  Weekday trips run Monday to Friday, except on the holiday of
+ * Monday 3 July 2017, when one holiday trip runs instead.
+ */
+public class GtfsStoreTest {
+	private static final TimeZone VANCOUVER = TimeZone.getTimeZone("America/Vancouver");
+	private static final int UBC_LOOP = 51479;
+	private static final int MAIN_ST = 50001;
+
+	private File feed;
+	private File storeFile;
+	private GtfsStore store;
+
+	@Before
+	public void setUp() throws IOException {
+		feed = File.createTempFile("feed", ".zip");
+		storeFile = File.createTempFile("schedule", ".gtf");
+
+		new FeedBuilder()
+			.add("routes.txt",
+				"route_id,route_short_name,route_long_name",
+				"R99,99,\"UBC, B-Line\"",
+				"R14,14,Hastings",
+				"RN15,N15,Night")
+			.add("calendar.txt",
+				"service_id,monday,tuesday,wednesday,thursday,friday,saturday,sunday,start_date,end_date",
+				"WK,1,1,1,1,1,0,0,20170101,20171231",
+				"SU,0,0,0,0,0,0,1,20170101,20171231")
+			.add("calendar_dates.txt",
+				"service_id,date,exception_type",
+				"WK,20170703,2",
+				"HOL,20170703,1")
+			.add("trips.txt",
+				"route_id,service_id,trip_id,trip_headsign",
+				"R99,WK,T1,\"UBC \"\"Express\"\"\"",
+				"R99,WK,T2,UBC",
+				"R14,WK,T3,Downtown",
+				"R99,HOL,T4,UBC Holiday",
+				"RN15,WK,T5,Night",
+				"R99,SU,T6,UBC Sunday")
+			.add("stops.txt",
+				"\uFEFFstop_id,stop_code,stop_name,stop_lat,stop_lon",
+				"S1A,51479,\"UBC Loop, Bay 7\",49.266300,-123.247000",
+				"S1B,51479,UBC Loop Bay 7 Platform B,49.266400,-123.247100",
+				"S2,50001,Main St,49.270000,-123.100000",
+				"S3,,Depot,49.000000,-123.000000")
+			.add("stop_times.txt",
+				"trip_id,arrival_time,departure_time,stop_id,stop_sequence",
+				"T1,08:00:00,08:00:00,S1A,1",
+				"T1,08:20:00,08:20:00,S2,2",
+				"T2,08:10:00,08:10:00,S1B,1",
+				"T3,08:05:00,08:05:00,S1A,1",
+				"T3,08:25:00,,S2,2",
+				"T3,08:30:00,08:30:00,S3,3",
+				"T4,09:00:00,09:00:00,S1A,1",
+				"T5,24:30:00,24:30:00,S1A,1",
+				"T6,08:00:00,08:00:00,S1A,1")
+			.write(feed);
+
+		new GtfsImporter(feed).importTo(storeFile);
+		store = GtfsStore.open(storeFile);
+	}
+
+	@After
+	public void tearDown() {
+		feed.delete();
+		storeFile.delete();
+		new File(storeFile.getPath() + ".tmp").delete();
+	}
+
+	@Test
+	public void testStopsMergedByStopCode() {
+		assertEquals(2, store.getStopCount());
+		assertTrue(store.hasStop(MAIN_ST));
+		assertFalse(store.hasStop(99999));
+		assertNull(store.getBusStop(99999));
+
+		BusStop stop = store.getBusStop(UBC_LOOP);
+		assertEquals("UBC Loop, Bay 7", stop.getLocationDesc());
+		assertEquals(49.2663, stop.getLatLon().getLatitude(), 1E-9);
+		assertEquals(-123.247, stop.getLatLon().getLongitude(), 1E-9);
+		assertEquals(new HashSet<String>(Arrays.asList("099", "014", "N15")), namesOf(stop.getRoutes()));
+	}
+
+	@Test
+	public void testWeekdayDepartures() {
+		List<ScheduledDeparture> departures = store.getDepartures(UBC_LOOP,
+				at(2017, Calendar.JULY, 11, 7, 0), at(2017, Calendar.JULY, 11, 10, 0));
+
+		assertEquals(3, departures.size());
+		assertDeparture(departures.get(0), "099", "UBC \"Express\"", at(2017, Calendar.JULY, 11, 8, 0));
+		assertDeparture(departures.get(1), "014", "Downtown", at(2017, Calendar.JULY, 11, 8, 5));
+		assertDeparture(departures.get(2), "099", "UBC", at(2017, Calendar.JULY, 11, 8, 10));
+
+		// blank departure time dropped; stop without a stop code not imported
+		departures = store.getDepartures(MAIN_ST, at(2017, Calendar.JULY, 11, 7, 0), at(2017, Calendar.JULY, 11, 10, 0));
+		assertEquals(1, departures.size());
+		assertEquals(at(2017, Calendar.JULY, 11, 8, 20), departures.get(0).getTime());
+	}
+
+	@Test
+	public void testWindowBoundsAndLimitPerRoute() {
+		List<ScheduledDeparture> departures = store.getDepartures(UBC_LOOP,
+				at(2017, Calendar.JULY, 11, 8, 0), at(2017, Calendar.JULY, 11, 8, 5));
+		assertEquals(2, departures.size());
+
+		departures = store.getDepartures(UBC_LOOP,
+				at(2017, Calendar.JULY, 11, 7, 0), at(2017, Calendar.JULY, 11, 10, 0), 1);
+		assertEquals(2, departures.size());
+		assertDeparture(departures.get(0), "099", "UBC \"Express\"", at(2017, Calendar.JULY, 11, 8, 0));
+		assertDeparture(departures.get(1), "014", "Downtown", at(2017, Calendar.JULY, 11, 8, 5));
+
+		assertTrue(store.getDepartures(UBC_LOOP, at(2017, Calendar.JULY, 11, 10, 0),
+				at(2017, Calendar.JULY, 11, 7, 0)).isEmpty());
+		assertTrue(store.getDepartures(99999, at(2017, Calendar.JULY, 11, 7, 0),
+				at(2017, Calendar.JULY, 11, 10, 0)).isEmpty());
+	}
+
+	@Test
+	public void testCalendarExceptions() {
+		// weekday service removed and holiday service added on Monday 3 July
+		List<ScheduledDeparture> departures = store.getDepartures(UBC_LOOP,
+				at(2017, Calendar.JULY, 3, 7, 0), at(2017, Calendar.JULY, 3, 10, 0));
+
+		assertEquals(1, departures.size());
+		assertDeparture(departures.get(0), "099", "UBC Holiday", at(2017, Calendar.JULY, 3, 9, 0));
+
+		// outside the calendar's dates
+		assertTrue(store.getDepartures(UBC_LOOP, at(2018, Calendar.JANUARY, 2, 7, 0),
+				at(2018, Calendar.JANUARY, 2, 10, 0)).isEmpty());
+	}
+
+	@Test
+	public void testTimeAfterMidnightOnPreviousServiceDay() {
+		// Friday's 24:30:00 trip leaves at 00:30 on Saturday, when weekday service does not run
+		List<ScheduledDeparture> departures = store.getDepartures(UBC_LOOP,
+				at(2017, Calendar.JULY, 15, 0, 0), at(2017, Calendar.JULY, 15, 1, 0));
+
+		assertEquals(1, departures.size());
+		assertDeparture(departures.get(0), "N15", "Night", at(2017, Calendar.JULY, 15, 0, 30));
+
+		// Saturday's service day has no such trip
+		assertTrue(store.getDepartures(UBC_LOOP, at(2017, Calendar.JULY, 16, 0, 0),
+				at(2017, Calendar.JULY, 16, 1, 0)).isEmpty());
+	}
+
+	@Test
+	public void testServiceDaysWhenClocksChange() {
+		// GTFS times count from noon less 12 hours, which keeps 08:00:00 at 08:00 local time
+		List<ScheduledDeparture> departures = store.getDepartures(UBC_LOOP,
+				at(2017, Calendar.MARCH, 12, 7, 0), at(2017, Calendar.MARCH, 12, 10, 0));
+		assertEquals(1, departures.size());
+		assertDeparture(departures.get(0), "099", "UBC Sunday", at(2017, Calendar.MARCH, 12, 8, 0));
+
+		departures = store.getDepartures(UBC_LOOP,
+				at(2017, Calendar.NOVEMBER, 5, 7, 0), at(2017, Calendar.NOVEMBER, 5, 10, 0));
+		assertEquals(1, departures.size());
+		assertDeparture(departures.get(0), "099", "UBC Sunday", at(2017, Calendar.NOVEMBER, 5, 8, 0));
+	}
+
+	@Test
+	public void testParseTime() {
+		assertEquals(8 * 3600 + 5 * 60 + 9, GtfsImporter.parseTime("08:05:09"));
+		assertEquals(8 * 3600 + 5 * 60 + 9, GtfsImporter.parseTime(" 8:05:09"));
+		assertEquals(24 * 3600 + 30 * 60, GtfsImporter.parseTime("24:30:00"));
+		assertEquals(-1, GtfsImporter.parseTime(""));
+		assertEquals(-1, GtfsImporter.parseTime("08:05"));
+		assertEquals(-1, GtfsImporter.parseTime("08:05:"));
+		assertEquals(-1, GtfsImporter.parseTime("8h05:00"));
+	}
+
+	@Test
+	public void testTruncatedStoreRefused() throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(storeFile, "rw");
+		try {
+			raf.setLength(raf.length() - 8);
+		} finally {
+			raf.close();
+		}
+		assertRefused();
+	}
+
+	@Test
+	public void testStaleMagicRefused() throws IOException {
+		writeInt(0, 0x47544630);	// "GTF0"
+		assertRefused();
+	}
+
+	@Test
+	public void testNegativeCountRefused() throws IOException {
+		writeInt(4, -1);	// stop count
+		assertRefused();
+	}
+
+	@Test
+	public void testIndexOutOfRangeRefused() throws IOException {
+		// name of first stop
+		writeInt(StoreLayout.HEADER_SIZE + 12, 1000);
+		assertRefused();
+	}
+
+	@Test
+	public void testDepartureRangeOutOfRangeRefused() throws IOException {
+		// departure count of second stop
+		writeInt(StoreLayout.HEADER_SIZE + StoreLayout.STOP_SIZE + 28, 1000);
+		assertRefused();
+	}
+
+	private void assertRefused() {
+		try {
+			GtfsStore.open(storeFile);
+			fail("damaged store opened");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	private void writeInt(long position, int value) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(storeFile, "rw");
+		try {
+			raf.seek(position);
+			raf.writeInt(value);
+		} finally {
+			raf.close();
+		}
+	}
+
+	private static void assertDeparture(ScheduledDeparture departure, String route, String destination, long time) {
+		assertEquals(route, departure.getRoute().getName());
+		assertEquals(destination, departure.getDestination());
+		assertEquals(time, departure.getTime());
+	}
+
+	private static Set<String> namesOf(Set<BusRoute> routes) {
+		Set<String> names = new HashSet<String>();
+		for (BusRoute next : new ArrayList<BusRoute>(routes))
+			names.add(next.getName());
+		return names;
+	}
+
+	private static long at(int year, int month, int day, int hour, int minute) {
+		Calendar cal = Calendar.getInstance(VANCOUVER);
+		cal.clear();
+		cal.set(year, month, day, hour, minute, 0);
+		return cal.getTimeInMillis();
+	}
+}
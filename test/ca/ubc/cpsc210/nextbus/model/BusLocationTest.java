@@ -0,0 +1,77 @@
+package ca.ubc.cpsc210.nextbus.model;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+import org.junit.Test;
+
+/**
+ * Tests conversion of the time of day Translink records for a bus location
+ */
+public class BusLocationTest {
+	private static final TimeZone VANCOUVER = TimeZone.getTimeZone("America/Vancouver");
+
+	@Test
+	public void testTwelveAndTwentyFourHourTimes() {
+		long now = at(2017, Calendar.JULY, 14, 10, 0, 0);
+
+		assertEquals(at(2017, Calendar.JULY, 14, 9, 30, 5), BusLocation.parseRecordedTime("9:30:05 am", now));
+		assertEquals(at(2017, Calendar.JULY, 14, 9, 30, 5), BusLocation.parseRecordedTime("09:30:05", now));
+		assertEquals(at(2017, Calendar.JULY, 14, 0, 15, 0), BusLocation.parseRecordedTime("12:15 AM ", now));
+		assertEquals(at(2017, Calendar.JULY, 14, 10, 45, 0), BusLocation.parseRecordedTime("10:45 am", now));
+	}
+
+	@Test
+	public void testTimeAheadOfClockSkewIsYesterday() {
+		long now = at(2017, Calendar.JULY, 14, 10, 0, 0);
+
+		assertEquals(at(2017, Calendar.JULY, 13, 22, 30, 0), BusLocation.parseRecordedTime("10:30 pm", now));
+		assertEquals(at(2017, Calendar.JULY, 13, 11, 0, 1), BusLocation.parseRecordedTime("11:00:01", now));
+	}
+
+	@Test
+	public void testMidnightRollover() {
+		long justAfter = at(2017, Calendar.JULY, 14, 0, 10, 0);
+		assertEquals(at(2017, Calendar.JULY, 13, 23, 58, 30),
+				BusLocation.parseRecordedTime("11:58:30 pm", justAfter));
+
+		long justBefore = at(2017, Calendar.JULY, 13, 23, 50, 0);
+		assertEquals(at(2017, Calendar.JULY, 14, 0, 5, 0),
+				BusLocation.parseRecordedTime("12:05 am", justBefore));
+		assertEquals(at(2017, Calendar.JULY, 13, 23, 49, 0),
+				BusLocation.parseRecordedTime("23:49", justBefore));
+	}
+
+	@Test
+	public void testDaylightSavingChanges() {
+		long springForward = at(2017, Calendar.MARCH, 12, 10, 0, 0);
+		assertEquals(at(2017, Calendar.MARCH, 12, 1, 30, 0), BusLocation.parseRecordedTime("1:30 am", springForward));
+		assertEquals(at(2017, Calendar.MARCH, 12, 3, 30, 0), BusLocation.parseRecordedTime("3:30 am", springForward));
+
+		long fallBack = at(2017, Calendar.NOVEMBER, 5, 10, 0, 0);
+		assertEquals(at(2017, Calendar.NOVEMBER, 5, 9, 0, 0), BusLocation.parseRecordedTime("9:00 am", fallBack));
+		assertEquals(at(2017, Calendar.NOVEMBER, 4, 23, 0, 0), BusLocation.parseRecordedTime("11:00 pm", fallBack));
+	}
+
+	@Test
+	public void testUnparseableTimes() {
+		long now = at(2017, Calendar.JULY, 14, 10, 0, 0);
+
+		assertEquals(0, BusLocation.parseRecordedTime(null, now));
+		assertEquals(0, BusLocation.parseRecordedTime("", now));
+		assertEquals(0, BusLocation.parseRecordedTime("10", now));
+		assertEquals(0, BusLocation.parseRecordedTime("13:00 pm", now));
+		assertEquals(0, BusLocation.parseRecordedTime("24:00", now));
+		assertEquals(0, BusLocation.parseRecordedTime("10:60", now));
+		assertEquals(0, BusLocation.parseRecordedTime("10:30 noon", now));
+	}
+
+	private static long at(int year, int month, int day, int hour, int minute, int second) {
+		Calendar cal = Calendar.getInstance(VANCOUVER);
+		cal.clear();
+		cal.set(year, month, day, hour, minute, second);
+		return cal.getTimeInMillis();
+	}
+}
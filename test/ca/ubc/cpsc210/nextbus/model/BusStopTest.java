@@ -0,0 +1,268 @@
+package ca.ubc.cpsc210.nextbus.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.xml.sax.InputSource;
+
+import ca.ubc.cpsc210.exception.TranslinkException;
+import ca.ubc.cpsc210.nextbus.Fixtures;
+import ca.ubc.cpsc210.nextbus.translink.AbstractTranslinkService;
+
+/**
+ * Tests merging of wait times and bus locations into a stop, and what its
+ * listeners are told
+ */
+public class BusStopTest {
+	private BusRoute r099;
+	private BusRoute r014;
+	private BusRoute r025;
+	private BusStop stop;
+	private Recorder listener;
+
+	@Before
+	public void setUp() {
+		BusRouteRegistry registry = BusRouteRegistry.getInstance();
+		r099 = registry.intern("099");
+		r014 = registry.intern("014");
+		r025 = registry.intern("025");
+		stop = new BusStop(51479, "UBC LOOP BAY 7", 49.2663, -123.2470,
+				new HashSet<BusRoute>(Arrays.asList(r099, r014, r025)));
+		listener = new Recorder();
+		stop.addListener(listener);
+	}
+
+	@Test
+	public void testFirstMergeAddsEveryWaitTime() {
+		ChangeSet<BusWaitTime> changes = stop.mergeWaitTimes(Arrays.asList(
+				wait(r099, 9), wait(r014, 5), wait(r099, 2)));
+
+		assertEquals(3, changes.getAdded().size());
+		assertTrue(changes.getUpdated().isEmpty());
+		assertTrue(changes.getRemoved().isEmpty());
+		assertEquals(Arrays.asList(wait(r099, 2), wait(r014, 5), wait(r099, 9)),
+				new ArrayList<BusWaitTime>(stop.getWaitTimes()));
+	}
+
+	@Test
+	public void testWaitTimesMatchedByRouteAndOrdinal() {
+		stop.mergeWaitTimes(Arrays.asList(wait(r099, 2), wait(r099, 9), wait(r014, 5)));
+		BusWaitTime second099 = find(stop.getWaitTimes(), r099, 9);
+
+		// first 099 counts down; second 099 unchanged; 014 gone; 025 new
+		ChangeSet<BusWaitTime> changes = stop.mergeWaitTimes(Arrays.asList(
+				wait(r099, 1), wait(r099, 9), wait(r025, 4)));
+
+		assertEquals(Arrays.asList(wait(r025, 4)), changes.getAdded());
+		assertEquals(Arrays.asList(wait(r099, 1)), changes.getUpdated());
+		assertEquals(Arrays.asList(wait(r014, 5)), changes.getRemoved());
+		assertTrue(changes.getMoved().isEmpty());
+		assertSame(second099, find(stop.getWaitTimes(), r099, 9));
+		assertEquals(3, stop.getWaitTimes().size());
+	}
+
+	@Test
+	public void testOrdinalFollowsWaitTimeOrder() {
+		stop.mergeWaitTimes(Arrays.asList(wait(r099, 2), wait(r099, 9)));
+
+		// first bus has left: the 9 is now the first 099, so both are matched afresh
+		ChangeSet<BusWaitTime> changes = stop.mergeWaitTimes(Arrays.asList(wait(r099, 8)));
+
+		assertEquals(Arrays.asList(wait(r099, 8)), changes.getUpdated());
+		assertEquals(Arrays.asList(wait(r099, 9)), changes.getRemoved());
+		assertTrue(changes.getAdded().isEmpty());
+	}
+
+	@Test
+	public void testUnchangedWaitTimesNotifyNobody() {
+		stop.mergeWaitTimes(Arrays.asList(wait(r099, 2), wait(r014, 5)));
+		Set<BusWaitTime> before = stop.getWaitTimes();
+		listener.waitChanges.clear();
+
+		ChangeSet<BusWaitTime> changes = stop.mergeWaitTimes(Arrays.asList(wait(r014, 5), wait(r099, 2)));
+
+		assertTrue(changes.isEmpty());
+		assertTrue(listener.waitChanges.isEmpty());
+		assertEquals(new ArrayList<BusWaitTime>(before), new ArrayList<BusWaitTime>(stop.getWaitTimes()));
+	}
+
+	@Test
+	public void testListenerGetsExactChangeSet() {
+		ChangeSet<BusWaitTime> waits = stop.mergeWaitTimes(Arrays.asList(wait(r099, 2)));
+		ChangeSet<BusLocation> buses = stop.mergeBusLocations(Arrays.asList(bus(8101, 49.26, -123.20)));
+
+		assertEquals(1, listener.waitChanges.size());
+		assertSame(waits, listener.waitChanges.get(0));
+		assertEquals(1, listener.busChanges.size());
+		assertSame(buses, listener.busChanges.get(0));
+		assertSame(stop, listener.stop);
+
+		stop.removeListener(listener);
+		stop.mergeWaitTimes(Arrays.asList(wait(r099, 1)));
+		assertEquals(1, listener.waitChanges.size());
+	}
+
+	@Test
+	public void testBusLocationsMatchedByVehicle() {
+		stop.mergeBusLocations(Arrays.asList(bus(8101, 49.26, -123.20), bus(8102, 49.25, -123.10),
+				bus(8103, 49.24, -123.00)));
+		BusLocation unchanged = stop.getBusLocations().get(2);
+
+		BusLocation moved = bus(8101, 49.261, -123.20);
+		BusLocation updated = new BusLocation(8102, r099, 49.25, -123.10, "UBC", "10:31:00");
+		BusLocation added = bus(8104, 49.23, -123.05);
+		ChangeSet<BusLocation> changes = stop.mergeBusLocations(Arrays.asList(moved, updated,
+				bus(8103, 49.24, -123.00), added));
+
+		assertEquals(Arrays.asList(moved), changes.getMoved());
+		assertEquals(Arrays.asList(updated), changes.getUpdated());
+		assertEquals(Arrays.asList(added), changes.getAdded());
+		assertTrue(changes.getRemoved().isEmpty());
+		assertSame(unchanged, stop.getBusLocations().get(2));
+
+		changes = stop.mergeBusLocations(Arrays.asList(added));
+		assertEquals(3, changes.getRemoved().size());
+		assertEquals(Arrays.asList(added), stop.getBusLocations());
+	}
+
+	@Test
+	public void testGettersUnmodifiableSnapshots() {
+		stop.mergeWaitTimes(Arrays.asList(wait(r099, 2)));
+		stop.mergeBusLocations(Arrays.asList(bus(8101, 49.26, -123.20)));
+		Set<BusWaitTime> waits = stop.getWaitTimes();
+		List<BusLocation> buses = stop.getBusLocations();
+
+		assertUnmodifiable(waits, wait(r014, 5));
+		assertUnmodifiable(buses, bus(8102, 49.25, -123.10));
+		assertUnmodifiable(stop.getRoutes(), r099);
+
+		// merges replace collections, so those already handed out do not change
+		stop.mergeWaitTimes(new ArrayList<BusWaitTime>());
+		stop.mergeBusLocations(new ArrayList<BusLocation>());
+		assertEquals(1, waits.size());
+		assertEquals(1, buses.size());
+		assertTrue(stop.getWaitTimes().isEmpty());
+		assertTrue(stop.getBusLocations().isEmpty());
+	}
+
+	@Test
+	public void testParseFailureLeavesStopUntouched() throws Exception {
+		Responses responses = new Responses();
+		BusStop served = responses.stop(Fixtures.read("rtti/stop_60routes.xml"));
+		byte[] xml = Fixtures.read("rtti/estimates_6routes.xml");
+		responses.estimates(xml, served);
+		Set<BusWaitTime> before = served.getWaitTimes();
+		assertEquals(18, before.size());
+
+		Recorder recorder = new Recorder();
+		served.addListener(recorder);
+		try {
+			responses.estimates(Arrays.copyOf(xml, xml.length / 2), served);
+			fail("truncated response parsed");
+		} catch (TranslinkException e) {
+			// expected
+		}
+
+		assertEquals(new ArrayList<BusWaitTime>(before), new ArrayList<BusWaitTime>(served.getWaitTimes()));
+		assertTrue(recorder.waitChanges.isEmpty());
+	}
+
+	private static void assertUnmodifiable(Collection<?> items, Object item) {
+		@SuppressWarnings("unchecked")
+		Collection<Object> writable = (Collection<Object>) items;
+		try {
+			writable.add(item);
+			fail("collection can be modified");
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+	}
+
+	private static BusWaitTime find(Collection<BusWaitTime> waits, BusRoute route, int minutes) {
+		for (BusWaitTime next : waits) {
+			if (next.getRoute() == route && next.getEstimate() == minutes)
+				return next;
+		}
+		return null;
+	}
+
+	private static BusWaitTime wait(BusRoute route, int minutes) {
+		return new BusWaitTime(route, minutes, false);
+	}
+
+	private BusLocation bus(int id, double lat, double lon) {
+		return new BusLocation(id, r099, lat, lon, "UBC", "10:30:00");
+	}
+
+	/**
+	 * Records every change set it is told of
+	 */
+	private static class Recorder implements BusStopListener {
+		final List<ChangeSet<BusWaitTime>> waitChanges = new ArrayList<ChangeSet<BusWaitTime>>();
+		final List<ChangeSet<BusLocation>> busChanges = new ArrayList<ChangeSet<BusLocation>>();
+		BusStop stop;
+
+		@Override
+		public void waitTimesChanged(BusStop stop, ChangeSet<BusWaitTime> changes) {
+			this.stop = stop;
+			waitChanges.add(changes);
+		}
+
+		@Override
+		public void busLocationsChanged(BusStop stop, ChangeSet<BusLocation> changes) {
+			this.stop = stop;
+			busChanges.add(changes);
+		}
+	}
+
+	/**
+	 * Parses fixture responses as the service parses responses from Translink
+	 */
+	private static class Responses extends AbstractTranslinkService {
+		BusStop stop(byte[] xml) throws TranslinkException {
+			return parseBusStopFromXML(new InputSource(new ByteArrayInputStream(xml)));
+		}
+
+		void estimates(byte[] xml, BusStop stop) throws TranslinkException {
+			parseWaitTimesFromXML(new InputSource(new ByteArrayInputStream(xml)), stop);
+		}
+
+		@Override
+		public void addWaitTimeEstimatesToStop(BusStop stop) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public Map<BusStop, TranslinkException> addWaitTimeEstimatesToStops(Collection<BusStop> stops) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void addBusLocationsForStop(BusStop stop) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public BusStop getBusStop(String stopNum) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void parseKMZ(BusRoute route) {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
@@ -0,0 +1,122 @@
+package ca.ubc.cpsc210.nextbus.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import ca.ubc.cpsc210.nextbus.Fixtures;
+import ca.ubc.cpsc210.nextbus.util.LatLon;
+import ca.ubc.cpsc210.nextbus.util.SegmentIndex;
+
+/**
+ * Tests EtaEstimator on the loop route fixture (fixtures/kmz/route_loop.kmz)
+ */
+public class EtaEstimatorTest {
+	private static final long START = 1500000000000L;
+	private static final long FIX_INTERVAL = 30000;
+	private static final double TOLERANCE = 1;
+
+	private BusRoute route;
+	private SegmentIndex index;
+	private double length;
+	private BusStop stop;
+
+	@Before
+	public void setUp() throws Exception {
+		route = Fixtures.readRoute("kmz/route_loop.kmz", "L1");
+		index = route.getSegmentIndex();
+		length = index.getLength(0);
+		stop = stopAt(300);
+	}
+
+	@Test
+	public void testNoEstimateUntilIndexBuilt() throws Exception {
+		BusRoute unindexed = Fixtures.readRoute("kmz/route_loop.kmz", "L1");
+		VehicleHistory history = historyAt(100, 200);
+
+		assertNull(EtaEstimator.estimate(unindexed, stop, history, START + FIX_INTERVAL));
+		assertNull("index built by estimate", unindexed.getBuiltSegmentIndex());
+
+		unindexed.getSegmentIndex();
+		assertNotNull(EtaEstimator.estimate(unindexed, stop, history, START + FIX_INTERVAL));
+	}
+
+	@Test
+	public void testBusApproachingStop() {
+		EtaEstimator.Eta eta = EtaEstimator.estimate(route, stop, historyAt(100, 200), START + FIX_INTERVAL);
+		assertEquals(100, eta.getDistance(), TOLERANCE);
+
+		// 100 m in 30 s, so the stop is 30 s away
+		assertEquals(START + 2 * FIX_INTERVAL, eta.getArrivalTime(), 1000);
+	}
+
+	@Test
+	public void testBusJustPastEndOfLoop() {
+		// bus has crossed from the end of the loop to its start, and the stop is ahead
+		EtaEstimator.Eta eta = EtaEstimator.estimate(route, stop, historyAt(length - 60, 40),
+				START + FIX_INTERVAL);
+		assertNotNull(eta);
+		assertEquals(260, eta.getDistance(), TOLERANCE);
+	}
+
+	@Test
+	public void testBusPastStopGoesRoundLoop() {
+		EtaEstimator.Eta eta = EtaEstimator.estimate(route, stop, historyAt(350, 450), START + FIX_INTERVAL);
+		assertEquals(length - 150, eta.getDistance(), TOLERANCE);
+	}
+
+	@Test
+	public void testBusTravellingAwayFromStopOnLoop() {
+		// bus going backwards round the loop, towards the stop
+		EtaEstimator.Eta eta = EtaEstimator.estimate(route, stop, historyAt(500, 400), START + FIX_INTERVAL);
+		assertEquals(100, eta.getDistance(), TOLERANCE);
+	}
+
+	@Test
+	public void testBusOffRoute() {
+		VehicleHistory history = new VehicleHistory(1);
+		LatLon start = index.pointAt(0, 0);
+		history.add(START, start.getLatitude() + 0.01, start.getLongitude());
+		history.add(START + FIX_INTERVAL, start.getLatitude() + 0.011, start.getLongitude());
+		assertNull(EtaEstimator.estimate(route, stop, history, START + FIX_INTERVAL));
+	}
+
+	@Test
+	public void testWaitCountsDownBetweenFixes() {
+		VehicleHistory history = historyAt(length - 300, length - 200);
+		long fixTime = START + FIX_INTERVAL;
+		EtaEstimator.Eta atFix = EtaEstimator.estimate(route, stop, history, fixTime);
+		EtaEstimator.Eta later = EtaEstimator.estimate(route, stop, history, fixTime + 60000);
+
+		assertEquals(500, atFix.getDistance(), TOLERANCE);
+		assertEquals(atFix.getArrivalTime(), later.getArrivalTime(), 1000);
+		assertTrue(later.getWaitMinutes(fixTime + 60000) < atFix.getWaitMinutes(fixTime));
+	}
+
+	/**
+	 * Produces stop at given distance along loop
+	 */
+	private BusStop stopAt(double along) {
+		LatLon point = index.pointAt(0, along);
+		return new BusStop(50001, "LOOP STOP", point.getLatitude(), point.getLongitude(),
+				Collections.singleton(route));
+	}
+
+	/**
+	 * Produces history of a vehicle seen at two distances along the loop, FIX_INTERVAL apart
+	 */
+	private VehicleHistory historyAt(double firstAlong, double secondAlong) {
+		VehicleHistory history = new VehicleHistory(1);
+		LatLon first = index.pointAt(0, firstAlong);
+		LatLon second = index.pointAt(0, secondAlong);
+		history.add(START, first.getLatitude(), first.getLongitude());
+		history.add(START + FIX_INTERVAL, second.getLatitude(), second.getLongitude());
+		return history;
+	}
+}
@@ -0,0 +1,131 @@
+package ca.ubc.cpsc210.nextbus.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import ca.ubc.cpsc210.nextbus.Fixtures;
+import ca.ubc.cpsc210.nextbus.util.GeoMath;
+import ca.ubc.cpsc210.nextbus.util.LatLon;
+import ca.ubc.cpsc210.nextbus.util.SegmentIndex;
+
+/**
+ * Tests PositionEstimator against the fixes of a bus driving twice round a
+ * loop route (fixtures/trace/vehicle_9410.csv on fixtures/kmz/route_loop.kmz).
+ */
+public class PositionEstimatorTest {
+	private static final long START = 1500000000000L;
+
+	/**
+	 * Largest median, mean and greatest distance (m) of estimates from the
+	 * held-out fixes.  The bus stops for 15-35 s at stops between fixes, so
+	 * estimates made at its cruising speed are some way off at times; a bus
+	 * turned back at the end of the loop is several hundred metres off.
+	 */
+	private static final double MAX_MEDIAN_ERROR = 80;
+	private static final double MAX_MEAN_ERROR = 100;
+	private static final double MAX_ERROR = 250;
+
+	private BusRoute route;
+	private SegmentIndex index;
+	private List<double[]> trace;
+
+	@Before
+	public void setUp() throws Exception {
+		route = Fixtures.readRoute("kmz/route_loop.kmz", "L1");
+		index = route.getSegmentIndex();
+		trace = Fixtures.readTrace("trace/vehicle_9410.csv");
+	}
+
+	@Test
+	public void testRouteIsLoop() {
+		assertEquals(1, index.getSegmentCount());
+		assertTrue(index.isLoop(0));
+	}
+
+	@Test
+	public void testDirectionAcrossLoopSeam() {
+		double length = index.getLength(0);
+
+		VehicleHistory forward = historyAt(length - 40, 20);
+		assertEquals(1, directionAtLatest(forward));
+
+		VehicleHistory backward = historyAt(20, length - 40);
+		assertEquals(-1, directionAtLatest(backward));
+	}
+
+	@Test
+	public void testAroundLoop() {
+		assertEquals(120, PositionEstimator.aroundLoop(60 - 4740, 4800), 1e-9);
+		assertEquals(-120, PositionEstimator.aroundLoop(4740 - 60, 4800), 1e-9);
+		assertEquals(100, PositionEstimator.aroundLoop(100, 4800), 1e-9);
+		assertEquals(2400, PositionEstimator.aroundLoop(-2400, 4800), 1e-9);
+	}
+
+	/**
+	 * Every other fix of the trace is given to the estimator; each fix left
+	 * out is compared with the position estimated for its time.  On average,
+	 * estimates must be closer to the bus than the latest fix given.
+	 */
+	@Test
+	public void testEstimatesAtHeldOutFixes() {
+		VehicleHistory history = new VehicleHistory(9410);
+		int count = 0;
+		double[] errors = new double[trace.size() / 2];
+		double totalError = 0;
+		double totalStale = 0;
+
+		for (int i = 0; i + 1 < trace.size(); i += 2) {
+			double[] given = trace.get(i);
+			double[] heldOut = trace.get(i + 1);
+			history.add(time(given), given[1], given[2]);
+			if (history.size() < 2)
+				continue;
+
+			LatLon estimate = PositionEstimator.estimate(route, history, time(heldOut));
+			double error = GeoMath.distance(estimate.getLatitude(), estimate.getLongitude(),
+					heldOut[1], heldOut[2]);
+			errors[count++] = error;
+			totalError += error;
+			totalStale += GeoMath.distance(given[1], given[2], heldOut[1], heldOut[2]);
+		}
+
+		Arrays.sort(errors, 0, count);
+		double median = errors[count / 2];
+		double mean = totalError / count;
+		double staleMean = totalStale / count;
+
+		assertTrue("median error " + median, median <= MAX_MEDIAN_ERROR);
+		assertTrue("mean error " + mean, mean <= MAX_MEAN_ERROR);
+		assertTrue("greatest error " + errors[count - 1], errors[count - 1] <= MAX_ERROR);
+		assertTrue("mean error " + mean + " not below latest fix's " + staleMean, mean < staleMean);
+	}
+
+	/**
+	 * Produces history of a vehicle seen at two distances along the loop, 30 s apart
+	 */
+	private VehicleHistory historyAt(double firstAlong, double secondAlong) {
+		VehicleHistory history = new VehicleHistory(1);
+		LatLon first = index.pointAt(0, firstAlong);
+		LatLon second = index.pointAt(0, secondAlong);
+		history.add(START, first.getLatitude(), first.getLongitude());
+		history.add(START + 30000, second.getLatitude(), second.getLongitude());
+		return history;
+	}
+
+	private int directionAtLatest(VehicleHistory history) {
+		int last = history.size() - 1;
+		SegmentIndex.Match match = index.nearest(history.getLatitude(last), history.getLongitude(last),
+				PositionEstimator.MAX_SNAP_DISTANCE);
+		return PositionEstimator.directionOfTravel(index, match, history);
+	}
+
+	private static long time(double[] fix) {
+		return START + (long) (fix[0] * 1000);
+	}
+}
@@ -0,0 +1,79 @@
+package ca.ubc.cpsc210.nextbus.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import ca.ubc.cpsc210.nextbus.util.GeoMath;
+
+/**
+ * Tests the ring buffer of fixes in VehicleHistory and the motion derived from it
+ */
+public class VehicleHistoryTest {
+	private static final long START = 1500000000000L;
+	private static final long INTERVAL = 30000;
+	private static final double LAT = 49.26;
+	private static final double LON = -123.25;
+
+	private VehicleHistory history;
+
+	@Before
+	public void setUp() {
+		history = new VehicleHistory(7001);
+	}
+
+	@Test
+	public void testOldestFixReplacedWhenFull() {
+		int fixes = VehicleHistory.CAPACITY * 2 + 3;
+		for (int i = 0; i < fixes; i++)
+			assertTrue(history.add(START + i * INTERVAL, LAT + i * 0.001, LON));
+
+		assertEquals(VehicleHistory.CAPACITY, history.size());
+		int first = fixes - VehicleHistory.CAPACITY;
+		for (int i = 0; i < history.size(); i++) {
+			assertEquals(START + (first + i) * INTERVAL, history.getTime(i));
+			assertEquals(LAT + (first + i) * 0.001, history.getLatitude(i), 1E-6);
+		}
+	}
+
+	@Test
+	public void testFixNoNewerThanLatestIgnored() {
+		history.add(START, LAT, LON);
+
+		assertFalse(history.add(START, LAT + 0.01, LON));
+		assertFalse(history.add(START - INTERVAL, LAT + 0.01, LON));
+		assertEquals(1, history.size());
+		assertEquals(LAT, history.getLatitude(0), 1E-6);
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void testIndexBeyondSize() {
+		history.add(START, LAT, LON);
+		history.getTime(1);
+	}
+
+	@Test
+	public void testSpeedAndHeading() {
+		history.add(START, LAT, LON);
+		assertTrue(Double.isNaN(history.getSpeed()));
+		assertTrue(Double.isNaN(history.getHeading()));
+
+		// 300 m north in 30 s, then 600 m east in 30 s
+		double north = LAT + 300 / GeoMath.METRES_PER_DEGREE;
+		history.add(START + INTERVAL, north, LON);
+		assertEquals(10, history.getSpeed(), 0.01);
+		assertEquals(0, history.getHeading(), 0.01);
+
+		double east = LON + 600 / (GeoMath.METRES_PER_DEGREE * Math.cos(Math.toRadians(north)));
+		history.add(START + 2 * INTERVAL, north, east);
+		assertEquals(15, history.getSpeed(), 0.05);
+		assertEquals(90, history.getHeading(), 0.1);
+
+		// GPS noise: heading kept
+		history.add(START + 3 * INTERVAL, north + 2 / GeoMath.METRES_PER_DEGREE, east);
+		assertEquals(90, history.getHeading(), 0.1);
+	}
+}
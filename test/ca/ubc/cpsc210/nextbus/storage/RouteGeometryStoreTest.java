@@ -0,0 +1,136 @@
+package ca.ubc.cpsc210.nextbus.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ca.ubc.cpsc210.nextbus.model.BusRoute;
+import ca.ubc.cpsc210.nextbus.util.Segment;
+
+/**
+ * Tests that RouteGeometryStore reads back what it stores, and deletes
+ * rather than trusts a file whose lengths do not fit its contents
+ */
+public class RouteGeometryStoreTest {
+	private static final String URL = "http://nb.translink.ca/geodata/099.kmz";
+
+	// offset of segment count in stored file: magic, URL length and URL, bounds
+	private static final int SEGMENT_COUNT_OFFSET = 4 + 1 + URL.length() + 4 * 8;
+
+	private File directory;
+	private RouteGeometryStore store;
+	private File file;
+
+	@Before
+	public void setUp() throws IOException {
+		directory = File.createTempFile("routes", "");
+		directory.delete();
+		store = new RouteGeometryStore(directory, 1024 * 1024);
+
+		BusRoute route = newRoute();
+		Segment seg = new Segment();
+		for (int i = 0; i < 100; i++)
+			seg.addPointE6(49262000 + i * 37, -123250000 - i * 41);
+		route.addSegment(seg);
+		route.addSegment(new Segment());
+		store.save(route);
+
+		File[] files = directory.listFiles();
+		assertEquals(1, files.length);
+		file = files[0];
+	}
+
+	@After
+	public void tearDown() {
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File next : files)
+				next.delete();
+		}
+		directory.delete();
+	}
+
+	@Test
+	public void testRoundTrip() {
+		BusRoute route = newRoute();
+
+		assertTrue(store.load(route));
+		assertEquals(2, route.getSegments().size());
+		Segment seg = route.getSegments().get(0);
+		assertEquals(100, seg.size());
+		assertEquals(49262000 + 99 * 37, seg.getLatitudeE6(99));
+		assertEquals(-123250000 - 99 * 41, seg.getLongitudeE6(99));
+		assertEquals(0, route.getSegments().get(1).size());
+		assertEquals(49.27, route.getBounds().getNorth(), 0);
+	}
+
+	@Test
+	public void testHugeSegmentCountDeleted() throws IOException {
+		// varint 0x7FFFFFFF: would allocate an 8 GB array of segments
+		write(SEGMENT_COUNT_OFFSET, new byte[] { (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07 });
+		assertCorruptFileDeleted();
+	}
+
+	@Test
+	public void testPointCountBeyondFileDeleted() throws IOException {
+		// first segment claims 127 points but holds only 100
+		write(SEGMENT_COUNT_OFFSET + 1, new byte[] { 0x7F });
+		assertCorruptFileDeleted();
+	}
+
+	@Test
+	public void testOverlongVarintDeleted() throws IOException {
+		write(SEGMENT_COUNT_OFFSET, new byte[] { (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0x01 });
+		assertCorruptFileDeleted();
+	}
+
+	@Test
+	public void testTruncatedFileDeleted() throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.setLength(raf.length() - 3);
+		} finally {
+			raf.close();
+		}
+		assertCorruptFileDeleted();
+	}
+
+	@Test
+	public void testBadMagicDeleted() throws IOException {
+		write(0, new byte[] { 'R', 'G', 'S', '0' });
+		assertCorruptFileDeleted();
+	}
+
+	private void assertCorruptFileDeleted() {
+		BusRoute route = newRoute();
+
+		assertFalse(store.load(route));
+		assertFalse(route.hasSegments());
+		assertFalse(file.exists());
+	}
+
+	private void write(int offset, byte[] bytes) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.seek(offset);
+			raf.write(bytes);
+		} finally {
+			raf.close();
+		}
+	}
+
+	private static BusRoute newRoute() {
+		BusRoute route = new BusRoute("099");
+		route.setMapURL(URL);
+		route.setBounds(49.27, 49.26, -123.24, -123.26);
+		return route;
+	}
+}
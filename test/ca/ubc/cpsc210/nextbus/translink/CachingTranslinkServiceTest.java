@@ -0,0 +1,149 @@
+package ca.ubc.cpsc210.nextbus.translink;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ca.ubc.cpsc210.exception.TranslinkException;
+import ca.ubc.cpsc210.nextbus.model.BusRoute;
+import ca.ubc.cpsc210.nextbus.model.BusStop;
+import ca.ubc.cpsc210.nextbus.model.BusWaitTime;
+import ca.ubc.cpsc210.nextbus.util.VirtualClock;
+
+/**
+ * Tests CachingTranslinkService against a virtual clock and a stand-in for Translink
+ */
+public class CachingTranslinkServiceTest {
+	private static final long TTL = 15 * 1000;
+	private static final long MAX_STALE = 5 * 60 * 1000;
+	private static final long MINUTE = 60 * 1000;
+
+	private VirtualClock clock;
+	private StandIn translink;
+	private CachingTranslinkService service;
+	private BusRoute route;
+	private BusStop stop;
+
+	@Before
+	public void setUp() {
+		clock = new VirtualClock();
+		translink = new StandIn();
+		service = new CachingTranslinkService(translink, TTL, MAX_STALE, clock);
+		route = new BusRoute("099");
+		stop = new BusStop(51479, "UBC LOOP BAY 7", 49.26, -123.25, null);
+	}
+
+	@After
+	public void tearDown() {
+		translink.revalidations.countDown();
+	}
+
+	@Test
+	public void testFreshEntryServedAsReceived() throws TranslinkException {
+		translink.minutes = new int[] { 2, 5, 12 };
+		service.addWaitTimeEstimatesToStop(stop);
+		List<BusWaitTime> received = new ArrayList<BusWaitTime>(stop.getWaitTimes());
+
+		clock.advance(TTL);
+		BusStop other = new BusStop(stop.getStopNum(), "UBC LOOP BAY 7", 49.26, -123.25, null);
+		service.addWaitTimeEstimatesToStop(other);
+
+		assertEquals(1, service.getHitCount());
+		assertEquals(1, translink.requests);
+		assertEquals(received, new ArrayList<BusWaitTime>(other.getWaitTimes()));
+	}
+
+	@Test
+	public void testStaleEntryCountedDownByItsAge() throws TranslinkException {
+		translink.minutes = new int[] { 2, 5, 12 };
+		service.addWaitTimeEstimatesToStop(stop);
+
+		clock.advance(4 * MINUTE);
+		service.addWaitTimeEstimatesToStop(stop);
+
+		assertEquals(1, service.getStaleCount());
+		assertEquals(Arrays.asList(1, 8), estimates(stop));
+	}
+
+	@Test
+	public void testCountDownToNearestMinute() {
+		List<BusWaitTime> waits = Arrays.asList(new BusWaitTime(route, 0, false),
+				new BusWaitTime(route, 3, true), new BusWaitTime(route, 7, false, true));
+
+		assertSame(waits, CachingTranslinkService.countDown(waits, MINUTE / 2 - 1));
+
+		List<BusWaitTime> counted = CachingTranslinkService.countDown(waits, MINUTE / 2);
+		assertEquals(2, counted.size());
+		assertEquals(2, counted.get(0).getEstimate());
+		assertTrue(counted.get(0).isCancelled());
+		assertEquals(6, counted.get(1).getEstimate());
+		assertTrue(counted.get(1).isScheduled());
+
+		assertEquals(0, CachingTranslinkService.countDown(waits, 8 * MINUTE).size());
+	}
+
+	private static List<Integer> estimates(BusStop stop) {
+		List<Integer> estimates = new ArrayList<Integer>();
+		for (BusWaitTime next : stop.getWaitTimes())
+			estimates.add(next.getEstimate());
+		return estimates;
+	}
+
+	/**
+	 * Stands in for Translink: answers the first request for wait times at once,
+	 * and holds revalidations in the background until the test is over
+	 */
+	private class StandIn implements ITranslinkService {
+		volatile int[] minutes;
+		volatile int requests;
+		final CountDownLatch revalidations = new CountDownLatch(1);
+
+		@Override
+		public void addWaitTimeEstimatesToStop(BusStop stop) throws TranslinkException {
+			if (requests++ > 0) {
+				try {
+					revalidations.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				throw new TranslinkException(-1, "Test is over");
+			}
+
+			List<BusWaitTime> waits = new ArrayList<BusWaitTime>();
+			for (int next : minutes)
+				waits.add(new BusWaitTime(route, next, false));
+			stop.mergeWaitTimes(waits);
+		}
+
+		@Override
+		public Map<BusStop, TranslinkException> addWaitTimeEstimatesToStops(Collection<BusStop> stops) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void addBusLocationsForStop(BusStop stop) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public BusStop getBusStop(String stopNum) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void parseKMZ(BusRoute route) {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
@@ -0,0 +1,73 @@
+package ca.ubc.cpsc210.nextbus.translink;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests CircuitBreaker.  An open period of 0 makes an open breaker half-open
+ * as soon as it is asked.
+ */
+public class CircuitBreakerTest {
+	private static final int THRESHOLD = 3;
+
+	@Test
+	public void testOpensAfterConsecutiveFailures() {
+		CircuitBreaker breaker = new CircuitBreaker(THRESHOLD, 60 * 1000);
+		for (int i = 0; i < THRESHOLD - 1; i++) {
+			assertTrue(breaker.allowRequest());
+			breaker.recordFailure();
+		}
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+
+		assertTrue(breaker.allowRequest());
+		breaker.recordFailure();
+		assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+		assertFalse(breaker.allowRequest());
+		assertEquals(1, breaker.getRejectedCount());
+		assertEquals(1, breaker.getTripCount());
+	}
+
+	@Test
+	public void testOneProbeWhileHalfOpen() {
+		CircuitBreaker breaker = tripped();
+
+		assertTrue(breaker.allowRequest());
+		assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+		assertFalse(breaker.allowRequest());
+
+		breaker.recordSuccess();
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+		assertTrue(breaker.allowRequest());
+	}
+
+	@Test
+	public void testReleasedProbeTakenByNextRequest() {
+		CircuitBreaker breaker = tripped();
+
+		assertTrue(breaker.allowRequest());
+		breaker.releaseRequest();
+		assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+		assertTrue(breaker.allowRequest());
+		assertFalse(breaker.allowRequest());
+	}
+
+	@Test
+	public void testFailedProbeReopens() {
+		CircuitBreaker breaker = tripped();
+
+		assertTrue(breaker.allowRequest());
+		breaker.recordFailure();
+		assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+		assertEquals(2, breaker.getTripCount());
+	}
+
+	private static CircuitBreaker tripped() {
+		CircuitBreaker breaker = new CircuitBreaker(THRESHOLD, 0);
+		for (int i = 0; i < THRESHOLD; i++)
+			breaker.recordFailure();
+		return breaker;
+	}
+}
@@ -0,0 +1,153 @@
+package ca.ubc.cpsc210.nextbus.translink;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ca.ubc.cpsc210.exception.TranslinkException;
+import ca.ubc.cpsc210.nextbus.model.BusRoute;
+import ca.ubc.cpsc210.nextbus.model.BusStop;
+
+/**
+ * Tests which concurrent callers CoalescingTranslinkService lets share a
+ * request.  Background requests to the stand-in for Translink are held until
+ * the test releases them.
+ */
+public class CoalescingTranslinkServiceTest {
+	private static final String STOP_NUM = "51479";
+	private static final long TIMEOUT = 5000;
+
+	private StandIn translink;
+	private CoalescingTranslinkService service;
+
+	@Before
+	public void setUp() {
+		translink = new StandIn();
+		service = new CoalescingTranslinkService(translink);
+	}
+
+	@After
+	public void tearDown() {
+		translink.release.countDown();
+	}
+
+	@Test
+	public void testBackgroundCallerSharesBackgroundRequest() throws Exception {
+		Caller first = new Caller(RateLimiter.Priority.BACKGROUND);
+		Caller second = new Caller(RateLimiter.Priority.BACKGROUND);
+		first.start();
+		assertTrue(translink.entered.await(TIMEOUT, TimeUnit.MILLISECONDS));
+		second.start();
+
+		long deadline = System.currentTimeMillis() + TIMEOUT;
+		while (service.getSavedRequestCount() == 0 && System.currentTimeMillis() < deadline)
+			Thread.sleep(1);
+		translink.release.countDown();
+		first.join(TIMEOUT);
+		second.join(TIMEOUT);
+
+		assertEquals(1, translink.requests.get());
+		assertEquals(1, service.getSavedRequestCount());
+		assertSame(first.result.get(), second.result.get());
+	}
+
+	@Test
+	public void testInteractiveCallerDoesNotWaitOnBackgroundRequest() throws Exception {
+		Caller background = new Caller(RateLimiter.Priority.BACKGROUND);
+		Caller interactive = new Caller(RateLimiter.Priority.INTERACTIVE);
+		background.start();
+		assertTrue(translink.entered.await(TIMEOUT, TimeUnit.MILLISECONDS));
+
+		// background request is still held
+		interactive.start();
+		interactive.join(TIMEOUT);
+
+		assertFalse("interactive caller waited on background request", interactive.isAlive());
+		assertEquals(2, translink.requests.get());
+		assertEquals(0, service.getSavedRequestCount());
+
+		translink.release.countDown();
+		background.join(TIMEOUT);
+		assertNotSame(interactive.result.get(), background.result.get());
+	}
+
+	/**
+	 * Looks up stop at given priority on its own thread
+	 */
+	private class Caller extends Thread {
+		final AtomicReference<BusStop> result = new AtomicReference<BusStop>();
+		private RateLimiter.Priority priority;
+
+		Caller(RateLimiter.Priority priority) {
+			this.priority = priority;
+			setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			RateLimiter.setPriority(priority);
+			try {
+				result.set(service.getBusStop(STOP_NUM));
+			} catch (TranslinkException e) {
+				// result stays null
+			}
+		}
+	}
+
+	/**
+	 * Stands in for Translink: answers interactive requests at once, and holds
+	 * background requests until released
+	 */
+	private static class StandIn implements ITranslinkService {
+		final AtomicInteger requests = new AtomicInteger();
+		final CountDownLatch entered = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+
+		@Override
+		public BusStop getBusStop(String stopNum) throws TranslinkException {
+			requests.incrementAndGet();
+			if (RateLimiter.getPriority() == RateLimiter.Priority.BACKGROUND) {
+				entered.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			return new BusStop(Integer.parseInt(stopNum), "UBC LOOP BAY 7", 49.26, -123.25, null);
+		}
+
+		@Override
+		public void addWaitTimeEstimatesToStop(BusStop stop) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public Map<BusStop, TranslinkException> addWaitTimeEstimatesToStops(Collection<BusStop> stops) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void addBusLocationsForStop(BusStop stop) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void parseKMZ(BusRoute route) {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
@@ -0,0 +1,66 @@
+package ca.ubc.cpsc210.nextbus.translink;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests ElementText parsing numbers and matching names in its buffer
+ */
+public class ElementTextTest {
+	private ElementText text;
+
+	@Before
+	public void setUp() {
+		text = new ElementText();
+	}
+
+	@Test
+	public void testToDoubleMatchesParseDouble() {
+		String[] numbers = {
+			"49.262347", "-123.2501", " -0.0000001 ", "+7", "123456789012345",
+			"0.123456789012345", "9007199254740993", "1234567890.123456789", "1.5e3"
+		};
+
+		for (String next : numbers) {
+			set(next);
+			assertEquals(next, Double.parseDouble(next.trim()), text.toDouble(), 0.0);
+		}
+	}
+
+	@Test(expected = NumberFormatException.class)
+	public void testToDoubleRejectsText() {
+		set("-.");
+		text.toDouble();
+	}
+
+	@Test
+	public void testContentEquals() {
+		set("  099 ");
+		assertTrue(text.contentEquals("099"));
+		assertFalse(text.contentEquals("99"));
+		assertFalse(text.contentEquals("0990"));
+		assertFalse(text.contentEquals("N99"));
+
+		set("");
+		assertTrue(text.contentEquals(""));
+	}
+
+	@Test
+	public void testContentHashCodeMatchesString() {
+		String[] names = { "099", " N15 ", "", "R4 Express" };
+
+		for (String next : names) {
+			set(next);
+			assertEquals(next.trim().hashCode(), text.contentHashCode());
+		}
+	}
+
+	private void set(String s) {
+		text.reset();
+		text.append(s.toCharArray(), 0, s.length());
+	}
+}
@@ -0,0 +1,195 @@
+package ca.ubc.cpsc210.nextbus.translink;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Tests HttpCache against a local server standing in for Translink.
+ */
+public class HttpCacheTest {
+	private static final long DAY = 24 * 60 * 60 * 1000L;
+	private static final int BODY_SIZE = 1000;
+
+	private HttpServer server;
+	private String baseURL;
+	private File directory;
+
+	// reply of stand-in server
+	private volatile int status;
+	private volatile String eTag;
+	private volatile byte[] body;
+	private volatile String ifNoneMatch;
+	private volatile int requests;
+	private volatile boolean evictOnRequest;
+
+	@Before
+	public void setUp() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				requests++;
+				ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+				if (evictOnRequest) {
+					for (File next : directory.listFiles())
+						next.delete();
+				}
+				if (eTag != null)
+					exchange.getResponseHeaders().set("ETag", eTag);
+				boolean noBody = (status == 304);
+				exchange.sendResponseHeaders(status, noBody ? -1 : body.length);
+				OutputStream out = exchange.getResponseBody();
+				if (!noBody)
+					out.write(body);
+				out.close();
+			}
+		});
+		server.start();
+		baseURL = "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+
+		directory = File.createTempFile("httpcache", "");
+		directory.delete();
+		directory.mkdirs();
+	}
+
+	@After
+	public void tearDown() {
+		server.stop(0);
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File next : files)
+				next.delete();
+		}
+		directory.delete();
+	}
+
+	@Test
+	public void testNotModifiedServesStoredBody() throws Exception {
+		HttpCache cache = new HttpCache(directory, DAY, ResilientTransport.getInstance());
+		cache.setMaxAge(Endpoint.STOPS, 0);
+		reply(200, "\"v1\"", "stop 51479");
+
+		assertEquals("stop 51479", bodyOf(cache.get(Endpoint.STOPS, baseURL + "stops/51479")));
+		assertEquals(1, cache.getMissCount());
+
+		reply(304, "\"v1\"", "");
+		Thread.sleep(5);
+		assertEquals("stop 51479", bodyOf(cache.get(Endpoint.STOPS, baseURL + "stops/51479")));
+		assertEquals("\"v1\"", ifNoneMatch);
+		assertEquals(1, cache.getRevalidatedCount());
+		assertEquals(1, cache.getMissCount());
+	}
+
+	@Test
+	public void testResponseEvictedDuringRevalidationNotRecreated() throws Exception {
+		HttpCache cache = new HttpCache(directory, DAY, ResilientTransport.getInstance());
+		cache.setMaxAge(Endpoint.STOPS, 0);
+		reply(200, "\"v1\"", "stop 51479");
+		cache.get(Endpoint.STOPS, baseURL + "stops/51479");
+
+		reply(304, "\"v1\"", "");
+		evictOnRequest = true;
+		Thread.sleep(5);
+		assertEquals("stop 51479", bodyOf(cache.get(Endpoint.STOPS, baseURL + "stops/51479")));
+		assertEquals(1, cache.getRevalidatedCount());
+		assertEquals(0, directory.listFiles().length);
+	}
+
+	@Test
+	public void testFreshResponseWithoutRequest() throws Exception {
+		HttpCache cache = new HttpCache(directory, DAY, ResilientTransport.getInstance());
+		cache.setMaxAge(Endpoint.STOPS, DAY);
+		assertNull(cache.getFresh(Endpoint.STOPS, baseURL + "stops/51479"));
+		assertNull(cache.getFresh(Endpoint.ESTIMATES, baseURL + "stops/51479/estimates"));
+
+		reply(200, "\"v1\"", "stop 51479");
+		cache.get(Endpoint.STOPS, baseURL + "stops/51479");
+		assertEquals("stop 51479", bodyOf(cache.getFresh(Endpoint.STOPS, baseURL + "stops/51479")));
+		assertEquals(1, cache.getHitCount());
+		assertEquals(1, requests);
+
+		cache.setMaxAge(Endpoint.STOPS, 0);
+		Thread.sleep(5);
+		assertNull(cache.getFresh(Endpoint.STOPS, baseURL + "stops/51479"));
+		assertEquals(1, requests);
+	}
+
+	@Test
+	public void testServerErrorServesStoredResponse() throws Exception {
+		HttpCache cache = new HttpCache(directory, DAY, ResilientTransport.getInstance());
+		cache.setMaxAge(Endpoint.KMZ, 0);
+		reply(200, "\"r1\"", "route 099");
+		assertEquals("route 099", bodyOf(cache.get(Endpoint.KMZ, baseURL + "geodata/099.kmz")));
+
+		reply(503, null, "<Error>unavailable</Error>");
+		Thread.sleep(5);
+		HttpTransport.Response response = cache.get(Endpoint.KMZ, baseURL + "geodata/099.kmz");
+		assertEquals(200, response.getStatus());
+		assertEquals("route 099", bodyOf(response));
+		assertEquals(1, cache.getStaleCount());
+		assertEquals(1, cache.getMissCount());
+	}
+
+	@Test
+	public void testLeastRecentlyUsedResponsesEvicted() throws Exception {
+		HttpCache cache = new HttpCache(directory, 3 * (BODY_SIZE + 100), ResilientTransport.getInstance());
+		cache.setMaxAge(Endpoint.ESTIMATES, DAY);
+		byte[] large = new byte[BODY_SIZE];
+		Arrays.fill(large, (byte) 'x');
+		reply(200, null, new String(large, "US-ASCII"));
+
+		for (int i = 1; i <= 3; i++) {
+			cache.get(Endpoint.ESTIMATES, baseURL + "stops/" + i);
+			Thread.sleep(20);
+		}
+
+		// use first response, so that second is least recently used
+		cache.get(Endpoint.ESTIMATES, baseURL + "stops/1");
+		assertEquals(1, cache.getHitCount());
+		Thread.sleep(20);
+
+		cache.get(Endpoint.ESTIMATES, baseURL + "stops/4");
+		assertTrue("cache size " + sizeOf(directory), sizeOf(directory) <= 3 * (BODY_SIZE + 100));
+
+		int misses = cache.getMissCount();
+		cache.get(Endpoint.ESTIMATES, baseURL + "stops/1");
+		cache.get(Endpoint.ESTIMATES, baseURL + "stops/3");
+		cache.get(Endpoint.ESTIMATES, baseURL + "stops/4");
+		assertEquals(misses, cache.getMissCount());
+		cache.get(Endpoint.ESTIMATES, baseURL + "stops/2");
+		assertFalse(misses == cache.getMissCount());
+	}
+
+	private void reply(int status, String eTag, String body) throws IOException {
+		this.status = status;
+		this.eTag = eTag;
+		this.body = body.getBytes("UTF-8");
+	}
+
+	private static String bodyOf(HttpTransport.Response response) throws IOException {
+		return new String(response.getBody(), "UTF-8");
+	}
+
+	private static long sizeOf(File directory) {
+		long total = 0;
+		for (File next : directory.listFiles())
+			total += next.length();
+		return total;
+	}
+}
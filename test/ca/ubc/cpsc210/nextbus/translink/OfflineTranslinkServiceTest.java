@@ -0,0 +1,197 @@
+package ca.ubc.cpsc210.nextbus.translink;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ca.ubc.cpsc210.exception.NoReplyException;
+import ca.ubc.cpsc210.exception.TranslinkException;
+import ca.ubc.cpsc210.nextbus.gtfs.FeedBuilder;
+import ca.ubc.cpsc210.nextbus.model.BusRoute;
+import ca.ubc.cpsc210.nextbus.model.BusStop;
+import ca.ubc.cpsc210.nextbus.model.BusWaitTime;
+import ca.ubc.cpsc210.nextbus.util.VirtualClock;
+
+/**
+ * Tests that OfflineTranslinkService answers from the schedule only when no
+ * reply is received from Translink.  The virtual clock starts at 19:40:00 on
+ * Thursday 13 July 2017 in Vancouver, so the first departure is 12 min 40 s
+ * away and the second 20 min 29 s away.
+ */
+public class OfflineTranslinkServiceTest {
+	private static final int UBC_LOOP = 51479;
+
+	private File feed;
+	private File storeFile;
+	private StandIn translink;
+	private OfflineTranslinkService service;
+	private BusStop stop;
+
+	@Before
+	public void setUp() throws IOException {
+		feed = File.createTempFile("feed", ".zip");
+		storeFile = File.createTempFile("schedule", ".gtf");
+		storeFile.delete();
+
+		new FeedBuilder()
+			.add("routes.txt",
+				"route_id,route_short_name,route_long_name",
+				"R99,99,UBC B-Line",
+				"R14,14,Hastings")
+			.add("calendar.txt",
+				"service_id,monday,tuesday,wednesday,thursday,friday,saturday,sunday,start_date,end_date",
+				"WK,1,1,1,1,1,0,0,20170101,20171231")
+			.add("trips.txt",
+				"route_id,service_id,trip_id,trip_headsign",
+				"R99,WK,T1,UBC",
+				"R14,WK,T2,Downtown")
+			.add("stops.txt",
+				"stop_id,stop_code,stop_name,stop_lat,stop_lon",
+				"S1,51479,UBC Loop Bay 7,49.266300,-123.247000")
+			.add("stop_times.txt",
+				"trip_id,arrival_time,departure_time,stop_id,stop_sequence",
+				"T1,19:52:40,19:52:40,S1,1",
+				"T2,20:00:29,20:00:29,S1,1")
+			.write(feed);
+
+		translink = new StandIn();
+		service = new OfflineTranslinkService(translink, feed, storeFile, new VirtualClock());
+		service.prepare();
+		assertNotNull(service.getSchedule());
+		stop = new BusStop(UBC_LOOP, "UBC LOOP BAY 7", 49.26, -123.25, null);
+	}
+
+	@After
+	public void tearDown() {
+		feed.delete();
+		storeFile.delete();
+		new File(storeFile.getPath() + ".tmp").delete();
+	}
+
+	@Test
+	public void testNoReplyAnsweredFromSchedule() throws TranslinkException {
+		translink.failure = new NoReplyException("No network", null);
+		service.addWaitTimeEstimatesToStop(stop);
+
+		assertEquals(2, stop.getWaitTimes().size());
+		Iterator<BusWaitTime> waits = stop.getWaitTimes().iterator();
+		assertScheduled(waits.next(), "099", 13);
+		assertScheduled(waits.next(), "014", 20);
+		assertTrue(RefreshLoop.fromSchedule(stop));
+	}
+
+	@Test
+	public void testStopLookedUpInScheduleWhenNoReply() throws TranslinkException {
+		translink.failure = new NoReplyException("No network", null);
+		BusStop scheduled = service.getBusStop(" 51479 ");
+
+		assertEquals(UBC_LOOP, scheduled.getStopNum());
+		assertEquals("UBC Loop Bay 7", scheduled.getLocationDesc());
+	}
+
+	@Test
+	public void testOtherFailuresPassedOn() {
+		TranslinkException[] failures = {
+			new TranslinkException(-1, "Unable to parse stop data."),
+			new TranslinkException(-1, "Too many requests to Translink: try again shortly"),
+			new TranslinkException(-1, "Translink service unavailable: try again shortly"),
+			new TranslinkException(3005, "Stop not found")
+		};
+
+		for (TranslinkException next : failures) {
+			translink.failure = next;
+			try {
+				service.addWaitTimeEstimatesToStop(stop);
+				fail("Expected " + next.getMessage());
+			} catch (TranslinkException e) {
+				assertSame(next, e);
+			}
+			try {
+				service.getBusStop(Integer.toString(UBC_LOOP));
+				fail("Expected " + next.getMessage());
+			} catch (TranslinkException e) {
+				assertSame(next, e);
+			}
+		}
+
+		assertTrue(stop.getWaitTimes().isEmpty());
+	}
+
+	@Test
+	public void testNoReplyPassedOnWhenNothingScheduled() {
+		NoReplyException failure = new NoReplyException("No network", null);
+		translink.failure = failure;
+		BusStop elsewhere = new BusStop(50001, "MAIN ST", 49.27, -123.1, null);
+
+		try {
+			service.addWaitTimeEstimatesToStop(elsewhere);
+			fail("Expected " + failure.getMessage());
+		} catch (TranslinkException e) {
+			assertSame(failure, e);
+		}
+		assertTrue(elsewhere.getWaitTimes().isEmpty());
+	}
+
+	@Test
+	public void testRealtimeWaitTimesNotFromSchedule() {
+		BusRoute route = new BusRoute("099");
+		stop.mergeWaitTimes(Arrays.asList(new BusWaitTime(route, 4, false),
+				new BusWaitTime(route, 9, false, true)));
+		assertFalse(RefreshLoop.fromSchedule(stop));
+
+		assertFalse(RefreshLoop.fromSchedule(new BusStop(50001, "MAIN ST", 49.27, -123.1, null)));
+	}
+
+	private static void assertScheduled(BusWaitTime wait, String route, int estimate) {
+		assertEquals(route, wait.getRoute().getName());
+		assertEquals(estimate, wait.getEstimate());
+		assertTrue(wait.isScheduled());
+		assertFalse(wait.isCancelled());
+	}
+
+	/**
+	 * Stands in for Translink: fails every request with the given exception
+	 */
+	private static class StandIn implements ITranslinkService {
+		volatile TranslinkException failure;
+
+		@Override
+		public void addWaitTimeEstimatesToStop(BusStop stop) throws TranslinkException {
+			throw failure;
+		}
+
+		@Override
+		public Map<BusStop, TranslinkException> addWaitTimeEstimatesToStops(Collection<BusStop> stops) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void addBusLocationsForStop(BusStop stop) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public BusStop getBusStop(String stopNum) throws TranslinkException {
+			throw failure;
+		}
+
+		@Override
+		public void parseKMZ(BusRoute route) {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
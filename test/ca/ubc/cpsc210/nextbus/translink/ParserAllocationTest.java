@@ -0,0 +1,172 @@
+package ca.ubc.cpsc210.nextbus.translink;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.lang.management.ManagementFactory;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+import ca.ubc.cpsc210.nextbus.Fixtures;
+import ca.ubc.cpsc210.nextbus.model.BusRoute;
+import ca.ubc.cpsc210.nextbus.model.BusStop;
+import ca.ubc.cpsc210.nextbus.util.Segment;
+
+/**
+ * Checks that the SAX handlers allocate only the values they keep.
+ *
+ * Each fixture is parsed many times with the handler under test and with a
+ * handler that does nothing; the difference in bytes allocated by this thread
+ * is what the handler itself allocates.  The bounds leave room for the objects
+ * that are kept (a wait time and its place in the parser's list, a bus location
+ * and its strings, the packed points of a segment) but not for a buffer or
+ * String per element, which cost several times as much.
+ */
+public class ParserAllocationTest {
+	private static final int WARMUP = 300;
+	private static final int RUNS = 300;
+
+	/**
+	 * Largest number of bytes a handler may allocate per element parsed
+	 */
+	private static final long MAX_BYTES_PER_SCHEDULE = 128;
+	private static final long MAX_BYTES_PER_BUS = 512;
+	private static final long MAX_BYTES_PER_VERTEX = 64;
+
+	private com.sun.management.ThreadMXBean threads;
+	private BusStop exchange;
+
+	@Before
+	public void setUp() throws Exception {
+		threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		threads.setThreadAllocatedMemoryEnabled(true);
+
+		BusStopParser stopParser = new BusStopParser();
+		parse(Fixtures.read("rtti/stop_60routes.xml"), stopParser);
+		exchange = stopParser.getParsedStop();
+	}
+
+	@Test
+	public void testWaitTimeParserAllocationPerSchedule() throws Exception {
+		byte[] xml = Fixtures.read("rtti/estimates_30routes.xml");
+		int schedules = Fixtures.countElements(xml, "Schedule");
+
+		long perParse = allocatedByHandler(xml, new Handlers() {
+			@Override
+			ContentHandler create() {
+				return new BusWaitTimeParser(emptyExchange());
+			}
+		});
+
+		assertBelow("bytes per Schedule", MAX_BYTES_PER_SCHEDULE, perParse / schedules);
+	}
+
+	@Test
+	public void testLocationParserAllocationPerBus() throws Exception {
+		byte[] xml = Fixtures.read("rtti/buses_150.xml");
+		int buses = Fixtures.countElements(xml, "Bus");
+
+		long perParse = allocatedByHandler(xml, new Handlers() {
+			@Override
+			ContentHandler create() {
+				return new BusLocationParser(emptyExchange());
+			}
+		});
+
+		assertBelow("bytes per Bus", MAX_BYTES_PER_BUS, perParse / buses);
+	}
+
+	@Test
+	public void testKMLParserAllocationPerVertex() throws Exception {
+		byte[] kml = Fixtures.readKML("kmz/route_large.kmz");
+		BusRoute route = new BusRoute("R4");
+		parse(kml, new KMLParser(route));
+		int vertices = 0;
+		for (Segment next : route.getSegments())
+			vertices += next.size();
+
+		long perParse = allocatedByHandler(kml, new Handlers() {
+			@Override
+			ContentHandler create() {
+				return new KMLParser(new BusRoute("R4"));
+			}
+		});
+
+		assertBelow("bytes per vertex", MAX_BYTES_PER_VERTEX, perParse / vertices);
+	}
+
+	@Test
+	public void testFixturesParseCompletely() throws Exception {
+		byte[] xml = Fixtures.read("rtti/estimates_30routes.xml");
+		BusWaitTimeParser waitTimeParser = new BusWaitTimeParser(emptyExchange());
+		parse(xml, waitTimeParser);
+		assertEquals(Fixtures.countElements(xml, "Schedule"), waitTimeParser.getWaitTimes().size());
+
+		xml = Fixtures.read("rtti/buses_150.xml");
+		BusLocationParser locationParser = new BusLocationParser(emptyExchange());
+		parse(xml, locationParser);
+		assertEquals(Fixtures.countElements(xml, "Bus"), locationParser.getBusLocations().size());
+	}
+
+	/**
+	 * Makes handlers for one fixture
+	 */
+	private abstract class Handlers {
+		abstract ContentHandler create();
+	}
+
+	/**
+	 * Produces bytes allocated per parse by handlers, over and above those
+	 * allocated by the SAX parser itself
+	 */
+	private long allocatedByHandler(byte[] xml, Handlers handlers) throws Exception {
+		ContentHandler noOp = new DefaultHandler();
+
+		for (int i = 0; i < WARMUP; i++) {
+			parse(xml, handlers.create());
+			parse(xml, noOp);
+		}
+
+		// handlers (and the stops they fill) are built up front: only parsing is measured
+		ContentHandler[] fresh = new ContentHandler[RUNS];
+		for (int i = 0; i < RUNS; i++)
+			fresh[i] = handlers.create();
+
+		long tid = Thread.currentThread().getId();
+		long start = threads.getThreadAllocatedBytes(tid);
+		for (int i = 0; i < RUNS; i++)
+			parse(xml, noOp);
+		long parserOnly = threads.getThreadAllocatedBytes(tid) - start;
+
+		start = threads.getThreadAllocatedBytes(tid);
+		for (int i = 0; i < RUNS; i++)
+			parse(xml, fresh[i]);
+		long withHandler = threads.getThreadAllocatedBytes(tid) - start;
+
+		return Math.max(0, withHandler - parserOnly) / RUNS;
+	}
+
+	private BusStop emptyExchange() {
+		return new BusStop(exchange.getStopNum(), exchange.getLocationDesc(),
+				exchange.getLatLon().getLatitude(), exchange.getLatLon().getLongitude(),
+				exchange.getRoutes());
+	}
+
+	private static void parse(byte[] xml, ContentHandler handler) throws Exception {
+		XMLReaderPool pool = XMLReaderPool.getInstance();
+		XMLReader reader = pool.acquire();
+		reader.setContentHandler(handler);
+		reader.parse(new InputSource(new ByteArrayInputStream(xml)));
+		pool.release(reader);
+	}
+
+	private static void assertBelow(String what, long bound, long actual) {
+		assertTrue(what + ": " + actual + " (bound " + bound + ")", actual <= bound);
+	}
+}
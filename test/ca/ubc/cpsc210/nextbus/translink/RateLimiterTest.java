@@ -0,0 +1,170 @@
+package ca.ubc.cpsc210.nextbus.translink;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ca.ubc.cpsc210.exception.TranslinkException;
+import ca.ubc.cpsc210.nextbus.translink.RateLimiter.Priority;
+import ca.ubc.cpsc210.nextbus.util.VirtualClock;
+
+/**
+ * Tests RateLimiter against a virtual clock.  Instead of waiting on its
+ * monitor, the limiter under test records each wait and moves the clock on by
+ * the time it would have waited, so every test runs on one thread.
+ */
+public class RateLimiterTest {
+	private static final Endpoint ENDPOINT = Endpoint.ESTIMATES;
+	private static final int CAPACITY = 10;
+	private static final int RESERVE = 2;
+	private static final long INTERACTIVE_WAIT = 3000;
+	private static final long BACKGROUND_WAIT = 10000;
+
+	private VirtualClock clock;
+	private List<Long> waits;
+	private Runnable onWait;
+
+	@Before
+	public void setUp() {
+		clock = new VirtualClock();
+		waits = new ArrayList<Long>();
+	}
+
+	@After
+	public void tearDown() {
+		RateLimiter.setPriority(Priority.INTERACTIVE);
+	}
+
+	@Test
+	public void testRefill() throws TranslinkException {
+		RateLimiter limiter = newLimiter(60);
+		for (int i = 0; i < CAPACITY; i++)
+			limiter.acquire(ENDPOINT);
+
+		assertTrue(waits.isEmpty());
+		assertEquals(0, limiter.getAvailableTokens(), 1E-9);
+		assertEquals(CAPACITY, limiter.getGrantedCount(ENDPOINT));
+
+		clock.advance(2500);
+		assertEquals(2.5, limiter.getAvailableTokens(), 1E-9);
+
+		clock.advance(60 * 1000);
+		assertEquals(CAPACITY, limiter.getAvailableTokens(), 1E-9);
+	}
+
+	@Test
+	public void testBackgroundKeepsReserve() throws TranslinkException {
+		RateLimiter limiter = newLimiter(60);
+
+		RateLimiter.setPriority(Priority.BACKGROUND);
+		for (int i = 0; i < CAPACITY - RESERVE; i++)
+			limiter.acquire(ENDPOINT);
+		assertTrue(waits.isEmpty());
+
+		// only the reserve is left: wait for a third token
+		limiter.acquire(ENDPOINT);
+		assertEquals(1, limiter.getDelayedCount(Priority.BACKGROUND));
+		assertEquals(1000, limiter.getTotalDelay(Priority.BACKGROUND), 1);
+
+		RateLimiter.setPriority(Priority.INTERACTIVE);
+		int backgroundWaits = waits.size();
+		for (int i = 0; i < RESERVE; i++)
+			limiter.acquire(ENDPOINT);
+
+		assertEquals(backgroundWaits, waits.size());
+		assertEquals(0, limiter.getDelayedCount(Priority.INTERACTIVE));
+		assertEquals(CAPACITY + 1, limiter.getGrantedCount(ENDPOINT));
+	}
+
+	@Test
+	public void testInteractivePreemptsBackground() throws TranslinkException {
+		final RateLimiter limiter = newLimiter(60);
+		for (int i = 0; i < CAPACITY; i++)
+			limiter.acquire(ENDPOINT);
+
+		// while the interactive request below waits, a background request arrives
+		// and is held back even once tokens are refilled
+		final List<TranslinkException> denials = new ArrayList<TranslinkException>();
+		onWait = new Runnable() {
+			@Override
+			public void run() {
+				RateLimiter.setPriority(Priority.BACKGROUND);
+				try {
+					limiter.acquire(ENDPOINT);
+				} catch (TranslinkException e) {
+					denials.add(e);
+				} finally {
+					RateLimiter.setPriority(Priority.INTERACTIVE);
+				}
+			}
+		};
+		limiter.acquire(ENDPOINT);
+
+		assertEquals(1, denials.size());
+		// interactive waits for a token; background for tokens, then for interactive to be done
+		assertEquals(3, waits.size());
+		assertEquals(1, limiter.getDeniedCount(Priority.BACKGROUND));
+		assertEquals(0, limiter.getDeniedCount(Priority.INTERACTIVE));
+		assertEquals(1, limiter.getDelayedCount(Priority.INTERACTIVE));
+		assertEquals(CAPACITY + 1, limiter.getGrantedCount(ENDPOINT));
+
+		// once no interactive request waits, background requests proceed
+		int previousWaits = waits.size();
+		RateLimiter.setPriority(Priority.BACKGROUND);
+		limiter.acquire(ENDPOINT);
+		assertEquals(previousWaits, waits.size());
+		assertEquals(CAPACITY + 2, limiter.getGrantedCount(ENDPOINT));
+	}
+
+	@Test
+	public void testDeniedAfterMaxWait() throws TranslinkException {
+		// a token every 10 s: longer than either request will wait
+		RateLimiter limiter = newLimiter(6);
+		for (int i = 0; i < CAPACITY; i++)
+			limiter.acquire(ENDPOINT);
+
+		long start = clock.now();
+		try {
+			limiter.acquire(ENDPOINT);
+			fail("interactive request given a token");
+		} catch (TranslinkException e) {
+			assertEquals(INTERACTIVE_WAIT, clock.now() - start);
+			assertEquals(1, limiter.getDeniedCount(Priority.INTERACTIVE));
+		}
+
+		RateLimiter.setPriority(Priority.BACKGROUND);
+		start = clock.now();
+		try {
+			limiter.acquire(ENDPOINT);
+			fail("background request given a token");
+		} catch (TranslinkException e) {
+			assertEquals(BACKGROUND_WAIT, clock.now() - start);
+			assertEquals(1, limiter.getDeniedCount(Priority.BACKGROUND));
+		}
+
+		assertEquals(CAPACITY, limiter.getGrantedCount(ENDPOINT));
+		assertEquals(0, limiter.getDelayedCount(Priority.INTERACTIVE));
+		assertEquals(0, limiter.getDelayedCount(Priority.BACKGROUND));
+	}
+
+	private RateLimiter newLimiter(int requestsPerMinute) {
+		return new RateLimiter(clock, CAPACITY, requestsPerMinute, RESERVE, INTERACTIVE_WAIT, BACKGROUND_WAIT) {
+			@Override
+			void await(long ms) {
+				waits.add(ms);
+				Runnable arriving = onWait;
+				onWait = null;
+				if (arriving != null)
+					arriving.run();
+				clock.advance(ms);
+			}
+		};
+	}
+}
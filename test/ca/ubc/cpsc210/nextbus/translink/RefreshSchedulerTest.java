@@ -0,0 +1,186 @@
+package ca.ubc.cpsc210.nextbus.translink;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import ca.ubc.cpsc210.nextbus.model.BusRoute;
+import ca.ubc.cpsc210.nextbus.model.BusStop;
+import ca.ubc.cpsc210.nextbus.model.BusWaitTime;
+import ca.ubc.cpsc210.nextbus.translink.RefreshScheduler.Kind;
+import ca.ubc.cpsc210.nextbus.translink.RefreshScheduler.Poll;
+import ca.ubc.cpsc210.nextbus.util.VirtualClock;
+
+/**
+ * Tests RefreshScheduler against a virtual clock
+ */
+public class RefreshSchedulerTest {
+	private static final int BUDGET = 10;
+	private static final long MINUTE = 60 * 1000;
+
+	private VirtualClock clock;
+	private RefreshScheduler scheduler;
+	private BusRoute route;
+
+	@Before
+	public void setUp() {
+		clock = new VirtualClock();
+		scheduler = new RefreshScheduler(clock, BUDGET);
+		route = new BusRoute("099");
+	}
+
+	@Test
+	public void testWatchedStopPolledAtOnceThenOnSchedule() {
+		BusStop stop = stop(1);
+		scheduler.watch(stop, Kind.WAIT_TIMES, true);
+
+		Poll poll = takeOne();
+		assertEquals(0, scheduler.takeDue().size());
+		assertEquals(Long.MAX_VALUE, scheduler.nextWakeup());
+
+		scheduler.completed(poll, true);
+		assertEquals(clock.now() + RefreshScheduler.UNKNOWN_INTERVAL, scheduler.nextWakeup());
+
+		clock.advance(RefreshScheduler.UNKNOWN_INTERVAL - 1);
+		assertEquals(0, scheduler.takeDue().size());
+		clock.advance(1);
+		assertSame(poll, takeOne());
+	}
+
+	@Test
+	public void testWatchAgainWhilePollInFlightDoesNotPollTwice() {
+		BusStop stop = stop(1);
+		scheduler.watch(stop, Kind.BUS_LOCATIONS, true);
+		Poll poll = takeOne();
+
+		scheduler.unwatch(stop, Kind.BUS_LOCATIONS);
+		scheduler.watch(stop, Kind.BUS_LOCATIONS, true);
+		assertEquals(0, scheduler.takeDue().size());
+
+		scheduler.completed(poll, true);
+		clock.advance(RefreshScheduler.UNKNOWN_INTERVAL);
+		assertSame(poll, takeOne());
+	}
+
+	@Test
+	public void testUnwatchedWhilePollInFlightNotPolledAgain() {
+		BusStop stop = stop(1);
+		scheduler.watch(stop, Kind.WAIT_TIMES, true);
+		Poll poll = takeOne();
+
+		scheduler.unwatch(stop, Kind.WAIT_TIMES);
+		scheduler.completed(poll, true);
+		clock.advance(RefreshScheduler.MAX_DELAY);
+		assertEquals(0, scheduler.takeDue().size());
+		assertEquals(Long.MAX_VALUE, scheduler.nextWakeup());
+
+		// watching again after completion polls at once
+		scheduler.watch(stop, Kind.WAIT_TIMES, true);
+		assertEquals(1, scheduler.takeDue().size());
+	}
+
+	@Test
+	public void testIntervalFollowsNextBus() {
+		assertEquals(RefreshScheduler.UNKNOWN_INTERVAL, RefreshScheduler.intervalFor(stop(1), true, 0));
+		assertEquals(RefreshScheduler.MIN_INTERVAL, RefreshScheduler.intervalFor(stop(1, 2, 20), true, 0));
+		assertEquals(RefreshScheduler.MAX_INTERVAL, RefreshScheduler.intervalFor(stop(1, 45), true, 0));
+
+		long midway = RefreshScheduler.intervalFor(stop(1, 20), true, 0);
+		assertTrue(midway > RefreshScheduler.MIN_INTERVAL && midway < RefreshScheduler.MAX_INTERVAL);
+
+		// cancelled buses are ignored
+		BusStop cancelled = stop(1);
+		cancelled.mergeWaitTimes(Arrays.asList(new BusWaitTime(route, 2, true), new BusWaitTime(route, 45, false)));
+		assertEquals(RefreshScheduler.MAX_INTERVAL, RefreshScheduler.intervalFor(cancelled, true, 0));
+	}
+
+	@Test
+	public void testOffscreenStopsSlowedAndFailuresBackOff() {
+		BusStop near = stop(1, 2);
+		long interval = RefreshScheduler.MIN_INTERVAL;
+
+		assertEquals(interval * RefreshScheduler.OFFSCREEN_FACTOR, RefreshScheduler.intervalFor(near, false, 0));
+		assertEquals(interval * 2, RefreshScheduler.intervalFor(near, true, 1));
+		assertEquals(interval * 8, RefreshScheduler.intervalFor(near, true, 3));
+		assertEquals(RefreshScheduler.MAX_DELAY, RefreshScheduler.intervalFor(near, true, 20));
+		assertEquals(RefreshScheduler.MAX_DELAY, RefreshScheduler.intervalFor(stop(1, 45), false, 2));
+	}
+
+	@Test
+	public void testFailedPollRetriedAfterBackOff() {
+		BusStop stop = stop(1, 2);
+		scheduler.watch(stop, Kind.WAIT_TIMES, true);
+		Poll poll = takeOne();
+
+		scheduler.completed(poll, false);
+		clock.advance(RefreshScheduler.MIN_INTERVAL);
+		assertEquals(0, scheduler.takeDue().size());
+		clock.advance(RefreshScheduler.MIN_INTERVAL);
+		assertSame(poll, takeOne());
+
+		scheduler.completed(poll, true);
+		assertEquals(clock.now() + RefreshScheduler.MIN_INTERVAL, scheduler.nextWakeup());
+	}
+
+	/**
+	 * 200 stops, 20 of them on screen, with no buses expected: far more polls
+	 * are due than the budget allows.  Over 10 minutes, the budget is spent in
+	 * one burst and then at its rate, and stops on screen are polled first.
+	 */
+	@Test
+	public void testBudgetSharedByManyStops() {
+		List<BusStop> stops = new ArrayList<BusStop>();
+		for (int i = 0; i < 200; i++) {
+			BusStop stop = stop(i);
+			stops.add(stop);
+			scheduler.watch(stop, Kind.WAIT_TIMES, i % 10 == 0);
+		}
+
+		List<Poll> first = scheduler.takeDue();
+		assertEquals(BUDGET, first.size());
+		for (Poll next : first)
+			assertEquals(0, next.getStop().getStopNum() % 10);
+		for (Poll next : first)
+			scheduler.completed(next, true);
+
+		int polls = first.size();
+		long end = clock.now() + 10 * MINUTE;
+		while (clock.now() < end) {
+			long wakeup = scheduler.nextWakeup();
+			assertTrue(wakeup > clock.now());
+			clock.advance(Math.min(wakeup, end) - clock.now());
+
+			for (Poll next : scheduler.takeDue()) {
+				polls++;
+				scheduler.completed(next, true);
+			}
+		}
+
+		assertEquals(BUDGET + 10 * BUDGET, polls);
+	}
+
+	private Poll takeOne() {
+		List<Poll> due = scheduler.takeDue();
+		assertEquals(1, due.size());
+		return due.get(0);
+	}
+
+	/**
+	 * Produces stop served by one route, with buses expected in given numbers of minutes
+	 */
+	private BusStop stop(int stopNum, int... minutes) {
+		BusStop stop = new BusStop(50000 + stopNum, "STOP " + stopNum, 49.26, -123.25, null);
+		List<BusWaitTime> waits = new ArrayList<BusWaitTime>();
+		for (int next : minutes)
+			waits.add(new BusWaitTime(route, next, false));
+		stop.mergeWaitTimes(waits);
+		return stop;
+	}
+}
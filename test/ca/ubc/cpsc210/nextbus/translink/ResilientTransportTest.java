@@ -0,0 +1,108 @@
+package ca.ubc.cpsc210.nextbus.translink;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import ca.ubc.cpsc210.exception.TranslinkException;
+import ca.ubc.cpsc210.nextbus.util.Clock;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Tests how ResilientTransport combines circuit breakers, retries and the rate
+ * limiter.  Requests that must fail reach a closed port or a local server
+ * standing in for a failing Translink.
+ */
+public class ResilientTransportTest {
+	private static final Endpoint ENDPOINT = Endpoint.BUSES;
+	private static final String URL = "http://127.0.0.1:9/buses";
+	private static final int RETRIES = 2;
+	private static final long BASE_BACKOFF = 200;
+
+	@Test
+	public void testRejectedRequestsTakeNoTokens() {
+		ResilientTransport transport = newTransport();
+		CircuitBreaker breaker = transport.getBreaker(ENDPOINT);
+		while (breaker.getState() != CircuitBreaker.State.OPEN)
+			breaker.recordFailure();
+		long start = System.currentTimeMillis();
+
+		// more requests than the limiter's burst: none may wait for a token
+		for (int i = 0; i < 50; i++) {
+			try {
+				transport.get(ENDPOINT, URL);
+				fail("request made while breaker open");
+			} catch (TranslinkException e) {
+				// expected
+			}
+		}
+
+		assertTrue("requests waited", System.currentTimeMillis() - start < 1000);
+		assertEquals(0, transport.getRateLimiter().getGrantedCount(ENDPOINT));
+		assertEquals(50, transport.getRejectedCount(ENDPOINT));
+		assertEquals(0, transport.getDeniedCount(ENDPOINT));
+	}
+
+	@Test
+	public void testRetriedRequestCountsOnceTowardsBreaker() {
+		ResilientTransport own = newTransport();
+
+		try {
+			own.get(ENDPOINT, URL);
+			fail("request to closed port succeeded");
+		} catch (TranslinkException e) {
+			assertTrue(e.getCause() instanceof ConnectException);
+		}
+
+		assertEquals(RETRIES, own.getRetryCount(ENDPOINT));
+		assertEquals(CircuitBreaker.State.CLOSED, own.getBreaker(ENDPOINT).getState());
+	}
+
+	@Test
+	public void testNoRetryOnceBreakerOpen() throws IOException, TranslinkException {
+		final ResilientTransport own = newTransport();
+		final AtomicInteger hits = new AtomicInteger();
+		HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				// other requests fail meanwhile and open the breaker
+				hits.incrementAndGet();
+				CircuitBreaker other = own.getBreaker(ENDPOINT);
+				while (other.getState() != CircuitBreaker.State.OPEN)
+					other.recordFailure();
+				exchange.sendResponseHeaders(503, -1);
+				exchange.close();
+			}
+		});
+		server.start();
+
+		try {
+			long start = System.currentTimeMillis();
+			HttpTransport.Response response =
+					own.get(ENDPOINT, "http://127.0.0.1:" + server.getAddress().getPort() + "/buses");
+
+			assertEquals(503, response.getStatus());
+			assertTrue("retry waited", System.currentTimeMillis() - start < BASE_BACKOFF);
+			assertEquals(1, hits.get());
+			assertEquals(0, own.getRetryCount(ENDPOINT));
+		} finally {
+			server.stop(0);
+		}
+	}
+
+	private static ResilientTransport newTransport() {
+		return new ResilientTransport(HttpTransport.getInstance(),
+				new RateLimiter(Clock.SYSTEM, 10, 60, 2, 3000, 10000));
+	}
+}
@@ -0,0 +1,229 @@
+package ca.ubc.cpsc210.nextbus.translink;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.lang.management.ManagementFactory;
+import java.util.Collection;
+import java.util.Map;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.xml.sax.InputSource;
+
+import ca.ubc.cpsc210.exception.TranslinkException;
+import ca.ubc.cpsc210.nextbus.Fixtures;
+import ca.ubc.cpsc210.nextbus.model.BusRoute;
+import ca.ubc.cpsc210.nextbus.model.BusStop;
+import ca.ubc.cpsc210.nextbus.util.Clock;
+
+/**
+ * Tests TranslinkMetrics: its table of error codes, that recording does not
+ * allocate, that parses are recorded whether or not they complete, and the
+ * snapshot it produces.  Snapshots are read as JSON, so these tests need a real
+ * org.json ahead of android.jar on the classpath (see README).
+ */
+public class TranslinkMetricsTest {
+	private static final int RECORDS = 100000;
+
+	/**
+	 * Largest number of bytes recording may allocate in all.  This leaves room
+	 * for the JIT and for reading the allocation counter, but even one object per
+	 * hundred records would take more than this.
+	 */
+	private static final long MAX_ALLOCATED = 8 * 1024;
+
+	@Test
+	public void testErrorCodesCountedApart() throws JSONException {
+		TranslinkMetrics.ErrorCounts errors = new TranslinkMetrics.ErrorCounts();
+		int[] codes = { -1, TranslinkMetrics.PARSE_ERROR, 0, 3005, 503, Integer.MIN_VALUE, Integer.MAX_VALUE };
+		for (int i = 0; i < codes.length; i++) {
+			for (int j = 0; j <= i; j++)
+				errors.increment(codes[i]);
+		}
+
+		for (int i = 0; i < codes.length; i++)
+			assertEquals(i + 1, errors.get(codes[i]));
+		assertEquals(0, errors.get(3004));
+
+		JSONObject json = errors.toJSON();
+		assertEquals(codes.length, json.length());
+		assertEquals(4, json.getInt("3005"));
+		assertEquals(1, json.getInt("-1"));
+		assertFalse(json.has("other"));
+	}
+
+	@Test
+	public void testFullTableCountsFurtherCodesAsOther() throws JSONException {
+		TranslinkMetrics.ErrorCounts errors = new TranslinkMetrics.ErrorCounts();
+		// as many codes as slots: some must probe past slots taken by others
+		for (int code = 3000; code < 3000 + TranslinkMetrics.ERROR_CODE_SLOTS; code++) {
+			for (int j = 0; j < code % 5 + 1; j++)
+				errors.increment(code);
+		}
+		errors.increment(-1);
+		errors.increment(-1);
+
+		for (int code = 3000; code < 3000 + TranslinkMetrics.ERROR_CODE_SLOTS; code++)
+			assertEquals(code % 5 + 1, errors.get(code));
+		assertEquals(0, errors.get(-1));
+		assertEquals(2, errors.toJSON().getInt("other"));
+
+		errors.reset();
+		assertEquals(0, errors.get(3000));
+		errors.increment(-1);
+		assertEquals(1, errors.get(-1));
+		assertEquals(1, errors.toJSON().length());
+	}
+
+	@Test
+	public void testConcurrentIncrementsAllCounted() throws InterruptedException {
+		final TranslinkMetrics.ErrorCounts errors = new TranslinkMetrics.ErrorCounts();
+		final int codes = 8;
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					for (int i = 0; i < 1000; i++) {
+						for (int code = 0; code < codes; code++)
+							errors.increment(code * 1000);
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread next : threads)
+			next.join();
+
+		for (int code = 0; code < codes; code++)
+			assertEquals(threads.length * 1000, errors.get(code * 1000));
+	}
+
+	@Test
+	public void testRecordingDoesNotAllocate() {
+		com.sun.management.ThreadMXBean threads =
+				(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		threads.setThreadAllocatedMemoryEnabled(true);
+		TranslinkMetrics metrics = new TranslinkMetrics();
+
+		record(metrics);
+		long tid = Thread.currentThread().getId();
+		long before = threads.getThreadAllocatedBytes(tid);
+		record(metrics);
+		long allocated = threads.getThreadAllocatedBytes(tid) - before;
+
+		assertTrue("allocated " + allocated + " bytes", allocated <= MAX_ALLOCATED);
+		assertEquals(2 * RECORDS, metrics.getHistogram(Endpoint.BUSES, TranslinkMetrics.Phase.PARSE).getCount());
+		assertEquals(2 * RECORDS / 4, metrics.getErrorCount(Endpoint.KMZ, 3005));
+	}
+
+	@Test
+	public void testFailedParseRecorded() {
+		TranslinkMetrics metrics = TranslinkMetrics.getInstance();
+		long parses = metrics.getHistogram(Endpoint.STOPS, TranslinkMetrics.Phase.PARSE).getCount();
+		int errors = metrics.getErrorCount(Endpoint.STOPS, TranslinkMetrics.PARSE_ERROR);
+		Responses responses = new Responses();
+
+		try {
+			responses.stop("<Stop><StopNo>51479</StopNo><Name>UBC".getBytes());
+			fail("truncated response parsed");
+		} catch (TranslinkException e) {
+			// expected
+		}
+		assertEquals(parses + 1, metrics.getHistogram(Endpoint.STOPS, TranslinkMetrics.Phase.PARSE).getCount());
+		assertEquals(errors + 1, metrics.getErrorCount(Endpoint.STOPS, TranslinkMetrics.PARSE_ERROR));
+
+		try {
+			responses.stop(Fixtures.read("rtti/stop_2routes.xml"));
+		} catch (Exception e) {
+			fail(e.toString());
+		}
+		assertEquals(parses + 2, metrics.getHistogram(Endpoint.STOPS, TranslinkMetrics.Phase.PARSE).getCount());
+		assertEquals(errors + 1, metrics.getErrorCount(Endpoint.STOPS, TranslinkMetrics.PARSE_ERROR));
+	}
+
+	@Test
+	public void testSnapshotReportsBreakersAndRateLimiter() throws JSONException {
+		ResilientTransport transport = new ResilientTransport(HttpTransport.getInstance(),
+				new RateLimiter(Clock.SYSTEM, 10, 60, 2, 3000, 10000));
+		CircuitBreaker breaker = transport.getBreaker(Endpoint.BUSES);
+		while (breaker.getState() != CircuitBreaker.State.OPEN)
+			breaker.recordFailure();
+
+		try {
+			transport.get(Endpoint.BUSES, "http://127.0.0.1:9/buses");
+			fail("request made while breaker open");
+		} catch (TranslinkException e) {
+			// expected
+		}
+		try {
+			transport.getRateLimiter().acquire(Endpoint.ESTIMATES);
+		} catch (TranslinkException e) {
+			fail(e.getMessage());
+		}
+
+		JSONObject json = TranslinkMetrics.getInstance().toJSON(transport);
+
+		JSONObject buses = json.getJSONObject("BUSES");
+		assertEquals("OPEN", buses.getJSONObject("breaker").getString("state"));
+		assertEquals(1, buses.getJSONObject("breaker").getInt("trips"));
+		assertEquals(1, buses.getJSONObject("breaker").getInt("rejected"));
+		assertEquals(0, buses.getInt("retries"));
+		assertEquals("CLOSED", json.getJSONObject("ESTIMATES").getJSONObject("breaker").getString("state"));
+
+		JSONObject limiter = json.getJSONObject("rateLimiter");
+		assertEquals(1, limiter.getJSONObject("granted").getInt("ESTIMATES"));
+		assertEquals(0, limiter.getJSONObject("granted").getInt("BUSES"));
+		assertEquals(0, limiter.getJSONObject("INTERACTIVE").getInt("delayed"));
+		assertEquals(0, limiter.getJSONObject("INTERACTIVE").getInt("denied"));
+		assertEquals(9, limiter.getDouble("availableTokens"), 0.5);
+	}
+
+	private static void record(TranslinkMetrics metrics) {
+		for (int i = 0; i < RECORDS; i++) {
+			metrics.record(Endpoint.BUSES, TranslinkMetrics.Phase.PARSE, i * 1000L);
+			metrics.recordBytes(Endpoint.BUSES, i);
+			if (i % 4 == 0)
+				metrics.recordError(Endpoint.KMZ, 3005);
+		}
+	}
+
+	/**
+	 * Parses responses as the service parses responses from Translink
+	 */
+	private static class Responses extends AbstractTranslinkService {
+		BusStop stop(byte[] xml) throws TranslinkException {
+			return parseBusStopFromXML(new InputSource(new ByteArrayInputStream(xml)));
+		}
+
+		@Override
+		public void addWaitTimeEstimatesToStop(BusStop stop) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public Map<BusStop, TranslinkException> addWaitTimeEstimatesToStops(Collection<BusStop> stops) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void addBusLocationsForStop(BusStop stop) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public BusStop getBusStop(String stopNum) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void parseKMZ(BusRoute route) {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
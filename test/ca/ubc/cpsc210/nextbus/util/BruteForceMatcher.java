@@ -0,0 +1,86 @@
+package ca.ubc.cpsc210.nextbus.util;
+
+import java.util.List;
+
+/**
+ * Finds the point of a route nearest to a location by examining every edge,
+ * as map matching did before SegmentIndex.  Points are projected onto a plane
+ * as SegmentIndex projects them, so that distances can be compared exactly.
+ */
+class BruteForceMatcher {
+	private double originLat;
+	private double originLon;
+	private double kx;
+	private double ky;
+	private double[][] xs;
+	private double[][] ys;
+
+	/**
+	 * Constructor
+	 * @param segments  the segments of a route (at least one point in all)
+	 */
+	BruteForceMatcher(List<Segment> segments) {
+		double minLat = Double.MAX_VALUE, maxLat = -Double.MAX_VALUE;
+		double minLon = Double.MAX_VALUE;
+		for (Segment seg : segments) {
+			for (int i = 0; i < seg.size(); i++) {
+				minLat = Math.min(minLat, seg.getLatitude(i));
+				maxLat = Math.max(maxLat, seg.getLatitude(i));
+				minLon = Math.min(minLon, seg.getLongitude(i));
+			}
+		}
+
+		originLat = minLat;
+		originLon = minLon;
+		ky = GeoMath.METRES_PER_DEGREE;
+		kx = ky * Math.cos(Math.toRadians((minLat + maxLat) / 2));
+
+		xs = new double[segments.size()][];
+		ys = new double[segments.size()][];
+		for (int k = 0; k < segments.size(); k++) {
+			Segment seg = segments.get(k);
+			xs[k] = new double[seg.size()];
+			ys[k] = new double[seg.size()];
+			for (int i = 0; i < seg.size(); i++) {
+				xs[k][i] = (seg.getLongitude(i) - originLon) * kx;
+				ys[k][i] = (seg.getLatitude(i) - originLat) * ky;
+			}
+		}
+	}
+
+	/**
+	 * Produces distance from a location to the nearest point of any segment
+	 * @param lat          latitude of location
+	 * @param lon          longitude of location
+	 * @param maxDistance  largest distance (m) of interest
+	 * @return distance in metres, or NaN if no segment passes within maxDistance
+	 */
+	double nearestDistance(double lat, double lon, double maxDistance) {
+		double px = (lon - originLon) * kx;
+		double py = (lat - originLat) * ky;
+		double bestSquared = maxDistance * maxDistance;
+		boolean found = false;
+
+		for (int k = 0; k < xs.length; k++) {
+			for (int i = 0; i + 1 < xs[k].length; i++) {
+				double ax = xs[k][i];
+				double ay = ys[k][i];
+				double dx = xs[k][i + 1] - ax;
+				double dy = ys[k][i + 1] - ay;
+				double lengthSquared = dx * dx + dy * dy;
+				double t = (lengthSquared == 0) ? 0 : ((px - ax) * dx + (py - ay) * dy) / lengthSquared;
+				t = Math.max(0, Math.min(1, t));
+				double ex = ax + t * dx - px;
+				double ey = ay + t * dy - py;
+				double distSquared = ex * ex + ey * ey;
+
+				if (distSquared <= bestSquared) {
+					bestSquared = distSquared;
+					found = true;
+				}
+			}
+		}
+
+		return found ? Math.sqrt(bestSquared) : Double.NaN;
+	}
+}
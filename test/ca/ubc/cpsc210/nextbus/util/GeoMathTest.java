@@ -0,0 +1,36 @@
+package ca.ubc.cpsc210.nextbus.util;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Tests GeoMath against distances and bearings known independently
+ */
+public class GeoMathTest {
+	@Test
+	public void testDistance() {
+		assertEquals(0, GeoMath.distance(49.26, -123.25, 49.26, -123.25), 0);
+		assertEquals(GeoMath.METRES_PER_DEGREE, GeoMath.distance(0, 0, 1, 0), 1E-6);
+		assertEquals(GeoMath.METRES_PER_DEGREE, GeoMath.distance(0, 179.5, 0, -179.5), 1E-6);
+		assertEquals(Math.PI * GeoMath.EARTH_RADIUS, GeoMath.distance(0, 0, 0, 180), 1E-6);
+
+		// UBC Loop to Waterfront Station, about 10.1 km
+		assertEquals(10100, GeoMath.distance(49.2663, -123.2470, 49.2856, -123.1115), 100);
+	}
+
+	@Test
+	public void testDistanceIsSymmetric() {
+		assertEquals(GeoMath.distance(49.2663, -123.2470, 49.2856, -123.1115),
+				GeoMath.distance(49.2856, -123.1115, 49.2663, -123.2470), 1E-9);
+	}
+
+	@Test
+	public void testBearing() {
+		assertEquals(0, GeoMath.bearing(49, -123, 50, -123), 1E-9);
+		assertEquals(180, GeoMath.bearing(50, -123, 49, -123), 1E-9);
+		assertEquals(90, GeoMath.bearing(0, 10, 0, 11), 1E-9);
+		assertEquals(270, GeoMath.bearing(0, 11, 0, 10), 1E-9);
+		assertEquals(90, GeoMath.bearing(0, 179.5, 0, -179.5), 1E-9);
+	}
+}
@@ -0,0 +1,113 @@
+package ca.ubc.cpsc210.nextbus.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests bucketing and percentiles of Histogram.  Values below 64 have a bucket
+ * each; above that, each power of two is split into 32 buckets.
+ */
+public class HistogramTest {
+	private Histogram histogram;
+
+	@Before
+	public void setUp() {
+		histogram = new Histogram();
+	}
+
+	@Test
+	public void testEmpty() {
+		assertEquals(0, histogram.getCount());
+		assertEquals(0, histogram.getMean(), 0);
+		assertEquals(0, histogram.getMax());
+		assertEquals(0, histogram.getValueAtPercentile(50));
+	}
+
+	@Test
+	public void testSmallValuesExact() {
+		for (int i = 0; i < 64; i++)
+			histogram.record(i);
+
+		assertEquals(64, histogram.getCount());
+		assertEquals(63 * 64 / 2, histogram.getSum());
+		assertEquals(31.5, histogram.getMean(), 1E-9);
+		assertEquals(0, histogram.getValueAtPercentile(0));
+		assertEquals(31, histogram.getValueAtPercentile(50));
+		assertEquals(57, histogram.getValueAtPercentile(90));
+		assertEquals(63, histogram.getValueAtPercentile(100));
+	}
+
+	@Test
+	public void testBucketBoundaries() {
+		// 64 and 65 share a bucket, whose largest value is 65
+		histogram.record(64);
+		assertEquals(64, histogram.getValueAtPercentile(50));
+		histogram.record(65);
+		histogram.record(1000);
+		assertEquals(65, histogram.getValueAtPercentile(50));
+
+		// 66 starts the next bucket
+		Histogram next = new Histogram();
+		next.record(66);
+		next.record(1000);
+		assertEquals(67, next.getValueAtPercentile(50));
+
+		// above 2^10, buckets are 32 wide
+		Histogram wide = new Histogram();
+		wide.record(1024);
+		wide.record(5000);
+		assertEquals(1055, wide.getValueAtPercentile(50));
+		assertEquals(5000, wide.getValueAtPercentile(100));
+	}
+
+	@Test
+	public void testPercentileWithinBucketError() {
+		for (long value = 1; value < Histogram.MAX_VALUE; value = value * 3 + 1) {
+			Histogram single = new Histogram();
+			single.record(value);
+			single.record(Histogram.MAX_VALUE);
+			long reported = single.getValueAtPercentile(50);
+
+			assertTrue(value + " reported as " + reported, reported >= value);
+			assertTrue(value + " reported as " + reported, reported - value <= value / 32);
+		}
+	}
+
+	@Test
+	public void testPercentileRanks() {
+		for (int i = 0; i < 99; i++)
+			histogram.record(10);
+		histogram.record(5000);
+
+		assertEquals(10, histogram.getValueAtPercentile(50));
+		assertEquals(10, histogram.getValueAtPercentile(99));
+		assertEquals(5000, histogram.getValueAtPercentile(99.9));
+		assertEquals(5000, histogram.getMax());
+	}
+
+	@Test
+	public void testOutOfRangeValuesClamped() {
+		histogram.record(-5);
+		assertEquals(0, histogram.getValueAtPercentile(100));
+
+		histogram.record(Long.MAX_VALUE);
+		assertEquals(Histogram.MAX_VALUE, histogram.getMax());
+		assertEquals(Histogram.MAX_VALUE, histogram.getValueAtPercentile(100));
+		assertEquals(Histogram.MAX_VALUE, histogram.getSum());
+	}
+
+	@Test
+	public void testReset() {
+		histogram.record(100);
+		histogram.record(200);
+		histogram.reset();
+
+		assertEquals(0, histogram.getCount());
+		assertEquals(0, histogram.getSum());
+		assertEquals(0, histogram.getMax());
+		assertEquals(0, histogram.getValueAtPercentile(99));
+	}
+}
@@ -0,0 +1,95 @@
+package ca.ubc.cpsc210.nextbus.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import ca.ubc.cpsc210.nextbus.Fixtures;
+import ca.ubc.cpsc210.nextbus.model.PositionEstimator;
+
+/**
+ * Tests SegmentIndex against a search of every edge, on the largest route fixture
+ */
+public class SegmentIndexTest {
+	private static final int QUERIES = 2000;
+	private static final double TOLERANCE = 1e-6;
+
+	private List<Segment> segments;
+	private SegmentIndex index;
+	private BruteForceMatcher bruteForce;
+
+	@Before
+	public void setUp() throws Exception {
+		segments = Fixtures.readRoute("kmz/route_large.kmz", "R4").getSegments();
+		index = new SegmentIndex(segments);
+		bruteForce = new BruteForceMatcher(segments);
+	}
+
+	@Test
+	public void testNearestMatchesBruteForce() {
+		Random random = new Random(18);
+
+		for (int q = 0; q < QUERIES; q++) {
+			// half the queries lie near the route, half anywhere around it
+			double[] query = (q % 2 == 0) ? nearRoute(random, 80) : nearRoute(random, 2000);
+			double maxDistance = (q % 4 < 2) ? PositionEstimator.MAX_SNAP_DISTANCE : 1000;
+
+			SegmentIndex.Match match = index.nearest(query[0], query[1], maxDistance);
+			double expected = bruteForce.nearestDistance(query[0], query[1], maxDistance);
+
+			if (Double.isNaN(expected)) {
+				assertNull("query " + q, match);
+				continue;
+			}
+
+			assertNotNull("query " + q, match);
+			assertEquals("query " + q, expected, match.getDistance(), TOLERANCE);
+
+			// point at the match's distance along its segment is the point matched on its edge
+			Segment seg = segments.get(match.getSegment());
+			int e = match.getEdge();
+			double t = match.getFraction();
+			LatLon point = index.pointAt(match.getSegment(), match.getDistanceAlong());
+			assertEquals("query " + q, seg.getLatitude(e) + t * (seg.getLatitude(e + 1) - seg.getLatitude(e)),
+					point.getLatitude(), TOLERANCE);
+			assertEquals("query " + q, seg.getLongitude(e) + t * (seg.getLongitude(e + 1) - seg.getLongitude(e)),
+					point.getLongitude(), TOLERANCE);
+		}
+	}
+
+	@Test
+	public void testPointAtEndsOfSegment() {
+		for (int k = 0; k < index.getSegmentCount(); k++) {
+			Segment seg = segments.get(k);
+			int last = seg.size() - 1;
+
+			LatLon start = index.pointAt(k, -1);
+			assertEquals(seg.getLatitude(0), start.getLatitude(), TOLERANCE);
+			assertEquals(seg.getLongitude(0), start.getLongitude(), TOLERANCE);
+
+			LatLon end = index.pointAt(k, index.getLength(k) + 1);
+			assertEquals(seg.getLatitude(last), end.getLatitude(), TOLERANCE);
+			assertEquals(seg.getLongitude(last), end.getLongitude(), TOLERANCE);
+			assertTrue(index.getLength(k) > 0);
+		}
+	}
+
+	/**
+	 * Produces a location up to given distance (m) north or south and east or west of a random point of the route
+	 */
+	private double[] nearRoute(Random random, double spread) {
+		Segment seg = segments.get(random.nextInt(segments.size()));
+		int i = random.nextInt(seg.size());
+		double metresPerDegreeLon = GeoMath.METRES_PER_DEGREE * Math.cos(Math.toRadians(seg.getLatitude(i)));
+		double lat = seg.getLatitude(i) + (random.nextDouble() * 2 - 1) * spread / GeoMath.METRES_PER_DEGREE;
+		double lon = seg.getLongitude(i) + (random.nextDouble() * 2 - 1) * spread / metresPerDegreeLon;
+		return new double[] { lat, lon };
+	}
+}
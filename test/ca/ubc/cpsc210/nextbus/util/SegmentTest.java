@@ -0,0 +1,62 @@
+package ca.ubc.cpsc210.nextbus.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the packed points of a Segment
+ */
+public class SegmentTest {
+	private Segment segment;
+
+	@Before
+	public void setUp() {
+		segment = new Segment(4);
+		segment.addPoint(49.262347, -123.250104);
+		segment.addPointE6(49263000, -123251000);
+	}
+
+	@Test
+	public void testPointsPackedToMicrodegrees() {
+		assertEquals(2, segment.size());
+		assertEquals(49262347, segment.getLatitudeE6(0));
+		assertEquals(-123250104, segment.getLongitudeE6(0));
+		assertEquals(49.263, segment.getLatitude(1), 1E-9);
+		assertEquals(-123.251, segment.getLongitude(1), 1E-9);
+	}
+
+	@Test
+	public void testGrowsAndTrims() {
+		for (int i = 0; i < 100; i++)
+			segment.addPointE6(i, -i);
+		segment.trimToSize();
+
+		assertEquals(102, segment.size());
+		assertEquals(99, segment.getLatitudeE6(101));
+		assertEquals(-99, segment.getLongitudeE6(101));
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void testIndexInSpareCapacity() {
+		segment.getLatitude(2);
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void testNegativeIndex() {
+		segment.getLongitudeE6(-1);
+	}
+
+	@SuppressWarnings("deprecation")
+	@Test
+	public void testPointsAsLatLon() {
+		List<LatLon> points = segment.getPoints();
+
+		assertEquals(2, points.size());
+		assertEquals(49.262347, points.get(0).getLatitude(), 1E-9);
+		assertEquals(-123.251, points.get(1).getLongitude(), 1E-9);
+	}
+}
@@ -0,0 +1,21 @@
+package ca.ubc.cpsc210.nextbus.util;
+
+/**
+ * Clock whose time moves only when a test advances it
+ */
+public class VirtualClock implements Clock {
+	private volatile long now = 1500000000000L;
+
+	@Override
+	public long now() {
+		return now;
+	}
+
+	/**
+	 * Move clock forward
+	 * @param ms  time to advance clock by
+	 */
+	public void advance(long ms) {
+		now += ms;
+	}
+}